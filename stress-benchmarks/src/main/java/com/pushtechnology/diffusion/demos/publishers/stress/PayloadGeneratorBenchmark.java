@@ -0,0 +1,94 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+
+package com.pushtechnology.diffusion.demos.publishers.stress;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures generating the content of an update with a
+ * {@link PayloadGenerator}: changing the entries of the record, rendering
+ * and encoding it, then framing it with room for the stamp and any checksum
+ * trailer.
+ * <P>
+ * The generator is not started, so records are generated on the benchmark
+ * thread rather than ahead of it, giving the cost the generating thread
+ * pays for each update. The minimum and maximum sizes, change fraction and
+ * compressibility are the publisher's defaults for the message size. Run
+ * with the {@code gc} profiler to see the bytes allocated by each record,
+ * for example:
+ *
+ * <pre>
+ * java -jar stress-benchmarks/target/benchmarks.jar PayloadGeneratorBenchmark \
+ *     -prof gc
+ * </pre>
+ *
+ * @author Push Technology Limited
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PayloadGeneratorBenchmark {
+
+    @Param({"fixed", "lognormal"})
+    private String theDistribution;
+
+    @Param({"516", "4096"})
+    private int theSize;
+
+    @Param({"false", "true"})
+    private boolean isChecksumming;
+
+    private PayloadGenerator theGenerator;
+
+    /**
+     * Create the generator.
+     */
+    @Setup
+    public void setUp() {
+        theGenerator = new PayloadGenerator(
+            PayloadGenerator.SizeDistribution.parse(theDistribution),
+            theSize,
+            theSize / 2,
+            theSize * 2,
+            0.2,
+            0.5,
+            1,
+            new PayloadFormat(true, isChecksumming));
+    }
+
+    /**
+     * @return the next record
+     */
+    @Benchmark
+    public byte[] generate() {
+        return theGenerator.generate();
+    }
+}
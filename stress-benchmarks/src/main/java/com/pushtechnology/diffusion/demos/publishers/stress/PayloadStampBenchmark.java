@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+
+package com.pushtechnology.diffusion.demos.publishers.stress;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures preparing the content of each update of the fixed message, the
+ * way the Stress publisher used to, by stamping a character array, creating
+ * a string from it and encoding the string, and by stamping a
+ * {@link PayloadTemplate} encoded once.
+ * <P>
+ * The content is an odds record of the message size. Creating the message
+ * the content is put into needs a server, so is not measured. Run with the
+ * {@code gc} profiler to see the bytes allocated by each update, for
+ * example:
+ *
+ * <pre>
+ * java -jar stress-benchmarks/target/benchmarks.jar PayloadStampBenchmark \
+ *     -prof gc
+ * </pre>
+ *
+ * @author Push Technology Limited
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PayloadStampBenchmark {
+
+    @Param({"516", "4096"})
+    private int theSize;
+
+    private char[] theStamped;
+
+    private PayloadTemplate theTemplate;
+
+    private long theSequence;
+
+    /**
+     * Prepare both paths with the same record.
+     */
+    @Setup
+    public void setUp() {
+        final String content = new PayloadGenerator(
+            PayloadGenerator.SizeDistribution.FIXED,
+            theSize,
+            theSize,
+            theSize,
+            0.2,
+            0.5,
+            1,
+            new PayloadFormat(true, false)).getInitialContent();
+
+        theStamped = new char[MessageStamp.LENGTH + content.length()];
+        content.getChars(0, content.length(), theStamped, MessageStamp.LENGTH);
+        theTemplate =
+            new PayloadTemplate(content, new PayloadFormat(true, false));
+    }
+
+    /**
+     * @return the encoded content of an update, prepared as it used to be
+     */
+    @Benchmark
+    public byte[] encodeString() {
+        MessageStamp.write(
+            theStamped,
+            MessageStamp.currentTimeNanos(),
+            theSequence++);
+        return new String(theStamped).getBytes(PayloadTemplate.CHARSET);
+    }
+
+    /**
+     * @return the encoded content of an update, stamped in place
+     */
+    @Benchmark
+    public byte[] stampTemplate() {
+        return theTemplate.stamp(
+            MessageStamp.currentTimeNanos(),
+            theSequence++);
+    }
+}
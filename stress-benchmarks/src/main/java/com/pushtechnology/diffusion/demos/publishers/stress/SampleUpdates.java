@@ -0,0 +1,75 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+
+package com.pushtechnology.diffusion.demos.publishers.stress;
+
+/**
+ * Updates as the Stress publisher sends them, for benchmarks that run
+ * without a server.
+ * <P>
+ * The content is an odds record from a {@link PayloadGenerator}, framed with
+ * room for a stamp and a checksum trailer if checksumming. Each update is
+ * the same record with a new stamp, written in place, so the checksum, which
+ * does not cover the stamp, stays valid.
+ *
+ * @author Push Technology Limited
+ */
+public final class SampleUpdates {
+
+    private static final double CHANGE_FRACTION = 0.2;
+
+    private static final double COMPRESSIBILITY = 0.5;
+
+    private final PayloadTemplate theTemplate;
+
+    /**
+     * Constructor.
+     *
+     * @param size the length of the record, without the stamp and trailer
+     * @param checksumming true to add a checksum trailer
+     */
+    public SampleUpdates(int size, boolean checksumming) {
+        final PayloadFormat format = new PayloadFormat(true, checksumming);
+        final PayloadGenerator generator = new PayloadGenerator(
+            PayloadGenerator.SizeDistribution.FIXED,
+            size,
+            size,
+            size,
+            CHANGE_FRACTION,
+            COMPRESSIBILITY,
+            1,
+            format);
+        theTemplate =
+            new PayloadTemplate(generator.getInitialContent(), format);
+    }
+
+    /**
+     * @return the length of each update
+     */
+    public int getLength() {
+        return theTemplate.maximumLength();
+    }
+
+    /**
+     * Stamp the update.
+     *
+     * @param timestamp the send time in nanoseconds since the epoch
+     * @param sequence the topic's sequence number for the update
+     * @return the stamped update, the same array for every call
+     */
+    public byte[] stamp(long timestamp, long sequence) {
+        return theTemplate.stamp(timestamp, sequence);
+    }
+}
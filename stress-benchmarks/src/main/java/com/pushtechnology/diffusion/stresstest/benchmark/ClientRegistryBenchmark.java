@@ -0,0 +1,237 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+
+package com.pushtechnology.diffusion.stresstest.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Vector;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.pushtechnology.diffusion.DiffusionException;
+import com.pushtechnology.diffusion.api.topic.TopicSet;
+import com.pushtechnology.diffusion.stresstest.ClientRegistry;
+import com.pushtechnology.diffusion.stresstest.DaemonThreadFactory;
+import com.pushtechnology.diffusion.stresstest.testconnector.BaseClient;
+
+/**
+ * Measures the cost of every client finishing at once, comparing the
+ * synchronized {@link Vector} the stress test used to keep its clients in
+ * with the {@link ClientRegistry}.
+ * <P>
+ * Before each measurement the clients are added to the collection. They are
+ * then removed in random order by as many threads as the default inbound
+ * pool, as happens when the server disconnects every client together. For
+ * example:
+ *
+ * <pre>
+ * java -jar stress-benchmarks/target/benchmarks.jar ClientRegistryBenchmark
+ * </pre>
+ *
+ * @author Push Technology Limited
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ClientRegistryBenchmark {
+
+    private static final int THREADS = 10;
+
+    private static final String VECTOR = "vector";
+
+    @Param({VECTOR, "registry"})
+    private String theCollection;
+
+    @Param({"10000", "100000"})
+    private int theClients;
+
+    private List<BaseClient> theClientList;
+
+    /**
+     * The clients in the order they are removed.
+     */
+    private List<BaseClient> theOrder;
+
+    private ExecutorService theExecutor;
+
+    private Remover theRemover;
+
+    /**
+     * Removes clients from the collection under test.
+     */
+    private interface Remover {
+
+        void remove(BaseClient client);
+
+        /**
+         * @return the number of clients left
+         */
+        int size();
+    }
+
+    /**
+     * Create the clients and the removing threads.
+     */
+    @Setup
+    public void setUp() {
+        theClientList = new ArrayList<BaseClient>(theClients);
+        for (int i = 0; i < theClients; i++) {
+            theClientList.add(new BenchmarkClient(i));
+        }
+        theOrder = new ArrayList<BaseClient>(theClientList);
+        Collections.shuffle(theOrder, new Random(theClients));
+        theExecutor = Executors.newFixedThreadPool(
+            THREADS,
+            new DaemonThreadFactory("benchmark-inbound"));
+    }
+
+    /**
+     * Add every client to a new collection.
+     */
+    @Setup(Level.Iteration)
+    public void addClients() {
+        if (VECTOR.equals(theCollection)) {
+            final Vector<BaseClient> vector =
+                new Vector<BaseClient>(theClientList);
+            theRemover = new Remover() {
+                @Override
+                public void remove(BaseClient client) {
+                    vector.remove(client);
+                }
+
+                @Override
+                public int size() {
+                    return vector.size();
+                }
+            };
+        }
+        else {
+            final ClientRegistry registry =
+                new ClientRegistry(0, theClientList.size());
+            for (BaseClient client : theClientList) {
+                registry.add(client);
+            }
+            theRemover = new Remover() {
+                @Override
+                public void remove(BaseClient client) {
+                    registry.remove(client);
+                }
+
+                @Override
+                public int size() {
+                    return registry.size();
+                }
+            };
+        }
+    }
+
+    /**
+     * Stop the removing threads.
+     */
+    @TearDown
+    public void tearDown() {
+        theExecutor.shutdownNow();
+    }
+
+    /**
+     * Remove every client.
+     *
+     * @return the number of clients left, which should be 0
+     * @throws InterruptedException if interrupted
+     */
+    @Benchmark
+    public int massDisconnect() throws InterruptedException {
+        final Remover remover = theRemover;
+        final AtomicInteger next = new AtomicInteger();
+        final CountDownLatch finished = new CountDownLatch(THREADS);
+        for (int i = 0; i < THREADS; i++) {
+            theExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        int index = next.getAndIncrement();
+                        while (index < theOrder.size()) {
+                            remover.remove(theOrder.get(index));
+                            index = next.getAndIncrement();
+                        }
+                    }
+                    finally {
+                        finished.countDown();
+                    }
+                }
+            });
+        }
+        finished.await();
+        return remover.size();
+    }
+
+    /**
+     * A client that does nothing.
+     */
+    private static final class BenchmarkClient extends BaseClient {
+
+        BenchmarkClient(int clientNumber) {
+            super("localhost", 0, clientNumber, 0);
+        }
+
+        @Override
+        public void connect() throws DiffusionException {
+        }
+
+        @Override
+        public void sendSubscribe(TopicSet topics) throws DiffusionException {
+        }
+
+        @Override
+        public void sendUnsubscribe(TopicSet topics) throws DiffusionException {
+        }
+
+        @Override
+        public void close() throws DiffusionException {
+        }
+
+        @Override
+        public void send(String data, String topic) throws DiffusionException {
+        }
+
+        @Override
+        public String getClientType() {
+            return "Benchmark Client";
+        }
+    }
+}
@@ -0,0 +1,362 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+package com.pushtechnology.diffusion.stresstest.benchmark;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.pushtechnology.diffusion.DiffusionException;
+import com.pushtechnology.diffusion.stresstest.ExecutionMode;
+import com.pushtechnology.diffusion.stresstest.StressTest.CompletionCallback;
+import com.pushtechnology.diffusion.stresstest.stats.HandlerStats;
+import com.pushtechnology.diffusion.stresstest.stats.LatencyHistogram;
+import com.pushtechnology.diffusion.stresstest.stats.SequenceTotals;
+import com.pushtechnology.diffusion.stresstest.stats.TransportStats;
+import com.pushtechnology.diffusion.stresstest.stats.TransportStatsRegistry;
+import com.pushtechnology.diffusion.stresstest.testconnector.BaseClient;
+import com.pushtechnology.diffusion.stresstest.testconnector.ChecksumMessageHandler;
+import com.pushtechnology.diffusion.stresstest.testconnector.LoopbackClient;
+import com.pushtechnology.diffusion.stresstest.testconnector.LoopbackServer;
+
+/**
+ * Measures how many clients one JVM can hold per GB of memory and per core
+ * of CPU in each {@link ExecutionMode}.
+ * <P>
+ * The clients are the stress test's own {@link LoopbackClient}s, connected
+ * to a {@link LoopbackServer} that updates the topic they subscribe to once
+ * every message interval, with a checksum that each client's
+ * {@link ChecksumMessageHandler} verifies. Each client is set up as the
+ * stress test sets up its clients by default: it has the statistics of its
+ * transport, records end-to-end latency in them and tracks the sequence
+ * numbers of its topic. The clients are connected on the mode's executor,
+ * and their handlers are run as the stress test runs them in each mode. In
+ * {@link ExecutionMode#POOL POOL} mode handlers run on the loopback delivery
+ * threads, which stand in for the inbound pool. In
+ * {@link ExecutionMode#VIRTUAL VIRTUAL} mode handlers are handed off to
+ * virtual threads, in order for each client.
+ * <P>
+ * The loopback transport has no connections, so the figures are the cost of
+ * the stress test's own clients and dispatch, without the threads and
+ * buffers the client library holds for each connection to a server. Those
+ * must be added for a real transport.
+ * <P>
+ * Memory is the growth of the resident set size (or of the heap, where the
+ * resident set size is not available) once every client has connected.
+ * Run each mode in a fresh JVM so the figures are comparable, for example:
+ *
+ * <pre>
+ * java -cp stress-benchmarks/target/benchmarks.jar \
+ *     com.pushtechnology.diffusion.stresstest.benchmark.ExecutionScalingBenchmark \
+ *     virtual 100000 30 1000
+ * </pre>
+ *
+ * The arguments are the mode, the number of clients, the measurement period
+ * in seconds (default 30) and the interval between each client's messages in
+ * milliseconds (default 1000). {@link ExecutionMode#VIRTUAL VIRTUAL} mode
+ * needs Java 21 or later.
+ * <P>
+ * Unlike the other benchmarks this is not a JMH benchmark. It measures the
+ * resident memory and CPU of a whole JVM holding every client, not the cost
+ * of one operation.
+ *
+ * @author Push Technology Limited
+ */
+public final class ExecutionScalingBenchmark {
+
+    private static final int DEFAULT_DURATION_SECONDS = 30;
+
+    private static final int DEFAULT_MESSAGE_INTERVAL_MILLIS = 1000;
+
+    /**
+     * The number of connections made at once in {@link ExecutionMode#POOL}
+     * mode.
+     */
+    private static final int CONNECT_CONCURRENCY = 10;
+
+    private static final String TOPIC = "Stress";
+
+    private static final double BYTES_PER_GB = 1024.0 * 1024 * 1024;
+
+    private final ExecutionMode theMode;
+
+    private final int theClients;
+
+    private final int theDurationSeconds;
+
+    private final long theMessageIntervalMillis;
+
+    private final HandlerStats theHandlerStats =
+        new HandlerStats("ChecksumMessageHandler");
+
+    private final TransportStatsRegistry theStats =
+        new TransportStatsRegistry();
+
+    private ExecutionScalingBenchmark(
+        ExecutionMode mode,
+        int clients,
+        int durationSeconds,
+        long messageIntervalMillis) {
+
+        theMode = mode;
+        theClients = clients;
+        theDurationSeconds = durationSeconds;
+        theMessageIntervalMillis = messageIntervalMillis;
+    }
+
+    private void run() throws InterruptedException {
+        final long baselineMemory = usedMemory();
+
+        final LoopbackServer server =
+            new LoopbackServer(theMessageIntervalMillis, 0, true, 0);
+        server.start();
+
+        final ExecutorService connectExecutor =
+            theMode.newExecutor("benchmark-connect", CONNECT_CONCURRENCY);
+        final ExecutorService handlerExecutor = theMode.newHandlerExecutor();
+        final List<LoopbackClient> clients =
+            Collections.synchronizedList(new ArrayList<LoopbackClient>());
+        final AtomicInteger failures = new AtomicInteger();
+        final CountDownLatch connected = new CountDownLatch(theClients);
+
+        final long startTime = System.nanoTime();
+        for (int i = 0; i < theClients; i++) {
+            final int clientNumber = i;
+            connectExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        clients.add(connect(
+                            server,
+                            handlerExecutor,
+                            clientNumber));
+                    }
+                    // CHECKSTYLE.OFF: IllegalCatch
+                    catch (Throwable t) {
+                        // Typically out of memory
+                        if (failures.getAndIncrement() == 0) {
+                            System.out.println(
+                                "Failed to connect client " + clientNumber +
+                                    ": " + t);
+                        }
+                    }
+                    // CHECKSTYLE.ON: IllegalCatch
+                    finally {
+                        connected.countDown();
+                    }
+                }
+            });
+        }
+        connected.await();
+        final double connectSeconds = (System.nanoTime() - startTime) /
+            (double) TimeUnit.SECONDS.toNanos(1);
+        final int started = clients.size();
+
+        final long cpuStart = processCpuTime();
+        final long messagesStart = messageCount(clients);
+        final long handledStart = theHandlerStats.getDecoded();
+        final long measureStart = System.nanoTime();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(theDurationSeconds));
+        final long elapsed = System.nanoTime() - measureStart;
+        final long cpu = processCpuTime() - cpuStart;
+        final long messages = messageCount(clients) - messagesStart;
+        final long handled = theHandlerStats.getDecoded() - handledStart;
+        final long memory = usedMemory() - baselineMemory;
+        final int threads =
+            ManagementFactory.getThreadMXBean().getThreadCount();
+        final LatencyHistogram latency = new LatencyHistogram();
+        for (TransportStats stats : theStats.getAll()) {
+            latency.add(stats.getLatency());
+        }
+        final SequenceTotals sequences = sequenceTotals(clients);
+
+        server.stop();
+        connectExecutor.shutdownNow();
+        if (handlerExecutor != null) {
+            handlerExecutor.shutdownNow();
+        }
+
+        final double cores = cpu < 0 ? Double.NaN : (double) cpu / elapsed;
+        final double seconds = elapsed / (double) TimeUnit.SECONDS.toNanos(1);
+
+        System.out.println(String.format(
+            "mode=%s clients=%d started=%d connectSeconds=%.1f " +
+                "msgsPerSecond=%.0f handledPerSecond=%.0f failed=%d " +
+                "coresUsed=%.3f clientsPerCore=%.0f memoryMB=%.1f " +
+                "clientsPerGB=%.0f platformThreads=%d " +
+                "latencyP99Micros=%d sequenceGaps=%d",
+            theMode,
+            theClients,
+            started,
+            connectSeconds,
+            messages / seconds,
+            handled / seconds,
+            theHandlerStats.getFailed(),
+            cores,
+            started / cores,
+            memory / (1024.0 * 1024),
+            started / (memory / BYTES_PER_GB),
+            threads,
+            latency.getValueAtPercentile(99),
+            sequences.getGaps()));
+        System.out.println(server.report());
+    }
+
+    private LoopbackClient connect(
+        LoopbackServer server,
+        ExecutorService handlerExecutor,
+        int clientNumber) throws DiffusionException {
+
+        final LoopbackClient client = new LoopbackClient(
+            new CompletionCallback() {
+                @Override
+                public void clientFinished(BaseClient finished) {
+                }
+            },
+            server,
+            clientNumber,
+            0);
+        client.setTopics(Collections.singletonList(TOPIC));
+        final ChecksumMessageHandler handler = new ChecksumMessageHandler();
+        handler.setHandlerStats(theHandlerStats);
+        client.setMessageHandler(handler);
+        client.setHandlerExecutor(handlerExecutor);
+        client.setRecordingLatency(true);
+
+        final TransportStats stats =
+            theStats.forTransport(client.getClientType());
+        client.setTransportStats(stats);
+        final long connectStart = System.nanoTime();
+        client.markConnecting(connectStart);
+        client.connect();
+        stats.connected(System.nanoTime() - connectStart);
+        client.markActive();
+        return client;
+    }
+
+    private static long messageCount(List<LoopbackClient> clients) {
+        long result = 0;
+        synchronized (clients) {
+            for (LoopbackClient client : clients) {
+                result += client.getMessageCount();
+            }
+        }
+        return result;
+    }
+
+    private static SequenceTotals sequenceTotals(
+        List<LoopbackClient> clients) {
+
+        final SequenceTotals result = new SequenceTotals();
+        synchronized (clients) {
+            for (LoopbackClient client : clients) {
+                result.add(client.getSequences());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the process CPU time in nanoseconds, or -1 if not available
+     */
+    private static long processCpuTime() {
+        final OperatingSystemMXBean os =
+            ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os)
+                .getProcessCpuTime();
+        }
+        return -1;
+    }
+
+    /**
+     * @return the resident set size if available, otherwise the heap in use
+     *         after a garbage collection, in bytes
+     */
+    private static long usedMemory() {
+        System.gc();
+        final long rss = residentSetSize();
+        if (rss >= 0) {
+            return rss;
+        }
+        final Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long residentSetSize() {
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader("/proc/self/status"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("VmRSS:")) {
+                    final String kilobytes =
+                        line.substring("VmRSS:".length()).replace("kB", "")
+                            .trim();
+                    return Long.parseLong(kilobytes) * 1024;
+                }
+            }
+        }
+        catch (IOException e) {
+            // Not Linux
+        }
+        finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                }
+                catch (IOException ignore) {
+                    // ignore
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Entry point.
+     *
+     * @param args mode, number of clients, optional measurement period in
+     *        seconds and optional message interval in milliseconds
+     * @throws InterruptedException if interrupted
+     */
+    // CHECKSTYLE.OFF: UncommentedMain
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length < 2) {
+            System.err.println(
+                "Usage: ExecutionScalingBenchmark pool|virtual clients " +
+                    "[seconds] [messageIntervalMillis]");
+            return;
+        }
+        new ExecutionScalingBenchmark(
+            ExecutionMode.parse(args[0]),
+            Integer.parseInt(args[1]),
+            args.length > 2 ?
+                Integer.parseInt(args[2]) : DEFAULT_DURATION_SECONDS,
+            args.length > 3 ?
+                Long.parseLong(args[3]) : DEFAULT_MESSAGE_INTERVAL_MILLIS)
+            .run();
+    }
+    // CHECKSTYLE.ON: UncommentedMain
+}
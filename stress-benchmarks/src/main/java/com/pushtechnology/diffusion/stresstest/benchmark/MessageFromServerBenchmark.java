@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+
+package com.pushtechnology.diffusion.stresstest.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.pushtechnology.diffusion.DiffusionException;
+import com.pushtechnology.diffusion.demos.publishers.stress.SampleUpdates;
+import com.pushtechnology.diffusion.stresstest.StressTest.CompletionCallback;
+import com.pushtechnology.diffusion.stresstest.stats.HandlerStats;
+import com.pushtechnology.diffusion.stresstest.stats.TransportStatsRegistry;
+import com.pushtechnology.diffusion.stresstest.testconnector.APIClient;
+import com.pushtechnology.diffusion.stresstest.testconnector.BaseClient;
+import com.pushtechnology.diffusion.stresstest.testconnector.MeasuredMessageHandler;
+import com.pushtechnology.diffusion.stresstest.testconnector.MessageHandler;
+import com.pushtechnology.diffusion.stresstest.testconnector.MessageStamp;
+import com.pushtechnology.diffusion.stresstest.testconnector.NetClient;
+
+/**
+ * Measures {@link APIClient#messageReceived} handling an update, as
+ * {@link APIClient#messageFromServer} calls it for every message once it
+ * has read the topic name and content, and as the loopback transport calls
+ * it.
+ * <P>
+ * The client is never connected. Each update is the Stress publisher's odds
+ * record of the message size, with a checksum trailer, stamped with the
+ * current time and the next sequence number. Reading the content from the
+ * client library's message is not measured, as it needs the client
+ * library's own messages. The message handler is called on the benchmark
+ * thread, as in the {@code pool} execution mode with no handler threads.
+ * The handler is {@code none} or the simple name of a handler in the
+ * {@code testconnector} package. Run with the {@code gc} profiler to see the
+ * bytes allocated by each message, for example:
+ *
+ * <pre>
+ * java -jar stress-benchmarks/target/benchmarks.jar \
+ *     MessageFromServerBenchmark -p theHandler=OddsMessageHandler -prof gc
+ * </pre>
+ *
+ * @author Push Technology Limited
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MessageFromServerBenchmark {
+
+    private static final String NO_HANDLER = "none";
+
+    private static final String HANDLER_PACKAGE =
+        "com.pushtechnology.diffusion.stresstest.testconnector.";
+
+    private static final String TOPIC = "Stress/Benchmark";
+
+    @Param({
+        NO_HANDLER,
+        "SimpleMessageHandler",
+        "ChecksumMessageHandler",
+        "OddsMessageHandler" })
+    private String theHandler;
+
+    @Param({"false", "true"})
+    private boolean isRecordingLatency;
+
+    @Param({"516", "4096"})
+    private int theSize;
+
+    private SampleUpdates theUpdates;
+
+    private byte[] theContent;
+
+    private ReceivingClient theClient;
+
+    private long theSequence;
+
+    /**
+     * Create the update.
+     */
+    @Setup
+    public void setUp() {
+        theUpdates = new SampleUpdates(theSize, true);
+        theContent = theUpdates.stamp(0, 0);
+    }
+
+    /**
+     * Create a client for each iteration, with its own transport statistics, so
+     * that the counts of the latency recorders cannot overflow.
+     *
+     * @throws Exception if the client or its message handler cannot be
+     *         created
+     */
+    @Setup(Level.Iteration)
+    public void createClient() throws Exception {
+        theClient = new ReceivingClient(
+            new CompletionCallback() {
+                @Override
+                public void clientFinished(BaseClient client) {
+                }
+            },
+            "localhost",
+            0,
+            0,
+            0);
+        // Past the topic load, which is handled differently
+        theClient.receive(TOPIC, theContent);
+        theClient.setTransportStats(
+            new TransportStatsRegistry().forTransport(
+                theClient.getClientType()));
+        theClient.setRecordingLatency(isRecordingLatency);
+        if (!NO_HANDLER.equals(theHandler)) {
+            final MessageHandler handler = (MessageHandler) Class
+                .forName(HANDLER_PACKAGE + theHandler)
+                .newInstance();
+            if (handler instanceof MeasuredMessageHandler) {
+                ((MeasuredMessageHandler) handler).setHandlerStats(
+                    new HandlerStats(theHandler));
+            }
+            theClient.setMessageHandler(handler);
+        }
+    }
+
+    /**
+     * Receive the next update.
+     *
+     * @return the client, so that its work is not eliminated
+     */
+    @Benchmark
+    public BaseClient messageReceived() {
+        theUpdates.stamp(MessageStamp.currentTimeNanos(), theSequence++);
+        theClient.receive(TOPIC, theContent);
+        return theClient;
+    }
+
+    /**
+     * A client that is given the content of each message.
+     */
+    private static final class ReceivingClient extends NetClient {
+
+        ReceivingClient(
+            CompletionCallback completionCallback,
+            String host,
+            int port,
+            int threadNumber,
+            long maxMessages) throws DiffusionException {
+
+            super(completionCallback, host, port, threadNumber, maxMessages);
+        }
+
+        void receive(String topic, byte[] content) {
+            messageReceived(null, topic, content, System.nanoTime());
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+
+package com.pushtechnology.diffusion.stresstest.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.pushtechnology.diffusion.demos.publishers.stress.SampleUpdates;
+import com.pushtechnology.diffusion.stresstest.stats.HandlerStats;
+import com.pushtechnology.diffusion.stresstest.testconnector.ChecksumMessageHandler;
+import com.pushtechnology.diffusion.stresstest.testconnector.MessageStamp;
+import com.pushtechnology.diffusion.stresstest.testconnector.OddsMessageHandler;
+
+/**
+ * Measures the message handlers on their own, without the rest of the
+ * client's handling of each message.
+ * <P>
+ * Each update is the Stress publisher's odds record of the message size,
+ * with a checksum trailer, given to the handlers as the content the client
+ * has read from the message. Setting up checks that the handlers accept the
+ * publisher's records, so a change to the format on one side only is caught
+ * here. Run with the {@code gc} profiler to see the bytes allocated by each
+ * message, for example:
+ *
+ * <pre>
+ * java -jar stress-benchmarks/target/benchmarks.jar MessageHandlerBenchmark \
+ *     -prof gc
+ * </pre>
+ *
+ * @author Push Technology Limited
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MessageHandlerBenchmark {
+
+    @Param({"516", "4096"})
+    private int theSize;
+
+    private byte[] theContent;
+
+    private ChecksumMessageHandler theChecksumHandler;
+
+    private HandlerStats theChecksumStats;
+
+    private OddsMessageHandler theOddsHandler;
+
+    /**
+     * Create the update and the handlers, and check that the handlers
+     * accept it.
+     */
+    @Setup
+    public void setUp() {
+        theContent = new SampleUpdates(theSize, true)
+            .stamp(MessageStamp.currentTimeNanos(), 0);
+
+        theChecksumStats = new HandlerStats("ChecksumMessageHandler");
+        theChecksumHandler = new ChecksumMessageHandler();
+        theChecksumHandler.setHandlerStats(theChecksumStats);
+        theChecksumHandler.handleContent(theContent);
+        if (theChecksumStats.getDecoded() != 1) {
+            throw new IllegalStateException(
+                "Checksum of the publisher's update not verified");
+        }
+
+        theOddsHandler = new OddsMessageHandler();
+        if (!theOddsHandler.decode(theContent)) {
+            throw new IllegalStateException(
+                "Publisher's update not decoded as an odds record");
+        }
+    }
+
+    /**
+     * @return the statistics of the handler, so that its work is not
+     *         eliminated
+     */
+    @Benchmark
+    public HandlerStats verifyChecksum() {
+        theChecksumHandler.handleContent(theContent);
+        return theChecksumStats;
+    }
+
+    /**
+     * @return true if the record was decoded
+     */
+    @Benchmark
+    public boolean decodeOdds() {
+        return theOddsHandler.decode(theContent);
+    }
+}
@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+package com.pushtechnology.diffusion.stresstest;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.charset.Charset;
+
+/**
+ * An agent's connection to the coordinator.
+ * <P>
+ * The coordinator and agents exchange lines of text:
+ * <ol>
+ * <li>The agent sends {@code HELLO}.
+ * <li>The coordinator sends {@code ASSIGN index firstClient clients}.
+ * <li>The agent creates its clients' configuration and sends {@code READY}.
+ * <li>When every agent is ready the coordinator sends {@code START}, or
+ * {@code STOP} if the run is abandoned.
+ * <li>When its clients finish the agent sends its {@link AgentResults}.
+ * </ol>
+ *
+ * @author Push Technology Limited
+ */
+final class AgentConnection {
+
+    static final String HELLO = "HELLO";
+    static final String ASSIGN = "ASSIGN";
+    static final String READY = "READY";
+    static final String START = "START";
+    static final String STOP = "STOP";
+
+    static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private final Socket theSocket;
+
+    private final BufferedReader theIn;
+
+    private final PrintWriter theOut;
+
+    private final int theIndex;
+
+    private final int theFirstClient;
+
+    private final int theNumberOfClients;
+
+    /**
+     * Connect to the coordinator and receive the assignment.
+     *
+     * @param host the coordinator host
+     * @param port the coordinator port
+     * @throws IOException if the connection fails or the assignment is not
+     *         valid
+     */
+    AgentConnection(String host, int port) throws IOException {
+        theSocket = new Socket(host, port);
+        theIn = new BufferedReader(
+            new InputStreamReader(theSocket.getInputStream(), CHARSET));
+        theOut = new PrintWriter(
+            new OutputStreamWriter(theSocket.getOutputStream(), CHARSET));
+
+        send(HELLO);
+        final String assignment = theIn.readLine();
+        if (assignment == null || !assignment.startsWith(ASSIGN + ' ')) {
+            theSocket.close();
+            throw new IOException(
+                "Expected an assignment but received: " + assignment);
+        }
+        final String[] fields = assignment.split(" ");
+        try {
+            theIndex = Integer.parseInt(fields[1]);
+            theFirstClient = Integer.parseInt(fields[2]);
+            theNumberOfClients = Integer.parseInt(fields[3]);
+        }
+        catch (RuntimeException ex) {
+            theSocket.close();
+            throw new IOException("Invalid assignment: " + assignment, ex);
+        }
+    }
+
+    /**
+     * @return the index of this agent
+     */
+    int getIndex() {
+        return theIndex;
+    }
+
+    /**
+     * @return the number of the first client this agent runs
+     */
+    int getFirstClient() {
+        return theFirstClient;
+    }
+
+    /**
+     * @return the number of clients this agent runs
+     */
+    int getNumberOfClients() {
+        return theNumberOfClients;
+    }
+
+    /**
+     * Tell the coordinator this agent is ready and wait for every other
+     * agent.
+     *
+     * @return true to start, false if the coordinator abandoned the run
+     * @throws IOException if the connection fails
+     */
+    boolean awaitStart() throws IOException {
+        send(READY);
+        final String line = theIn.readLine();
+        if (START.equals(line)) {
+            return true;
+        }
+        if (line == null || STOP.equals(line)) {
+            return false;
+        }
+        throw new IOException("Expected start but received: " + line);
+    }
+
+    /**
+     * Send the results of this agent.
+     *
+     * @param results the results
+     */
+    void sendResults(AgentResults results) {
+        results.write(theOut);
+    }
+
+    /**
+     * Close the connection.
+     */
+    void close() {
+        try {
+            theSocket.close();
+        }
+        catch (IOException e) {
+            // Ignore
+        }
+    }
+
+    private void send(String line) {
+        theOut.println(line);
+        theOut.flush();
+    }
+}
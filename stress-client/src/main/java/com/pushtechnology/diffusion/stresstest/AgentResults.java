@@ -0,0 +1,422 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+package com.pushtechnology.diffusion.stresstest;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.pushtechnology.diffusion.stresstest.stats.LatencyHistogram;
+import com.pushtechnology.diffusion.stresstest.stats.SequenceTotals;
+import com.pushtechnology.diffusion.stresstest.stats.TransportStats;
+
+/**
+ * The counters and histograms of one or more agents, in a form that can be
+ * sent to the coordinator and merged.
+ * <P>
+ * Each line of the encoded form starts with a keyword:
+ *
+ * <pre>
+ * RESULTS clients
+ * RUN seconds
+ * LATENCY encoded-histogram | NONE
+ * SEQUENCE received gaps duplicates out-of-order
+ * POOL samples full-samples peak-queue-size largest-pool-size
+ * TRANSPORT connections failures messages bytes encoded-histogram name
+ * END
+ * </pre>
+ *
+ * Histograms use {@link LatencyHistogram#encode()}. There is a TRANSPORT
+ * line for each transport. Merged results run for as long as the longest
+ * agent, and the pool counts are summed and the peaks kept, as reported by
+ * each agent's {@link InboundPoolSampler}.
+ *
+ * @author Push Technology Limited
+ */
+final class AgentResults {
+
+    private static final String RESULTS = "RESULTS";
+    private static final String LATENCY = "LATENCY";
+    private static final String SEQUENCE = "SEQUENCE";
+    private static final String RUN = "RUN";
+    private static final String POOL = "POOL";
+    private static final String TRANSPORT = "TRANSPORT";
+    private static final String END = "END";
+    private static final String NONE = "NONE";
+
+    private static final int TRANSPORT_FIELDS = 7;
+
+    private int theClients;
+
+    private double theSeconds;
+
+    private long thePoolSamples;
+
+    private long theFullPoolSamples;
+
+    private int thePeakQueueSize;
+
+    private int theLargestPoolSize;
+
+    private LatencyHistogram theLatency;
+
+    private final SequenceTotals theSequences = new SequenceTotals();
+
+    private final Map<String, TransportResult> theTransports =
+        new TreeMap<String, TransportResult>();
+
+    /**
+     * The counters of one transport.
+     */
+    private static final class TransportResult {
+        private long theConnections;
+        private long theFailures;
+        private long theMessages;
+        private long theBytes;
+        private final LatencyHistogram theConnectLatency =
+            new LatencyHistogram();
+    }
+
+    /**
+     * Add the results of the clients run by this process.
+     *
+     * @param clients the number of clients
+     * @param seconds the time the clients ran for
+     * @param latency the end-to-end latency, or null if not recorded
+     * @param sequences the sequence counts
+     * @param pool the samples of the inbound pool
+     * @param transports the statistics for each transport
+     */
+    void add(
+        int clients,
+        double seconds,
+        LatencyHistogram latency,
+        SequenceTotals sequences,
+        InboundPoolSampler pool,
+        Iterable<TransportStats> transports) {
+
+        theClients += clients;
+        theSeconds = Math.max(theSeconds, seconds);
+        addPool(
+            pool.getSamples(),
+            pool.getFullSamples(),
+            pool.getPeakQueueSize(),
+            pool.getLargestPoolSize());
+        addLatency(latency);
+        theSequences.add(sequences);
+        for (TransportStats stats : transports) {
+            final TransportResult result = getTransport(stats.getTransport());
+            result.theConnections += stats.getConnections();
+            result.theFailures += stats.getConnectionFailures();
+            result.theMessages += stats.getMessages();
+            result.theBytes += stats.getBytes();
+            result.theConnectLatency.add(stats.getConnectLatency());
+        }
+    }
+
+    /**
+     * Merge the results of another agent.
+     *
+     * @param other the other results
+     */
+    void add(AgentResults other) {
+        theClients += other.theClients;
+        theSeconds = Math.max(theSeconds, other.theSeconds);
+        addPool(
+            other.thePoolSamples,
+            other.theFullPoolSamples,
+            other.thePeakQueueSize,
+            other.theLargestPoolSize);
+        addLatency(other.theLatency);
+        theSequences.add(other.theSequences);
+        for (Map.Entry<String, TransportResult> entry :
+            other.theTransports.entrySet()) {
+
+            final TransportResult from = entry.getValue();
+            final TransportResult to = getTransport(entry.getKey());
+            to.theConnections += from.theConnections;
+            to.theFailures += from.theFailures;
+            to.theMessages += from.theMessages;
+            to.theBytes += from.theBytes;
+            to.theConnectLatency.add(from.theConnectLatency);
+        }
+    }
+
+    /**
+     * Write the encoded results.
+     *
+     * @param out the writer
+     */
+    void write(PrintWriter out) {
+        out.println(RESULTS + ' ' + theClients);
+        out.println(RUN + ' ' + theSeconds);
+        out.println(LATENCY + ' ' +
+            (theLatency == null ? NONE : theLatency.encode()));
+        out.println(SEQUENCE + ' ' +
+            theSequences.getReceived() + ' ' +
+            theSequences.getGaps() + ' ' +
+            theSequences.getDuplicates() + ' ' +
+            theSequences.getOutOfOrder());
+        out.println(POOL + ' ' +
+            thePoolSamples + ' ' +
+            theFullPoolSamples + ' ' +
+            thePeakQueueSize + ' ' +
+            theLargestPoolSize);
+        for (Map.Entry<String, TransportResult> entry :
+            theTransports.entrySet()) {
+
+            final TransportResult result = entry.getValue();
+            out.println(TRANSPORT + ' ' +
+                result.theConnections + ' ' +
+                result.theFailures + ' ' +
+                result.theMessages + ' ' +
+                result.theBytes + ' ' +
+                result.theConnectLatency.encode() + ' ' +
+                entry.getKey());
+        }
+        out.println(END);
+        out.flush();
+    }
+
+    /**
+     * Read encoded results.
+     *
+     * @param in the reader, positioned at the RESULTS line
+     * @return the results
+     * @throws IOException if the stream ends or the results are not valid
+     */
+    static AgentResults read(BufferedReader in) throws IOException {
+        final AgentResults result = new AgentResults();
+        String line = readLine(in);
+        if (!line.startsWith(RESULTS + ' ')) {
+            throw new IOException("Expected results but received: " + line);
+        }
+        try {
+            result.theClients = Integer.parseInt(value(line, RESULTS));
+            line = readLine(in);
+            while (!END.equals(line)) {
+                if (line.startsWith(LATENCY + ' ')) {
+                    final String latency = value(line, LATENCY);
+                    if (!NONE.equals(latency)) {
+                        result.addLatency(LatencyHistogram.decode(latency));
+                    }
+                }
+                else if (line.startsWith(SEQUENCE + ' ')) {
+                    final String[] counts = value(line, SEQUENCE).split(" ");
+                    result.theSequences.add(
+                        Long.parseLong(counts[0]),
+                        Long.parseLong(counts[1]),
+                        Long.parseLong(counts[2]),
+                        Long.parseLong(counts[3]));
+                }
+                else if (line.startsWith(RUN + ' ')) {
+                    result.theSeconds = Math.max(
+                        result.theSeconds,
+                        Double.parseDouble(value(line, RUN)));
+                }
+                else if (line.startsWith(POOL + ' ')) {
+                    final String[] counts = value(line, POOL).split(" ");
+                    result.addPool(
+                        Long.parseLong(counts[0]),
+                        Long.parseLong(counts[1]),
+                        Integer.parseInt(counts[2]),
+                        Integer.parseInt(counts[3]));
+                }
+                else if (line.startsWith(TRANSPORT + ' ')) {
+                    final String[] fields =
+                        line.split(" ", TRANSPORT_FIELDS);
+                    final TransportResult transport =
+                        result.getTransport(fields[6]);
+                    transport.theConnections += Long.parseLong(fields[1]);
+                    transport.theFailures += Long.parseLong(fields[2]);
+                    transport.theMessages += Long.parseLong(fields[3]);
+                    transport.theBytes += Long.parseLong(fields[4]);
+                    transport.theConnectLatency.add(
+                        LatencyHistogram.decode(fields[5]));
+                }
+                else {
+                    throw new IOException("Unexpected results line: " + line);
+                }
+                line = readLine(in);
+            }
+        }
+        catch (RuntimeException ex) {
+            throw new IOException("Invalid results line: " + line, ex);
+        }
+        return result;
+    }
+
+    /**
+     * Print the merged results.
+     *
+     * @param agents the number of agents the results are from
+     */
+    void print(int agents) {
+        System.out.println(
+            "Combined results of " + agents + " agents, " + theClients +
+                " clients");
+        for (Map.Entry<String, TransportResult> entry :
+            theTransports.entrySet()) {
+
+            final TransportResult result = entry.getValue();
+            System.out.println(
+                entry.getKey() + ": " +
+                    result.theConnections + " connected, " +
+                    result.theFailures + " failed, " +
+                    result.theMessages + " messages, " +
+                    result.theBytes + " bytes, connect ms " +
+                    result.theConnectLatency.toPercentileString(1000));
+        }
+        if (theLatency != null) {
+            System.out.println(
+                "End-to-end latency ms: " +
+                    theLatency.toPercentileString(1000) + " from " +
+                    theLatency.getTotalCount() + " messages");
+        }
+        System.out.println("Sequence: " + theSequences);
+        System.out.println(String.format(
+            "Inbound pool: peak queue %d, largest pool %d, full %d of %d " +
+                "samples",
+            thePeakQueueSize,
+            theLargestPoolSize,
+            theFullPoolSamples,
+            thePoolSamples));
+    }
+
+    /**
+     * @return the number of clients
+     */
+    int getClients() {
+        return theClients;
+    }
+
+    /**
+     * @return the time the longest running agent's clients ran for, in
+     *         seconds
+     */
+    double getSeconds() {
+        return theSeconds;
+    }
+
+    /**
+     * @return the end-to-end latency, or null if not recorded
+     */
+    LatencyHistogram getLatency() {
+        return theLatency;
+    }
+
+    /**
+     * @return the sequence counts
+     */
+    SequenceTotals getSequences() {
+        return theSequences;
+    }
+
+    /**
+     * @return the messages received over every transport
+     */
+    long getMessages() {
+        long result = 0;
+        for (TransportResult transport : theTransports.values()) {
+            result += transport.theMessages;
+        }
+        return result;
+    }
+
+    /**
+     * @return the failed connection attempts over every transport
+     */
+    long getConnectionFailures() {
+        long result = 0;
+        for (TransportResult transport : theTransports.values()) {
+            result += transport.theFailures;
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of samples of the inbound pool
+     */
+    long getPoolSamples() {
+        return thePoolSamples;
+    }
+
+    /**
+     * @return the number of samples at which the inbound pool would reject
+     *         a task
+     */
+    long getFullPoolSamples() {
+        return theFullPoolSamples;
+    }
+
+    /**
+     * @return the most tasks queued by the inbound pool at any sample
+     */
+    int getPeakQueueSize() {
+        return thePeakQueueSize;
+    }
+
+    /**
+     * @return the most threads the inbound pool has had
+     */
+    int getLargestPoolSize() {
+        return theLargestPoolSize;
+    }
+
+    private void addPool(
+        long samples,
+        long fullSamples,
+        int peakQueueSize,
+        int largestPoolSize) {
+
+        thePoolSamples += samples;
+        theFullPoolSamples += fullSamples;
+        thePeakQueueSize = Math.max(thePeakQueueSize, peakQueueSize);
+        theLargestPoolSize = Math.max(theLargestPoolSize, largestPoolSize);
+    }
+
+    private void addLatency(LatencyHistogram latency) {
+        if (latency == null) {
+            return;
+        }
+        if (theLatency == null) {
+            theLatency = new LatencyHistogram();
+        }
+        theLatency.add(latency);
+    }
+
+    private TransportResult getTransport(String transport) {
+        TransportResult result = theTransports.get(transport);
+        if (result == null) {
+            result = new TransportResult();
+            theTransports.put(transport, result);
+        }
+        return result;
+    }
+
+    private static String readLine(BufferedReader in) throws IOException {
+        final String line = in.readLine();
+        if (line == null) {
+            throw new IOException("Agent closed the connection");
+        }
+        return line;
+    }
+
+    private static String value(String line, String keyword) {
+        return line.substring(keyword.length() + 1);
+    }
+}
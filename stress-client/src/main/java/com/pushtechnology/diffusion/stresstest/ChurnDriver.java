@@ -0,0 +1,258 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+package com.pushtechnology.diffusion.stresstest;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import com.pushtechnology.diffusion.DiffusionException;
+import com.pushtechnology.diffusion.stresstest.stats.LatencyHistogram;
+import com.pushtechnology.diffusion.stresstest.stats.TransportStats;
+import com.pushtechnology.diffusion.stresstest.stats.TransportStatsRegistry;
+import com.pushtechnology.diffusion.stresstest.testconnector.BaseClient;
+
+/**
+ * Closes connected clients and connects them again at a target rate, to
+ * measure the capacity of the server to establish sessions while it is
+ * delivering messages.
+ * <P>
+ * Reconnections are scheduled open loop at a fixed interval and run by an
+ * executor, so a slow reconnection does not delay the next. The candidate
+ * clients are visited in a random order that is shuffled again each time
+ * every candidate has been visited, so no client is churned twice before
+ * every other has been churned once. A reconnection that falls to a client
+ * that is not connected is skipped.
+ * <P>
+ * The replacement client has the same client number. Its connection and
+ * topic load latencies are recorded as for any other connection, and the
+ * time from the start of the close to the end of the connection is
+ * recorded as the reconnect latency of the transport of the closed client.
+ *
+ * @author Push Technology Limited
+ */
+final class ChurnDriver {
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private static final long STOP_TIMEOUT_SECONDS = 30;
+
+    private final ClientRegistry theClients;
+
+    private final int[] theCandidates;
+
+    private final ConnectionRamp theRamp;
+
+    private final TransportStatsRegistry theStats;
+
+    private final long theIntervalNanos;
+
+    private final ExecutorService theExecutor;
+
+    private final Random theRandom = new Random();
+
+    private final LongAdder theReconnected = new LongAdder();
+
+    private final LongAdder theFailed = new LongAdder();
+
+    private final LongAdder theSkipped = new LongAdder();
+
+    private final Thread theThread;
+
+    private volatile boolean isRunning;
+
+    /**
+     * Constructor.
+     *
+     * @param clients the clients
+     * @param candidates the numbers of the clients that may be churned
+     * @param ramp opens the replacement clients
+     * @param stats the statistics of each transport
+     * @param executionMode how reconnections are run
+     * @param reconnectsPerSecond the target aggregate reconnection rate
+     * @param concurrency the number of threads reconnecting in
+     *        {@link ExecutionMode#POOL} mode
+     */
+    ChurnDriver(
+        ClientRegistry clients,
+        int[] candidates,
+        ConnectionRamp ramp,
+        TransportStatsRegistry stats,
+        ExecutionMode executionMode,
+        double reconnectsPerSecond,
+        int concurrency) {
+
+        if (reconnectsPerSecond <= 0) {
+            throw new IllegalArgumentException(
+                "The churn rate must be positive: " + reconnectsPerSecond);
+        }
+
+        theClients = clients;
+        theCandidates = candidates.clone();
+        theRamp = ramp;
+        theStats = stats;
+        theIntervalNanos = (long) (NANOS_PER_SECOND / reconnectsPerSecond);
+        theExecutor =
+            executionMode.newExecutor("StressTest-churn", concurrency);
+        theThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                schedule();
+            }
+        }, "StressTest-churn-scheduler");
+        theThread.setDaemon(true);
+    }
+
+    /**
+     * Start churning.
+     */
+    void start() {
+        if (theCandidates.length == 0) {
+            return;
+        }
+        System.out.println(String.format(
+            "Churning %d clients at %.1f reconnections/s",
+            theCandidates.length,
+            NANOS_PER_SECOND / theIntervalNanos));
+        isRunning = true;
+        theThread.start();
+    }
+
+    /**
+     * Stop scheduling reconnections, and wait for those in progress.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void stop() throws InterruptedException {
+        if (!isRunning) {
+            return;
+        }
+        isRunning = false;
+        LockSupport.unpark(theThread);
+        theThread.join();
+        theExecutor.shutdown();
+        theExecutor.awaitTermination(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @return a report of the reconnections, with the reconnect and topic
+     *         load latencies of each transport
+     */
+    String report() {
+        final StringBuilder report = new StringBuilder();
+        report.append("Churn: ")
+            .append(theReconnected.sum())
+            .append(" reconnected, ")
+            .append(theFailed.sum())
+            .append(" failed, ")
+            .append(theSkipped.sum())
+            .append(" skipped");
+
+        for (TransportStats stats : theStats.getAll()) {
+            final LatencyHistogram reconnect = stats.getReconnectLatency();
+            report
+                .append(System.lineSeparator())
+                .append("  ")
+                .append(stats.getTransport())
+                .append(": ")
+                .append(stats.getReconnections())
+                .append(" reconnected, ")
+                .append(stats.getReconnectFailures())
+                .append(" failed, reconnect ms ")
+                .append(reconnect.toPercentileString(1000))
+                .append(", initial load ms ")
+                .append(
+                    stats.getInitialLoadLatency().toPercentileString(1000));
+        }
+        return report.toString();
+    }
+
+    private void schedule() {
+        final int[] order = theCandidates.clone();
+        final long startTime = System.nanoTime();
+        long reconnection = 0;
+        int next = order.length;
+
+        while (isRunning) {
+            final long scheduledTime =
+                startTime + reconnection * theIntervalNanos;
+            final long wait = scheduledTime - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+                continue;
+            }
+
+            if (next == order.length) {
+                shuffle(order);
+                next = 0;
+            }
+            dispatch(order[next++]);
+            reconnection++;
+        }
+    }
+
+    private void shuffle(int[] order) {
+        for (int i = order.length - 1; i > 0; i--) {
+            final int j = theRandom.nextInt(i + 1);
+            final int swap = order[i];
+            order[i] = order[j];
+            order[j] = swap;
+        }
+    }
+
+    private void dispatch(final int clientNumber) {
+        final BaseClient client = theClients.get(clientNumber);
+        if (client == null || !client.isActive()) {
+            theSkipped.increment();
+            return;
+        }
+
+        theExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                reconnect(clientNumber, client);
+            }
+        });
+    }
+
+    private void reconnect(int clientNumber, BaseClient client) {
+        final TransportStats stats = client.getTransportStats();
+        final long startTime = System.nanoTime();
+        client.markChurning();
+        try {
+            client.close();
+        }
+        catch (DiffusionException ex) {
+            System.err.println(
+                "Unable to close client " + clientNumber + ": " +
+                    ex.getLocalizedMessage());
+        }
+
+        if (theRamp.open(clientNumber)) {
+            theReconnected.increment();
+            if (stats != null) {
+                stats.reconnected(System.nanoTime() - startTime);
+            }
+        }
+        else {
+            theFailed.increment();
+            if (stats != null) {
+                stats.reconnectFailed();
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+package com.pushtechnology.diffusion.stresstest;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.pushtechnology.diffusion.stresstest.testconnector.BaseClient;
+
+/**
+ * The clients of a stress test, indexed by client number.
+ * <P>
+ * Adding and removing a client are constant time and lock free, so clients
+ * finishing together on different inbound threads do not contend. Iteration
+ * is weakly consistent: it never fails, and sees every client that is
+ * registered for the whole iteration.
+ *
+ * @author Push Technology Limited
+ */
+public final class ClientRegistry implements Iterable<BaseClient> {
+
+    private final int theFirstClient;
+
+    private final AtomicReferenceArray<BaseClient> theClients;
+
+    private final AtomicInteger theSize = new AtomicInteger();
+
+    /**
+     * Constructor.
+     *
+     * @param firstClient the lowest client number
+     * @param capacity the number of client numbers, starting at firstClient
+     */
+    public ClientRegistry(int firstClient, int capacity) {
+        theFirstClient = firstClient;
+        theClients = new AtomicReferenceArray<BaseClient>(capacity);
+    }
+
+    /**
+     * Add a client, replacing any client with the same number.
+     *
+     * @param client the client
+     * @throws IllegalArgumentException if the client number is out of range
+     */
+    public void add(BaseClient client) {
+        if (theClients.getAndSet(indexOf(client), client) == null) {
+            theSize.incrementAndGet();
+        }
+    }
+
+    /**
+     * Remove a client.
+     *
+     * @param client the client
+     * @return true if the client was removed, false if it was not registered
+     */
+    public boolean remove(BaseClient client) {
+        if (theClients.compareAndSet(indexOf(client), client, null)) {
+            theSize.decrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param clientNumber a client number
+     * @return the client with the number, or null if there is none
+     */
+    public BaseClient get(int clientNumber) {
+        final int index = clientNumber - theFirstClient;
+        if (index < 0 || index >= theClients.length()) {
+            return null;
+        }
+        return theClients.get(index);
+    }
+
+    /**
+     * @return the number of clients registered
+     */
+    public int size() {
+        return theSize.get();
+    }
+
+    /**
+     * @return the clients registered at the time of the call
+     */
+    public List<BaseClient> snapshot() {
+        final List<BaseClient> result = new ArrayList<BaseClient>(size());
+        for (BaseClient client : this) {
+            result.add(client);
+        }
+        return result;
+    }
+
+    @Override
+    public Iterator<BaseClient> iterator() {
+        return new Iterator<BaseClient>() {
+            private int theIndex = 0;
+            private BaseClient theNext = advance();
+
+            @Override
+            public boolean hasNext() {
+                return theNext != null;
+            }
+
+            @Override
+            public BaseClient next() {
+                if (theNext == null) {
+                    throw new NoSuchElementException();
+                }
+                final BaseClient result = theNext;
+                theNext = advance();
+                return result;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+
+            private BaseClient advance() {
+                while (theIndex < theClients.length()) {
+                    final BaseClient client = theClients.get(theIndex++);
+                    if (client != null) {
+                        return client;
+                    }
+                }
+                return null;
+            }
+        };
+    }
+
+    private int indexOf(BaseClient client) {
+        final int index = (int) client.getThreadNumber() - theFirstClient;
+        if (index < 0 || index >= theClients.length()) {
+            throw new IllegalArgumentException(
+                "Client number " + client.getThreadNumber() +
+                    " is outside the registry");
+        }
+        return index;
+    }
+}
@@ -0,0 +1,330 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+package com.pushtechnology.diffusion.stresstest;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import com.pushtechnology.diffusion.DiffusionException;
+import com.pushtechnology.diffusion.stresstest.stats.TransportStats;
+import com.pushtechnology.diffusion.stresstest.stats.TransportStatsRegistry;
+import com.pushtechnology.diffusion.stresstest.testconnector.BaseClient;
+
+/**
+ * Opens clients concurrently, pacing the connection attempts to a target
+ * rate according to a {@link RampProfile}.
+ * <P>
+ * The number of connection attempts in progress at once is limited by the
+ * concurrency. Connection latencies and failures are recorded in the
+ * {@link TransportStats} of each client's transport, and progress is
+ * reported periodically while the ramp runs.
+ *
+ * @author Push Technology Limited
+ */
+final class ConnectionRamp {
+
+    private final ClientOpener theOpener;
+
+    private final TransportStatsRegistry theStats;
+
+    private final ExecutionMode theExecutionMode;
+
+    private final RampProfile theProfile;
+
+    private final int theConnectionsPerSecond;
+
+    private final int theConcurrency;
+
+    private final int theStepSize;
+
+    private final int theReportInterval;
+
+    private final AtomicInteger theConnected = new AtomicInteger();
+
+    private final AtomicInteger theFailed = new AtomicInteger();
+
+    /**
+     * Creates the clients for a ramp and is told the outcome of each
+     * connection attempt. The callbacks may be called from any thread.
+     */
+    interface ClientOpener {
+
+        /**
+         * Create, but do not connect, a client.
+         *
+         * @param clientNumber the client number
+         * @return the client
+         * @throws DiffusionException on error
+         */
+        BaseClient createClient(int clientNumber) throws DiffusionException;
+
+        /**
+         * Called when a client has connected.
+         *
+         * @param client the client
+         */
+        void clientConnected(BaseClient client);
+
+        /**
+         * Called when a client could not be created or connected.
+         *
+         * @param clientNumber the client number
+         * @param client the client, or null if it could not be created
+         * @param ex the cause of the failure
+         */
+        void clientFailed(int clientNumber, BaseClient client, Exception ex);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param opener creates the clients
+     * @param stats where to record connection statistics
+     * @param executionMode how connection attempts are run
+     * @param profile the ramp profile
+     * @param connectionsPerSecond the target connection rate, or 0 for no
+     *        limit
+     * @param concurrency the maximum number of connection attempts in
+     *        progress at once
+     * @param stepSize the number of connections in each step of a
+     *        {@link RampProfile#STEP} ramp
+     * @param reportInterval the interval between progress reports in seconds,
+     *        or 0 to report only at the end of the ramp
+     */
+    ConnectionRamp(
+        ClientOpener opener,
+        TransportStatsRegistry stats,
+        ExecutionMode executionMode,
+        RampProfile profile,
+        int connectionsPerSecond,
+        int concurrency,
+        int stepSize,
+        int reportInterval) {
+
+        theOpener = opener;
+        theStats = stats;
+        theExecutionMode = executionMode;
+        theProfile = profile;
+        theConnectionsPerSecond = connectionsPerSecond;
+        theConcurrency = Math.max(concurrency, 1);
+        theStepSize = stepSize;
+        theReportInterval = reportInterval;
+    }
+
+    /**
+     * Open a range of clients, returning when every connection attempt has
+     * completed.
+     *
+     * @param firstClient the number of the first client
+     * @param count the number of clients
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void run(int firstClient, int count) throws InterruptedException {
+        final int[] clientNumbers = new int[count];
+        for (int i = 0; i < count; i++) {
+            clientNumbers[i] = firstClient + i;
+        }
+        run(clientNumbers, true);
+    }
+
+    /**
+     * Open a set of clients, returning when every connection attempt has
+     * completed.
+     *
+     * @param clientNumbers the numbers of the clients
+     * @param isReporting true to report progress, false to only record the
+     *        statistics
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void run(int[] clientNumbers, boolean isReporting)
+        throws InterruptedException {
+
+        final int count = clientNumbers.length;
+
+        final ExecutorService executor =
+            theExecutionMode.newExecutor("StressTest-connect", theConcurrency);
+
+        final Semaphore permits = new Semaphore(theConcurrency);
+
+        final long startTime = System.nanoTime();
+
+        final ScheduledExecutorService reporter =
+            Executors.newSingleThreadScheduledExecutor(
+                new DaemonThreadFactory("StressTest-ramp-report"));
+
+        if (isReporting && theReportInterval > 0) {
+            reporter.scheduleAtFixedRate(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        report(count, startTime);
+                    }
+                },
+                theReportInterval,
+                theReportInterval,
+                TimeUnit.SECONDS);
+        }
+
+        try {
+            for (int i = 0; i < count; i++) {
+                awaitStartTime(
+                    startTime + theProfile.startOffsetNanos(
+                        i,
+                        theConnectionsPerSecond,
+                        theStepSize));
+
+                permits.acquire();
+
+                final int clientNumber = clientNumbers[i];
+                final BaseClient client;
+                try {
+                    client = theOpener.createClient(clientNumber);
+                }
+                catch (DiffusionException e) {
+                    permits.release();
+                    theFailed.incrementAndGet();
+                    theOpener.clientFailed(clientNumber, null, e);
+                    continue;
+                }
+
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            connect(clientNumber, client);
+                        }
+                        finally {
+                            permits.release();
+                        }
+                    }
+                });
+            }
+
+            // Wait for the connection attempts in progress
+            permits.acquire(theConcurrency);
+            permits.release(theConcurrency);
+        }
+        finally {
+            reporter.shutdownNow();
+            executor.shutdown();
+        }
+
+        if (isReporting) {
+            report(count, startTime);
+        }
+    }
+
+    /**
+     * Open one client at once, without pacing or progress reports.
+     *
+     * @param clientNumber the client number
+     * @return true if the client connected
+     */
+    boolean open(int clientNumber) {
+        final BaseClient client;
+        try {
+            client = theOpener.createClient(clientNumber);
+        }
+        catch (DiffusionException e) {
+            theFailed.incrementAndGet();
+            theOpener.clientFailed(clientNumber, null, e);
+            return false;
+        }
+        return connect(clientNumber, client);
+    }
+
+    /**
+     * @return true if the client connected
+     */
+    private boolean connect(int clientNumber, BaseClient client) {
+        final TransportStats stats =
+            theStats.forTransport(client.getClientType());
+        client.setTransportStats(stats);
+        final long connectStart = System.nanoTime();
+        client.markConnecting(connectStart);
+        try {
+            client.connect();
+            stats.connected(System.nanoTime() - connectStart);
+            client.markActive();
+            theConnected.incrementAndGet();
+            theOpener.clientConnected(client);
+            return true;
+        }
+        catch (DiffusionException e) {
+            connectFailed(clientNumber, client, stats, e);
+        }
+        catch (RuntimeException e) {
+            connectFailed(clientNumber, client, stats, e);
+        }
+        return false;
+    }
+
+    private void connectFailed(
+        int clientNumber,
+        BaseClient client,
+        TransportStats stats,
+        Exception ex) {
+
+        stats.connectionFailed();
+        theFailed.incrementAndGet();
+        theOpener.clientFailed(clientNumber, client, ex);
+    }
+
+    private static void awaitStartTime(long startTime) {
+        long remaining = startTime - System.nanoTime();
+        while (remaining > 0) {
+            LockSupport.parkNanos(remaining);
+            remaining = startTime - System.nanoTime();
+        }
+    }
+
+    private void report(int count, long startTime) {
+        final int connected = theConnected.get();
+        final int failed = theFailed.get();
+        final double elapsedSeconds = (System.nanoTime() - startTime) /
+            (double) TimeUnit.SECONDS.toNanos(1);
+
+        final StringBuilder report = new StringBuilder();
+        report.append(String.format(
+            "Ramp: %d connected, %d failed of %d, %.1f connections/s",
+            connected,
+            failed,
+            count,
+            elapsedSeconds > 0 ? (connected + failed) / elapsedSeconds : 0));
+
+        for (TransportStats stats : theStats.getAll()) {
+            report
+                .append(System.lineSeparator())
+                .append("  ")
+                .append(stats.getTransport())
+                .append(": ")
+                .append(stats.getConnections())
+                .append(" connected, ")
+                .append(stats.getConnectionFailures())
+                .append(" failed, connect ms ")
+                .append(stats.getConnectLatency().toPercentileString(1000))
+                .append(", initial load ms ")
+                .append(
+                    stats.getInitialLoadLatency().toPercentileString(1000));
+        }
+
+        System.out.println(report);
+    }
+}
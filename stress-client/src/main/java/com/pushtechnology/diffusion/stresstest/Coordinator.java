@@ -0,0 +1,330 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+package com.pushtechnology.diffusion.stresstest;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.pushtechnology.diffusion.DiffusionException;
+
+/**
+ * Splits the clients of a stress test across agent processes, starts them
+ * together and merges their results.
+ * <P>
+ * Agents are {@link StressTest} processes in {@link RunMode#AGENT} mode.
+ * The coordinator starts them as local processes sharing its class path and
+ * JVM arguments, or waits for agents started elsewhere to connect. Each agent
+ * is assigned a contiguous range of client numbers. No agent starts
+ * connecting until every agent has created its configuration and reported
+ * ready. See {@link AgentConnection} for the protocol.
+ *
+ * @author Push Technology Limited
+ */
+final class Coordinator {
+
+    private final int theNumberOfClients;
+
+    private final int theNumberOfAgents;
+
+    private final int thePort;
+
+    private final int theTimeoutMillis;
+
+    private final boolean isLaunchingAgents;
+
+    private final String theResultsDirectory;
+
+    /**
+     * Properties set on every launched agent, overriding the properties of
+     * the coordinator.
+     */
+    private final Map<String, String> theAgentProperties;
+
+    private final List<Process> theProcesses = new ArrayList<Process>();
+
+    /**
+     * A connected agent.
+     */
+    private static final class Agent {
+        private final int theIndex;
+        private final Socket theSocket;
+        private final BufferedReader theIn;
+        private final PrintWriter theOut;
+
+        Agent(int index, Socket socket) throws IOException {
+            theIndex = index;
+            theSocket = socket;
+            theIn = new BufferedReader(new InputStreamReader(
+                socket.getInputStream(),
+                AgentConnection.CHARSET));
+            theOut = new PrintWriter(new OutputStreamWriter(
+                socket.getOutputStream(),
+                AgentConnection.CHARSET));
+        }
+
+        void expect(String expected) throws IOException {
+            final String line = theIn.readLine();
+            if (!expected.equals(line)) {
+                throw new IOException(
+                    "Agent " + theIndex + " sent " + line + ", expected " +
+                        expected);
+            }
+        }
+
+        void send(String line) {
+            theOut.println(line);
+            theOut.flush();
+        }
+
+        void close() {
+            try {
+                theSocket.close();
+            }
+            catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @throws DiffusionException on error
+     */
+    Coordinator() throws DiffusionException {
+        this(
+            StressTestProperties.isCoordinatorLaunchingAgents(),
+            StressTestProperties.getResultsDirectory(),
+            Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param launchingAgents true to start the agents as local processes
+     * @param resultsDirectory the directory launched agents write their
+     *        results below, or null if results are not written
+     * @param agentProperties properties set on every launched agent
+     * @throws DiffusionException on error
+     */
+    Coordinator(
+        boolean launchingAgents,
+        String resultsDirectory,
+        Map<String, String> agentProperties) throws DiffusionException {
+
+        theNumberOfClients = StressTestProperties.getNoOfClients();
+        theNumberOfAgents = StressTestProperties.getCoordinatorAgents();
+        thePort = StressTestProperties.getCoordinatorPort();
+        theTimeoutMillis = (int) TimeUnit.SECONDS.toMillis(
+            StressTestProperties.getCoordinatorTimeout());
+        isLaunchingAgents = launchingAgents;
+        theResultsDirectory = resultsDirectory;
+        theAgentProperties = agentProperties;
+
+        if (theNumberOfAgents < 1 || theNumberOfAgents > theNumberOfClients) {
+            throw new IllegalArgumentException(
+                "The number of agents must be between 1 and the number of " +
+                    "clients: " + theNumberOfAgents);
+        }
+    }
+
+    /**
+     * Run the agents and report their combined results.
+     *
+     * @return the combined results of the agents that reported
+     * @throws IOException if an agent fails before the run starts
+     * @throws InterruptedException if interrupted
+     */
+    AgentResults run() throws IOException, InterruptedException {
+        final List<Agent> agents = new ArrayList<Agent>();
+        final ServerSocket server = new ServerSocket(thePort);
+        boolean isStarted = false;
+        try {
+            server.setSoTimeout(theTimeoutMillis);
+            System.out.println(
+                "Coordinator waiting for " + theNumberOfAgents +
+                    " agents on port " + server.getLocalPort());
+            if (isLaunchingAgents) {
+                launchAgents(server.getLocalPort());
+            }
+
+            int firstClient = 0;
+            for (int i = 0; i < theNumberOfAgents; i++) {
+                final Socket socket = server.accept();
+                socket.setSoTimeout(theTimeoutMillis);
+                final Agent agent = new Agent(i, socket);
+                agents.add(agent);
+                agent.expect(AgentConnection.HELLO);
+
+                final int clients = getShare(i);
+                agent.send(
+                    AgentConnection.ASSIGN + ' ' + i + ' ' + firstClient +
+                        ' ' + clients);
+                firstClient += clients;
+            }
+
+            for (Agent agent : agents) {
+                agent.expect(AgentConnection.READY);
+            }
+
+            System.out.println(
+                "All agents ready, starting " + theNumberOfClients +
+                    " clients");
+            for (Agent agent : agents) {
+                agent.theSocket.setSoTimeout(0);
+                agent.send(AgentConnection.START);
+            }
+            isStarted = true;
+
+            return collectResults(agents);
+        }
+        finally {
+            if (!isStarted) {
+                for (Agent agent : agents) {
+                    agent.send(AgentConnection.STOP);
+                }
+            }
+            for (Agent agent : agents) {
+                agent.close();
+            }
+            server.close();
+            awaitProcesses(isStarted);
+        }
+    }
+
+    private AgentResults collectResults(List<Agent> agents) {
+        final AgentResults combined = new AgentResults();
+        int reported = 0;
+        for (Agent agent : agents) {
+            try {
+                combined.add(AgentResults.read(agent.theIn));
+                reported++;
+            }
+            catch (IOException ex) {
+                System.err.println(
+                    "No results from agent " + agent.theIndex + ": " +
+                        ex.getLocalizedMessage());
+            }
+        }
+        combined.print(reported);
+        return combined;
+    }
+
+    /**
+     * @param agent the agent index
+     * @return the number of clients for the agent, spreading any remainder
+     *         over the first agents
+     */
+    private int getShare(int agent) {
+        final int share = theNumberOfClients / theNumberOfAgents;
+        final int remainder = theNumberOfClients % theNumberOfAgents;
+        return agent < remainder ? share + 1 : share;
+    }
+
+    private void launchAgents(int port) throws IOException {
+        final String java =
+            System.getProperty("java.home") + File.separator + "bin" +
+                File.separator + "java";
+
+        for (int i = 0; i < theNumberOfAgents; i++) {
+            final List<String> command = new ArrayList<String>();
+            command.add(java);
+            for (String argument :
+                ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+                if (!isDebugArgument(argument)) {
+                    command.add(argument);
+                }
+            }
+            command.add(define(StressTestProperties.MODE, "agent"));
+            command.add(define(StressTestProperties.COORDINATOR_HOST,
+                "localhost"));
+            command.add(define(StressTestProperties.COORDINATOR_PORT,
+                Integer.toString(port)));
+            command.add(define(StressTestProperties.METRICS_PORT, "0"));
+            if (theResultsDirectory != null) {
+                command.add(define(StressTestProperties.RESULTS_DIRECTORY,
+                    theResultsDirectory + File.separator + "agent-" + i));
+            }
+            for (Map.Entry<String, String> property :
+                theAgentProperties.entrySet()) {
+
+                command.add(define(property.getKey(), property.getValue()));
+            }
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(StressTest.class.getName());
+
+            final Process process =
+                new ProcessBuilder(command).redirectErrorStream(true).start();
+            theProcesses.add(process);
+            pumpOutput(process, i);
+        }
+    }
+
+    private void awaitProcesses(boolean isStarted)
+        throws InterruptedException {
+
+        for (Process process : theProcesses) {
+            if (!isStarted) {
+                process.destroy();
+            }
+            process.waitFor();
+        }
+    }
+
+    private static void pumpOutput(final Process process, int agent) {
+        final String prefix = "[agent-" + agent + "] ";
+        final Thread pump = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final BufferedReader in = new BufferedReader(
+                        new InputStreamReader(process.getInputStream()));
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        System.out.println(prefix + line);
+                    }
+                }
+                catch (IOException e) {
+                    // The agent has exited
+                }
+            }
+        }, "StressTest-agent-" + agent);
+        pump.setDaemon(true);
+        pump.start();
+    }
+
+    private static boolean isDebugArgument(String argument) {
+        return argument.startsWith("-agentlib:jdwp") ||
+            argument.startsWith("-Xrunjdwp") ||
+            argument.startsWith("-Xdebug");
+    }
+
+    private static String define(String key, String value) {
+        return "-D" + key + "=" + value;
+    }
+}
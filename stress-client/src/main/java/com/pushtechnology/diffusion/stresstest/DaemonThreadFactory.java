@@ -0,0 +1,49 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+package com.pushtechnology.diffusion.stresstest;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates named daemon threads, so that the stress test's own threads can be
+ * identified and never prevent the JVM from exiting.
+ *
+ * @author Push Technology Limited
+ */
+public final class DaemonThreadFactory implements ThreadFactory {
+
+    private final String theNamePrefix;
+
+    private final AtomicInteger theThreadCount = new AtomicInteger();
+
+    /**
+     * Constructor.
+     *
+     * @param namePrefix the prefix of the thread names
+     */
+    public DaemonThreadFactory(String namePrefix) {
+        theNamePrefix = namePrefix;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+        final Thread thread = new Thread(
+            runnable,
+            theNamePrefix + "-" + theThreadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }
+}
@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+package com.pushtechnology.diffusion.stresstest;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * How per-client work (connecting, message handler dispatch and sending) is
+ * run.
+ *
+ * @author Push Technology Limited
+ */
+public enum ExecutionMode {
+
+    /**
+     * Platform threads from bounded pools. Message handlers run on the
+     * Diffusion inbound thread that delivered the message.
+     */
+    POOL {
+        @Override
+        public ExecutorService newExecutor(String name, int threads) {
+            return Executors.newFixedThreadPool(
+                Math.max(threads, 1),
+                new DaemonThreadFactory(name));
+        }
+
+        @Override
+        public ExecutorService newHandlerExecutor() {
+            return null;
+        }
+    },
+
+    /**
+     * A virtual thread for each task, so blocking work does not hold a
+     * platform thread. Message handlers are handed off from the inbound
+     * thread and run on virtual threads, in order for each client. Requires
+     * Java 21 or later.
+     */
+    VIRTUAL {
+        @Override
+        public ExecutorService newExecutor(String name, int threads) {
+            return newVirtualThreadExecutor(name);
+        }
+
+        @Override
+        public ExecutorService newHandlerExecutor() {
+            return newVirtualThreadExecutor("StressTest-handler");
+        }
+    };
+
+    /**
+     * @param name the name prefix of the threads
+     * @param threads the number of threads, ignored if threads are created
+     *        for each task
+     * @return an executor for per-client tasks
+     */
+    public abstract ExecutorService newExecutor(String name, int threads);
+
+    /**
+     * @return an executor for message handler dispatch, or null if handlers
+     *         run on the inbound thread
+     */
+    public abstract ExecutorService newHandlerExecutor();
+
+    /**
+     * @param name the mode name, in any case
+     * @return the mode
+     * @throws IllegalArgumentException if the name is not a mode
+     */
+    public static ExecutionMode parse(String name) {
+        for (ExecutionMode mode : values()) {
+            if (mode.name().equalsIgnoreCase(name.trim())) {
+                return mode;
+            }
+        }
+        throw new IllegalArgumentException(
+            "A valid execution mode was not submitted: " + name);
+    }
+
+    /**
+     * Create a thread-per-task executor using virtual threads.
+     * <P>
+     * The stress test is built for older JVMs, so the virtual thread API is
+     * called reflectively.
+     */
+    private static ExecutorService newVirtualThreadExecutor(String name) {
+        try {
+            final Object builder =
+                Thread.class.getMethod("ofVirtual").invoke(null);
+            final Class<?> builderClass =
+                Class.forName("java.lang.Thread$Builder");
+            final Method nameMethod =
+                builderClass.getMethod("name", String.class, long.class);
+            final Object namedBuilder =
+                nameMethod.invoke(builder, name + "-", 1L);
+            final ThreadFactory factory = (ThreadFactory) builderClass
+                .getMethod("factory").invoke(namedBuilder);
+            return (ExecutorService) Executors.class
+                .getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                .invoke(null, factory);
+        }
+        catch (NoSuchMethodException e) {
+            throw virtualThreadsUnavailable(e);
+        }
+        catch (ClassNotFoundException e) {
+            throw virtualThreadsUnavailable(e);
+        }
+        catch (IllegalAccessException e) {
+            throw virtualThreadsUnavailable(e);
+        }
+        catch (InvocationTargetException e) {
+            throw virtualThreadsUnavailable(e.getCause());
+        }
+    }
+
+    private static IllegalStateException virtualThreadsUnavailable(
+        Throwable cause) {
+        return new IllegalStateException(
+            "Virtual threads require Java 21 or later, running on " +
+                System.getProperty("java.version"),
+            cause);
+    }
+}
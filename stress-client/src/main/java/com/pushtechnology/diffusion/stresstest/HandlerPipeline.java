@@ -0,0 +1,486 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+package com.pushtechnology.diffusion.stresstest;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import com.pushtechnology.diffusion.api.message.TopicMessage;
+import com.pushtechnology.diffusion.stresstest.stats.LatencyHistogram;
+import com.pushtechnology.diffusion.stresstest.stats.LatencyRecorder;
+import com.pushtechnology.diffusion.stresstest.testconnector.BaseClient;
+import com.pushtechnology.diffusion.stresstest.testconnector.MessageHandler;
+
+/**
+ * Hands messages from the Diffusion inbound threads to dedicated consumer
+ * threads that run the message handlers, so that the cost of handling is
+ * measured apart from delivery and a slow handler does not hold up the
+ * inbound pool.
+ * <P>
+ * The pipeline has a lane for each consumer thread. A lane is a bounded ring
+ * buffer with slots allocated up front, which any number of inbound threads
+ * add to and its consumer thread takes from. Each client is given one lane,
+ * so its messages are handled one at a time, in the order they were
+ * received. When a lane is full the inbound thread either waits for a free
+ * slot or drops the message, as set by the {@link Overflow} policy.
+ * <P>
+ * The pipeline counts the messages handed off, dropped and that had to
+ * wait, and records the handoff latency, from the message being added to
+ * its handler starting, and the time spent in the handler.
+ *
+ * @author Push Technology Limited
+ */
+public final class HandlerPipeline {
+
+    /**
+     * What an inbound thread does when a lane is full.
+     */
+    public enum Overflow {
+        /**
+         * Wait for the consumer to free a slot, holding up delivery as a
+         * synchronous handler would.
+         */
+        BLOCK,
+
+        /**
+         * Drop the message without handling it.
+         */
+        DROP;
+
+        /**
+         * @param name the overflow policy name, in any case
+         * @return the overflow policy
+         * @throws IllegalArgumentException if the name is not an overflow
+         *         policy
+         */
+        public static Overflow parse(String name) {
+            for (Overflow overflow : values()) {
+                if (overflow.name().equalsIgnoreCase(name.trim())) {
+                    return overflow;
+                }
+            }
+            throw new IllegalArgumentException(
+                "A valid overflow policy was not submitted: " + name);
+        }
+    }
+
+    /**
+     * How long a waiting thread parks before looking again.
+     */
+    private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    /**
+     * How long an idle consumer parks, if not woken by a producer.
+     */
+    private static final long IDLE_PARK_NANOS =
+        TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final Lane[] theLanes;
+
+    private final int theCapacity;
+
+    private final Overflow theOverflow;
+
+    private final LatencyRecorder theHandoffLatency = new LatencyRecorder();
+
+    private final LatencyRecorder theHandlerTime = new LatencyRecorder();
+
+    private volatile boolean isRunning;
+
+    /**
+     * Constructor.
+     *
+     * @param threads the number of consumer threads, one for each lane
+     * @param capacity the number of slots in each lane, rounded up to a
+     *        power of two
+     * @param overflow what to do when a lane is full
+     */
+    public HandlerPipeline(int threads, int capacity, Overflow overflow) {
+        theCapacity =
+            Integer.highestOneBit(Math.max(capacity, 2) * 2 - 1);
+        theOverflow = overflow;
+        theLanes = new Lane[Math.max(threads, 1)];
+        for (int i = 0; i < theLanes.length; i++) {
+            theLanes[i] = new Lane(i);
+        }
+    }
+
+    /**
+     * @param clientNumber the client number
+     * @return the lane that handles the client's messages
+     */
+    public Lane lane(int clientNumber) {
+        return theLanes[Math.abs(clientNumber % theLanes.length)];
+    }
+
+    /**
+     * Start the consumer threads.
+     */
+    public synchronized void start() {
+        if (isRunning) {
+            return;
+        }
+        isRunning = true;
+        for (Lane lane : theLanes) {
+            lane.start();
+        }
+    }
+
+    /**
+     * Stop the consumer threads once they have handled the messages already
+     * handed off.
+     *
+     * @throws InterruptedException if interrupted while waiting for a
+     *         consumer thread to finish
+     */
+    public synchronized void stop() throws InterruptedException {
+        if (!isRunning) {
+            return;
+        }
+        isRunning = false;
+        for (Lane lane : theLanes) {
+            lane.stop();
+        }
+    }
+
+    /**
+     * @return the number of consumer threads
+     */
+    public int getThreads() {
+        return theLanes.length;
+    }
+
+    /**
+     * @return the number of slots in each lane
+     */
+    public int getCapacity() {
+        return theCapacity;
+    }
+
+    /**
+     * @return the overflow policy
+     */
+    public Overflow getOverflow() {
+        return theOverflow;
+    }
+
+    /**
+     * @return the number of messages waiting in all lanes
+     */
+    public long getOccupancy() {
+        long result = 0;
+        for (Lane lane : theLanes) {
+            result += lane.getOccupancy();
+        }
+        return result;
+    }
+
+    /**
+     * @return the most messages there have been waiting in one lane
+     */
+    public long getMaxOccupancy() {
+        long result = 0;
+        for (Lane lane : theLanes) {
+            result = Math.max(result, lane.theMaxOccupancy.get());
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of messages handed off to a lane
+     */
+    public long getHandedOff() {
+        long result = 0;
+        for (Lane lane : theLanes) {
+            result += lane.theHandedOff.get();
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of messages dropped because their lane was full
+     */
+    public long getDropped() {
+        long result = 0;
+        for (Lane lane : theLanes) {
+            result += lane.theDropped.get();
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of messages that waited for a slot
+     */
+    public long getBlocked() {
+        long result = 0;
+        for (Lane lane : theLanes) {
+            result += lane.theBlocked.get();
+        }
+        return result;
+    }
+
+    /**
+     * @return the total time inbound threads waited for a slot, in
+     *         nanoseconds
+     */
+    public long getBlockedNanos() {
+        long result = 0;
+        for (Lane lane : theLanes) {
+            result += lane.theBlockedNanos.get();
+        }
+        return result;
+    }
+
+    /**
+     * @return the time from messages being handed off to their handlers
+     *         starting, in microseconds
+     */
+    public LatencyHistogram getHandoffLatency() {
+        return theHandoffLatency.snapshot();
+    }
+
+    /**
+     * @return the time spent in message handlers, in microseconds
+     */
+    public LatencyHistogram getHandlerTime() {
+        return theHandlerTime.snapshot();
+    }
+
+    /**
+     * @return a summary of the messages handed off
+     */
+    public String report() {
+        return String.format(
+            "Handler pipeline: %d threads, %d slots each, %s on overflow. " +
+                "Handed off %d, dropped %d, blocked %d for %d ms, max " +
+                "occupancy %d. Handoff ms: %s. Handler ms: %s",
+            theLanes.length,
+            theCapacity,
+            theOverflow.name().toLowerCase(),
+            getHandedOff(),
+            getDropped(),
+            getBlocked(),
+            TimeUnit.NANOSECONDS.toMillis(getBlockedNanos()),
+            getMaxOccupancy(),
+            getHandoffLatency().toPercentileString(1000),
+            getHandlerTime().toPercentileString(1000));
+    }
+
+    /**
+     * A ring buffer with a consumer thread of its own.
+     * <P>
+     * Each slot has a sequence number, as in a bounded multi-producer queue.
+     * A slot whose sequence is the position of the producer is free. A
+     * producer claims the position, fills the slot and publishes it by
+     * setting its sequence one past the position. The consumer frees the
+     * slot by setting its sequence one lap on.
+     */
+    public final class Lane {
+
+        private final int theIndex;
+
+        private final int theMask = theCapacity - 1;
+
+        private final AtomicLongArray theSequences =
+            new AtomicLongArray(theCapacity);
+
+        private final MessageHandler[] theHandlers =
+            new MessageHandler[theCapacity];
+
+        private final TopicMessage[] theMessages =
+            new TopicMessage[theCapacity];
+
+        private final byte[][] theContents = new byte[theCapacity][];
+
+        private final long[] theHandOffTimes = new long[theCapacity];
+
+        /**
+         * The next position to add to.
+         */
+        private final AtomicLong theTail = new AtomicLong();
+
+        /**
+         * The next position to take from. Written by the consumer only.
+         */
+        private volatile long theHead;
+
+        private final AtomicLong theHandedOff = new AtomicLong();
+
+        private final AtomicLong theDropped = new AtomicLong();
+
+        private final AtomicLong theBlocked = new AtomicLong();
+
+        private final AtomicLong theBlockedNanos = new AtomicLong();
+
+        private final AtomicLong theMaxOccupancy = new AtomicLong();
+
+        private volatile boolean isWaiting;
+
+        private Thread theThread;
+
+        Lane(int index) {
+            theIndex = index;
+            for (int i = 0; i < theCapacity; i++) {
+                theSequences.set(i, i);
+            }
+        }
+
+        /**
+         * Hand a message off to the lane's consumer thread.
+         *
+         * @param handler the handler to call
+         * @param message the message
+         * @param content the content already read from the message
+         * @return false if the message was dropped
+         */
+        public boolean handOff(
+            MessageHandler handler,
+            TopicMessage message,
+            byte[] content) {
+
+            final long handOffTime = System.nanoTime();
+            long position = claim();
+            if (position < 0) {
+                if (theOverflow == Overflow.DROP) {
+                    theDropped.incrementAndGet();
+                    return false;
+                }
+                theBlocked.incrementAndGet();
+                while (position < 0) {
+                    if (!isRunning) {
+                        // Nothing will free a slot
+                        theDropped.incrementAndGet();
+                        return false;
+                    }
+                    LockSupport.parkNanos(PARK_NANOS);
+                    position = claim();
+                }
+                theBlockedNanos.addAndGet(System.nanoTime() - handOffTime);
+            }
+
+            final int slot = (int) position & theMask;
+            theHandlers[slot] = handler;
+            theMessages[slot] = message;
+            theContents[slot] = content;
+            theHandOffTimes[slot] = handOffTime;
+            // A volatile write, so that either this thread sees the consumer
+            // waiting or the consumer sees the message
+            theSequences.set(slot, position + 1);
+            theHandedOff.incrementAndGet();
+
+            final long occupancy =
+                Math.min(position + 1 - theHead, theCapacity);
+            long max = theMaxOccupancy.get();
+            while (occupancy > max &&
+                !theMaxOccupancy.compareAndSet(max, occupancy)) {
+                max = theMaxOccupancy.get();
+            }
+
+            if (isWaiting) {
+                LockSupport.unpark(theThread);
+            }
+            return true;
+        }
+
+        /**
+         * @return the number of messages waiting
+         */
+        long getOccupancy() {
+            return Math.max(theTail.get() - theHead, 0);
+        }
+
+        /**
+         * Claim the next position.
+         *
+         * @return the position, or -1 if the lane is full
+         */
+        private long claim() {
+            while (true) {
+                final long position = theTail.get();
+                final long sequence =
+                    theSequences.get((int) position & theMask);
+                if (sequence == position) {
+                    if (theTail.compareAndSet(position, position + 1)) {
+                        return position;
+                    }
+                }
+                else if (sequence < position) {
+                    return -1;
+                }
+                // Otherwise another producer claimed the position first
+            }
+        }
+
+        private void start() {
+            theThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    consume();
+                }
+            }, "StressTest-handler-" + theIndex);
+            theThread.setDaemon(true);
+            theThread.start();
+        }
+
+        private void stop() throws InterruptedException {
+            LockSupport.unpark(theThread);
+            theThread.join();
+        }
+
+        private void consume() {
+            long position = theHead;
+            while (true) {
+                final int slot = (int) position & theMask;
+                if (theSequences.get(slot) != position + 1) {
+                    if (!isRunning) {
+                        return;
+                    }
+                    isWaiting = true;
+                    // Look again after advertising, so a message published
+                    // before the flag was seen is not missed
+                    if (theSequences.get(slot) != position + 1) {
+                        LockSupport.parkNanos(IDLE_PARK_NANOS);
+                    }
+                    isWaiting = false;
+                    continue;
+                }
+
+                final MessageHandler handler = theHandlers[slot];
+                final TopicMessage message = theMessages[slot];
+                final byte[] content = theContents[slot];
+                final long startTime = System.nanoTime();
+                theHandoffLatency.recordValue(TimeUnit.NANOSECONDS.toMicros(
+                    startTime - theHandOffTimes[slot]));
+                theHandlers[slot] = null;
+                theMessages[slot] = null;
+                theContents[slot] = null;
+                theHead = position + 1;
+                theSequences.lazySet(slot, position + theCapacity);
+                position++;
+
+                try {
+                    BaseClient.handle(handler, message, content);
+                }
+                catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+                theHandlerTime.recordValue(TimeUnit.NANOSECONDS.toMicros(
+                    System.nanoTime() - startTime));
+            }
+        }
+    }
+}
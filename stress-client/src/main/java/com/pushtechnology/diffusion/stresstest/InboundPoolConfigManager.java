@@ -44,6 +44,37 @@ public final class InboundPoolConfigManager {
         throw new AssertionError();
     }
 
+    /**
+     * @return the name of the inbound pool
+     */
+    public static String getInboundPoolName() {
+        return INBOUND_POOL_NAME;
+    }
+
+    /**
+     * @return the configured queue size of the inbound pool
+     */
+    public static int getInboundPoolQueueSize() {
+        return isConfigured(theInboundPoolQueueSize) ?
+            theInboundPoolQueueSize : DEFAULT_INBOUND_POOL_QUEUE_SIZE;
+    }
+
+    /**
+     * @return the configured number of core threads of the inbound pool
+     */
+    public static int getInboundPoolCoreSize() {
+        return isConfigured(theInboundThreadPoolCoreSize) ?
+            theInboundThreadPoolCoreSize : DEFAULT_INBOUND_POOL_CORE_SIZE;
+    }
+
+    /**
+     * @return the configured maximum number of threads of the inbound pool
+     */
+    public static int getInboundPoolMaxSize() {
+        return isConfigured(theInboundThreadPoolMaxSize) ?
+            theInboundThreadPoolMaxSize : DEFAULT_INBOUND_POOL_MAX_SIZE;
+    }
+
     /**
      * Configure the inbound pool.
      *
@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+package com.pushtechnology.diffusion.stresstest;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.pushtechnology.diffusion.api.threads.ThreadPool;
+import com.pushtechnology.diffusion.api.threads.ThreadService;
+
+/**
+ * Samples the inbound thread pool configured by
+ * {@link InboundPoolConfigManager} while a stress test runs.
+ * <P>
+ * The pool does not count the tasks it rejects. A sample is counted as full
+ * when the queue is at its capacity and the pool has its maximum number of
+ * threads, the state in which the pool rejects further tasks.
+ *
+ * @author Push Technology Limited
+ */
+final class InboundPoolSampler {
+
+    private static final long SAMPLE_INTERVAL_MILLIS = 10;
+
+    private static final double PERCENT = 100;
+
+    private final ScheduledExecutorService theExecutor =
+        Executors.newSingleThreadScheduledExecutor(
+            new DaemonThreadFactory("StressTest-pool-sampler"));
+
+    /**
+     * The counters, only written by the sampling thread.
+     */
+    private volatile long theSamples;
+
+    private volatile long theFullSamples;
+
+    private volatile int thePeakQueueSize;
+
+    private volatile int theLargestPoolSize;
+
+    /**
+     * Start sampling.
+     */
+    void start() {
+        theExecutor.scheduleAtFixedRate(
+            new Runnable() {
+                @Override
+                public void run() {
+                    sample();
+                }
+            },
+            SAMPLE_INTERVAL_MILLIS,
+            SAMPLE_INTERVAL_MILLIS,
+            TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop sampling.
+     */
+    void stop() {
+        theExecutor.shutdownNow();
+    }
+
+    /**
+     * @return the number of samples taken
+     */
+    long getSamples() {
+        return theSamples;
+    }
+
+    /**
+     * @return the number of samples at which the pool would reject a task
+     */
+    long getFullSamples() {
+        return theFullSamples;
+    }
+
+    /**
+     * @return the most tasks queued at any sample
+     */
+    int getPeakQueueSize() {
+        return thePeakQueueSize;
+    }
+
+    /**
+     * @return the most threads the pool has had
+     */
+    int getLargestPoolSize() {
+        return theLargestPoolSize;
+    }
+
+    /**
+     * @return a summary of the samples
+     */
+    String report() {
+        final long samples = theSamples;
+        final long full = theFullSamples;
+        return String.format(
+            "Inbound pool: queue %d, core %d, max %d threads, " +
+                "peak queue %d, largest pool %d, full %d of %d samples " +
+                "(%.2f%%)",
+            InboundPoolConfigManager.getInboundPoolQueueSize(),
+            InboundPoolConfigManager.getInboundPoolCoreSize(),
+            InboundPoolConfigManager.getInboundPoolMaxSize(),
+            thePeakQueueSize,
+            theLargestPoolSize,
+            full,
+            samples,
+            samples > 0 ? full * PERCENT / samples : 0);
+    }
+
+    private void sample() {
+        final ThreadPool pool = getPool();
+        if (pool == null) {
+            return;
+        }
+        final int queued = pool.getQueueSize();
+        final int threads = pool.getPoolSize();
+        theSamples++;
+        if (queued >= InboundPoolConfigManager.getInboundPoolQueueSize() &&
+            threads >= InboundPoolConfigManager.getInboundPoolMaxSize()) {
+            theFullSamples++;
+        }
+        thePeakQueueSize = Math.max(thePeakQueueSize, queued);
+        theLargestPoolSize =
+            Math.max(theLargestPoolSize, pool.getLargestPoolSize());
+    }
+
+    /**
+     * @return the inbound pool, or null if it has not been created
+     */
+    // CHECKSTYLE.OFF: IllegalCatch
+    private static ThreadPool getPool() {
+        try {
+            return ThreadService.getInboundThreadPool();
+        }
+        catch (Exception e) {
+            return null;
+        }
+    }
+    // CHECKSTYLE.ON: IllegalCatch
+}
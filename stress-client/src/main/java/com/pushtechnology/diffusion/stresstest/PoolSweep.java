@@ -0,0 +1,402 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+package com.pushtechnology.diffusion.stresstest;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.pushtechnology.diffusion.DiffusionException;
+import com.pushtechnology.diffusion.stresstest.stats.LatencyHistogram;
+
+/**
+ * Runs a stress test for each inbound pool setting of a grid and recommends
+ * the setting that suits the number of clients and the message rate.
+ * <P>
+ * The Diffusion client reads the inbound pool configuration once, so each
+ * setting is run by a {@link Coordinator} in fresh agent processes with the
+ * setting's queue size, core threads and maximum threads. Settings with more
+ * core than maximum threads are skipped. Each run reports its throughput,
+ * latency, sequence gaps, connection failures and how often the pool was
+ * full, sampled by {@link InboundPoolSampler}.
+ * <P>
+ * A setting is clean if it has no gaps, no connection failures and was never
+ * full. Of the clean settings, those within the tolerance of the best p99
+ * latency, or of the best throughput if latency is not recorded, are
+ * acceptable, and the acceptable setting with the fewest threads and then
+ * the smallest queue is recommended.
+ *
+ * @author Push Technology Limited
+ */
+final class PoolSweep {
+
+    private static final String REPORT_FILE = "sweep.txt";
+
+    private static final double PERCENT = 100;
+
+    private static final double MICROS_PER_MILLI = 1000;
+
+    private static final double RECOMMENDED_PERCENTILE = 99;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final List<Integer> theQueueSizes;
+
+    private final List<Integer> theCoreThreads;
+
+    private final List<Integer> theMaxThreads;
+
+    private final double theTolerance;
+
+    private final int theNumberOfClients;
+
+    private final String theResultsDirectory;
+
+    private final List<Setting> theSettings = new ArrayList<Setting>();
+
+    /**
+     * One inbound pool setting and the results of running it.
+     */
+    private static final class Setting {
+
+        private final int theQueueSize;
+
+        private final int theCoreThreads;
+
+        private final int theMaxThreads;
+
+        private AgentResults theResults;
+
+        private String theFailure;
+
+        Setting(int queueSize, int coreThreads, int maxThreads) {
+            theQueueSize = queueSize;
+            theCoreThreads = coreThreads;
+            theMaxThreads = maxThreads;
+        }
+
+        double getMessageRate() {
+            final double seconds = theResults.getSeconds();
+            return seconds > 0 ? theResults.getMessages() / seconds : 0;
+        }
+
+        /**
+         * @return the recommended percentile of latency in milliseconds, or
+         *         NaN if not recorded
+         */
+        double getLatencyMillis() {
+            final LatencyHistogram latency = theResults.getLatency();
+            if (latency == null || latency.getTotalCount() == 0) {
+                return Double.NaN;
+            }
+            return latency.getValueAtPercentile(RECOMMENDED_PERCENTILE) /
+                MICROS_PER_MILLI;
+        }
+
+        double getFullPercent() {
+            final long samples = theResults.getPoolSamples();
+            return samples > 0 ?
+                theResults.getFullPoolSamples() * PERCENT / samples : 0;
+        }
+
+        boolean isClean() {
+            return theResults != null &&
+                theResults.getSequences().getGaps() == 0 &&
+                theResults.getConnectionFailures() == 0 &&
+                theResults.getFullPoolSamples() == 0;
+        }
+
+        /**
+         * @return true if this setting uses fewer threads than the other,
+         *         or as many with a smaller queue
+         */
+        boolean isSmallerThan(Setting other) {
+            if (theMaxThreads != other.theMaxThreads) {
+                return theMaxThreads < other.theMaxThreads;
+            }
+            if (theCoreThreads != other.theCoreThreads) {
+                return theCoreThreads < other.theCoreThreads;
+            }
+            return theQueueSize < other.theQueueSize;
+        }
+
+        String getName() {
+            return String.format(
+                "queue %d, core %d, max %d",
+                theQueueSize,
+                theCoreThreads,
+                theMaxThreads);
+        }
+
+        @Override
+        public String toString() {
+            if (theResults == null) {
+                return getName() + ": failed: " + theFailure;
+            }
+            final StringBuilder result = new StringBuilder(String.format(
+                "%s: %.0f msgs/s",
+                getName(),
+                getMessageRate()));
+            final LatencyHistogram latency = theResults.getLatency();
+            if (latency != null) {
+                result
+                    .append(", latency ms ")
+                    .append(latency.toPercentileString(MICROS_PER_MILLI));
+            }
+            return result.append(String.format(
+                ", %d gaps, %d failed, full %.2f%%, peak queue %d, " +
+                    "largest pool %d",
+                theResults.getSequences().getGaps(),
+                theResults.getConnectionFailures(),
+                getFullPercent(),
+                theResults.getPeakQueueSize(),
+                theResults.getLargestPoolSize()))
+                .toString();
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @throws DiffusionException on error
+     */
+    PoolSweep() throws DiffusionException {
+        if (!StressTestProperties.isCoordinatorLaunchingAgents()) {
+            throw new IllegalArgumentException(
+                "A sweep launches the agents for each setting, so the " +
+                    "coordinator must launch agents");
+        }
+        theQueueSizes = StressTestProperties.getSweepQueueSizes();
+        theCoreThreads = StressTestProperties.getSweepCoreThreads();
+        theMaxThreads = StressTestProperties.getSweepMaxThreads();
+        theTolerance = StressTestProperties.getSweepTolerance();
+        theNumberOfClients = StressTestProperties.getNoOfClients();
+        theResultsDirectory = StressTestProperties.getResultsDirectory();
+    }
+
+    /**
+     * Run every setting of the grid and report the recommended setting.
+     *
+     * @throws DiffusionException on error
+     * @throws InterruptedException if interrupted
+     */
+    void run() throws DiffusionException, InterruptedException {
+        for (int queueSize : theQueueSizes) {
+            for (int coreThreads : theCoreThreads) {
+                for (int maxThreads : theMaxThreads) {
+                    if (coreThreads <= maxThreads) {
+                        theSettings.add(
+                            new Setting(queueSize, coreThreads, maxThreads));
+                    }
+                }
+            }
+        }
+
+        int number = 0;
+        for (Setting setting : theSettings) {
+            number++;
+            System.out.println(
+                "Sweep " + number + " of " + theSettings.size() + ": " +
+                    setting.getName());
+            runSetting(setting);
+            System.out.println(setting);
+        }
+
+        final String report = report();
+        System.out.println(report);
+        if (theResultsDirectory != null) {
+            writeReport(report);
+        }
+    }
+
+    private void runSetting(Setting setting)
+        throws DiffusionException, InterruptedException {
+
+        final Map<String, String> properties = new HashMap<String, String>();
+        properties.put(
+            StressTestProperties.INBOUND_THREADPOOL_QUEUE_SIZE,
+            Integer.toString(setting.theQueueSize));
+        properties.put(
+            StressTestProperties.INBOUND_THREADPOOL_CORE_SIZE,
+            Integer.toString(setting.theCoreThreads));
+        properties.put(
+            StressTestProperties.INBOUND_THREADPOOL_MAX_SIZE,
+            Integer.toString(setting.theMaxThreads));
+
+        final String directory;
+        if (theResultsDirectory == null) {
+            directory = null;
+        }
+        else {
+            directory = theResultsDirectory + File.separator +
+                String.format(
+                    "pool-q%d-c%d-m%d",
+                    setting.theQueueSize,
+                    setting.theCoreThreads,
+                    setting.theMaxThreads);
+        }
+
+        try {
+            setting.theResults =
+                new Coordinator(true, directory, properties).run();
+        }
+        catch (IOException ex) {
+            setting.theFailure = ex.getLocalizedMessage();
+        }
+    }
+
+    /**
+     * @return the results of every setting and the recommendation
+     */
+    private String report() {
+        final StringBuilder report = new StringBuilder(
+            "Inbound pool sweep of " + theNumberOfClients + " clients");
+        for (Setting setting : theSettings) {
+            report.append(String.format("%n  ")).append(setting);
+        }
+
+        final Setting recommended = recommend();
+        if (recommended == null) {
+            final Setting least = leastSaturated();
+            report.append(String.format(
+                "%nNo setting ran without gaps, connection failures or a " +
+                    "full queue"));
+            if (least != null) {
+                report
+                    .append(", the least saturated was ")
+                    .append(least.getName())
+                    .append(". Try larger settings");
+            }
+            return report.toString();
+        }
+
+        final double rate = recommended.getMessageRate();
+        return report
+            .append(String.format(
+                "%nRecommended for %d clients at %.0f msgs/s " +
+                    "(%.1f per client): %s",
+                theNumberOfClients,
+                rate,
+                rate / Math.max(theNumberOfClients, 1),
+                recommended.getName()))
+            .append(String.format(
+                "%n  %s=%d%n  %s=%d%n  %s=%d",
+                StressTestProperties.INBOUND_THREADPOOL_QUEUE_SIZE,
+                recommended.theQueueSize,
+                StressTestProperties.INBOUND_THREADPOOL_CORE_SIZE,
+                recommended.theCoreThreads,
+                StressTestProperties.INBOUND_THREADPOOL_MAX_SIZE,
+                recommended.theMaxThreads))
+            .toString();
+    }
+
+    /**
+     * @return the smallest clean setting within the tolerance of the best,
+     *         or null if no setting is clean
+     */
+    private Setting recommend() {
+        final List<Setting> clean = new ArrayList<Setting>();
+        boolean isLatencyRecorded = true;
+        for (Setting setting : theSettings) {
+            if (setting.isClean()) {
+                clean.add(setting);
+                isLatencyRecorded &= !Double.isNaN(setting.getLatencyMillis());
+            }
+        }
+        if (clean.isEmpty()) {
+            return null;
+        }
+
+        double best = isLatencyRecorded ? Double.MAX_VALUE : 0;
+        for (Setting setting : clean) {
+            best = isLatencyRecorded ?
+                Math.min(best, setting.getLatencyMillis()) :
+                Math.max(best, setting.getMessageRate());
+        }
+
+        Setting result = null;
+        for (Setting setting : clean) {
+            final boolean isAcceptable = isLatencyRecorded ?
+                setting.getLatencyMillis() <= best * (1 + theTolerance) :
+                setting.getMessageRate() >= best * (1 - theTolerance);
+            if (isAcceptable &&
+                (result == null || setting.isSmallerThan(result))) {
+                result = setting;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the setting that was full least often, then with the fewest
+     *         gaps, or null if no setting ran
+     */
+    private Setting leastSaturated() {
+        Setting result = null;
+        for (Setting setting : theSettings) {
+            if (setting.theResults == null) {
+                continue;
+            }
+            if (result == null ||
+                setting.getFullPercent() < result.getFullPercent() ||
+                (setting.getFullPercent() == result.getFullPercent() &&
+                    setting.theResults.getSequences().getGaps() <
+                        result.theResults.getSequences().getGaps())) {
+                result = setting;
+            }
+        }
+        return result;
+    }
+
+    private void writeReport(String report) {
+        final File directory = new File(theResultsDirectory);
+        Writer writer = null;
+        try {
+            if (!directory.mkdirs() && !directory.isDirectory()) {
+                throw new IOException("Unable to create " + directory);
+            }
+            writer = new OutputStreamWriter(
+                new FileOutputStream(new File(directory, REPORT_FILE)),
+                UTF8);
+            writer.write(report);
+            writer.write(System.lineSeparator());
+            System.out.println(
+                "Sweep report written to " +
+                    new File(directory, REPORT_FILE));
+        }
+        catch (IOException ex) {
+            System.err.println(
+                "Unable to write the sweep report: " +
+                    ex.getLocalizedMessage());
+        }
+        finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                }
+                catch (IOException ignore) {
+                    // ignore
+                }
+            }
+        }
+    }
+}
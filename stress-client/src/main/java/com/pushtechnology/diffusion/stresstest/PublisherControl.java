@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+package com.pushtechnology.diffusion.stresstest;
+
+import java.util.concurrent.TimeUnit;
+
+import com.pushtechnology.diffusion.DiffusionException;
+import com.pushtechnology.diffusion.stresstest.testconnector.BaseClient;
+
+/**
+ * Asks the Stress publisher to change how it publishes, with control
+ * messages sent by any connected client.
+ *
+ * @author Push Technology Limited
+ */
+final class PublisherControl {
+
+    /**
+     * The start of a message asking the Stress publisher to change the
+     * frequency of its updates, followed by the interval in milliseconds or
+     * {@link #DEFAULT}. The publisher reads the same format.
+     */
+    private static final String RATE_CONTROL_PREFIX = "R|";
+
+    /**
+     * The start of a message asking the Stress publisher to change the size
+     * of its message, followed by the size in bytes or {@link #DEFAULT}.
+     */
+    private static final String SIZE_CONTROL_PREFIX = "S|";
+
+    /**
+     * Restores the configured frequency or message size.
+     */
+    static final String DEFAULT = "default";
+
+    private final ClientRegistry theClients;
+
+    private final String theTopic;
+
+    /**
+     * Constructor.
+     *
+     * @param clients the clients to send control messages from
+     * @param topic the topic to send control messages to
+     */
+    PublisherControl(ClientRegistry clients, String topic) {
+        theClients = clients;
+        theTopic = topic;
+    }
+
+    /**
+     * Change the interval between updates.
+     *
+     * @param frequency the interval in milliseconds, or {@link #DEFAULT}
+     * @return true if the request was sent
+     */
+    boolean setFrequency(String frequency) {
+        return send(
+            RATE_CONTROL_PREFIX + frequency,
+            "change the publish frequency to " + frequency);
+    }
+
+    /**
+     * Change the rate of updates. Unless the publisher paces its updates,
+     * the interval between them is rounded to whole milliseconds.
+     *
+     * @param updatesPerSecond the updates per second
+     * @return true if the request was sent
+     */
+    boolean setUpdatesPerSecond(double updatesPerSecond) {
+        return setFrequency(Double.toString(
+            TimeUnit.SECONDS.toMillis(1) / updatesPerSecond));
+    }
+
+    /**
+     * Change the size of the message. The publisher cannot change the size
+     * of generated payloads.
+     *
+     * @param size the size in bytes, or {@link #DEFAULT}
+     * @return true if the request was sent
+     */
+    boolean setMessageSize(String size) {
+        return send(
+            SIZE_CONTROL_PREFIX + size,
+            "change the message size to " + size);
+    }
+
+    private boolean send(String message, String description) {
+        for (BaseClient client : theClients) {
+            if (client.isActive()) {
+                try {
+                    client.send(message, theTopic);
+                    return true;
+                }
+                catch (DiffusionException ex) {
+                    // Try the next client
+                }
+            }
+        }
+        System.err.println("No connected client to " + description);
+        return false;
+    }
+}
@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+package com.pushtechnology.diffusion.stresstest;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The shape of the connection ramp, that is how the number of connection
+ * attempts grows over time.
+ *
+ * @author Push Technology Limited
+ */
+public enum RampProfile {
+
+    /**
+     * Start every connection as soon as the concurrency limit allows.
+     */
+    INSTANT {
+        @Override
+        long startOffsetNanos(int attempt, int connectionsPerSecond,
+            int stepSize) {
+            return 0;
+        }
+    },
+
+    /**
+     * Start connections evenly spaced at the target rate.
+     */
+    LINEAR {
+        @Override
+        long startOffsetNanos(int attempt, int connectionsPerSecond,
+            int stepSize) {
+            if (connectionsPerSecond <= 0) {
+                return 0;
+            }
+            return attempt * ONE_SECOND / connectionsPerSecond;
+        }
+    },
+
+    /**
+     * Start connections in batches of the step size, spacing the batches so
+     * that the average rate is the target rate.
+     */
+    STEP {
+        @Override
+        long startOffsetNanos(int attempt, int connectionsPerSecond,
+            int stepSize) {
+            if (connectionsPerSecond <= 0) {
+                return 0;
+            }
+            final long step = attempt / Math.max(stepSize, 1);
+            return step * Math.max(stepSize, 1) * ONE_SECOND /
+                connectionsPerSecond;
+        }
+    };
+
+    private static final long ONE_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * @param attempt the index of the connection attempt in the ramp
+     * @param connectionsPerSecond the target rate, or 0 for no limit
+     * @param stepSize the number of connections in each step
+     * @return the time the attempt should start, relative to the start of
+     *         the ramp, in nanoseconds
+     */
+    abstract long startOffsetNanos(int attempt, int connectionsPerSecond,
+        int stepSize);
+
+    /**
+     * @param name the profile name, in any case
+     * @return the profile
+     * @throws IllegalArgumentException if the name is not a profile
+     */
+    public static RampProfile parse(String name) {
+        for (RampProfile profile : values()) {
+            if (profile.name().equalsIgnoreCase(name.trim())) {
+                return profile;
+            }
+        }
+        throw new IllegalArgumentException(
+            "A valid ramp profile was not submitted: " + name);
+    }
+}
@@ -0,0 +1,60 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+package com.pushtechnology.diffusion.stresstest;
+
+/**
+ * The role of a stress test process.
+ *
+ * @author Push Technology Limited
+ */
+public enum RunMode {
+
+    /**
+     * Run all the clients in this process.
+     */
+    STANDALONE,
+
+    /**
+     * Split the clients across agent processes, start them together and
+     * merge their results.
+     */
+    COORDINATOR,
+
+    /**
+     * Run the share of the clients assigned by a coordinator.
+     */
+    AGENT,
+
+    /**
+     * Run a coordinated stress test for each inbound pool setting of a grid,
+     * each in fresh agent processes, and recommend a setting.
+     */
+    SWEEP;
+
+    /**
+     * @param name the mode name, in any case
+     * @return the mode
+     * @throws IllegalArgumentException if the name is not a mode
+     */
+    public static RunMode parse(String name) {
+        for (RunMode mode : values()) {
+            if (mode.name().equalsIgnoreCase(name.trim())) {
+                return mode;
+            }
+        }
+        throw new IllegalArgumentException(
+            "A valid run mode was not submitted: " + name);
+    }
+}
@@ -0,0 +1,608 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+package com.pushtechnology.diffusion.stresstest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+import com.pushtechnology.diffusion.DiffusionException;
+import com.pushtechnology.diffusion.stresstest.stats.LatencyHistogram;
+import com.pushtechnology.diffusion.stresstest.stats.SequenceTotals;
+import com.pushtechnology.diffusion.stresstest.stats.StatsWindow;
+import com.pushtechnology.diffusion.stresstest.stats.ThroughputReporter;
+import com.pushtechnology.diffusion.stresstest.stats.TransportStatsRegistry;
+import com.pushtechnology.diffusion.stresstest.testconnector.BaseClient;
+
+/**
+ * Searches for the highest load at which a {@link Budget} of latency, loss
+ * and errors still holds.
+ * <P>
+ * The load is raised in one {@link Dimension} by a growth factor at each
+ * step until a step fails the budget or the maximum is reached, then the
+ * level between the last step to pass and the first to fail is found by
+ * binary search, to within a precision. Each trial sets the level, waits
+ * for the load to settle and then measures it over a window. The highest
+ * level to pass is the knee point of the capacity report.
+ *
+ * @author Push Technology Limited
+ */
+final class SaturationSearch {
+
+    private static final double PERCENT = 100;
+
+    private static final double MICROS_PER_MILLI = 1000;
+
+    /**
+     * The load that is raised.
+     */
+    enum Dimension {
+        /**
+         * The number of connected clients.
+         */
+        CLIENTS("clients"),
+
+        /**
+         * The updates per second of the Stress publisher.
+         */
+        RATE("updates/s"),
+
+        /**
+         * The size of the Stress publisher's message in bytes.
+         */
+        SIZE("bytes");
+
+        private final String theUnit;
+
+        Dimension(String unit) {
+            theUnit = unit;
+        }
+
+        /**
+         * @return the unit of a level
+         */
+        String getUnit() {
+            return theUnit;
+        }
+
+        /**
+         * @param name the dimension name, in any case
+         * @return the dimension
+         * @throws IllegalArgumentException if the name is not a dimension
+         */
+        static Dimension parse(String name) {
+            for (Dimension dimension : values()) {
+                if (dimension.name().equalsIgnoreCase(name.trim())) {
+                    return dimension;
+                }
+            }
+            throw new IllegalArgumentException(
+                "A valid saturation dimension was not submitted: " + name);
+        }
+
+        @Override
+        public String toString() {
+            return name().toLowerCase();
+        }
+    }
+
+    /**
+     * Supplies the sequence counts of all clients.
+     */
+    interface SequenceSource {
+
+        /**
+         * @return the sequence counts of all clients so far
+         */
+        SequenceTotals getSequences();
+    }
+
+    /**
+     * The latency, loss and errors a level must stay within to pass.
+     */
+    static final class Budget {
+
+        private final double thePercentile;
+
+        private final double theLatencyMillis;
+
+        private final double theLossPercent;
+
+        private final double theErrorPercent;
+
+        /**
+         * Constructor.
+         *
+         * @param percentile the latency percentile
+         * @param latencyMillis the highest latency at the percentile in
+         *        milliseconds, or 0 to not check latency
+         * @param lossPercent the highest percentage of updates lost
+         * @param errorPercent the highest percentage of clients failing to
+         *        connect or lost
+         */
+        Budget(
+            double percentile,
+            double latencyMillis,
+            double lossPercent,
+            double errorPercent) {
+
+            thePercentile = percentile;
+            theLatencyMillis = latencyMillis;
+            theLossPercent = lossPercent;
+            theErrorPercent = errorPercent;
+        }
+
+        /**
+         * @return the reason a trial is outside the budget, or null if it
+         *         is within it
+         */
+        private String check(Trial trial) {
+            if (trial.theMessageRate <= 0) {
+                return "no messages received";
+            }
+            if (trial.theErrorPercent > theErrorPercent) {
+                return String.format(
+                    "errors %.2f%% > %s%%",
+                    trial.theErrorPercent,
+                    format(theErrorPercent));
+            }
+            if (trial.theLossPercent > theLossPercent) {
+                return String.format(
+                    "loss %.2f%% > %s%%",
+                    trial.theLossPercent,
+                    format(theLossPercent));
+            }
+            if (isCheckingLatency() &&
+                trial.theLatencyMillis > theLatencyMillis) {
+                return String.format(
+                    "p%s %.1f ms > %s ms",
+                    format(thePercentile),
+                    trial.theLatencyMillis,
+                    format(theLatencyMillis));
+            }
+            return null;
+        }
+
+        private boolean isCheckingLatency() {
+            return theLatencyMillis > 0;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder result = new StringBuilder();
+            if (isCheckingLatency()) {
+                result
+                    .append('p').append(format(thePercentile))
+                    .append(" <= ").append(format(theLatencyMillis))
+                    .append(" ms, ");
+            }
+            return result
+                .append("loss <= ").append(format(theLossPercent))
+                .append("%, errors <= ").append(format(theErrorPercent))
+                .append('%')
+                .toString();
+        }
+
+        private static String format(double value) {
+            return value == Math.rint(value) ?
+                Long.toString((long) value) : Double.toString(value);
+        }
+    }
+
+    /**
+     * The measurements of one level.
+     */
+    private final class Trial {
+
+        private final long theLevel;
+
+        private final double theMessageRate;
+
+        private final double theLatencyMillis;
+
+        private final double theLossPercent;
+
+        private final double theErrorPercent;
+
+        private final String theFailure;
+
+        Trial(
+            long level,
+            StatsWindow step,
+            StatsWindow measured,
+            SequenceTotals start,
+            SequenceTotals end) {
+
+            theLevel = level;
+            theMessageRate = measured.getMessageRate();
+
+            final LatencyHistogram latency = measured.getLatency();
+            if (latency == null || latency.getTotalCount() == 0) {
+                theLatencyMillis = Double.NaN;
+            }
+            else {
+                theLatencyMillis =
+                    latency.getValueAtPercentile(theBudget.thePercentile) /
+                        MICROS_PER_MILLI;
+            }
+
+            final long received = end.getReceived() - start.getReceived();
+            final long gaps = end.getGaps() - start.getGaps();
+            theLossPercent = percentage(gaps, received + gaps);
+
+            // Failures and losses over the whole step, including any change
+            // to the number of clients
+            final long clients = step.getConnections() + step.getFailures() +
+                Math.max(theClients.size(), 1);
+            theErrorPercent = percentage(
+                step.getFailures() + step.getClientsLost(),
+                clients);
+
+            theFailure = theBudget.check(this);
+        }
+
+        boolean isPassed() {
+            return theFailure == null;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder result = new StringBuilder(String.format(
+                "%d %s: %.0f msgs/s",
+                theLevel,
+                theDimension.getUnit(),
+                theMessageRate));
+            if (!Double.isNaN(theLatencyMillis)) {
+                result.append(String.format(
+                    ", p%s %.1f ms",
+                    Budget.format(theBudget.thePercentile),
+                    theLatencyMillis));
+            }
+            result.append(String.format(
+                ", loss %.2f%%, errors %.2f%%, ",
+                theLossPercent,
+                theErrorPercent));
+            return result
+                .append(isPassed() ? "passed" : "failed: " + theFailure)
+                .toString();
+        }
+    }
+
+    private final Dimension theDimension;
+
+    private final long theStart;
+
+    private final long theMaximum;
+
+    private final double theGrowth;
+
+    private final double thePrecision;
+
+    private final long theSettleNanos;
+
+    private final long theStepNanos;
+
+    private final Budget theBudget;
+
+    private final ClientRegistry theClients;
+
+    private final int theFirstClient;
+
+    private final int theCapacity;
+
+    private final ConnectionRamp theRamp;
+
+    private final TransportStatsRegistry theStats;
+
+    private final ThroughputReporter.LatencySource theLatencySource;
+
+    private final SequenceSource theSequenceSource;
+
+    private final PublisherControl theControl;
+
+    private final List<Trial> theTrials = new ArrayList<Trial>();
+
+    /**
+     * Constructor.
+     *
+     * @param dimension the load to raise
+     * @param start the first level
+     * @param maximum the highest level, or 0 for the number of clients
+     *        available when raising clients and no limit otherwise
+     * @param growth the factor each step raises the level by
+     * @param precision the fraction of the level the binary search
+     *        narrows the knee point to
+     * @param settleNanos the time a level runs before it is measured
+     * @param stepNanos the time each level is measured over
+     * @param budget the latency, loss and errors a level must stay within
+     * @param clients the clients
+     * @param firstClient the number of the first client
+     * @param capacity the number of client numbers available
+     * @param ramp opens clients
+     * @param stats the statistics of each transport
+     * @param latencySource the source of end-to-end latency, or null if
+     *        latency is not recorded
+     * @param sequenceSource the source of sequence counts
+     * @param topic the topic to send publisher control messages to
+     */
+    SaturationSearch(
+        Dimension dimension,
+        long start,
+        long maximum,
+        double growth,
+        double precision,
+        long settleNanos,
+        long stepNanos,
+        Budget budget,
+        ClientRegistry clients,
+        int firstClient,
+        int capacity,
+        ConnectionRamp ramp,
+        TransportStatsRegistry stats,
+        ThroughputReporter.LatencySource latencySource,
+        SequenceSource sequenceSource,
+        String topic) {
+
+        if (growth <= 1) {
+            throw new IllegalArgumentException(
+                "The saturation growth must be more than 1: " + growth);
+        }
+        if (dimension == Dimension.CLIENTS && start > capacity) {
+            throw new IllegalArgumentException(
+                "The saturation search starts at " + start +
+                    " clients, more than the number of clients: " + capacity);
+        }
+
+        theDimension = dimension;
+        theStart = Math.max(start, 1);
+        if (dimension == Dimension.CLIENTS) {
+            theMaximum = maximum > 0 ? Math.min(maximum, capacity) : capacity;
+        }
+        else {
+            theMaximum = maximum > 0 ? maximum : Long.MAX_VALUE;
+        }
+        theGrowth = growth;
+        thePrecision = precision;
+        theSettleNanos = settleNanos;
+        theStepNanos = stepNanos;
+        theBudget = budget;
+        theClients = clients;
+        theFirstClient = firstClient;
+        theCapacity = capacity;
+        theRamp = ramp;
+        theStats = stats;
+        theLatencySource = latencySource;
+        theSequenceSource = sequenceSource;
+        theControl = new PublisherControl(clients, topic);
+    }
+
+    /**
+     * @return the load that is raised
+     */
+    Dimension getDimension() {
+        return theDimension;
+    }
+
+    /**
+     * Raise the load until a level fails, then search for the knee point
+     * between the last level to pass and the first to fail.
+     *
+     * @throws InterruptedException if interrupted
+     */
+    void run() throws InterruptedException {
+        System.out.println(
+            "Saturation search of " + theDimension + " from " + theStart +
+                " " + theDimension.getUnit() + ", " + theBudget);
+
+        Trial passed = null;
+        Trial failed = null;
+        long level = theStart;
+        while (failed == null) {
+            final Trial trial = runTrial(level);
+            if (!trial.isPassed()) {
+                failed = trial;
+            }
+            else {
+                passed = trial;
+                if (level >= theMaximum) {
+                    break;
+                }
+                level = Math.min(
+                    Math.max((long) Math.ceil(level * theGrowth), level + 1),
+                    theMaximum);
+            }
+        }
+
+        while (passed != null && failed != null &&
+            failed.theLevel - passed.theLevel > resolution(passed.theLevel)) {
+
+            final Trial trial = runTrial(
+                passed.theLevel + (failed.theLevel - passed.theLevel) / 2);
+            if (trial.isPassed()) {
+                passed = trial;
+            }
+            else {
+                failed = trial;
+            }
+        }
+
+        if (theDimension == Dimension.RATE) {
+            theControl.setFrequency(PublisherControl.DEFAULT);
+        }
+        else if (theDimension == Dimension.SIZE) {
+            theControl.setMessageSize(PublisherControl.DEFAULT);
+        }
+        System.out.println(report());
+    }
+
+    /**
+     * @return the trials so far and the knee point, once found
+     */
+    String report() {
+        final StringBuilder report = new StringBuilder("Capacity by ")
+            .append(theDimension)
+            .append(", ")
+            .append(theBudget);
+
+        Trial passed = null;
+        Trial failed = null;
+        synchronized (theTrials) {
+            int number = 0;
+            for (Trial trial : theTrials) {
+                number++;
+                report
+                    .append(String.format("%n  Trial %d: ", number))
+                    .append(trial);
+                if (trial.isPassed()) {
+                    if (passed == null || trial.theLevel > passed.theLevel) {
+                        passed = trial;
+                    }
+                }
+                else if (failed == null || trial.theLevel < failed.theLevel) {
+                    failed = trial;
+                }
+            }
+        }
+
+        report.append(String.format("%n  Knee: "));
+        if (passed == null) {
+            if (failed == null) {
+                report.append("not measured");
+            }
+            else {
+                report
+                    .append("below the start of ")
+                    .append(failed.theLevel).append(' ')
+                    .append(theDimension.getUnit());
+            }
+        }
+        else {
+            report.append(passed);
+            if (failed == null) {
+                report.append(", no level failed up to the maximum");
+            }
+            else {
+                report
+                    .append(", first failure at ")
+                    .append(failed.theLevel).append(' ')
+                    .append(theDimension.getUnit());
+            }
+        }
+        return report.toString();
+    }
+
+    private long resolution(long level) {
+        return Math.max((long) (level * thePrecision), 1);
+    }
+
+    private Trial runTrial(long level) throws InterruptedException {
+        System.out.println(
+            "Saturation trial at " + level + " " + theDimension.getUnit());
+        if (theDimension == Dimension.CLIENTS) {
+            // Clients closed on purpose are not counted as lost
+            closeClients((int) level);
+        }
+        final StatsWindow step = new StatsWindow(
+            "Saturation " + level + " " + theDimension.getUnit(),
+            theStats,
+            null);
+        setLevel(level);
+        pause(theSettleNanos);
+
+        final SequenceTotals start = theSequenceSource.getSequences();
+        final StatsWindow measured = new StatsWindow(
+            "Saturation " + level + " " + theDimension.getUnit(),
+            theStats,
+            theLatencySource);
+        pause(theStepNanos);
+        System.out.println(measured.close());
+        final SequenceTotals end = theSequenceSource.getSequences();
+        step.close();
+
+        final Trial trial = new Trial(level, step, measured, start, end);
+        System.out.println(trial);
+        synchronized (theTrials) {
+            theTrials.add(trial);
+        }
+        return trial;
+    }
+
+    private void setLevel(long level) throws InterruptedException {
+        switch (theDimension) {
+        case CLIENTS:
+            openClients((int) level);
+            break;
+        case RATE:
+            theControl.setUpdatesPerSecond(level);
+            break;
+        default:
+            theControl.setMessageSize(Long.toString(level));
+        }
+    }
+
+    /**
+     * Open clients until there are as many as the level.
+     */
+    private void openClients(int level) throws InterruptedException {
+        final int required = level - theClients.size();
+        if (required <= 0) {
+            return;
+        }
+        final int[] clientNumbers = new int[required];
+        int found = 0;
+        for (int i = 0; i < theCapacity && found < required; i++) {
+            if (theClients.get(theFirstClient + i) == null) {
+                clientNumbers[found++] = theFirstClient + i;
+            }
+        }
+        theRamp.run(clientNumbers, false);
+    }
+
+    /**
+     * Close active clients until there are no more than the level.
+     */
+    private void closeClients(int level) {
+        final List<BaseClient> active = new ArrayList<BaseClient>();
+        for (BaseClient client : theClients) {
+            if (client.isActive()) {
+                active.add(client);
+            }
+        }
+        for (int i = active.size() - 1; i >= level; i--) {
+            final BaseClient client = active.get(i);
+            try {
+                client.close();
+            }
+            catch (DiffusionException ex) {
+                System.err.println(
+                    "Unable to close client " + client.getThreadNumber() +
+                        ": " + ex.getLocalizedMessage());
+            }
+        }
+    }
+
+    private static double percentage(long count, long total) {
+        return total > 0 ? count * PERCENT / total : 0;
+    }
+
+    private static void pause(long nanos) {
+        final long endTime = System.nanoTime() + nanos;
+        long remaining = nanos;
+        while (remaining > 0) {
+            LockSupport.parkNanos(remaining);
+            remaining = endTime - System.nanoTime();
+        }
+    }
+}
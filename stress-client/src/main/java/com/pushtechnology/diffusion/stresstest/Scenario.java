@@ -0,0 +1,319 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+package com.pushtechnology.diffusion.stresstest;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A sequence of load phases read from a scenario file.
+ * <P>
+ * Each line of the file is a phase: an action followed by
+ * {@code name=value} arguments. Blank lines and lines starting with
+ * {@code #} are ignored. The actions are:
+ * <ul>
+ * <li>{@code ramp clients=N [rate=R]} - open clients until N are connected,
+ * at R connections per second, or as fast as possible if R is 0.
+ * <li>{@code hold duration=T} - keep the current load for T.
+ * <li>{@code spike frequency=F duration=T} - ask the publisher to update every
+ * F milliseconds for T, then restore its configured frequency.
+ * <li>{@code churn percent=P duration=T} - close and reopen P percent of the
+ * connected clients, spread evenly over T.
+ * <li>{@code drain [rate=R]} - close every client, at R per second, or all at
+ * once if R is 0.
+ * </ul>
+ * Durations are a number followed by {@code ms}, {@code s}, {@code m} or
+ * {@code h}, with seconds if there is no unit.
+ *
+ * @author Push Technology Limited
+ */
+final class Scenario {
+
+    /**
+     * What a phase does.
+     */
+    enum Action {
+        RAMP, HOLD, SPIKE, CHURN, DRAIN
+    }
+
+    /**
+     * One phase of a scenario.
+     */
+    static final class Phase {
+        private final Action theAction;
+        private final Map<String, String> theArguments;
+        private final String theDescription;
+
+        Phase(Action action, Map<String, String> arguments, String line) {
+            theAction = action;
+            theArguments = arguments;
+            theDescription = line;
+        }
+
+        Action getAction() {
+            return theAction;
+        }
+
+        /**
+         * @param name the argument name
+         * @param defaultValue the value if the argument is not given
+         * @return the value of an integer argument
+         */
+        int getInteger(String name, int defaultValue) {
+            final String value = theArguments.get(name);
+            return value == null ? defaultValue : Integer.parseInt(value);
+        }
+
+        /**
+         * @return the duration argument in nanoseconds
+         */
+        long getDurationNanos() {
+            return parseDuration(theArguments.get(DURATION));
+        }
+
+        @Override
+        public String toString() {
+            return theDescription;
+        }
+    }
+
+    private static final String CLIENTS = "clients";
+    private static final String RATE = "rate";
+    private static final String DURATION = "duration";
+    private static final String FREQUENCY = "frequency";
+    private static final String PERCENT = "percent";
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private final List<Phase> thePhases;
+
+    private Scenario(List<Phase> phases) {
+        thePhases = Collections.unmodifiableList(phases);
+    }
+
+    /**
+     * @return the phases, in order
+     */
+    List<Phase> getPhases() {
+        return thePhases;
+    }
+
+    /**
+     * @return the largest number of clients any phase ramps to
+     */
+    int getMaximumClients() {
+        int result = 0;
+        for (Phase phase : thePhases) {
+            if (phase.getAction() == Action.RAMP) {
+                result = Math.max(result, phase.getInteger(CLIENTS, 0));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Read a scenario file.
+     *
+     * @param file the file
+     * @return the scenario
+     * @throws IOException if the file cannot be read
+     * @throws IllegalArgumentException if the file is not a valid scenario
+     */
+    static Scenario load(File file) throws IOException {
+        final List<Phase> phases = new ArrayList<Phase>();
+        final BufferedReader in = new BufferedReader(
+            new InputStreamReader(new FileInputStream(file), CHARSET));
+        try {
+            String line;
+            int lineNumber = 0;
+            while ((line = in.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.length() == 0 || line.startsWith("#")) {
+                    continue;
+                }
+                try {
+                    phases.add(parsePhase(line));
+                }
+                catch (IllegalArgumentException ex) {
+                    throw new IllegalArgumentException(
+                        file + " line " + lineNumber + ": " + ex.getMessage(),
+                        ex);
+                }
+            }
+        }
+        finally {
+            in.close();
+        }
+        if (phases.isEmpty()) {
+            throw new IllegalArgumentException(file + " has no phases");
+        }
+        return new Scenario(phases);
+    }
+
+    private static Phase parsePhase(String line) {
+        final String[] words = line.split("\\s+");
+        final Action action;
+        try {
+            action = Action.valueOf(words[0].toUpperCase());
+        }
+        catch (IllegalArgumentException ex) {
+            throw new IllegalArgumentException(
+                "Unknown action: " + words[0], ex);
+        }
+
+        final Map<String, String> arguments = new HashMap<String, String>();
+        for (int i = 1; i < words.length; i++) {
+            final int separator = words[i].indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException(
+                    "Expected name=value: " + words[i]);
+            }
+            arguments.put(
+                words[i].substring(0, separator),
+                words[i].substring(separator + 1));
+        }
+
+        switch (action) {
+        case RAMP:
+            check(arguments, CLIENTS, RATE);
+            requireInteger(arguments, CLIENTS);
+            break;
+        case HOLD:
+            check(arguments, DURATION);
+            requireDuration(arguments);
+            break;
+        case SPIKE:
+            check(arguments, FREQUENCY, DURATION);
+            requireInteger(arguments, FREQUENCY);
+            requireDuration(arguments);
+            break;
+        case CHURN:
+            check(arguments, PERCENT, DURATION);
+            requireInteger(arguments, PERCENT);
+            requireDuration(arguments);
+            break;
+        default:
+            check(arguments, RATE);
+        }
+
+        final Phase phase = new Phase(action, arguments, line);
+        try {
+            phase.getInteger(RATE, 0);
+        }
+        catch (NumberFormatException ex) {
+            throw new IllegalArgumentException(
+                "Invalid rate: " + arguments.get(RATE), ex);
+        }
+        return phase;
+    }
+
+    /**
+     * Check that only the known arguments are given.
+     */
+    private static void check(Map<String, String> arguments, String... known) {
+        for (String name : arguments.keySet()) {
+            boolean isKnown = false;
+            for (String knownName : known) {
+                isKnown |= knownName.equals(name);
+            }
+            if (!isKnown) {
+                throw new IllegalArgumentException(
+                    "Unknown argument: " + name);
+            }
+        }
+    }
+
+    private static void requireInteger(
+        Map<String, String> arguments,
+        String name) {
+
+        final String value = arguments.get(name);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing argument: " + name);
+        }
+        try {
+            if (Integer.parseInt(value) < 0) {
+                throw new IllegalArgumentException(
+                    name + " must not be negative: " + value);
+            }
+        }
+        catch (NumberFormatException ex) {
+            throw new IllegalArgumentException(
+                "Invalid " + name + ": " + value, ex);
+        }
+    }
+
+    private static void requireDuration(Map<String, String> arguments) {
+        if (arguments.get(DURATION) == null) {
+            throw new IllegalArgumentException(
+                "Missing argument: " + DURATION);
+        }
+        parseDuration(arguments.get(DURATION));
+    }
+
+    /**
+     * @param duration a number with an optional unit
+     * @return the duration in nanoseconds
+     * @throws IllegalArgumentException if the duration is not valid
+     */
+    static long parseDuration(String duration) {
+        final String value = duration.trim().toLowerCase();
+        final TimeUnit unit;
+        final String number;
+        if (value.endsWith("ms")) {
+            unit = TimeUnit.MILLISECONDS;
+            number = value.substring(0, value.length() - 2);
+        }
+        else if (value.endsWith("s")) {
+            unit = TimeUnit.SECONDS;
+            number = value.substring(0, value.length() - 1);
+        }
+        else if (value.endsWith("m")) {
+            unit = TimeUnit.MINUTES;
+            number = value.substring(0, value.length() - 1);
+        }
+        else if (value.endsWith("h")) {
+            unit = TimeUnit.HOURS;
+            number = value.substring(0, value.length() - 1);
+        }
+        else {
+            unit = TimeUnit.SECONDS;
+            number = value;
+        }
+        try {
+            final long amount = Long.parseLong(number);
+            if (amount < 0) {
+                throw new IllegalArgumentException(
+                    "Duration must not be negative: " + duration);
+            }
+            return unit.toNanos(amount);
+        }
+        catch (NumberFormatException ex) {
+            throw new IllegalArgumentException(
+                "Invalid duration: " + duration, ex);
+        }
+    }
+}
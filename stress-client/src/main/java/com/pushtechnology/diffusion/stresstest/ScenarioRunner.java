@@ -0,0 +1,281 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+package com.pushtechnology.diffusion.stresstest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.pushtechnology.diffusion.DiffusionException;
+import com.pushtechnology.diffusion.stresstest.stats.StatsWindow;
+import com.pushtechnology.diffusion.stresstest.stats.ThroughputReporter;
+import com.pushtechnology.diffusion.stresstest.stats.TransportStatsRegistry;
+import com.pushtechnology.diffusion.stresstest.testconnector.BaseClient;
+
+/**
+ * Runs the phases of a {@link Scenario} in order, reporting the statistics
+ * of each phase as it ends.
+ * <P>
+ * Clients are opened through {@link ConnectionRamp}s, so connection
+ * statistics are recorded as for a single ramp. Clients that are closed by
+ * churn are reopened with the same client number by a {@link ChurnDriver}.
+ * Publish rate spikes are requested from the Stress publisher through a
+ * {@link PublisherControl}.
+ *
+ * @author Push Technology Limited
+ */
+final class ScenarioRunner {
+
+    private static final int PERCENT = 100;
+
+    private final Scenario theScenario;
+
+    private final ClientRegistry theClients;
+
+    private final int theFirstClient;
+
+    private final int theCapacity;
+
+    private final ConnectionRamp.ClientOpener theOpener;
+
+    private final TransportStatsRegistry theStats;
+
+    private final ThroughputReporter.LatencySource theLatencySource;
+
+    private final ExecutionMode theExecutionMode;
+
+    private final int theConcurrency;
+
+    private final int theReportInterval;
+
+    private final PublisherControl theControl;
+
+    private final List<StatsWindow> theWindows =
+        Collections.synchronizedList(new ArrayList<StatsWindow>());
+
+    /**
+     * Constructor.
+     *
+     * @param scenario the scenario
+     * @param clients the clients
+     * @param firstClient the number of the first client
+     * @param capacity the number of client numbers available
+     * @param opener creates the clients
+     * @param stats the statistics of each transport
+     * @param latencySource the source of end-to-end latency, or null if
+     *        latency is not recorded
+     * @param executionMode how connection attempts are run
+     * @param concurrency the maximum number of connection attempts in
+     *        progress at once
+     * @param reportInterval the interval between ramp progress reports in
+     *        seconds
+     * @param topic the topic to send publisher control messages to
+     */
+    ScenarioRunner(
+        Scenario scenario,
+        ClientRegistry clients,
+        int firstClient,
+        int capacity,
+        ConnectionRamp.ClientOpener opener,
+        TransportStatsRegistry stats,
+        ThroughputReporter.LatencySource latencySource,
+        ExecutionMode executionMode,
+        int concurrency,
+        int reportInterval,
+        String topic) {
+
+        if (scenario.getMaximumClients() > capacity) {
+            throw new IllegalArgumentException(
+                "The scenario ramps to " + scenario.getMaximumClients() +
+                    " clients, more than the number of clients: " + capacity);
+        }
+
+        theScenario = scenario;
+        theClients = clients;
+        theFirstClient = firstClient;
+        theCapacity = capacity;
+        theOpener = opener;
+        theStats = stats;
+        theLatencySource = latencySource;
+        theExecutionMode = executionMode;
+        theConcurrency = concurrency;
+        theReportInterval = reportInterval;
+        theControl = new PublisherControl(clients, topic);
+    }
+
+    /**
+     * Run every phase.
+     *
+     * @throws InterruptedException if interrupted
+     */
+    void run() throws InterruptedException {
+        int number = 0;
+        for (Scenario.Phase phase : theScenario.getPhases()) {
+            number++;
+            System.out.println("Phase " + number + " starting: " + phase);
+            final StatsWindow window = new StatsWindow(
+                "Phase " + number + " " + phase,
+                theStats,
+                theLatencySource);
+            theWindows.add(window);
+
+            switch (phase.getAction()) {
+            case RAMP:
+                ramp(phase.getInteger("clients", 0),
+                    phase.getInteger("rate", 0));
+                break;
+            case HOLD:
+                pause(phase.getDurationNanos());
+                break;
+            case SPIKE:
+                spike(phase.getInteger("frequency", 0),
+                    phase.getDurationNanos());
+                break;
+            case CHURN:
+                churn(phase.getInteger("percent", 0),
+                    phase.getDurationNanos());
+                break;
+            default:
+                drain(phase.getInteger("rate", 0));
+            }
+
+            System.out.println(window.close());
+        }
+    }
+
+    /**
+     * @return the summary of each phase run so far, the last possibly still
+     *         running
+     */
+    List<String> getPhaseSummaries() {
+        final List<String> result = new ArrayList<String>();
+        synchronized (theWindows) {
+            for (StatsWindow window : theWindows) {
+                result.add(window.toString());
+            }
+        }
+        return result;
+    }
+
+    private void ramp(int clients, int connectionsPerSecond)
+        throws InterruptedException {
+
+        final int required = clients - theClients.size();
+        if (required <= 0) {
+            return;
+        }
+        final int[] clientNumbers = new int[required];
+        int found = 0;
+        for (int i = 0; i < theCapacity && found < required; i++) {
+            if (theClients.get(theFirstClient + i) == null) {
+                clientNumbers[found++] = theFirstClient + i;
+            }
+        }
+        newRamp(connectionsPerSecond).run(clientNumbers, true);
+    }
+
+    private void spike(int frequency, long durationNanos) {
+        theControl.setFrequency(Integer.toString(frequency));
+        pause(durationNanos);
+        theControl.setFrequency(PublisherControl.DEFAULT);
+    }
+
+    private void churn(int percent, long durationNanos)
+        throws InterruptedException {
+
+        final List<BaseClient> active = activeClients();
+        Collections.shuffle(active);
+        final int count = (int) ((long) active.size() * percent / PERCENT);
+        if (count == 0 || durationNanos <= 0) {
+            pause(durationNanos);
+            return;
+        }
+
+        // Each chosen client is churned about once over the phase
+        final int[] candidates = new int[count];
+        for (int i = 0; i < count; i++) {
+            candidates[i] = (int) active.get(i).getThreadNumber();
+        }
+        final ChurnDriver churn = new ChurnDriver(
+            theClients,
+            candidates,
+            newRamp(0),
+            theStats,
+            theExecutionMode,
+            count * (double) TimeUnit.SECONDS.toNanos(1) / durationNanos,
+            theConcurrency);
+        churn.start();
+        pause(durationNanos);
+        churn.stop();
+        System.out.println(churn.report());
+    }
+
+    private void drain(int closesPerSecond) {
+        final List<BaseClient> clients = activeClients();
+        final long startTime = System.nanoTime();
+        for (int i = 0; i < clients.size(); i++) {
+            if (closesPerSecond > 0) {
+                pause(startTime +
+                    TimeUnit.SECONDS.toNanos(i) / closesPerSecond -
+                    System.nanoTime());
+            }
+            close(clients.get(i));
+        }
+    }
+
+    private List<BaseClient> activeClients() {
+        final List<BaseClient> result = new ArrayList<BaseClient>();
+        for (BaseClient client : theClients) {
+            if (client.isActive()) {
+                result.add(client);
+            }
+        }
+        return result;
+    }
+
+    private static void close(BaseClient client) {
+        try {
+            client.close();
+        }
+        catch (DiffusionException ex) {
+            System.err.println(
+                "Unable to close client " + client.getThreadNumber() + ": " +
+                    ex.getLocalizedMessage());
+        }
+    }
+
+    private ConnectionRamp newRamp(int connectionsPerSecond) {
+        return new ConnectionRamp(
+            theOpener,
+            theStats,
+            theExecutionMode,
+            connectionsPerSecond > 0 ? RampProfile.LINEAR : RampProfile.INSTANT,
+            connectionsPerSecond,
+            theConcurrency,
+            1,
+            theReportInterval);
+    }
+
+    private static void pause(long nanos) {
+        final long endTime = System.nanoTime() + nanos;
+        long remaining = nanos;
+        while (remaining > 0) {
+            LockSupport.parkNanos(remaining);
+            remaining = endTime - System.nanoTime();
+        }
+    }
+}
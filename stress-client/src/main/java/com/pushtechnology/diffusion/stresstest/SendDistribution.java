@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+package com.pushtechnology.diffusion.stresstest;
+
+import java.util.Random;
+
+/**
+ * How client sends are spread over time.
+ *
+ * @author Push Technology Limited
+ */
+public enum SendDistribution {
+
+    /**
+     * Sends evenly spaced at the target rate.
+     */
+    FIXED {
+        @Override
+        double nextIntervalNanos(long send, double meanIntervalNanos,
+            int burstSize, Random random) {
+            return meanIntervalNanos;
+        }
+    },
+
+    /**
+     * Sends at exponentially distributed intervals, as independent arrivals
+     * at the target rate.
+     */
+    POISSON {
+        @Override
+        double nextIntervalNanos(long send, double meanIntervalNanos,
+            int burstSize, Random random) {
+            return -Math.log(1 - random.nextDouble()) * meanIntervalNanos;
+        }
+    },
+
+    /**
+     * Sends in bursts of burstSize scheduled at the same time, with the
+     * bursts evenly spaced to give the target rate.
+     */
+    BURSTY {
+        @Override
+        double nextIntervalNanos(long send, double meanIntervalNanos,
+            int burstSize, Random random) {
+            return send % burstSize == 0 ? meanIntervalNanos * burstSize : 0;
+        }
+    };
+
+    /**
+     * @param send the number of the send being scheduled, from 1
+     * @param meanIntervalNanos the mean interval between sends
+     * @param burstSize the number of sends in a burst
+     * @param random the source of randomness
+     * @return the interval between the previous send and this one
+     */
+    abstract double nextIntervalNanos(long send, double meanIntervalNanos,
+        int burstSize, Random random);
+
+    /**
+     * @param name the distribution name, in any case
+     * @return the distribution
+     * @throws IllegalArgumentException if the name is not a distribution
+     */
+    public static SendDistribution parse(String name) {
+        for (SendDistribution distribution : values()) {
+            if (distribution.name().equalsIgnoreCase(name.trim())) {
+                return distribution;
+            }
+        }
+        throw new IllegalArgumentException(
+            "A valid send distribution was not submitted: " + name);
+    }
+}
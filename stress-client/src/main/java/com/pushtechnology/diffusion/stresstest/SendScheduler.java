@@ -0,0 +1,323 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+package com.pushtechnology.diffusion.stresstest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import com.pushtechnology.diffusion.DiffusionException;
+import com.pushtechnology.diffusion.stresstest.stats.LatencyHistogram;
+import com.pushtechnology.diffusion.stresstest.stats.LatencyRecorder;
+import com.pushtechnology.diffusion.stresstest.stats.TransportStats;
+import com.pushtechnology.diffusion.stresstest.stats.TransportStatsRegistry;
+import com.pushtechnology.diffusion.stresstest.testconnector.BaseClient;
+import com.pushtechnology.diffusion.stresstest.testconnector.MessageStamp;
+
+/**
+ * Open-loop scheduler of messages sent by a share of the clients. Depending
+ * on the {@link Kind}, the publisher rebroadcasts each message to every
+ * other client, or echoes it back to the sender to measure the round trip.
+ * <P>
+ * Send times are fixed in advance by the {@link SendDistribution} at the
+ * target aggregate rate, and are never delayed by slow sends: the scheduler
+ * thread only hands each send to an executor. Each message is stamped with
+ * its scheduled time rather than the time it was actually sent, so the
+ * rebroadcast latency measured by the receiving clients includes any time
+ * the send spent waiting behind earlier ones, as do round trip times. This
+ * avoids the coordinated omission of a closed loop that only sends once the
+ * previous send has returned. How late sends start is recorded separately as
+ * the send lag.
+ * <P>
+ * The sending clients are chosen by client number so they are spread evenly
+ * over the transports, and take turns in round robin order. A send that
+ * falls to a client that is not connected is skipped, not moved.
+ *
+ * @author Push Technology Limited
+ */
+final class SendScheduler {
+
+    /**
+     * What the messages sent are for.
+     */
+    enum Kind {
+        /**
+         * Messages rebroadcast to every other client.
+         */
+        BROADCAST,
+
+        /**
+         * Pings echoed to the sending client.
+         */
+        PING
+    }
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private static final int PERCENT = 100;
+
+    private static final long STOP_TIMEOUT_SECONDS = 10;
+
+    private final Kind theKind;
+
+    private final ClientRegistry theClients;
+
+    private final TransportStatsRegistry theStats;
+
+    private final int[] theSenders;
+
+    private final String theTopic;
+
+    private final char[] theTemplate;
+
+    private final SendDistribution theDistribution;
+
+    private final double theMeanIntervalNanos;
+
+    private final int theBurstSize;
+
+    private final ExecutorService theExecutor;
+
+    private final Random theRandom = new Random();
+
+    private final AtomicLong theSequence = new AtomicLong();
+
+    private final LongAdder theSent = new LongAdder();
+
+    private final LongAdder theFailed = new LongAdder();
+
+    private final LongAdder theSkipped = new LongAdder();
+
+    private final LatencyRecorder theSendLag = new LatencyRecorder();
+
+    private final Thread theThread;
+
+    private volatile boolean isRunning;
+
+    /**
+     * Constructor.
+     *
+     * @param kind what the messages are for
+     * @param clients the clients
+     * @param senders the numbers of the clients that send, from
+     *        {@link #selectSenders}
+     * @param stats the statistics for each transport
+     * @param executionMode how sends are run
+     * @param messagesPerSecond the target aggregate send rate
+     * @param distribution how sends are spread over time
+     * @param burstSize the number of sends in a burst
+     * @param messageSize the size of each message, including the stamp
+     * @param topic the topic to send to
+     * @param threads the number of threads sending in
+     *        {@link ExecutionMode#POOL} mode
+     */
+    SendScheduler(
+        Kind kind,
+        ClientRegistry clients,
+        int[] senders,
+        TransportStatsRegistry stats,
+        ExecutionMode executionMode,
+        double messagesPerSecond,
+        SendDistribution distribution,
+        int burstSize,
+        int messageSize,
+        String topic,
+        int threads) {
+
+        if (messagesPerSecond <= 0) {
+            throw new IllegalArgumentException(
+                "The send rate must be positive: " + messagesPerSecond);
+        }
+
+        theKind = kind;
+        theClients = clients;
+        theStats = stats;
+        theSenders = senders;
+        theTopic = topic;
+        theDistribution = distribution;
+        theMeanIntervalNanos = NANOS_PER_SECOND / messagesPerSecond;
+        theBurstSize = Math.max(burstSize, 1);
+
+        theTemplate = new char[Math.max(messageSize, MessageStamp.LENGTH)];
+        Arrays.fill(theTemplate, 'x');
+
+        final String name = "StressTest-" + kind.name().toLowerCase();
+        theExecutor = executionMode.newExecutor(name, threads);
+        theThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                schedule();
+            }
+        }, name + "-scheduler");
+        theThread.setDaemon(true);
+    }
+
+    /**
+     * Start sending.
+     */
+    void start() {
+        if (theSenders.length == 0) {
+            return;
+        }
+        System.out.println(String.format(
+            "Sending %s %s at %.1f messages/s from %d clients",
+            theDistribution.name().toLowerCase(),
+            theKind.name().toLowerCase(),
+            NANOS_PER_SECOND / theMeanIntervalNanos,
+            theSenders.length));
+        isRunning = true;
+        theThread.start();
+    }
+
+    /**
+     * Stop scheduling sends, and wait for the sends already scheduled.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void stop() throws InterruptedException {
+        if (!isRunning) {
+            return;
+        }
+        isRunning = false;
+        LockSupport.unpark(theThread);
+        theThread.join();
+        theExecutor.shutdown();
+        theExecutor.awaitTermination(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @return a report of the sends, and the rebroadcast latency or round
+     *         trip time
+     */
+    String report() {
+        final LatencyHistogram latency = new LatencyHistogram();
+        for (TransportStats stats : theStats.getAll()) {
+            latency.add(theKind == Kind.PING ?
+                stats.getRoundTripLatency() : stats.getRebroadcastLatency());
+        }
+        final String name =
+            theKind == Kind.PING ? "Ping" : "Client sends";
+        final String latencyName =
+            theKind == Kind.PING ? "Round trip ms" : "Rebroadcast latency ms";
+        return name + ": " + theSent.sum() + " sent, " + theFailed.sum() +
+            " failed, " + theSkipped.sum() + " skipped, send lag ms " +
+            theSendLag.snapshot().toPercentileString(1000) +
+            "\n" + latencyName + ": " + latency.toPercentileString(1000) +
+            " from " + latency.getTotalCount() + " messages";
+    }
+
+    private void schedule() {
+        final long startTime = System.nanoTime();
+        double nextSend = 0;
+        long send = 0;
+        int sender = 0;
+
+        while (isRunning) {
+            final long scheduledTime = startTime + (long) nextSend;
+            final long wait = scheduledTime - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+                continue;
+            }
+
+            dispatch(theSenders[sender], scheduledTime);
+            sender = (sender + 1) % theSenders.length;
+            send++;
+            nextSend += theDistribution.nextIntervalNanos(
+                send,
+                theMeanIntervalNanos,
+                theBurstSize,
+                theRandom);
+        }
+    }
+
+    private void dispatch(int clientNumber, final long scheduledTime) {
+        final BaseClient client = theClients.get(clientNumber);
+        if (client == null || !client.isActive()) {
+            theSkipped.increment();
+            return;
+        }
+
+        final long sequence = theSequence.getAndIncrement();
+        theExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                send(client, scheduledTime, sequence);
+            }
+        });
+    }
+
+    private void send(BaseClient client, long scheduledTime, long sequence) {
+        final long startTime = System.nanoTime();
+        theSendLag.recordValue(
+            TimeUnit.NANOSECONDS.toMicros(startTime - scheduledTime));
+
+        final char[] message = theTemplate.clone();
+        final long timestamp = MessageStamp.toEpochNanos(scheduledTime);
+        if (theKind == Kind.PING) {
+            MessageStamp.writePingStamp(message, timestamp, sequence);
+        }
+        else {
+            MessageStamp.writeClientStamp(message, timestamp, sequence);
+        }
+
+        final TransportStats stats = client.getTransportStats();
+        try {
+            client.send(new String(message), theTopic);
+            theSent.increment();
+            if (stats != null) {
+                stats.messageSent();
+            }
+        }
+        catch (DiffusionException e) {
+            theFailed.increment();
+            if (stats != null) {
+                stats.sendFailed();
+            }
+        }
+    }
+
+    /**
+     * @param firstClient the number of the first client
+     * @param numberOfClients the number of clients
+     * @param percentage the percentage of clients that send
+     * @return the numbers of the clients that send, spread evenly over the
+     *         range of clients
+     */
+    static int[] selectSenders(
+        int firstClient,
+        int numberOfClients,
+        int percentage) {
+
+        final List<Integer> senders = new ArrayList<Integer>();
+        for (int i = 0; i < numberOfClients; i++) {
+            final int clientNumber = firstClient + i;
+            if ((long) clientNumber * percentage % PERCENT < percentage) {
+                senders.add(clientNumber);
+            }
+        }
+        final int[] result = new int[senders.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = senders.get(i);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+package com.pushtechnology.diffusion.stresstest;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs tasks one at a time, in submission order, using threads from another
+ * executor.
+ * <P>
+ * This lets per-client work share a thread-per-task executor while keeping
+ * each client's messages in order. No thread is held while the client has
+ * nothing to do.
+ *
+ * @author Push Technology Limited
+ */
+public final class SerialExecutor implements Executor {
+
+    private final Executor theExecutor;
+
+    private final Queue<Runnable> theTasks =
+        new ConcurrentLinkedQueue<Runnable>();
+
+    private final AtomicBoolean isScheduled = new AtomicBoolean();
+
+    private final Runnable theDrainTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    /**
+     * Constructor.
+     *
+     * @param executor the executor that supplies the threads
+     */
+    public SerialExecutor(Executor executor) {
+        theExecutor = executor;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        theTasks.add(task);
+        if (isScheduled.compareAndSet(false, true)) {
+            theExecutor.execute(theDrainTask);
+        }
+    }
+
+    private void drain() {
+        do {
+            Runnable task;
+            while ((task = theTasks.poll()) != null) {
+                try {
+                    task.run();
+                }
+                catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+            isScheduled.set(false);
+            // A task added after the last poll but before the flag was
+            // cleared would otherwise be stranded
+        } while (!theTasks.isEmpty() && isScheduled.compareAndSet(false, true));
+    }
+}
@@ -14,13 +14,33 @@
  *******************************************************************************/
 package com.pushtechnology.diffusion.stresstest;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
 import java.util.List;
 import java.util.Random;
-import java.util.Vector;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.pushtechnology.diffusion.DiffusionException;
+import com.pushtechnology.diffusion.stresstest.metrics.MetricsEndpoint;
+import com.pushtechnology.diffusion.stresstest.metrics.StressTestMetrics;
+import com.pushtechnology.diffusion.stresstest.results.ResultsWriter;
+import com.pushtechnology.diffusion.stresstest.stats.HandlerStats;
+import com.pushtechnology.diffusion.stresstest.stats.LatencyHistogram;
+import com.pushtechnology.diffusion.stresstest.stats.LatencyRecorder;
+import com.pushtechnology.diffusion.stresstest.stats.PopularityStats;
+import com.pushtechnology.diffusion.stresstest.stats.SequenceTotals;
+import com.pushtechnology.diffusion.stresstest.stats.ThroughputReporter;
+import com.pushtechnology.diffusion.stresstest.stats.TransportStats;
+import com.pushtechnology.diffusion.stresstest.stats.TransportStatsRegistry;
 import com.pushtechnology.diffusion.stresstest.testconnector.BaseClient;
+import com.pushtechnology.diffusion.stresstest.testconnector.LoopbackClient;
+import com.pushtechnology.diffusion.stresstest.testconnector.LoopbackServer;
+import com.pushtechnology.diffusion.stresstest.testconnector.MeasuredMessageHandler;
+import com.pushtechnology.diffusion.stresstest.testconnector.MessageStamp;
 import com.pushtechnology.diffusion.stresstest.testconnector.MessageHandler;
 import com.pushtechnology.diffusion.stresstest.testconnector.NetClient;
 import com.pushtechnology.diffusion.stresstest.testconnector.SSLClient;
@@ -37,6 +57,16 @@ public final class StressTest {
     private static final String TRANSPORT_SSL = "ssl";
     private static final String TRANSPORT_WS = "ws";
     private static final String TRANSPORT_MIXED = "mixed";
+    private static final String TRANSPORT_LOOPBACK = "loopback";
+
+    /**
+     * The step size and rate that reproduce the old fixed delay of 500 ms
+     * after every 10 clients.
+     */
+    private static final int LEGACY_DELAY_STEP_SIZE = 10;
+    private static final int LEGACY_DELAY_CONNECTIONS_PER_SECOND = 20;
+
+    private final int theFirstClient;
 
     private final int theNumberOfClients;
 
@@ -47,23 +77,205 @@ public final class StressTest {
 
     private final int theNumberOfMessages;
 
-    private final boolean hasCreationDelay;
+    private final ConnectionRamp theRamp;
+
+    private final SendScheduler theSendScheduler;
+
+    private final SendScheduler thePingScheduler;
+
+    private final ScenarioRunner theScenarioRunner;
+
+    private final ChurnDriver theChurnDriver;
+
+    /**
+     * Searches for the highest load within the latency, loss and error
+     * budget, or null to run a scenario or open every client.
+     */
+    private final SaturationSearch theSaturationSearch;
+
+    /**
+     * Chooses the topics of the topic tree each client subscribes to, or
+     * null if clients subscribe to the test topic only.
+     */
+    private final TopicSelector theTopicSelector;
+
+    private final PopularityStats thePopularityStats;
+
+    private final int theTopicSubscriptions;
+
+    private final SubscriptionChurn theSubscriptionChurn;
+
+    private final ExecutionMode theExecutionMode;
+
+    private final ExecutorService theHandlerExecutor;
+
+    /**
+     * Runs message handlers on dedicated threads, or null if they run as
+     * set by the execution mode.
+     */
+    private final HandlerPipeline theHandlerPipeline;
+
+    /**
+     * The decoding of the message handlers, or null if they do not measure
+     * it.
+     */
+    private final HandlerStats theHandlerStats;
+
+    private final InboundPoolSampler thePoolSampler =
+        new InboundPoolSampler();
+
+    /**
+     * The time the last call to {@link #run()} took, in nanoseconds.
+     */
+    private volatile long theRunNanos;
+
+    private final boolean isRecordingLatency;
+
+    private final boolean isRecordingClientLatency;
+
+    /**
+     * Guards the statistics of clients that have finished.
+     */
+    private final Object theFinishedLock = new Object();
+
+    private final SequenceTotals theFinishedSequences = new SequenceTotals();
+
+    private final AtomicBoolean hasReported = new AtomicBoolean();
+
+    private final ThroughputReporter theThroughputReporter;
+
+    private final ResultsWriter theResultsWriter;
+
+    private final StressTestMetrics theMetrics;
+
+    private final MetricsEndpoint theMetricsEndpoint;
 
     private final String theTransportType;
 
+    /**
+     * Stands in for the server when the transport is loopback, otherwise
+     * null.
+     */
+    private final LoopbackServer theLoopbackServer;
+
     private final CountDownLatch theCountDownLatch;
 
     private Class<?> theMessageHandlerClass = null;
 
-    private List<BaseClient> theClients = null;
+    private final ClientRegistry theClients;
 
     private final Random random = new Random();
 
+    private final TransportStatsRegistry theStats =
+        new TransportStatsRegistry();
+
     private final CompletionCallback completionCallback =
         new CompletionCallback() {
         @Override
         public void clientFinished(BaseClient client) {
             if (theClients.remove(client)) {
+                addFinishedStatistics(client);
+                if (theResultsWriter != null) {
+                    theResultsWriter.clientFinished(client);
+                }
+                // A churned client is replaced by a new connection that
+                // counts down when it finishes
+                if (!client.isChurning()) {
+                    theCountDownLatch.countDown();
+                }
+            }
+        }
+    };
+
+    private final ThroughputReporter.LatencySource latencySource =
+        new ThroughputReporter.LatencySource() {
+        @Override
+        public LatencyHistogram getLatency() {
+            return StressTest.this.getLatency();
+        }
+    };
+
+    private final SaturationSearch.SequenceSource sequenceSource =
+        new SaturationSearch.SequenceSource() {
+        @Override
+        public SequenceTotals getSequences() {
+            return StressTest.this.getSequences();
+        }
+    };
+
+    private final ConnectionRamp.ClientOpener clientOpener =
+        new ConnectionRamp.ClientOpener() {
+        @Override
+        public BaseClient createClient(int clientNumber)
+            throws DiffusionException {
+
+            System.out.println("Starting .. " + clientNumber);
+            final BaseClient client =
+                StressTest.this.createClient(clientNumber);
+
+            if (theMessageHandlerClass != null) {
+                try {
+                    final MessageHandler handler =
+                        (MessageHandler) theMessageHandlerClass.newInstance();
+                    if (theHandlerStats != null) {
+                        ((MeasuredMessageHandler) handler)
+                            .setHandlerStats(theHandlerStats);
+                    }
+                    client.setMessageHandler(handler);
+                    if (theHandlerPipeline != null) {
+                        client.setHandlerLane(
+                            theHandlerPipeline.lane(clientNumber));
+                    }
+                    else {
+                        client.setHandlerExecutor(theHandlerExecutor);
+                    }
+                }
+                catch (InstantiationException e) {
+                    throw new DiffusionException(
+                        "failed to create message handler", e);
+                }
+                catch (IllegalAccessException e) {
+                    throw new DiffusionException(
+                        "failed to create message handler", e);
+                }
+            }
+
+            if (isRecordingLatency) {
+                client.setRecordingLatency(true);
+                if (isRecordingClientLatency) {
+                    client.setLatencyRecorder(new LatencyRecorder());
+                }
+            }
+
+            if (theTopicSelector != null) {
+                final List<String> topics =
+                    theTopicSelector.select(theTopicSubscriptions, random);
+                for (String topic : topics) {
+                    thePopularityStats.subscribed(
+                        thePopularityStats.rankOf(topic));
+                }
+                client.setTopics(topics);
+                client.setPopularityStats(thePopularityStats);
+            }
+
+            // Registered before connecting so that a client that finishes
+            // during connection is still counted
+            theClients.add(client);
+            return client;
+        }
+
+        @Override
+        public void clientConnected(BaseClient client) {
+        }
+
+        @Override
+        public void clientFailed(
+            int clientNumber,
+            BaseClient client,
+            Exception ex) {
+
+            ex.printStackTrace();
+            if (client == null || theClients.remove(client)) {
                 theCountDownLatch.countDown();
             }
         }
@@ -75,8 +287,22 @@ public final class StressTest {
      * @throws DiffusionException On error.
      */
     public StressTest() throws DiffusionException {
+        this(0, StressTestProperties.getNoOfClients());
+    }
 
-        theNumberOfClients = StressTestProperties.getNoOfClients();
+    /**
+     * Constructor for a share of the clients.
+     *
+     * @param firstClient the number of the first client
+     * @param numberOfClients the number of clients
+     * @throws DiffusionException On error.
+     */
+    public StressTest(int firstClient, int numberOfClients)
+        throws DiffusionException {
+
+        theFirstClient = firstClient;
+
+        theNumberOfClients = numberOfClients;
 
         theHost = StressTestProperties.getServerHost();
 
@@ -88,10 +314,31 @@ public final class StressTest {
 
         theTransportType = StressTestProperties.getTransportType();
 
-        theNumberOfMessages = StressTestProperties.getNoOfMessages();
+        theLoopbackServer =
+            TRANSPORT_LOOPBACK.equalsIgnoreCase(theTransportType) ?
+                new LoopbackServer(
+                    StressTestProperties.getLoopbackInterval(),
+                    StressTestProperties.getLoopbackMessageSize(),
+                    StressTestProperties.isLoopbackChecksumming(),
+                    StressTestProperties.getLoopbackThreads()) :
+                null;
+
+        final Scenario scenario = loadScenario();
+        final String dimension =
+            scenario == null ?
+                StressTestProperties.getSaturationDimension() : null;
+        final boolean isSearching =
+            dimension != null && dimension.trim().length() > 0;
+
+        // Clients in a scenario or a search run until they are closed
+        theNumberOfMessages =
+            scenario == null && !isSearching ?
+                StressTestProperties.getNoOfMessages() : 0;
 
         theCountDownLatch = new CountDownLatch(theNumberOfClients);
 
+        theClients = new ClientRegistry(theFirstClient, theNumberOfClients);
+
         try {
             final String className =
                 StressTestProperties.getMessageHandlerClass();
@@ -104,20 +351,123 @@ public final class StressTest {
                 "Unable to load message handler class: " +
                     ex.getLocalizedMessage());
         }
-        hasCreationDelay = StressTestProperties.getCreationDelay();
+        if (theLoopbackServer != null &&
+            !LoopbackServer.supports(theMessageHandlerClass)) {
+            throw new IllegalArgumentException(
+                theMessageHandlerClass.getName() +
+                    " cannot be used with the loopback transport, which " +
+                    "delivers no Diffusion messages. Use a " +
+                    "MeasuredMessageHandler or SimpleMessageHandler");
+        }
+        theExecutionMode =
+            ExecutionMode.parse(StressTestProperties.getExecutionMode());
+        theHandlerExecutor = theExecutionMode.newHandlerExecutor();
+        theHandlerPipeline = createHandlerPipeline();
+        if (theMessageHandlerClass != null &&
+            MeasuredMessageHandler.class.isAssignableFrom(
+                theMessageHandlerClass)) {
+            theHandlerStats =
+                new HandlerStats(theMessageHandlerClass.getSimpleName());
+        }
+        else {
+            theHandlerStats = null;
+        }
+        isRecordingLatency = StressTestProperties.isLatencyEnabled();
+        isRecordingClientLatency =
+            StressTestProperties.isClientLatencyEnabled();
+        theRamp = createRamp();
+        theSendScheduler = createSendScheduler();
+        thePingScheduler = createPingScheduler();
+
+        final int topicCount = StressTestProperties.getTopicCount();
+        if (topicCount > 0) {
+            theTopicSelector = TopicSelector.tree(
+                StressTestProperties.getTopic(),
+                topicCount,
+                TopicDistribution.parse(
+                    StressTestProperties.getTopicDistribution()),
+                StressTestProperties.getTopicZipfExponent(),
+                StressTestProperties.getTopicHotFraction(),
+                StressTestProperties.getTopicHotProbability());
+            thePopularityStats = new PopularityStats(topicCount);
+            theTopicSubscriptions =
+                Math.max(StressTestProperties.getTopicSubscriptions(), 1);
+            if (theTopicSubscriptions > theTopicSelector.choosable()) {
+                throw new IllegalArgumentException(
+                    "testing.topic.subscriptions is " +
+                        theTopicSubscriptions + " but only " +
+                        theTopicSelector.choosable() +
+                        " topics have a popularity above 0");
+            }
+        }
+        else {
+            theTopicSelector = null;
+            thePopularityStats = null;
+            theTopicSubscriptions = 0;
+        }
+        theSubscriptionChurn = createSubscriptionChurn();
+
+        theResultsWriter = createResultsWriter();
+
+        if (scenario != null) {
+            theScenarioRunner = new ScenarioRunner(
+                scenario,
+                theClients,
+                theFirstClient,
+                theNumberOfClients,
+                clientOpener,
+                theStats,
+                isRecordingLatency ? latencySource : null,
+                theExecutionMode,
+                StressTestProperties.getRampConcurrency(),
+                StressTestProperties.getRampReportInterval(),
+                StressTestProperties.getTopic());
+        }
+        else {
+            theScenarioRunner = null;
+        }
+        theSaturationSearch =
+            isSearching ?
+                createSaturationSearch(
+                    SaturationSearch.Dimension.parse(dimension)) :
+                null;
+        theChurnDriver = scenario == null ? createChurnDriver() : null;
+
+        final int reportInterval = StressTestProperties.getReportInterval();
+        if (reportInterval > 0) {
+            theThroughputReporter = new ThroughputReporter(
+                theStats,
+                isRecordingLatency ? latencySource : null,
+                reportInterval);
+            if (theResultsWriter != null) {
+                theThroughputReporter.addListener(theResultsWriter);
+            }
+        }
+        else {
+            theThroughputReporter = null;
+        }
+
+        theMetrics = new StressTestMetrics(theStats);
+        theMetrics.setHandlerPipeline(theHandlerPipeline);
+        if (theThroughputReporter != null) {
+            theThroughputReporter.addListener(theMetrics);
+        }
+        if (StressTestProperties.isMetricsJmxEnabled()) {
+            theMetrics.register();
+        }
+        theMetricsEndpoint = createMetricsEndpoint(theMetrics);
 
         final Thread shutDown = new Thread() {
             @Override
             public void run() {
                 System.err.println("StressTest caught closedown");
-                if (theClients != null) {
-                    for (BaseClient client : theClients) {
-                        try {
-                            client.close();
-                        }
-                        catch (DiffusionException ignore) {
-                            ignore.printStackTrace();
-                        }
+                reportResults();
+                for (BaseClient client : theClients) {
+                    try {
+                        client.close();
+                    }
+                    catch (DiffusionException ignore) {
+                        ignore.printStackTrace();
                     }
                 }
             }
@@ -133,56 +483,434 @@ public final class StressTest {
         System.out.println("Starting stress test ...");
     }
 
-    private void setUpConnections() {
-        theClients = new Vector<BaseClient>();
-        for (int i = 0; i < theNumberOfClients; i++) {
-            // try..catch inside loop so that test carries on if a
-            // connection fails.
-            try {
-                System.out.println("Starting .. " + i);
-                final BaseClient client = createClient(i);
+    private static Scenario loadScenario() throws DiffusionException {
+        final String fileName = StressTestProperties.getScenarioFile();
+        if (fileName == null || fileName.trim().length() == 0) {
+            return null;
+        }
+        try {
+            return Scenario.load(new File(fileName.trim()));
+        }
+        catch (IOException ex) {
+            throw new DiffusionException(
+                "Unable to read scenario " + fileName, ex);
+        }
+    }
 
-                if (theMessageHandlerClass != null) {
-                    try {
-                        client
-                            .setMessageHandler((MessageHandler) theMessageHandlerClass
-                                .newInstance());
-                    }
-                    catch (InstantiationException e) {
-                        throw new DiffusionException(
-                            "failed to create message handler", e);
-                    }
-                    catch (IllegalAccessException e) {
-                        throw new DiffusionException(
-                            "failed to create message handler", e);
-                    }
-                }
+    private SaturationSearch createSaturationSearch(
+        SaturationSearch.Dimension dimension) throws DiffusionException {
 
-                client.connect();
+        return new SaturationSearch(
+            dimension,
+            StressTestProperties.getSaturationStart(),
+            StressTestProperties.getSaturationMaximum(),
+            StressTestProperties.getSaturationGrowth(),
+            StressTestProperties.getSaturationPrecision(),
+            TimeUnit.SECONDS.toNanos(
+                StressTestProperties.getSaturationSettleTime()),
+            TimeUnit.SECONDS.toNanos(
+                StressTestProperties.getSaturationStepTime()),
+            new SaturationSearch.Budget(
+                StressTestProperties.getSaturationLatencyPercentile(),
+                isRecordingLatency ?
+                    StressTestProperties.getSaturationLatencyMillis() : 0,
+                StressTestProperties.getSaturationMaxLossPercent(),
+                StressTestProperties.getSaturationMaxErrorPercent()),
+            theClients,
+            theFirstClient,
+            theNumberOfClients,
+            theRamp,
+            theStats,
+            isRecordingLatency ? latencySource : null,
+            sequenceSource,
+            StressTestProperties.getTopic());
+    }
 
-                theClients.add(client);
+    private static ResultsWriter createResultsWriter() {
+        final String directory = StressTestProperties.getResultsDirectory();
+        if (directory == null) {
+            return null;
+        }
+        try {
+            return new ResultsWriter(new File(directory));
+        }
+        catch (IOException ex) {
+            System.err.println(
+                "Unable to write results: " + ex.getLocalizedMessage());
+            return null;
+        }
+    }
 
-                if (hasCreationDelay && i % 10 == 0) {
-                    // Give the server chance to breath...
-                    try {
-                        Thread.sleep(500);
-                    }
-                    catch (InterruptedException e) {
-                        // ignore.
-                        e.printStackTrace();
-                    }
-                }
+    private static MetricsEndpoint createMetricsEndpoint(
+        StressTestMetrics metrics) throws DiffusionException {
+
+        final int port = StressTestProperties.getMetricsPort();
+        if (port == 0) {
+            return null;
+        }
+        try {
+            final MetricsEndpoint endpoint = new MetricsEndpoint(metrics, port);
+            endpoint.start();
+            return endpoint;
+        }
+        catch (IOException ex) {
+            System.err.println(
+                "Unable to serve metrics on port " + port + ": " +
+                    ex.getLocalizedMessage());
+            return null;
+        }
+    }
+
+    private HandlerPipeline createHandlerPipeline() throws DiffusionException {
+        final int threads = StressTestProperties.getHandlerThreads();
+        if (threads <= 0 || theMessageHandlerClass == null) {
+            return null;
+        }
+        return new HandlerPipeline(
+            threads,
+            StressTestProperties.getHandlerBufferSize(),
+            HandlerPipeline.Overflow.parse(
+                StressTestProperties.getHandlerOverflow()));
+    }
+
+    private SendScheduler createSendScheduler() throws DiffusionException {
+        final int percentage = StressTestProperties.getSendPercentage();
+        if (percentage <= 0) {
+            return null;
+        }
+        return new SendScheduler(
+            SendScheduler.Kind.BROADCAST,
+            theClients,
+            SendScheduler.selectSenders(
+                theFirstClient,
+                theNumberOfClients,
+                Math.min(percentage, 100)),
+            theStats,
+            theExecutionMode,
+            StressTestProperties.getSendRate(),
+            SendDistribution.parse(StressTestProperties.getSendDistribution()),
+            StressTestProperties.getSendBurstSize(),
+            StressTestProperties.getSendMessageSize(),
+            StressTestProperties.getTopic(),
+            StressTestProperties.getSendThreads());
+    }
+
+    private SendScheduler createPingScheduler() throws DiffusionException {
+        final int percentage = StressTestProperties.getPingPercentage();
+        if (percentage <= 0) {
+            return null;
+        }
+        final int[] senders = SendScheduler.selectSenders(
+            theFirstClient,
+            theNumberOfClients,
+            Math.min(percentage, 100));
+        final double pingsPerSecond = senders.length *
+            (double) TimeUnit.SECONDS.toMillis(1) /
+            Math.max(StressTestProperties.getPingInterval(), 1);
+        return new SendScheduler(
+            SendScheduler.Kind.PING,
+            theClients,
+            senders,
+            theStats,
+            theExecutionMode,
+            pingsPerSecond,
+            SendDistribution.FIXED,
+            1,
+            MessageStamp.LENGTH,
+            StressTestProperties.getTopic(),
+            StressTestProperties.getSendThreads());
+    }
+
+    private SubscriptionChurn createSubscriptionChurn()
+        throws DiffusionException {
+
+        final int percentage = StressTestProperties.getSubscriptionPercentage();
+        if (percentage <= 0) {
+            return null;
+        }
+        return new SubscriptionChurn(
+            theClients,
+            SendScheduler.selectSenders(
+                theFirstClient,
+                theNumberOfClients,
+                Math.min(percentage, 100)),
+            createSubscriptionTopics(),
+            StressTestProperties.getTopic(),
+            theStats,
+            theExecutionMode,
+            StressTestProperties.getSubscriptionRate(),
+            StressTestProperties.getSendThreads());
+    }
+
+    /**
+     * @return the configured subscription topics if set, otherwise the
+     *         topics of the tree, otherwise the test topic
+     */
+    private TopicSelector createSubscriptionTopics() throws DiffusionException {
+        final List<String> topics =
+            StressTestProperties.getSubscriptionTopics();
+        if (!topics.isEmpty()) {
+            return TopicSelector.uniform(topics);
+        }
+        if (theTopicSelector != null) {
+            return theTopicSelector;
+        }
+        return TopicSelector.uniform(
+            Collections.singletonList(StressTestProperties.getTopic()));
+    }
+
+    private ChurnDriver createChurnDriver() throws DiffusionException {
+        final int percentage = StressTestProperties.getChurnPercentage();
+        if (percentage <= 0) {
+            return null;
+        }
+        return new ChurnDriver(
+            theClients,
+            SendScheduler.selectSenders(
+                theFirstClient,
+                theNumberOfClients,
+                Math.min(percentage, 100)),
+            new ConnectionRamp(
+                clientOpener,
+                theStats,
+                theExecutionMode,
+                RampProfile.INSTANT,
+                0,
+                1,
+                1,
+                0),
+            theStats,
+            theExecutionMode,
+            StressTestProperties.getChurnRate(),
+            StressTestProperties.getRampConcurrency());
+    }
+
+    private ConnectionRamp createRamp() throws DiffusionException {
+        final String profileName = StressTestProperties.getRampProfile();
+        int stepSize = StressTestProperties.getRampStepSize();
+        int connectionsPerSecond =
+            StressTestProperties.getRampConnectionsPerSecond();
+        final RampProfile profile;
+
+        if (profileName != null && profileName.trim().length() > 0) {
+            profile = RampProfile.parse(profileName);
+        }
+        else if (StressTestProperties.getCreationDelay()) {
+            profile = RampProfile.STEP;
+            stepSize = LEGACY_DELAY_STEP_SIZE;
+            connectionsPerSecond = LEGACY_DELAY_CONNECTIONS_PER_SECOND;
+        }
+        else {
+            profile = RampProfile.INSTANT;
+        }
+
+        return new ConnectionRamp(
+            clientOpener,
+            theStats,
+            theExecutionMode,
+            profile,
+            connectionsPerSecond,
+            StressTestProperties.getRampConcurrency(),
+            stepSize,
+            StressTestProperties.getRampReportInterval());
+    }
+
+    /**
+     * Run the scenario if there is one, or the saturation search, otherwise
+     * open every client and wait for them to finish.
+     */
+    private void run() throws InterruptedException {
+        final long startTime = System.nanoTime();
+        thePoolSampler.start();
+        if (theHandlerPipeline != null) {
+            theHandlerPipeline.start();
+        }
+        if (theLoopbackServer != null) {
+            theLoopbackServer.start();
+        }
+        if (theThroughputReporter != null) {
+            theThroughputReporter.start();
+        }
+        if (theScenarioRunner != null) {
+            startSenders();
+            theScenarioRunner.run();
+        }
+        else if (theSaturationSearch != null) {
+            // Only a search of clients opens its own
+            if (theSaturationSearch.getDimension() !=
+                SaturationSearch.Dimension.CLIENTS) {
+                theRamp.run(theFirstClient, theNumberOfClients);
             }
-            catch (DiffusionException e) {
-                e.printStackTrace();
-                theCountDownLatch.countDown();
+            startSenders();
+            theSaturationSearch.run();
+        }
+        else {
+            theRamp.run(theFirstClient, theNumberOfClients);
+            System.out.println("Finished creating clients ");
+            startSenders();
+            if (theChurnDriver != null) {
+                theChurnDriver.start();
+            }
+            theCountDownLatch.await();
+        }
+        if (theChurnDriver != null) {
+            theChurnDriver.stop();
+        }
+        if (theSendScheduler != null) {
+            theSendScheduler.stop();
+        }
+        if (thePingScheduler != null) {
+            thePingScheduler.stop();
+        }
+        if (theSubscriptionChurn != null) {
+            theSubscriptionChurn.stop();
+        }
+        if (theThroughputReporter != null) {
+            theThroughputReporter.stop();
+        }
+        if (theLoopbackServer != null) {
+            theLoopbackServer.stop();
+        }
+        if (theHandlerPipeline != null) {
+            theHandlerPipeline.stop();
+        }
+        thePoolSampler.stop();
+        theRunNanos = System.nanoTime() - startTime;
+    }
+
+    private void startSenders() {
+        if (theSendScheduler != null) {
+            theSendScheduler.start();
+        }
+        if (thePingScheduler != null) {
+            thePingScheduler.start();
+        }
+        if (theSubscriptionChurn != null) {
+            theSubscriptionChurn.start();
+        }
+    }
+
+    private void addFinishedStatistics(BaseClient client) {
+        synchronized (theFinishedLock) {
+            theFinishedSequences.add(client.getSequences());
+        }
+    }
+
+    /**
+     * @return the latency recorded by all clients, finished or not
+     */
+    private LatencyHistogram getLatency() {
+        final LatencyHistogram result = new LatencyHistogram();
+        for (TransportStats stats : theStats.getAll()) {
+            result.add(stats.getLatency());
+        }
+        return result;
+    }
+
+    /**
+     * @return the sequence counts of all clients, finished or not
+     */
+    private SequenceTotals getSequences() {
+        final SequenceTotals result;
+        synchronized (theFinishedLock) {
+            result = theFinishedSequences.copy();
+        }
+        for (BaseClient client : theClients) {
+            result.add(client.getSequences());
+        }
+        return result;
+    }
+
+    /**
+     * Report the end-to-end latency and sequence checks, once, and complete
+     * the results files.
+     */
+    private void reportResults() {
+        if (!hasReported.compareAndSet(false, true)) {
+            return;
+        }
+        final LatencyHistogram latency =
+            isRecordingLatency ? getLatency() : null;
+        final SequenceTotals sequences = getSequences();
+        if (latency != null) {
+            System.out.println(
+                "End-to-end latency ms: " +
+                    latency.toPercentileString(1000) + " from " +
+                    latency.getTotalCount() + " messages");
+        }
+        System.out.println("Sequence: " + sequences);
+        if (theScenarioRunner != null) {
+            for (String summary : theScenarioRunner.getPhaseSummaries()) {
+                System.out.println(summary);
             }
         }
-        System.out.println("Finished creating clients ");
+        if (theSaturationSearch != null) {
+            System.out.println(theSaturationSearch.report());
+        }
+        if (theSendScheduler != null) {
+            System.out.println(theSendScheduler.report());
+        }
+        if (thePingScheduler != null) {
+            System.out.println(thePingScheduler.report());
+        }
+        if (theChurnDriver != null) {
+            System.out.println(theChurnDriver.report());
+        }
+        if (theSubscriptionChurn != null) {
+            System.out.println(theSubscriptionChurn.report());
+        }
+        if (thePopularityStats != null) {
+            System.out.println(thePopularityStats.report());
+        }
+        System.out.println(thePoolSampler.report());
+        if (theHandlerPipeline != null) {
+            System.out.println(theHandlerPipeline.report());
+        }
+        if (theHandlerStats != null) {
+            System.out.println(theHandlerStats.report());
+        }
+        if (theLoopbackServer != null) {
+            System.out.println(theLoopbackServer.report());
+        }
+
+        if (theResultsWriter != null) {
+            theResultsWriter.finish(
+                theClients.snapshot(),
+                theStats.getAll(),
+                StressTestProperties.getConfiguration(),
+                latency,
+                sequences,
+                theHandlerStats,
+                theSaturationSearch == null ?
+                    null : theSaturationSearch.report());
+            System.out.println(
+                "Results written to " + theResultsWriter.getDirectory());
+        }
+    }
+
+    /**
+     * @return the results of this process, to send to a coordinator
+     */
+    private AgentResults getAgentResults() {
+        final AgentResults results = new AgentResults();
+        results.add(
+            theNumberOfClients,
+            theRunNanos / (double) TimeUnit.SECONDS.toNanos(1),
+            isRecordingLatency ? getLatency() : null,
+            getSequences(),
+            thePoolSampler,
+            theStats.getAll());
+        return results;
     }
 
-    private void waitToFinish() throws InterruptedException {
-        theCountDownLatch.await();
+    /**
+     * Stop publishing metrics.
+     */
+    private void stopMetrics() {
+        if (theMetricsEndpoint != null) {
+            theMetricsEndpoint.stop();
+        }
+        theMetrics.unregister();
     }
 
     /**
@@ -195,7 +923,7 @@ public final class StressTest {
     private BaseClient createClient(int clientNumber) throws DiffusionException {
 
         if (theTransportType.equalsIgnoreCase(TRANSPORT_MIXED)) {
-            final int randomNumber = random.nextInt() % 3;
+            final int randomNumber = random.nextInt(3);
 
             switch(randomNumber) {
             case 0:
@@ -215,6 +943,13 @@ public final class StressTest {
         else if (theTransportType.equalsIgnoreCase(TRANSPORT_WS)) {
             return createWSClient(clientNumber);
         }
+        else if (theLoopbackServer != null) {
+            return new LoopbackClient(
+                completionCallback,
+                theLoopbackServer,
+                clientNumber,
+                theNumberOfMessages);
+        }
 
         throw new IllegalArgumentException(
             "A valid transport type was not submitted");
@@ -259,10 +994,56 @@ public final class StressTest {
      */
     // CHECKSTYLE.OFF: UncommentedMain
     public static void main(String[] args)
-        throws InterruptedException, DiffusionException {
-        final StressTest st = new StressTest();
-        st.setUpConnections();
-        st.waitToFinish();
+        throws InterruptedException, DiffusionException, IOException {
+
+        switch (RunMode.parse(StressTestProperties.getMode())) {
+        case COORDINATOR:
+            new Coordinator().run();
+            break;
+        case AGENT:
+            runAgent();
+            break;
+        case SWEEP:
+            new PoolSweep().run();
+            break;
+        default:
+            final StressTest st = new StressTest();
+            st.run();
+            st.reportResults();
+            st.stopMetrics();
+        }
     }
     // CHECKSTYLE.ON: UncommentedMain
+
+    /**
+     * Run the share of the clients assigned by the coordinator, starting
+     * when the coordinator says so, and send the results back.
+     */
+    private static void runAgent()
+        throws InterruptedException, DiffusionException, IOException {
+
+        final AgentConnection coordinator = new AgentConnection(
+            StressTestProperties.getCoordinatorHost(),
+            StressTestProperties.getCoordinatorPort());
+        try {
+            System.out.println(
+                "Agent " + coordinator.getIndex() + " running " +
+                    coordinator.getNumberOfClients() + " clients from " +
+                    coordinator.getFirstClient());
+            final StressTest st = new StressTest(
+                coordinator.getFirstClient(),
+                coordinator.getNumberOfClients());
+            if (!coordinator.awaitStart()) {
+                System.out.println("Run stopped by the coordinator");
+                return;
+            }
+            st.run();
+            st.reportResults();
+            coordinator.sendResults(st.getAgentResults());
+            st.stopMetrics();
+        }
+        finally {
+            coordinator.close();
+        }
+    }
 }
@@ -14,11 +14,19 @@
  *******************************************************************************/
 package com.pushtechnology.diffusion.stresstest;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 import com.pushtechnology.diffusion.DiffusionException;
 
 /**
  * Singleton class used for accessing properties used by the stress test
  * application.
+ * <P>
+ * A system property with the same name as a stress test property overrides
+ * the value in the properties file.
  *
  * @author Push Technology Limited
  */
@@ -55,13 +63,272 @@ public final class StressTestProperties {
     private static final String CREATION_DELAY =
         TESTING_KEY_PREFIX + "delayAfterClientCreation";
 
-    private static final String INBOUND_THREADPOOL_QUEUE_SIZE =
+    static final String INBOUND_THREADPOOL_QUEUE_SIZE =
         TESTING_KEY_PREFIX + "inboundThreadPool.queueSize";
-    private static final String INBOUND_THREADPOOL_CORE_SIZE =
+    static final String INBOUND_THREADPOOL_CORE_SIZE =
         TESTING_KEY_PREFIX + "inboundThreadPool.coreThreads";
-    private static final String INBOUND_THREADPOOL_MAX_SIZE =
+    static final String INBOUND_THREADPOOL_MAX_SIZE =
         TESTING_KEY_PREFIX + "inboundThreadPool.maxThreads";
 
+    private static final String EXECUTION_MODE =
+        TESTING_KEY_PREFIX + "execution.mode";
+
+    private static final String LATENCY_ENABLED =
+        TESTING_KEY_PREFIX + "latency.enabled";
+
+    private static final String LATENCY_PER_CLIENT =
+        TESTING_KEY_PREFIX + "latency.perClient";
+
+    private static final String REPORT_INTERVAL =
+        TESTING_KEY_PREFIX + "report.interval";
+
+    private static final String RAMP_PROFILE =
+        TESTING_KEY_PREFIX + "ramp.profile";
+    private static final String RAMP_CONNECTIONS_PER_SECOND =
+        TESTING_KEY_PREFIX + "ramp.connectionsPerSecond";
+    private static final String RAMP_CONCURRENCY =
+        TESTING_KEY_PREFIX + "ramp.concurrency";
+    private static final String RAMP_STEP_SIZE =
+        TESTING_KEY_PREFIX + "ramp.stepSize";
+    private static final String RAMP_REPORT_INTERVAL =
+        TESTING_KEY_PREFIX + "ramp.reportInterval";
+
+    static final String RESULTS_DIRECTORY =
+        TESTING_KEY_PREFIX + "results.directory";
+
+    private static final String METRICS_JMX_ENABLED =
+        TESTING_KEY_PREFIX + "metrics.jmx";
+    static final String METRICS_PORT =
+        TESTING_KEY_PREFIX + "metrics.port";
+
+    static final String MODE = TESTING_KEY_PREFIX + "mode";
+    static final String COORDINATOR_HOST =
+        TESTING_KEY_PREFIX + "coordinator.host";
+    static final String COORDINATOR_PORT =
+        TESTING_KEY_PREFIX + "coordinator.port";
+    private static final String COORDINATOR_AGENTS =
+        TESTING_KEY_PREFIX + "coordinator.agents";
+    private static final String COORDINATOR_LAUNCH_AGENTS =
+        TESTING_KEY_PREFIX + "coordinator.launchAgents";
+    private static final String COORDINATOR_TIMEOUT =
+        TESTING_KEY_PREFIX + "coordinator.timeout";
+
+    private static final String SWEEP_QUEUE_SIZES =
+        TESTING_KEY_PREFIX + "sweep.queueSizes";
+    private static final String SWEEP_CORE_THREADS =
+        TESTING_KEY_PREFIX + "sweep.coreThreads";
+    private static final String SWEEP_MAX_THREADS =
+        TESTING_KEY_PREFIX + "sweep.maxThreads";
+    private static final String SWEEP_TOLERANCE =
+        TESTING_KEY_PREFIX + "sweep.tolerance";
+
+    private static final String SEND_PERCENTAGE =
+        TESTING_KEY_PREFIX + "send.percentage";
+    private static final String SEND_RATE =
+        TESTING_KEY_PREFIX + "send.rate";
+    private static final String SEND_DISTRIBUTION =
+        TESTING_KEY_PREFIX + "send.distribution";
+    private static final String SEND_BURST_SIZE =
+        TESTING_KEY_PREFIX + "send.burstSize";
+    private static final String SEND_MESSAGE_SIZE =
+        TESTING_KEY_PREFIX + "send.messageSize";
+    private static final String SEND_THREADS =
+        TESTING_KEY_PREFIX + "send.threads";
+
+    private static final String PING_PERCENTAGE =
+        TESTING_KEY_PREFIX + "ping.percentage";
+    private static final String PING_INTERVAL =
+        TESTING_KEY_PREFIX + "ping.interval";
+    private static final String CHURN_PERCENTAGE =
+        TESTING_KEY_PREFIX + "churn.percentage";
+    private static final String CHURN_RATE =
+        TESTING_KEY_PREFIX + "churn.rate";
+    private static final String SUBSCRIPTION_PERCENTAGE =
+        TESTING_KEY_PREFIX + "subscription.percentage";
+    private static final String SUBSCRIPTION_RATE =
+        TESTING_KEY_PREFIX + "subscription.rate";
+    private static final String SUBSCRIPTION_TOPICS =
+        TESTING_KEY_PREFIX + "subscription.topics";
+    private static final String TOPIC_COUNT =
+        TESTING_KEY_PREFIX + "topic.count";
+    private static final String TOPIC_SUBSCRIPTIONS =
+        TESTING_KEY_PREFIX + "topic.subscriptions";
+    private static final String TOPIC_DISTRIBUTION =
+        TESTING_KEY_PREFIX + "topic.distribution";
+    private static final String TOPIC_ZIPF_EXPONENT =
+        TESTING_KEY_PREFIX + "topic.zipfExponent";
+    private static final String TOPIC_HOT_FRACTION =
+        TESTING_KEY_PREFIX + "topic.hotFraction";
+    private static final String TOPIC_HOT_PROBABILITY =
+        TESTING_KEY_PREFIX + "topic.hotProbability";
+    private static final String SCENARIO_FILE =
+        TESTING_KEY_PREFIX + "scenario.file";
+    private static final String HANDLER_THREADS =
+        TESTING_KEY_PREFIX + "handler.threads";
+    private static final String HANDLER_BUFFER_SIZE =
+        TESTING_KEY_PREFIX + "handler.bufferSize";
+    private static final String HANDLER_OVERFLOW =
+        TESTING_KEY_PREFIX + "handler.overflow";
+    private static final String SATURATION_DIMENSION =
+        TESTING_KEY_PREFIX + "saturation.dimension";
+    private static final String SATURATION_START =
+        TESTING_KEY_PREFIX + "saturation.start";
+    private static final String SATURATION_MAXIMUM =
+        TESTING_KEY_PREFIX + "saturation.maximum";
+    private static final String SATURATION_GROWTH =
+        TESTING_KEY_PREFIX + "saturation.growth";
+    private static final String SATURATION_PRECISION =
+        TESTING_KEY_PREFIX + "saturation.precision";
+    private static final String SATURATION_SETTLE_TIME =
+        TESTING_KEY_PREFIX + "saturation.settleTime";
+    private static final String SATURATION_STEP_TIME =
+        TESTING_KEY_PREFIX + "saturation.stepTime";
+    private static final String SATURATION_LATENCY_PERCENTILE =
+        TESTING_KEY_PREFIX + "saturation.latencyPercentile";
+    private static final String SATURATION_LATENCY_MILLIS =
+        TESTING_KEY_PREFIX + "saturation.latencyMillis";
+    private static final String SATURATION_MAX_LOSS =
+        TESTING_KEY_PREFIX + "saturation.maxLossPercent";
+    private static final String SATURATION_MAX_ERRORS =
+        TESTING_KEY_PREFIX + "saturation.maxErrorPercent";
+    private static final String LOOPBACK_INTERVAL =
+        TESTING_KEY_PREFIX + "loopback.interval";
+    private static final String LOOPBACK_MESSAGE_SIZE =
+        TESTING_KEY_PREFIX + "loopback.messageSize";
+    private static final String LOOPBACK_CHECKSUM =
+        TESTING_KEY_PREFIX + "loopback.checksum";
+    private static final String LOOPBACK_THREADS =
+        TESTING_KEY_PREFIX + "loopback.threads";
+
+    /**
+     * Every key, in the order they are reported by {@link #getConfiguration}.
+     */
+    private static final String[] ALL_KEYS = {
+        NOOFCLIENTS_KEY,
+        TRANSPORT_TYPE_KEY,
+        SERVER_HOST_KEY,
+        HTTP_PORT_KEY,
+        SSLCLIENT_PORT_KEY,
+        EXTERNALCLIENT_PORT_KEY,
+        NOOFMESSAGES_KEY,
+        TOPIC_KEY,
+        MESSAGE_HANDLER_CLASS,
+        CREATION_DELAY,
+        INBOUND_THREADPOOL_QUEUE_SIZE,
+        INBOUND_THREADPOOL_CORE_SIZE,
+        INBOUND_THREADPOOL_MAX_SIZE,
+        EXECUTION_MODE,
+        LATENCY_ENABLED,
+        LATENCY_PER_CLIENT,
+        REPORT_INTERVAL,
+        RAMP_PROFILE,
+        RAMP_CONNECTIONS_PER_SECOND,
+        RAMP_CONCURRENCY,
+        RAMP_STEP_SIZE,
+        RAMP_REPORT_INTERVAL,
+        RESULTS_DIRECTORY,
+        METRICS_JMX_ENABLED,
+        METRICS_PORT,
+        MODE,
+        COORDINATOR_HOST,
+        COORDINATOR_PORT,
+        COORDINATOR_AGENTS,
+        COORDINATOR_LAUNCH_AGENTS,
+        COORDINATOR_TIMEOUT,
+        SWEEP_QUEUE_SIZES,
+        SWEEP_CORE_THREADS,
+        SWEEP_MAX_THREADS,
+        SWEEP_TOLERANCE,
+        SEND_PERCENTAGE,
+        SEND_RATE,
+        SEND_DISTRIBUTION,
+        SEND_BURST_SIZE,
+        SEND_MESSAGE_SIZE,
+        SEND_THREADS,
+        PING_PERCENTAGE,
+        PING_INTERVAL,
+        CHURN_PERCENTAGE,
+        CHURN_RATE,
+        SUBSCRIPTION_PERCENTAGE,
+        SUBSCRIPTION_RATE,
+        SUBSCRIPTION_TOPICS,
+        TOPIC_COUNT,
+        TOPIC_SUBSCRIPTIONS,
+        TOPIC_DISTRIBUTION,
+        TOPIC_ZIPF_EXPONENT,
+        TOPIC_HOT_FRACTION,
+        TOPIC_HOT_PROBABILITY,
+        SCENARIO_FILE,
+        HANDLER_THREADS,
+        HANDLER_BUFFER_SIZE,
+        HANDLER_OVERFLOW,
+        SATURATION_DIMENSION,
+        SATURATION_START,
+        SATURATION_MAXIMUM,
+        SATURATION_GROWTH,
+        SATURATION_PRECISION,
+        SATURATION_SETTLE_TIME,
+        SATURATION_STEP_TIME,
+        SATURATION_LATENCY_PERCENTILE,
+        SATURATION_LATENCY_MILLIS,
+        SATURATION_MAX_LOSS,
+        SATURATION_MAX_ERRORS,
+        LOOPBACK_INTERVAL,
+        LOOPBACK_MESSAGE_SIZE,
+        LOOPBACK_CHECKSUM,
+        LOOPBACK_THREADS,
+    };
+
+    private static final String DEFAULT_EXECUTION_MODE = "pool";
+
+    private static final int DEFAULT_REPORT_INTERVAL = 5;
+
+    private static final int DEFAULT_RAMP_CONCURRENCY = 1;
+    private static final int DEFAULT_RAMP_STEP_SIZE = 10;
+    private static final int DEFAULT_RAMP_REPORT_INTERVAL = 1;
+
+    private static final String DEFAULT_MODE = "standalone";
+    private static final String DEFAULT_COORDINATOR_HOST = "localhost";
+    private static final int DEFAULT_COORDINATOR_AGENTS = 2;
+    private static final int DEFAULT_COORDINATOR_TIMEOUT = 120;
+
+    private static final String DEFAULT_SWEEP_QUEUE_SIZES = "10,20,50,100";
+    private static final String DEFAULT_SWEEP_CORE_THREADS = "1,3,6";
+    private static final String DEFAULT_SWEEP_MAX_THREADS = "5,10,20";
+    private static final double DEFAULT_SWEEP_TOLERANCE = 0.1;
+
+    private static final int DEFAULT_SEND_RATE = 100;
+    private static final String DEFAULT_SEND_DISTRIBUTION = "fixed";
+    private static final int DEFAULT_SEND_BURST_SIZE = 10;
+    private static final int DEFAULT_SEND_MESSAGE_SIZE = 100;
+    private static final int DEFAULT_SEND_THREADS = 4;
+
+    private static final int DEFAULT_PING_INTERVAL = 1000;
+
+    private static final int DEFAULT_CHURN_RATE = 10;
+
+    private static final int DEFAULT_SUBSCRIPTION_RATE = 100;
+
+    private static final String DEFAULT_TOPIC_DISTRIBUTION = "zipf";
+    private static final double DEFAULT_TOPIC_ZIPF_EXPONENT = 1.0;
+    private static final double DEFAULT_TOPIC_HOT_FRACTION = 0.1;
+    private static final double DEFAULT_TOPIC_HOT_PROBABILITY = 0.9;
+
+    private static final int DEFAULT_HANDLER_BUFFER_SIZE = 1024;
+    private static final String DEFAULT_HANDLER_OVERFLOW = "block";
+
+    private static final int DEFAULT_SATURATION_START = 10;
+    private static final double DEFAULT_SATURATION_GROWTH = 2.0;
+    private static final double DEFAULT_SATURATION_PRECISION = 0.05;
+    private static final int DEFAULT_SATURATION_SETTLE_TIME = 5;
+    private static final int DEFAULT_SATURATION_STEP_TIME = 30;
+    private static final double DEFAULT_SATURATION_LATENCY_PERCENTILE = 99;
+    private static final double DEFAULT_SATURATION_LATENCY_MILLIS = 100;
+    private static final double DEFAULT_SATURATION_MAX_LOSS = 0.1;
+    private static final double DEFAULT_SATURATION_MAX_ERRORS = 1;
+
+    private static final double DEFAULT_LOOPBACK_INTERVAL = 50;
+
     private static StressTestPropertiesImpl theInstance =
         new StressTestPropertiesImpl();
 
@@ -77,7 +344,7 @@ public final class StressTestProperties {
      * @throws DiffusionException on error.
      */
     public static int getInboundThreadPoolCoreSize() throws DiffusionException {
-        return theInstance.getIntegerProperty(INBOUND_THREADPOOL_CORE_SIZE);
+        return getRequiredIntegerProperty(INBOUND_THREADPOOL_CORE_SIZE);
     }
 
     /**
@@ -85,7 +352,7 @@ public final class StressTestProperties {
      * @throws DiffusionException on error.
      */
     public static int getInboundThreadPoolMaxSize() throws DiffusionException {
-        return theInstance.getIntegerProperty(INBOUND_THREADPOOL_MAX_SIZE);
+        return getRequiredIntegerProperty(INBOUND_THREADPOOL_MAX_SIZE);
     }
 
     /**
@@ -93,7 +360,7 @@ public final class StressTestProperties {
      * @throws DiffusionException on error.
      */
     public static int getInboundThreadPoolQueueSize() throws DiffusionException {
-        return theInstance.getIntegerProperty(INBOUND_THREADPOOL_QUEUE_SIZE);
+        return getRequiredIntegerProperty(INBOUND_THREADPOOL_QUEUE_SIZE);
     }
 
     /**
@@ -101,7 +368,7 @@ public final class StressTestProperties {
      * @throws DiffusionException on error.
      */
     public static int getNoOfClients() throws DiffusionException {
-        return theInstance.getIntegerProperty(NOOFCLIENTS_KEY);
+        return getRequiredIntegerProperty(NOOFCLIENTS_KEY);
     }
 
     /**
@@ -109,14 +376,14 @@ public final class StressTestProperties {
      *         mixed which indicates to use multiple types
      */
     public static String getTransportType() {
-        return theInstance.getProperty(TRANSPORT_TYPE_KEY);
+        return lookup(TRANSPORT_TYPE_KEY);
     }
 
     /**
      * @return the creation delay.
      */
     public static boolean getCreationDelay() {
-        return theInstance.getBooleanProperty(CREATION_DELAY);
+        return getBooleanProperty(CREATION_DELAY, false);
     }
 
     /**
@@ -124,7 +391,7 @@ public final class StressTestProperties {
      *         the stress test will connect to
      */
     public static String getServerHost() {
-        return theInstance.getProperty(SERVER_HOST_KEY);
+        return lookup(SERVER_HOST_KEY);
     }
 
     /**
@@ -133,7 +400,7 @@ public final class StressTestProperties {
      * @throws DiffusionException on error.
      */
     public static int getHttpPort() throws DiffusionException {
-        return theInstance.getIntegerProperty(HTTP_PORT_KEY);
+        return getRequiredIntegerProperty(HTTP_PORT_KEY);
     }
 
     /**
@@ -142,7 +409,7 @@ public final class StressTestProperties {
      * @throws DiffusionException on error
      */
     public static int getNetClientPort() throws DiffusionException {
-        return theInstance.getIntegerProperty(EXTERNALCLIENT_PORT_KEY);
+        return getRequiredIntegerProperty(EXTERNALCLIENT_PORT_KEY);
     }
 
     /**
@@ -150,7 +417,7 @@ public final class StressTestProperties {
      * @throws DiffusionException on error
      */
     public static int getSSLClientPort() throws DiffusionException {
-        return theInstance.getIntegerProperty(SSLCLIENT_PORT_KEY);
+        return getRequiredIntegerProperty(SSLCLIENT_PORT_KEY);
     }
 
     /**
@@ -158,7 +425,7 @@ public final class StressTestProperties {
      * @throws DiffusionException on error
      */
     public static String getTopic() throws DiffusionException {
-        return theInstance.getProperty(TOPIC_KEY);
+        return lookup(TOPIC_KEY);
     }
 
     /**
@@ -168,13 +435,716 @@ public final class StressTestProperties {
      * @throws DiffusionException on error
      */
     public static int getNoOfMessages() throws DiffusionException {
-        return theInstance.getIntegerProperty(NOOFMESSAGES_KEY);
+        return getRequiredIntegerProperty(NOOFMESSAGES_KEY);
     }
 
     /**
      * @return the name of the message handler class
      */
     public static String getMessageHandlerClass() {
-        return theInstance.getProperty(MESSAGE_HANDLER_CLASS);
+        return lookup(MESSAGE_HANDLER_CLASS);
+    }
+
+    /**
+     * @return how per-client work is run, pool or virtual
+     */
+    public static String getExecutionMode() {
+        return getProperty(EXECUTION_MODE, DEFAULT_EXECUTION_MODE);
+    }
+
+    /**
+     * @return true if end-to-end latency is recorded from the publisher's
+     *         message stamps
+     */
+    public static boolean isLatencyEnabled() {
+        return getBooleanProperty(LATENCY_ENABLED, true);
+    }
+
+    /**
+     * @return true if each client also records its own end-to-end latency,
+     *         for the latency columns of the results
+     */
+    public static boolean isClientLatencyEnabled() {
+        return getBooleanProperty(LATENCY_PER_CLIENT, false);
+    }
+
+    /**
+     * @return the interval between throughput reports in seconds, 0 for no
+     *         reports
+     * @throws DiffusionException on error
+     */
+    public static int getReportInterval() throws DiffusionException {
+        return getIntegerProperty(REPORT_INTERVAL, DEFAULT_REPORT_INTERVAL);
+    }
+
+    /**
+     * @return the connection ramp profile, or null if not set
+     */
+    public static String getRampProfile() {
+        return lookup(RAMP_PROFILE);
+    }
+
+    /**
+     * @return the target rate of connection attempts, 0 for no limit
+     * @throws DiffusionException on error
+     */
+    public static int getRampConnectionsPerSecond() throws DiffusionException {
+        return getIntegerProperty(RAMP_CONNECTIONS_PER_SECOND, 0);
+    }
+
+    /**
+     * @return the maximum number of connection attempts in progress at once
+     * @throws DiffusionException on error
+     */
+    public static int getRampConcurrency() throws DiffusionException {
+        return getIntegerProperty(RAMP_CONCURRENCY, DEFAULT_RAMP_CONCURRENCY);
+    }
+
+    /**
+     * @return the number of connections in each step of a step ramp
+     * @throws DiffusionException on error
+     */
+    public static int getRampStepSize() throws DiffusionException {
+        return getIntegerProperty(RAMP_STEP_SIZE, DEFAULT_RAMP_STEP_SIZE);
+    }
+
+    /**
+     * @return the interval between ramp progress reports in seconds, 0 to
+     *         report only when the ramp completes
+     * @throws DiffusionException on error
+     */
+    public static int getRampReportInterval() throws DiffusionException {
+        return getIntegerProperty(
+            RAMP_REPORT_INTERVAL,
+            DEFAULT_RAMP_REPORT_INTERVAL);
+    }
+
+    /**
+     * @return the directory to write run results to, or null if results are
+     *         not written
+     */
+    public static String getResultsDirectory() {
+        return getProperty(RESULTS_DIRECTORY, null);
+    }
+
+    /**
+     * @return true if the stress test state is published as MBeans
+     */
+    public static boolean isMetricsJmxEnabled() {
+        return getBooleanProperty(METRICS_JMX_ENABLED, true);
+    }
+
+    /**
+     * @return the local port to serve plain-text metrics on, 0 for none
+     * @throws DiffusionException on error
+     */
+    public static int getMetricsPort() throws DiffusionException {
+        return getIntegerProperty(METRICS_PORT, 0);
+    }
+
+    /**
+     * @return whether this process runs a stress test alone, coordinates
+     *         agents, or is an agent
+     */
+    public static String getMode() {
+        return getProperty(MODE, DEFAULT_MODE);
+    }
+
+    /**
+     * @return the host agents connect to the coordinator on
+     */
+    public static String getCoordinatorHost() {
+        return getProperty(COORDINATOR_HOST, DEFAULT_COORDINATOR_HOST);
+    }
+
+    /**
+     * @return the port the coordinator listens on, 0 for any free port
+     * @throws DiffusionException on error
+     */
+    public static int getCoordinatorPort() throws DiffusionException {
+        return getIntegerProperty(COORDINATOR_PORT, 0);
+    }
+
+    /**
+     * @return the number of agents the clients are split across
+     * @throws DiffusionException on error
+     */
+    public static int getCoordinatorAgents() throws DiffusionException {
+        return getIntegerProperty(
+            COORDINATOR_AGENTS,
+            DEFAULT_COORDINATOR_AGENTS);
+    }
+
+    /**
+     * @return true if the coordinator starts the agents as local processes
+     */
+    public static boolean isCoordinatorLaunchingAgents() {
+        return getBooleanProperty(COORDINATOR_LAUNCH_AGENTS, true);
+    }
+
+    /**
+     * @return the seconds the coordinator waits for agents to become ready
+     * @throws DiffusionException on error
+     */
+    public static int getCoordinatorTimeout() throws DiffusionException {
+        return getIntegerProperty(
+            COORDINATOR_TIMEOUT,
+            DEFAULT_COORDINATOR_TIMEOUT);
+    }
+
+    /**
+     * @return the inbound pool queue sizes a sweep runs with
+     * @throws DiffusionException on error
+     */
+    public static List<Integer> getSweepQueueSizes()
+        throws DiffusionException {
+        return getIntegerListProperty(
+            SWEEP_QUEUE_SIZES,
+            DEFAULT_SWEEP_QUEUE_SIZES);
+    }
+
+    /**
+     * @return the inbound pool core thread counts a sweep runs with
+     * @throws DiffusionException on error
+     */
+    public static List<Integer> getSweepCoreThreads()
+        throws DiffusionException {
+        return getIntegerListProperty(
+            SWEEP_CORE_THREADS,
+            DEFAULT_SWEEP_CORE_THREADS);
+    }
+
+    /**
+     * @return the inbound pool maximum thread counts a sweep runs with
+     * @throws DiffusionException on error
+     */
+    public static List<Integer> getSweepMaxThreads()
+        throws DiffusionException {
+        return getIntegerListProperty(
+            SWEEP_MAX_THREADS,
+            DEFAULT_SWEEP_MAX_THREADS);
+    }
+
+    /**
+     * @return the fraction by which a sweep setting may fall short of the
+     *         best and still be recommended for using fewer threads
+     * @throws DiffusionException on error
+     */
+    public static double getSweepTolerance() throws DiffusionException {
+        return getDoubleProperty(SWEEP_TOLERANCE, DEFAULT_SWEEP_TOLERANCE);
+    }
+
+    /**
+     * @return the percentage of clients that send messages, 0 for none
+     * @throws DiffusionException on error
+     */
+    public static int getSendPercentage() throws DiffusionException {
+        return getIntegerProperty(SEND_PERCENTAGE, 0);
+    }
+
+    /**
+     * @return the target rate of messages sent by all clients, per second
+     * @throws DiffusionException on error
+     */
+    public static int getSendRate() throws DiffusionException {
+        return getIntegerProperty(SEND_RATE, DEFAULT_SEND_RATE);
+    }
+
+    /**
+     * @return how sends are spread over time, fixed, poisson or bursty
+     */
+    public static String getSendDistribution() {
+        return getProperty(SEND_DISTRIBUTION, DEFAULT_SEND_DISTRIBUTION);
+    }
+
+    /**
+     * @return the number of sends in each burst of a bursty distribution
+     * @throws DiffusionException on error
+     */
+    public static int getSendBurstSize() throws DiffusionException {
+        return getIntegerProperty(SEND_BURST_SIZE, DEFAULT_SEND_BURST_SIZE);
+    }
+
+    /**
+     * @return the size of each message sent, in characters
+     * @throws DiffusionException on error
+     */
+    public static int getSendMessageSize() throws DiffusionException {
+        return getIntegerProperty(SEND_MESSAGE_SIZE, DEFAULT_SEND_MESSAGE_SIZE);
+    }
+
+    /**
+     * @return the number of threads sending messages in pool mode
+     * @throws DiffusionException on error
+     */
+    public static int getSendThreads() throws DiffusionException {
+        return getIntegerProperty(SEND_THREADS, DEFAULT_SEND_THREADS);
+    }
+
+    /**
+     * @return the percentage of clients that ping, 0 for none
+     * @throws DiffusionException on error
+     */
+    public static int getPingPercentage() throws DiffusionException {
+        return getIntegerProperty(PING_PERCENTAGE, 0);
+    }
+
+    /**
+     * @return the interval between pings from each pinging client in
+     *         milliseconds
+     * @throws DiffusionException on error
+     */
+    public static int getPingInterval() throws DiffusionException {
+        return getIntegerProperty(PING_INTERVAL, DEFAULT_PING_INTERVAL);
+    }
+
+    /**
+     * @return the percentage of clients that are closed and connected again
+     *         while the test runs, 0 for none
+     * @throws DiffusionException on error
+     */
+    public static int getChurnPercentage() throws DiffusionException {
+        return getIntegerProperty(CHURN_PERCENTAGE, 0);
+    }
+
+    /**
+     * @return the target rate of reconnections by all churning clients, per
+     *         second
+     * @throws DiffusionException on error
+     */
+    public static int getChurnRate() throws DiffusionException {
+        return getIntegerProperty(CHURN_RATE, DEFAULT_CHURN_RATE);
+    }
+
+    /**
+     * @return the percentage of clients that move their subscriptions
+     *         between topics while the test runs, 0 for none
+     * @throws DiffusionException on error
+     */
+    public static int getSubscriptionPercentage() throws DiffusionException {
+        return getIntegerProperty(SUBSCRIPTION_PERCENTAGE, 0);
+    }
+
+    /**
+     * @return the target rate of subscription moves by all such clients, per
+     *         second
+     * @throws DiffusionException on error
+     */
+    public static int getSubscriptionRate() throws DiffusionException {
+        return getIntegerProperty(SUBSCRIPTION_RATE, DEFAULT_SUBSCRIPTION_RATE);
+    }
+
+    /**
+     * @return the topics that clients move their subscriptions between, or
+     *         an empty list if not set
+     */
+    public static List<String> getSubscriptionTopics() {
+
+        final List<String> result = new ArrayList<String>();
+        final String topics = getProperty(SUBSCRIPTION_TOPICS, null);
+        if (topics != null) {
+            for (String topic : topics.split(",")) {
+                if (topic.trim().length() > 0) {
+                    result.add(topic.trim());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of topics in the tree below the test topic, 0 to
+     *         use the test topic only
+     * @throws DiffusionException on error
+     */
+    public static int getTopicCount() throws DiffusionException {
+        return getIntegerProperty(TOPIC_COUNT, 0);
+    }
+
+    /**
+     * @return the number of topics of the tree each client subscribes to
+     * @throws DiffusionException on error
+     */
+    public static int getTopicSubscriptions() throws DiffusionException {
+        return getIntegerProperty(TOPIC_SUBSCRIPTIONS, 1);
+    }
+
+    /**
+     * @return the name of the distribution of topic popularity
+     */
+    public static String getTopicDistribution() {
+        return getProperty(TOPIC_DISTRIBUTION, DEFAULT_TOPIC_DISTRIBUTION);
+    }
+
+    /**
+     * @return the exponent of the zipf topic distribution
+     * @throws DiffusionException on error
+     */
+    public static double getTopicZipfExponent() throws DiffusionException {
+        return getDoubleProperty(
+            TOPIC_ZIPF_EXPONENT,
+            DEFAULT_TOPIC_ZIPF_EXPONENT);
+    }
+
+    /**
+     * @return the fraction of topics that are hot in the hotspot topic
+     *         distribution
+     * @throws DiffusionException on error
+     */
+    public static double getTopicHotFraction() throws DiffusionException {
+        return getDoubleProperty(
+            TOPIC_HOT_FRACTION,
+            DEFAULT_TOPIC_HOT_FRACTION);
+    }
+
+    /**
+     * @return the probability that a subscription is to a hot topic in the
+     *         hotspot topic distribution
+     * @throws DiffusionException on error
+     */
+    public static double getTopicHotProbability() throws DiffusionException {
+        return getDoubleProperty(
+            TOPIC_HOT_PROBABILITY,
+            DEFAULT_TOPIC_HOT_PROBABILITY);
+    }
+
+    /**
+     * @return the file of scenario phases to run, or null to open every
+     *         client and wait for them to finish
+     */
+    public static String getScenarioFile() {
+        return getProperty(SCENARIO_FILE, null);
+    }
+
+    /**
+     * @return the number of threads running message handlers through a
+     *         {@link HandlerPipeline}, 0 to not use a pipeline
+     * @throws DiffusionException on error
+     */
+    public static int getHandlerThreads() throws DiffusionException {
+        return getIntegerProperty(HANDLER_THREADS, 0);
+    }
+
+    /**
+     * @return the number of messages each handler thread can have waiting
+     * @throws DiffusionException on error
+     */
+    public static int getHandlerBufferSize() throws DiffusionException {
+        return getIntegerProperty(
+            HANDLER_BUFFER_SIZE,
+            DEFAULT_HANDLER_BUFFER_SIZE);
+    }
+
+    /**
+     * @return what to do when a handler thread has no room for a message,
+     *         block or drop
+     */
+    public static String getHandlerOverflow() {
+        return getProperty(HANDLER_OVERFLOW, DEFAULT_HANDLER_OVERFLOW);
+    }
+
+    /**
+     * @return the load a saturation search raises - clients, rate or size -
+     *         or null to not search
+     */
+    public static String getSaturationDimension() {
+        return getProperty(SATURATION_DIMENSION, null);
+    }
+
+    /**
+     * @return the first level of a saturation search
+     * @throws DiffusionException on error
+     */
+    public static int getSaturationStart() throws DiffusionException {
+        return getIntegerProperty(SATURATION_START, DEFAULT_SATURATION_START);
+    }
+
+    /**
+     * @return the highest level of a saturation search, 0 for the default
+     * @throws DiffusionException on error
+     */
+    public static int getSaturationMaximum() throws DiffusionException {
+        return getIntegerProperty(SATURATION_MAXIMUM, 0);
+    }
+
+    /**
+     * @return the factor each step of a saturation search raises the level
+     *         by
+     * @throws DiffusionException on error
+     */
+    public static double getSaturationGrowth() throws DiffusionException {
+        return getDoubleProperty(
+            SATURATION_GROWTH,
+            DEFAULT_SATURATION_GROWTH);
+    }
+
+    /**
+     * @return the fraction of the level a saturation search narrows the
+     *         knee point to
+     * @throws DiffusionException on error
+     */
+    public static double getSaturationPrecision() throws DiffusionException {
+        return getDoubleProperty(
+            SATURATION_PRECISION,
+            DEFAULT_SATURATION_PRECISION);
+    }
+
+    /**
+     * @return the seconds each level of a saturation search runs before it
+     *         is measured
+     * @throws DiffusionException on error
+     */
+    public static int getSaturationSettleTime() throws DiffusionException {
+        return getIntegerProperty(
+            SATURATION_SETTLE_TIME,
+            DEFAULT_SATURATION_SETTLE_TIME);
+    }
+
+    /**
+     * @return the seconds each level of a saturation search is measured
+     *         over
+     * @throws DiffusionException on error
+     */
+    public static int getSaturationStepTime() throws DiffusionException {
+        return getIntegerProperty(
+            SATURATION_STEP_TIME,
+            DEFAULT_SATURATION_STEP_TIME);
+    }
+
+    /**
+     * @return the latency percentile a saturation search checks
+     * @throws DiffusionException on error
+     */
+    public static double getSaturationLatencyPercentile()
+        throws DiffusionException {
+        return getDoubleProperty(
+            SATURATION_LATENCY_PERCENTILE,
+            DEFAULT_SATURATION_LATENCY_PERCENTILE);
+    }
+
+    /**
+     * @return the highest latency at the percentile in milliseconds that a
+     *         level of a saturation search passes with, 0 to not check
+     * @throws DiffusionException on error
+     */
+    public static double getSaturationLatencyMillis()
+        throws DiffusionException {
+        return getDoubleProperty(
+            SATURATION_LATENCY_MILLIS,
+            DEFAULT_SATURATION_LATENCY_MILLIS);
+    }
+
+    /**
+     * @return the highest percentage of updates lost that a level of a
+     *         saturation search passes with
+     * @throws DiffusionException on error
+     */
+    public static double getSaturationMaxLossPercent()
+        throws DiffusionException {
+        return getDoubleProperty(
+            SATURATION_MAX_LOSS,
+            DEFAULT_SATURATION_MAX_LOSS);
+    }
+
+    /**
+     * @return the highest percentage of clients failing to connect or lost
+     *         that a level of a saturation search passes with
+     * @throws DiffusionException on error
+     */
+    public static double getSaturationMaxErrorPercent()
+        throws DiffusionException {
+        return getDoubleProperty(
+            SATURATION_MAX_ERRORS,
+            DEFAULT_SATURATION_MAX_ERRORS);
+    }
+
+    /**
+     * @return the milliseconds between updates of each topic by the loopback
+     *         transport, 0 to update as fast as the clients take them
+     * @throws DiffusionException on error
+     */
+    public static double getLoopbackInterval() throws DiffusionException {
+        return getDoubleProperty(LOOPBACK_INTERVAL, DEFAULT_LOOPBACK_INTERVAL);
+    }
+
+    /**
+     * @return the size in bytes of the updates of the loopback transport, 0
+     *         for the sample data as it is
+     * @throws DiffusionException on error
+     */
+    public static int getLoopbackMessageSize() throws DiffusionException {
+        return getIntegerProperty(LOOPBACK_MESSAGE_SIZE, 0);
+    }
+
+    /**
+     * @return true if the updates of the loopback transport have a checksum
+     *         trailer
+     */
+    public static boolean isLoopbackChecksumming() {
+        return getBooleanProperty(LOOPBACK_CHECKSUM, false);
+    }
+
+    /**
+     * @return the number of threads delivering the updates of the loopback
+     *         transport, 0 for one for each processor
+     * @throws DiffusionException on error
+     */
+    public static int getLoopbackThreads() throws DiffusionException {
+        return getIntegerProperty(LOOPBACK_THREADS, 0);
+    }
+
+    /**
+     * @return the value of every property that is set, keyed by property
+     *         name
+     */
+    public static Map<String, String> getConfiguration() {
+        final Map<String, String> result = new LinkedHashMap<String, String>();
+        for (String key : ALL_KEYS) {
+            final String value = lookup(key);
+            if (value != null) {
+                result.put(key, value.trim());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param key the property key
+     * @return the system property with the key if set, otherwise the value
+     *         from the properties file
+     */
+    private static String lookup(String key) {
+        final String override = System.getProperty(key);
+        if (override != null) {
+            return override;
+        }
+        return theInstance.getProperty(key);
+    }
+
+    /**
+     * Read a required integer property.
+     *
+     * @param key the property key
+     * @return the property value
+     * @throws DiffusionException if the property is not set or is not an
+     *         integer
+     */
+    private static int getRequiredIntegerProperty(String key)
+        throws DiffusionException {
+        final String override = System.getProperty(key);
+        if (override == null) {
+            return theInstance.getIntegerProperty(key);
+        }
+        try {
+            return Integer.parseInt(override.trim());
+        }
+        catch (NumberFormatException ex) {
+            throw new DiffusionException(
+                "Invalid value for " + key + ": " + override, ex);
+        }
+    }
+
+    /**
+     * Read an optional property.
+     *
+     * @param key the property key
+     * @param defaultValue the value to use if the property is not set
+     * @return the property value
+     */
+    private static String getProperty(String key, String defaultValue) {
+        final String value = lookup(key);
+        if (value == null || value.trim().length() == 0) {
+            return defaultValue;
+        }
+        return value.trim();
+    }
+
+    /**
+     * Read an optional boolean property.
+     *
+     * @param key the property key
+     * @param defaultValue the value to use if the property is not set
+     * @return the property value
+     */
+    private static boolean getBooleanProperty(
+        String key,
+        boolean defaultValue) {
+        return Boolean.parseBoolean(
+            getProperty(key, String.valueOf(defaultValue)));
+    }
+
+    /**
+     * Read an optional decimal property.
+     *
+     * @param key the property key
+     * @param defaultValue the value to use if the property is not set
+     * @return the property value
+     * @throws DiffusionException if the value is not a number
+     */
+    private static double getDoubleProperty(
+        String key,
+        double defaultValue) throws DiffusionException {
+        final String value = lookup(key);
+        if (value == null || value.trim().length() == 0) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value.trim());
+        }
+        catch (NumberFormatException ex) {
+            throw new DiffusionException(
+                "Invalid value for " + key + ": " + value, ex);
+        }
+    }
+
+    /**
+     * Read an optional integer property.
+     *
+     * @param key the property key
+     * @param defaultValue the value to use if the property is not set
+     * @return the property value
+     * @throws DiffusionException if the value is not an integer
+     */
+    private static int getIntegerProperty(String key, int defaultValue)
+        throws DiffusionException {
+        final String value = lookup(key);
+        if (value == null || value.trim().length() == 0) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        }
+        catch (NumberFormatException ex) {
+            throw new DiffusionException(
+                "Invalid value for " + key + ": " + value, ex);
+        }
+    }
+
+    /**
+     * Read an optional comma separated list of integers.
+     *
+     * @param key the property key
+     * @param defaultValue the value to use if the property is not set
+     * @return the integers
+     * @throws DiffusionException if a value is not an integer
+     */
+    private static List<Integer> getIntegerListProperty(
+        String key,
+        String defaultValue) throws DiffusionException {
+        final String value = getProperty(key, defaultValue);
+        final List<Integer> result = new ArrayList<Integer>();
+        for (String item : value.split(",")) {
+            if (item.trim().length() == 0) {
+                continue;
+            }
+            try {
+                result.add(Integer.parseInt(item.trim()));
+            }
+            catch (NumberFormatException ex) {
+                throw new DiffusionException(
+                    "Invalid value for " + key + ": " + value, ex);
+            }
+        }
+        return result;
     }
 }
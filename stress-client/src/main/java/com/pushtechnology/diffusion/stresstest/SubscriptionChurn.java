@@ -0,0 +1,311 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+package com.pushtechnology.diffusion.stresstest;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import com.pushtechnology.diffusion.DiffusionException;
+import com.pushtechnology.diffusion.stresstest.stats.LatencyHistogram;
+import com.pushtechnology.diffusion.stresstest.stats.LatencyRecorder;
+import com.pushtechnology.diffusion.stresstest.stats.TransportStats;
+import com.pushtechnology.diffusion.stresstest.stats.TransportStatsRegistry;
+import com.pushtechnology.diffusion.stresstest.testconnector.BaseClient;
+
+/**
+ * Moves the subscriptions of connected clients between topics at a target
+ * rate, to measure the cost to the server of topic selection.
+ * <P>
+ * Each operation falls to the next of the churning clients in round robin
+ * order. The client unsubscribes from the topic it was last moved to, or
+ * the first time from the first topic it subscribed to on connecting, and
+ * subscribes to a topic chosen by a {@link TopicSelector}. The time from the
+ * scheduled operation to the first update of the new topic, normally its
+ * topic load, is recorded as the subscribe latency of the client's
+ * transport.
+ * <P>
+ * Operations are scheduled open loop at a fixed interval, so the subscribe
+ * latency includes any time an operation waits to start. An operation that
+ * falls to a client that is not connected, or whose last move is still in
+ * progress, is skipped, so each client only ever moves one subscription.
+ *
+ * @author Push Technology Limited
+ */
+final class SubscriptionChurn {
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private static final long STOP_TIMEOUT_SECONDS = 10;
+
+    private final ClientRegistry theClients;
+
+    private final int[] theCandidates;
+
+    private final TopicSelector theTopics;
+
+    private final String theInitialTopic;
+
+    private final TransportStatsRegistry theStats;
+
+    private final long theIntervalNanos;
+
+    private final ExecutorService theExecutor;
+
+    private final Random theRandom = new Random();
+
+    /**
+     * The topic each client was last moved to.
+     */
+    private final ConcurrentMap<BaseClient, String> theCurrentTopics =
+        new ConcurrentHashMap<BaseClient, String>();
+
+    /**
+     * The clients with a move dispatched that has not finished.
+     */
+    private final Set<BaseClient> theMoving =
+        Collections.newSetFromMap(new ConcurrentHashMap<BaseClient, Boolean>());
+
+    private final LongAdder theOperations = new LongAdder();
+
+    private final LongAdder theFailed = new LongAdder();
+
+    private final LongAdder theSkipped = new LongAdder();
+
+    private final LatencyRecorder theLag = new LatencyRecorder();
+
+    private final Thread theThread;
+
+    private volatile long theStartTime;
+
+    private volatile long theStopTime;
+
+    private volatile boolean isRunning;
+
+    /**
+     * Constructor.
+     *
+     * @param clients the clients
+     * @param candidates the numbers of the clients that move their
+     *        subscriptions
+     * @param topics chooses the topics to subscribe to
+     * @param initialTopic the topic a client subscribes to on connecting if
+     *        its topics are not set
+     * @param stats the statistics of each transport
+     * @param executionMode how operations are run
+     * @param operationsPerSecond the target aggregate rate of operations,
+     *        each an unsubscription and a subscription
+     * @param threads the number of threads running operations in
+     *        {@link ExecutionMode#POOL} mode
+     */
+    SubscriptionChurn(
+        ClientRegistry clients,
+        int[] candidates,
+        TopicSelector topics,
+        String initialTopic,
+        TransportStatsRegistry stats,
+        ExecutionMode executionMode,
+        double operationsPerSecond,
+        int threads) {
+
+        if (operationsPerSecond <= 0) {
+            throw new IllegalArgumentException(
+                "The subscription rate must be positive: " +
+                    operationsPerSecond);
+        }
+        theClients = clients;
+        theCandidates = candidates.clone();
+        theTopics = topics;
+        theInitialTopic = initialTopic;
+        theStats = stats;
+        theIntervalNanos = (long) (NANOS_PER_SECOND / operationsPerSecond);
+        theExecutor =
+            executionMode.newExecutor("StressTest-subscription", threads);
+        theThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                schedule();
+            }
+        }, "StressTest-subscription-scheduler");
+        theThread.setDaemon(true);
+    }
+
+    /**
+     * Start moving subscriptions.
+     */
+    void start() {
+        if (theCandidates.length == 0) {
+            return;
+        }
+        System.out.println(String.format(
+            "Moving subscriptions of %d clients between %d topics at " +
+                "%.1f operations/s",
+            theCandidates.length,
+            theTopics.size(),
+            NANOS_PER_SECOND / theIntervalNanos));
+        isRunning = true;
+        theStartTime = System.nanoTime();
+        theThread.start();
+    }
+
+    /**
+     * Stop scheduling operations, and wait for those in progress.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void stop() throws InterruptedException {
+        if (!isRunning) {
+            return;
+        }
+        isRunning = false;
+        LockSupport.unpark(theThread);
+        theThread.join();
+        theExecutor.shutdown();
+        theExecutor.awaitTermination(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        theStopTime = System.nanoTime();
+    }
+
+    /**
+     * @return a report of the operations, with the subscribe latency of each
+     *         transport
+     */
+    String report() {
+        final long endTime =
+            theStopTime != 0 ? theStopTime : System.nanoTime();
+        final double seconds = (endTime - theStartTime) / NANOS_PER_SECOND;
+        final long operations = theOperations.sum();
+
+        final StringBuilder report = new StringBuilder();
+        report.append(String.format(
+            "Subscriptions: %d moved, %.1f operations/s, %d failed, " +
+                "%d skipped, lag ms %s",
+            operations,
+            seconds > 0 ? operations / seconds : 0,
+            theFailed.sum(),
+            theSkipped.sum(),
+            theLag.snapshot().toPercentileString(1000)));
+
+        for (TransportStats stats : theStats.getAll()) {
+            final LatencyHistogram latency = stats.getSubscribeLatency();
+            report
+                .append(System.lineSeparator())
+                .append("  ")
+                .append(stats.getTransport())
+                .append(": ")
+                .append(stats.getSubscriptions())
+                .append(" subscribed, ")
+                .append(stats.getUnsubscriptions())
+                .append(" unsubscribed, ")
+                .append(stats.getSubscriptionFailures())
+                .append(" failed, first update ms ")
+                .append(latency.toPercentileString(1000))
+                .append(" from ")
+                .append(latency.getTotalCount());
+        }
+        return report.toString();
+    }
+
+    private void schedule() {
+        final long startTime = System.nanoTime();
+        long operation = 0;
+        int next = 0;
+
+        while (isRunning) {
+            final long scheduledTime = startTime + operation * theIntervalNanos;
+            final long wait = scheduledTime - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+                continue;
+            }
+
+            if (next == theCandidates.length) {
+                forgetClosedClients();
+                next = 0;
+            }
+            dispatch(theCandidates[next++], scheduledTime);
+            operation++;
+        }
+    }
+
+    private void forgetClosedClients() {
+        final Iterator<BaseClient> clients =
+            theCurrentTopics.keySet().iterator();
+        while (clients.hasNext()) {
+            if (!clients.next().isActive()) {
+                clients.remove();
+            }
+        }
+    }
+
+    private void dispatch(int clientNumber, final long scheduledTime) {
+        final BaseClient client = theClients.get(clientNumber);
+        if (client == null || !client.isActive() || !theMoving.add(client)) {
+            theSkipped.increment();
+            return;
+        }
+
+        final String topic = theTopics.next(theRandom);
+        theExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                move(client, topic, scheduledTime);
+            }
+        });
+    }
+
+    private String initialTopic(BaseClient client) {
+        final List<String> topics = client.getTopics();
+        return topics != null && !topics.isEmpty() ?
+            topics.get(0) : theInitialTopic;
+    }
+
+    private void move(BaseClient client, String topic, long scheduledTime) {
+        theLag.recordValue(
+            TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - scheduledTime));
+
+        final TransportStats stats = client.getTransportStats();
+        final String current = theCurrentTopics.get(client);
+        try {
+            client.unsubscribe(
+                current != null ? current : initialTopic(client));
+            if (stats != null) {
+                stats.unsubscribed();
+            }
+            client.subscribe(topic, scheduledTime);
+            if (stats != null) {
+                stats.subscribed();
+            }
+            theCurrentTopics.put(client, topic);
+            theOperations.increment();
+        }
+        catch (DiffusionException ex) {
+            theFailed.increment();
+            if (stats != null) {
+                stats.subscriptionFailed();
+            }
+        }
+        finally {
+            theMoving.remove(client);
+        }
+    }
+}
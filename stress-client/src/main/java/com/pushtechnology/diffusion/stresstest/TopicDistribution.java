@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+package com.pushtechnology.diffusion.stresstest;
+
+/**
+ * How the popularity of the topics in the topic tree is skewed. Topics are
+ * ranked from 0, the most popular.
+ *
+ * @author Push Technology Limited
+ */
+public enum TopicDistribution {
+
+    /**
+     * Every topic is equally popular.
+     */
+    UNIFORM {
+        @Override
+        double weight(int rank, int count, double exponent,
+            double hotFraction, double hotProbability) {
+            return 1;
+        }
+    },
+
+    /**
+     * The popularity of a topic is proportional to 1 / (rank + 1) raised to
+     * the exponent.
+     */
+    ZIPF {
+        @Override
+        double weight(int rank, int count, double exponent,
+            double hotFraction, double hotProbability) {
+            return 1 / Math.pow(rank + 1, exponent);
+        }
+    },
+
+    /**
+     * A hot fraction of the topics, the lowest ranks, share the hot
+     * probability between them. The other topics share the rest.
+     */
+    HOTSPOT {
+        @Override
+        double weight(int rank, int count, double exponent,
+            double hotFraction, double hotProbability) {
+            final int hot =
+                Math.min(Math.max((int) Math.ceil(count * hotFraction), 1),
+                    count);
+            if (rank < hot) {
+                return hotProbability / hot;
+            }
+            return (1 - hotProbability) / (count - hot);
+        }
+    };
+
+    /**
+     * @param rank the rank of the topic, from 0
+     * @param count the number of topics
+     * @param exponent the {@link #ZIPF} exponent
+     * @param hotFraction the fraction of {@link #HOTSPOT} topics that are
+     *        hot
+     * @param hotProbability the probability that a {@link #HOTSPOT} topic is
+     *        hot
+     * @return the relative popularity of the topic
+     */
+    abstract double weight(int rank, int count, double exponent,
+        double hotFraction, double hotProbability);
+
+    /**
+     * @param name the distribution name, in any case
+     * @return the distribution
+     * @throws IllegalArgumentException if the name is not a distribution
+     */
+    public static TopicDistribution parse(String name) {
+        for (TopicDistribution distribution : values()) {
+            if (distribution.name().equalsIgnoreCase(name.trim())) {
+                return distribution;
+            }
+        }
+        throw new IllegalArgumentException(
+            "A valid topic distribution was not submitted: " + name);
+    }
+}
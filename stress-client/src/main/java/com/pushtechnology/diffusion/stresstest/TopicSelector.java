@@ -0,0 +1,237 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+package com.pushtechnology.diffusion.stresstest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Chooses topics at random, weighted by their popularity.
+ * <P>
+ * The topics of a topic tree are named {@code <root>/<rank>}, where rank 0
+ * is the most popular, matching the topics created by the Stress publisher.
+ * Topics are chosen by a binary search of the cumulative popularity, so
+ * choosing from thousands of topics is cheap. Distinct topics are chosen
+ * without replacement from a Fenwick tree of the popularity, removing each
+ * topic as it is chosen, so the time taken does not depend on how skewed
+ * the popularity is.
+ *
+ * @author Push Technology Limited
+ */
+final class TopicSelector {
+
+    private final String[] theTopics;
+
+    /**
+     * The scale of the largest weight in {@link #theWeights}.
+     */
+    private static final double WEIGHT_SCALE = 1L << 32;
+
+    private final double[] theCumulative;
+
+    /**
+     * The weight of each topic as a whole number, so that removing and
+     * restoring it is exact. Any topic with a weight is at least 1.
+     */
+    private final long[] theWeights;
+
+    /**
+     * The Fenwick tree of {@link #theWeights}, indexed from 1.
+     */
+    private final long[] theTree;
+
+    private final long theTotal;
+
+    /**
+     * The number of topics that can be chosen, those with a weight.
+     */
+    private final int theChoosable;
+
+    private TopicSelector(String[] topics, double[] weights) {
+        theTopics = topics;
+        theCumulative = new double[weights.length];
+        double total = 0;
+        double max = 0;
+        for (int i = 0; i < weights.length; i++) {
+            total += weights[i];
+            theCumulative[i] = total;
+            max = Math.max(max, weights[i]);
+        }
+        for (int i = 0; i < weights.length; i++) {
+            theCumulative[i] /= total;
+        }
+
+        theWeights = new long[weights.length];
+        theTree = new long[weights.length + 1];
+        long sum = 0;
+        int choosable = 0;
+        for (int i = 0; i < weights.length; i++) {
+            if (weights[i] > 0) {
+                theWeights[i] = Math.max(
+                    Math.round(weights[i] / max * WEIGHT_SCALE),
+                    1);
+                sum += theWeights[i];
+                choosable++;
+                add(i, theWeights[i]);
+            }
+        }
+        theTotal = sum;
+        theChoosable = choosable;
+    }
+
+    /**
+     * @param topics the topics
+     * @return a selector that chooses each of the topics equally often
+     */
+    static TopicSelector uniform(List<String> topics) {
+        if (topics.isEmpty()) {
+            throw new IllegalArgumentException("No topics to choose from");
+        }
+        final double[] weights = new double[topics.size()];
+        Arrays.fill(weights, 1);
+        return new TopicSelector(
+            topics.toArray(new String[topics.size()]),
+            weights);
+    }
+
+    /**
+     * @param root the topic at the root of the tree
+     * @param count the number of topics in the tree
+     * @param distribution how popularity is skewed
+     * @param exponent the {@link TopicDistribution#ZIPF} exponent
+     * @param hotFraction the fraction of {@link TopicDistribution#HOTSPOT}
+     *        topics that are hot
+     * @param hotProbability the probability that a
+     *        {@link TopicDistribution#HOTSPOT} topic is hot
+     * @return a selector that chooses topics of the tree by popularity
+     */
+    static TopicSelector tree(
+        String root,
+        int count,
+        TopicDistribution distribution,
+        double exponent,
+        double hotFraction,
+        double hotProbability) {
+
+        if (count <= 0) {
+            throw new IllegalArgumentException(
+                "The number of topics must be positive: " + count);
+        }
+        final String[] topics = new String[count];
+        final double[] weights = new double[count];
+        for (int rank = 0; rank < count; rank++) {
+            topics[rank] = root + '/' + rank;
+            weights[rank] = distribution.weight(
+                rank,
+                count,
+                exponent,
+                hotFraction,
+                hotProbability);
+        }
+        return new TopicSelector(topics, weights);
+    }
+
+    /**
+     * @return the number of topics
+     */
+    int size() {
+        return theTopics.length;
+    }
+
+    /**
+     * @return the number of topics that can be chosen, those with a
+     *         popularity above 0
+     */
+    int choosable() {
+        return theChoosable;
+    }
+
+    /**
+     * @param random the source of randomness
+     * @return a topic
+     */
+    String next(Random random) {
+        final int index =
+            Arrays.binarySearch(theCumulative, random.nextDouble());
+        final int rank = index >= 0 ? index : -index - 1;
+        return theTopics[Math.min(rank, theTopics.length - 1)];
+    }
+
+    /**
+     * Choose distinct topics. Each topic is chosen by popularity from the
+     * topics not yet chosen. The chosen topics are removed from the tree and
+     * restored afterwards, so selections are made one at a time.
+     *
+     * @param count the number of topics, limited to the number that can be
+     *        chosen
+     * @param random the source of randomness
+     * @return the topics
+     */
+    synchronized List<String> select(int count, Random random) {
+        if (count >= theTopics.length && theChoosable == theTopics.length) {
+            final List<String> all = new ArrayList<String>();
+            Collections.addAll(all, theTopics);
+            return all;
+        }
+        final int[] chosen = new int[Math.min(count, theChoosable)];
+        final List<String> result = new ArrayList<String>(chosen.length);
+        long total = theTotal;
+        for (int i = 0; i < chosen.length; i++) {
+            final long target =
+                Math.min((long) (random.nextDouble() * total), total - 1);
+            final int index = find(target);
+            chosen[i] = index;
+            result.add(theTopics[index]);
+            add(index, -theWeights[index]);
+            total -= theWeights[index];
+        }
+        for (int index : chosen) {
+            add(index, theWeights[index]);
+        }
+        return result;
+    }
+
+    /**
+     * Add to the weight of a topic in the tree.
+     */
+    private void add(int index, long delta) {
+        for (int i = index + 1; i < theTree.length; i += i & -i) {
+            theTree[i] += delta;
+        }
+    }
+
+    /**
+     * @param target a value below the total weight in the tree
+     * @return the index of the topic whose weight spans the target, when the
+     *         weights are laid end to end
+     */
+    private int find(long target) {
+        int position = 0;
+        long remaining = target;
+        for (int step = Integer.highestOneBit(theTree.length - 1);
+            step > 0;
+            step >>= 1) {
+            final int next = position + step;
+            if (next < theTree.length && theTree[next] <= remaining) {
+                position = next;
+                remaining -= theTree[next];
+            }
+        }
+        return position;
+    }
+}
@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+package com.pushtechnology.diffusion.stresstest.metrics;
+
+/**
+ * The state of the pipeline that runs message handlers on dedicated
+ * threads.
+ * <P>
+ * Counters and occupancy are live. Latencies are over the whole run.
+ *
+ * @author Push Technology Limited
+ */
+public interface HandlerPipelineMXBean {
+
+    /**
+     * @return the number of handler threads
+     */
+    int getThreads();
+
+    /**
+     * @return the number of messages each handler thread can have waiting
+     */
+    int getCapacity();
+
+    /**
+     * @return what an inbound thread does when a handler thread has no room,
+     *         block or drop
+     */
+    String getOverflow();
+
+    /**
+     * @return the number of messages waiting for all handler threads
+     */
+    long getOccupancy();
+
+    /**
+     * @return the most messages there have been waiting for one handler
+     *         thread
+     */
+    long getMaxOccupancy();
+
+    /**
+     * @return the number of messages handed off to handler threads
+     */
+    long getHandedOff();
+
+    /**
+     * @return the number of messages dropped for want of room
+     */
+    long getDropped();
+
+    /**
+     * @return the number of messages whose inbound thread waited for room
+     */
+    long getBlocked();
+
+    /**
+     * @return the total time inbound threads waited for room in
+     *         milliseconds
+     */
+    long getBlockedMillis();
+
+    /**
+     * @return the median time from hand off to the handler starting in
+     *         milliseconds
+     */
+    double getHandoffP50Millis();
+
+    /**
+     * @return the 99th percentile time from hand off to the handler starting
+     *         in milliseconds
+     */
+    double getHandoffP99Millis();
+
+    /**
+     * @return the longest time from hand off to the handler starting in
+     *         milliseconds
+     */
+    double getHandoffMaxMillis();
+
+    /**
+     * @return the median time spent in the handler in milliseconds
+     */
+    double getHandlerP50Millis();
+
+    /**
+     * @return the 99th percentile time spent in the handler in milliseconds
+     */
+    double getHandlerP99Millis();
+}
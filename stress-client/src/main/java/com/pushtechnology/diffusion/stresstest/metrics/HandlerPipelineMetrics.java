@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+package com.pushtechnology.diffusion.stresstest.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import com.pushtechnology.diffusion.stresstest.HandlerPipeline;
+
+/**
+ * {@link HandlerPipelineMXBean} reading a {@link HandlerPipeline}.
+ *
+ * @author Push Technology Limited
+ */
+final class HandlerPipelineMetrics implements HandlerPipelineMXBean {
+
+    private static final double MICROS_PER_MILLI = 1000;
+
+    private final HandlerPipeline thePipeline;
+
+    HandlerPipelineMetrics(HandlerPipeline pipeline) {
+        thePipeline = pipeline;
+    }
+
+    @Override
+    public int getThreads() {
+        return thePipeline.getThreads();
+    }
+
+    @Override
+    public int getCapacity() {
+        return thePipeline.getCapacity();
+    }
+
+    @Override
+    public String getOverflow() {
+        return thePipeline.getOverflow().name().toLowerCase();
+    }
+
+    @Override
+    public long getOccupancy() {
+        return thePipeline.getOccupancy();
+    }
+
+    @Override
+    public long getMaxOccupancy() {
+        return thePipeline.getMaxOccupancy();
+    }
+
+    @Override
+    public long getHandedOff() {
+        return thePipeline.getHandedOff();
+    }
+
+    @Override
+    public long getDropped() {
+        return thePipeline.getDropped();
+    }
+
+    @Override
+    public long getBlocked() {
+        return thePipeline.getBlocked();
+    }
+
+    @Override
+    public long getBlockedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(thePipeline.getBlockedNanos());
+    }
+
+    @Override
+    public double getHandoffP50Millis() {
+        return thePipeline.getHandoffLatency().getValueAtPercentile(50) /
+            MICROS_PER_MILLI;
+    }
+
+    @Override
+    public double getHandoffP99Millis() {
+        return thePipeline.getHandoffLatency().getValueAtPercentile(99) /
+            MICROS_PER_MILLI;
+    }
+
+    @Override
+    public double getHandoffMaxMillis() {
+        return thePipeline.getHandoffLatency().getMaxValue() /
+            MICROS_PER_MILLI;
+    }
+
+    @Override
+    public double getHandlerP50Millis() {
+        return thePipeline.getHandlerTime().getValueAtPercentile(50) /
+            MICROS_PER_MILLI;
+    }
+
+    @Override
+    public double getHandlerP99Millis() {
+        return thePipeline.getHandlerTime().getValueAtPercentile(99) /
+            MICROS_PER_MILLI;
+    }
+}
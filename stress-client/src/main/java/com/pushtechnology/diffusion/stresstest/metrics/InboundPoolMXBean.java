@@ -0,0 +1,65 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+package com.pushtechnology.diffusion.stresstest.metrics;
+
+/**
+ * The configuration and state of the client inbound thread pool.
+ * <P>
+ * The state is -1 if the pool cannot be read.
+ *
+ * @author Push Technology Limited
+ */
+public interface InboundPoolMXBean {
+
+    /**
+     * @return the pool name
+     */
+    String getName();
+
+    /**
+     * @return the configured number of core threads
+     */
+    int getCoreSize();
+
+    /**
+     * @return the configured maximum number of threads
+     */
+    int getMaximumSize();
+
+    /**
+     * @return the configured queue size
+     */
+    int getQueueCapacity();
+
+    /**
+     * @return the number of threads running tasks
+     */
+    int getActiveCount();
+
+    /**
+     * @return the number of threads in the pool
+     */
+    int getPoolSize();
+
+    /**
+     * @return the largest number of threads there have been in the pool
+     */
+    int getLargestPoolSize();
+
+    /**
+     * @return the number of tasks waiting in the queue
+     */
+    int getQueueSize();
+}
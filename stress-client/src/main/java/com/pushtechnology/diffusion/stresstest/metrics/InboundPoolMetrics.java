@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+package com.pushtechnology.diffusion.stresstest.metrics;
+
+import com.pushtechnology.diffusion.api.threads.ThreadPool;
+import com.pushtechnology.diffusion.api.threads.ThreadService;
+import com.pushtechnology.diffusion.stresstest.InboundPoolConfigManager;
+
+/**
+ * {@link InboundPoolMXBean} reading the pool configured by
+ * {@link InboundPoolConfigManager}.
+ *
+ * @author Push Technology Limited
+ */
+final class InboundPoolMetrics implements InboundPoolMXBean {
+
+    private static final int UNKNOWN = -1;
+
+    @Override
+    public String getName() {
+        return InboundPoolConfigManager.getInboundPoolName();
+    }
+
+    @Override
+    public int getCoreSize() {
+        return InboundPoolConfigManager.getInboundPoolCoreSize();
+    }
+
+    @Override
+    public int getMaximumSize() {
+        return InboundPoolConfigManager.getInboundPoolMaxSize();
+    }
+
+    @Override
+    public int getQueueCapacity() {
+        return InboundPoolConfigManager.getInboundPoolQueueSize();
+    }
+
+    @Override
+    public int getActiveCount() {
+        final ThreadPool pool = getPool();
+        return pool == null ? UNKNOWN : pool.getActiveCount();
+    }
+
+    @Override
+    public int getPoolSize() {
+        final ThreadPool pool = getPool();
+        return pool == null ? UNKNOWN : pool.getPoolSize();
+    }
+
+    @Override
+    public int getLargestPoolSize() {
+        final ThreadPool pool = getPool();
+        return pool == null ? UNKNOWN : pool.getLargestPoolSize();
+    }
+
+    @Override
+    public int getQueueSize() {
+        final ThreadPool pool = getPool();
+        return pool == null ? UNKNOWN : pool.getQueueSize();
+    }
+
+    /**
+     * @return the inbound pool, or null if it has not been created
+     */
+    // CHECKSTYLE.OFF: IllegalCatch
+    private static ThreadPool getPool() {
+        try {
+            return ThreadService.getInboundThreadPool();
+        }
+        catch (Exception e) {
+            return null;
+        }
+    }
+    // CHECKSTYLE.ON: IllegalCatch
+}
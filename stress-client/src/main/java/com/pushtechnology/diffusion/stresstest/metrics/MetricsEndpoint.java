@@ -0,0 +1,261 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+package com.pushtechnology.diffusion.stresstest.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.pushtechnology.diffusion.stresstest.DaemonThreadFactory;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves the {@link StressTestMetrics} in the Prometheus text exposition
+ * format at {@code http://localhost:<port>/metrics}.
+ * <P>
+ * The endpoint only listens on the loopback address.
+ *
+ * @author Push Technology Limited
+ */
+public final class MetricsEndpoint {
+
+    private static final String PATH = "/metrics";
+
+    private static final String CONTENT_TYPE =
+        "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final String PREFIX = "stresstest_";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final StressTestMetrics theMetrics;
+
+    private final HttpServer theServer;
+
+    private final ExecutorService theExecutor =
+        Executors.newSingleThreadExecutor(
+            new DaemonThreadFactory("StressTest-metrics"));
+
+    /**
+     * Constructor.
+     *
+     * @param metrics the metrics to serve
+     * @param port the local port to listen on
+     * @throws IOException if the port cannot be bound
+     */
+    public MetricsEndpoint(StressTestMetrics metrics, int port)
+        throws IOException {
+
+        theMetrics = metrics;
+        theServer = HttpServer.create(
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), port),
+            0);
+        theServer.setExecutor(theExecutor);
+        theServer.createContext(PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                final byte[] body = format().getBytes(UTF8);
+                exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+                exchange.sendResponseHeaders(200, body.length);
+                final OutputStream out = exchange.getResponseBody();
+                try {
+                    out.write(body);
+                }
+                finally {
+                    out.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Start serving.
+     */
+    public void start() {
+        theServer.start();
+        System.out.println(
+            "Serving metrics at http://localhost:" +
+                theServer.getAddress().getPort() + PATH);
+    }
+
+    /**
+     * Stop serving.
+     */
+    public void stop() {
+        theServer.stop(0);
+        theExecutor.shutdown();
+    }
+
+    private String format() {
+        final StringBuilder out = new StringBuilder();
+        final StressTestMXBean total = theMetrics;
+
+        gauge(out, "connected_clients", "Clients connected",
+            total.getConnectedClients());
+        counter(out, "connections_total", "Successful connection attempts",
+            total.getConnections());
+        counter(out, "connection_failures_total",
+            "Failed connection attempts", total.getConnectionFailures());
+        counter(out, "messages_total", "Messages received",
+            total.getMessages());
+        counter(out, "bytes_total", "Message bytes received",
+            total.getBytes());
+        gauge(out, "message_rate", "Messages per second, last interval",
+            total.getMessageRate());
+        gauge(out, "byte_rate", "Message bytes per second, last interval",
+            total.getByteRate());
+
+        header(out, "latency_milliseconds", "summary",
+            "End-to-end latency, last interval");
+        quantile(out, "0.5", total.getLatencyP50Millis());
+        quantile(out, "0.99", total.getLatencyP99Millis());
+        quantile(out, "0.999", total.getLatencyP999Millis());
+        quantile(out, "1", total.getLatencyMaxMillis());
+
+        header(out, "transport_connected_clients", "gauge",
+            "Clients connected by transport");
+        for (TransportMXBean transport : theMetrics.getTransports()) {
+            transportSample(out, "transport_connected_clients",
+                transport, transport.getConnectedClients());
+        }
+        header(out, "transport_messages_total", "counter",
+            "Messages received by transport");
+        for (TransportMXBean transport : theMetrics.getTransports()) {
+            transportSample(out, "transport_messages_total",
+                transport, transport.getMessages());
+        }
+        header(out, "transport_message_rate", "gauge",
+            "Messages per second by transport, last interval");
+        for (TransportMXBean transport : theMetrics.getTransports()) {
+            transportSample(out, "transport_message_rate",
+                transport, transport.getMessageRate());
+        }
+        header(out, "transport_connection_failures_total", "counter",
+            "Failed connection attempts by transport");
+        for (TransportMXBean transport : theMetrics.getTransports()) {
+            transportSample(out, "transport_connection_failures_total",
+                transport, transport.getConnectionFailures());
+        }
+
+        final InboundPoolMXBean pool = theMetrics.getInboundPool();
+        gauge(out, "inbound_pool_active_threads",
+            "Inbound pool threads running tasks", pool.getActiveCount());
+        gauge(out, "inbound_pool_threads", "Inbound pool threads",
+            pool.getPoolSize());
+        gauge(out, "inbound_pool_largest_threads",
+            "Largest number of inbound pool threads",
+            pool.getLargestPoolSize());
+        gauge(out, "inbound_pool_max_threads",
+            "Configured maximum inbound pool threads", pool.getMaximumSize());
+        gauge(out, "inbound_pool_queued_tasks",
+            "Tasks waiting in the inbound pool queue", pool.getQueueSize());
+        gauge(out, "inbound_pool_queue_capacity",
+            "Configured inbound pool queue size", pool.getQueueCapacity());
+
+        final HandlerPipelineMXBean pipeline = theMetrics.getHandlerPipeline();
+        if (pipeline != null) {
+            gauge(out, "handler_queued_messages",
+                "Messages waiting for handler threads",
+                pipeline.getOccupancy());
+            gauge(out, "handler_max_queued_messages",
+                "Most messages waiting for one handler thread",
+                pipeline.getMaxOccupancy());
+            counter(out, "handler_messages_total",
+                "Messages handed off to handler threads",
+                pipeline.getHandedOff());
+            counter(out, "handler_dropped_total",
+                "Messages dropped for want of room", pipeline.getDropped());
+            counter(out, "handler_blocked_total",
+                "Messages whose inbound thread waited for room",
+                pipeline.getBlocked());
+            gauge(out, "handler_handoff_p99_milliseconds",
+                "99th percentile time from hand off to handler",
+                pipeline.getHandoffP99Millis());
+            gauge(out, "handler_time_p99_milliseconds",
+                "99th percentile time spent in the handler",
+                pipeline.getHandlerP99Millis());
+        }
+
+        return out.toString();
+    }
+
+    private static void counter(
+        StringBuilder out,
+        String name,
+        String help,
+        long value) {
+
+        header(out, name, "counter", help);
+        out.append(PREFIX).append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void gauge(
+        StringBuilder out,
+        String name,
+        String help,
+        double value) {
+
+        header(out, name, "gauge", help);
+        out.append(PREFIX).append(name).append(' ')
+            .append(number(value)).append('\n');
+    }
+
+    private static void header(
+        StringBuilder out,
+        String name,
+        String type,
+        String help) {
+
+        out.append("# HELP ").append(PREFIX).append(name).append(' ')
+            .append(help).append('\n');
+        out.append("# TYPE ").append(PREFIX).append(name).append(' ')
+            .append(type).append('\n');
+    }
+
+    private static void quantile(
+        StringBuilder out,
+        String quantile,
+        double value) {
+
+        out.append(PREFIX).append("latency_milliseconds{quantile=\"")
+            .append(quantile).append("\"} ").append(number(value))
+            .append('\n');
+    }
+
+    private static void transportSample(
+        StringBuilder out,
+        String name,
+        TransportMXBean transport,
+        double value) {
+
+        out.append(PREFIX).append(name).append("{transport=\"")
+            .append(transport.getTransport().replace("\"", "\\\""))
+            .append("\"} ").append(number(value)).append('\n');
+    }
+
+    private static String number(double value) {
+        if (value == Math.rint(value) && !Double.isInfinite(value)) {
+            return Long.toString((long) value);
+        }
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+}
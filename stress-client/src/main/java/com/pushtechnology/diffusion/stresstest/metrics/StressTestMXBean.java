@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+package com.pushtechnology.diffusion.stresstest.metrics;
+
+/**
+ * The aggregate state of the stress test clients.
+ * <P>
+ * Counters are live. Rates and latency percentiles are those of the last
+ * throughput report interval, and are zero until the first report.
+ *
+ * @author Push Technology Limited
+ */
+public interface StressTestMXBean {
+
+    /**
+     * @return the number of clients connected and not yet closed
+     */
+    long getConnectedClients();
+
+    /**
+     * @return the number of successful connection attempts
+     */
+    long getConnections();
+
+    /**
+     * @return the number of failed connection attempts
+     */
+    long getConnectionFailures();
+
+    /**
+     * @return the number of messages received
+     */
+    long getMessages();
+
+    /**
+     * @return the number of message bytes received
+     */
+    long getBytes();
+
+    /**
+     * @return the messages received per second in the last interval
+     */
+    double getMessageRate();
+
+    /**
+     * @return the message bytes received per second in the last interval
+     */
+    double getByteRate();
+
+    /**
+     * @return the median end-to-end latency in the last interval in
+     *         milliseconds
+     */
+    double getLatencyP50Millis();
+
+    /**
+     * @return the 99th percentile end-to-end latency in the last interval in
+     *         milliseconds
+     */
+    double getLatencyP99Millis();
+
+    /**
+     * @return the 99.9th percentile end-to-end latency in the last interval
+     *         in milliseconds
+     */
+    double getLatencyP999Millis();
+
+    /**
+     * @return the maximum end-to-end latency in the last interval in
+     *         milliseconds
+     */
+    double getLatencyMaxMillis();
+}
@@ -0,0 +1,310 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+package com.pushtechnology.diffusion.stresstest.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.pushtechnology.diffusion.stresstest.HandlerPipeline;
+import com.pushtechnology.diffusion.stresstest.stats.IntervalStats;
+import com.pushtechnology.diffusion.stresstest.stats.LatencyHistogram;
+import com.pushtechnology.diffusion.stresstest.stats.ThroughputReporter;
+import com.pushtechnology.diffusion.stresstest.stats.TransportStats;
+import com.pushtechnology.diffusion.stresstest.stats.TransportStatsRegistry;
+
+/**
+ * Publishes the state of a stress test as MBeans.
+ * <P>
+ * Reads are cheap. Counters are read from the {@link TransportStats} without
+ * blocking the clients, and rates and latency are the snapshot taken at the
+ * end of the last {@link ThroughputReporter} interval, so nothing is
+ * calculated when a monitoring tool polls.
+ *
+ * @author Push Technology Limited
+ */
+public final class StressTestMetrics
+    implements StressTestMXBean, ThroughputReporter.Listener {
+
+    private static final String DOMAIN =
+        "com.pushtechnology.diffusion.stresstest";
+
+    private static final double MICROS_PER_MILLI = 1000;
+
+    private static final int P50 = 0;
+    private static final int P99 = 1;
+    private static final int P999 = 2;
+    private static final int MAX = 3;
+
+    private final TransportStatsRegistry theStats;
+
+    private final InboundPoolMetrics theInboundPool = new InboundPoolMetrics();
+
+    private volatile HandlerPipelineMetrics theHandlerPipeline;
+
+    private final ConcurrentMap<String, TransportMetrics> theTransports =
+        new ConcurrentHashMap<String, TransportMetrics>();
+
+    private final List<ObjectName> theRegisteredNames =
+        new CopyOnWriteArrayList<ObjectName>();
+
+    private volatile boolean isRegistered;
+
+    private volatile IntervalStats theTotal;
+
+    /**
+     * The latency percentiles of the last interval in milliseconds. Replaced,
+     * never modified.
+     */
+    private volatile double[] theLatency = new double[MAX + 1];
+
+    /**
+     * Constructor.
+     *
+     * @param stats the statistics to publish
+     */
+    public StressTestMetrics(TransportStatsRegistry stats) {
+        theStats = stats;
+    }
+
+    /**
+     * Register the MBeans with the platform MBean server.
+     */
+    public void register() {
+        isRegistered = true;
+        register(objectName("StressTest", null), this);
+        register(
+            objectName("InboundPool", theInboundPool.getName()),
+            theInboundPool);
+        if (theHandlerPipeline != null) {
+            register(objectName("HandlerPipeline", null), theHandlerPipeline);
+        }
+        for (TransportStats stats : theStats.getAll()) {
+            getTransport(stats.getTransport());
+        }
+    }
+
+    /**
+     * Publish the state of the message handler pipeline. Call before
+     * {@link #register()}.
+     *
+     * @param pipeline the pipeline, or null if there is none
+     */
+    public void setHandlerPipeline(HandlerPipeline pipeline) {
+        theHandlerPipeline =
+            pipeline == null ? null : new HandlerPipelineMetrics(pipeline);
+    }
+
+    /**
+     * Unregister the MBeans.
+     */
+    public void unregister() {
+        isRegistered = false;
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : theRegisteredNames) {
+            try {
+                server.unregisterMBean(name);
+            }
+            catch (JMException e) {
+                // Already gone
+            }
+        }
+        theRegisteredNames.clear();
+    }
+
+    /**
+     * @return the state of each transport used so far
+     */
+    public Collection<TransportMXBean> getTransports() {
+        for (TransportStats stats : theStats.getAll()) {
+            getTransport(stats.getTransport());
+        }
+        return new ArrayList<TransportMXBean>(theTransports.values());
+    }
+
+    /**
+     * @return the state of the inbound thread pool
+     */
+    public InboundPoolMXBean getInboundPool() {
+        return theInboundPool;
+    }
+
+    /**
+     * @return the state of the message handler pipeline, or null if there is
+     *         none
+     */
+    public HandlerPipelineMXBean getHandlerPipeline() {
+        return theHandlerPipeline;
+    }
+
+    @Override
+    public void intervalReported(
+        List<IntervalStats> transports,
+        IntervalStats total,
+        LatencyHistogram latency) {
+
+        for (IntervalStats interval : transports) {
+            getTransport(interval.getName()).setInterval(interval);
+        }
+        theTotal = total;
+
+        if (latency != null) {
+            final double[] percentiles = new double[MAX + 1];
+            percentiles[P50] =
+                latency.getValueAtPercentile(50) / MICROS_PER_MILLI;
+            percentiles[P99] =
+                latency.getValueAtPercentile(99) / MICROS_PER_MILLI;
+            percentiles[P999] =
+                latency.getValueAtPercentile(99.9) / MICROS_PER_MILLI;
+            percentiles[MAX] = latency.getMaxValue() / MICROS_PER_MILLI;
+            theLatency = percentiles;
+        }
+    }
+
+    @Override
+    public long getConnectedClients() {
+        long result = 0;
+        for (TransportStats stats : theStats.getAll()) {
+            result += stats.getActiveClients();
+        }
+        return result;
+    }
+
+    @Override
+    public long getConnections() {
+        long result = 0;
+        for (TransportStats stats : theStats.getAll()) {
+            result += stats.getConnections();
+        }
+        return result;
+    }
+
+    @Override
+    public long getConnectionFailures() {
+        long result = 0;
+        for (TransportStats stats : theStats.getAll()) {
+            result += stats.getConnectionFailures();
+        }
+        return result;
+    }
+
+    @Override
+    public long getMessages() {
+        long result = 0;
+        for (TransportStats stats : theStats.getAll()) {
+            result += stats.getMessages();
+        }
+        return result;
+    }
+
+    @Override
+    public long getBytes() {
+        long result = 0;
+        for (TransportStats stats : theStats.getAll()) {
+            result += stats.getBytes();
+        }
+        return result;
+    }
+
+    @Override
+    public double getMessageRate() {
+        final IntervalStats total = theTotal;
+        return total == null ? 0 : total.getMessageRate();
+    }
+
+    @Override
+    public double getByteRate() {
+        final IntervalStats total = theTotal;
+        return total == null ? 0 : total.getByteRate();
+    }
+
+    @Override
+    public double getLatencyP50Millis() {
+        return theLatency[P50];
+    }
+
+    @Override
+    public double getLatencyP99Millis() {
+        return theLatency[P99];
+    }
+
+    @Override
+    public double getLatencyP999Millis() {
+        return theLatency[P999];
+    }
+
+    @Override
+    public double getLatencyMaxMillis() {
+        return theLatency[MAX];
+    }
+
+    private TransportMetrics getTransport(String transport) {
+        final TransportMetrics metrics = theTransports.get(transport);
+        if (metrics != null) {
+            return metrics;
+        }
+        final TransportMetrics newMetrics =
+            new TransportMetrics(theStats.forTransport(transport));
+        final TransportMetrics existing =
+            theTransports.putIfAbsent(transport, newMetrics);
+        if (existing != null) {
+            return existing;
+        }
+        if (isRegistered) {
+            register(objectName("Transport", transport), newMetrics);
+        }
+        return newMetrics;
+    }
+
+    private void register(ObjectName name, Object mbean) {
+        if (name == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                .registerMBean(mbean, name);
+            theRegisteredNames.add(name);
+        }
+        catch (JMException e) {
+            System.err.println(
+                "Unable to register " + name + ": " + e.getLocalizedMessage());
+        }
+    }
+
+    private static ObjectName objectName(String type, String name) {
+        final StringBuilder result =
+            new StringBuilder(DOMAIN).append(":type=").append(type);
+        if (name != null) {
+            result.append(",name=").append(ObjectName.quote(name));
+        }
+        try {
+            return new ObjectName(result.toString());
+        }
+        catch (JMException e) {
+            System.err.println(
+                "Invalid MBean name " + result + ": " +
+                    e.getLocalizedMessage());
+            return null;
+        }
+    }
+}
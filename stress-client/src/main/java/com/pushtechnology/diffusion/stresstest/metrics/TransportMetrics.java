@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+package com.pushtechnology.diffusion.stresstest.metrics;
+
+import com.pushtechnology.diffusion.stresstest.stats.IntervalStats;
+import com.pushtechnology.diffusion.stresstest.stats.TransportStats;
+
+/**
+ * {@link TransportMXBean} reading the {@link TransportStats} of a transport
+ * and its last interval.
+ *
+ * @author Push Technology Limited
+ */
+final class TransportMetrics implements TransportMXBean {
+
+    private static final double MICROS_PER_MILLI = 1000;
+
+    private final TransportStats theStats;
+
+    private volatile IntervalStats theInterval;
+
+    /**
+     * Constructor.
+     *
+     * @param stats the transport statistics
+     */
+    TransportMetrics(TransportStats stats) {
+        theStats = stats;
+    }
+
+    /**
+     * @param interval the statistics of the last interval
+     */
+    void setInterval(IntervalStats interval) {
+        theInterval = interval;
+    }
+
+    @Override
+    public String getTransport() {
+        return theStats.getTransport();
+    }
+
+    @Override
+    public long getConnectedClients() {
+        return theStats.getActiveClients();
+    }
+
+    @Override
+    public long getConnections() {
+        return theStats.getConnections();
+    }
+
+    @Override
+    public long getConnectionFailures() {
+        return theStats.getConnectionFailures();
+    }
+
+    @Override
+    public long getMessages() {
+        return theStats.getMessages();
+    }
+
+    @Override
+    public long getBytes() {
+        return theStats.getBytes();
+    }
+
+    @Override
+    public double getMessageRate() {
+        final IntervalStats interval = theInterval;
+        return interval == null ? 0 : interval.getMessageRate();
+    }
+
+    @Override
+    public double getByteRate() {
+        final IntervalStats interval = theInterval;
+        return interval == null ? 0 : interval.getByteRate();
+    }
+
+    @Override
+    public double getConnectP99Millis() {
+        return theStats.getConnectLatency().getValueAtPercentile(99) /
+            MICROS_PER_MILLI;
+    }
+
+    @Override
+    public double getInitialLoadP99Millis() {
+        return theStats.getInitialLoadLatency().getValueAtPercentile(99) /
+            MICROS_PER_MILLI;
+    }
+
+    @Override
+    public long getReconnections() {
+        return theStats.getReconnections();
+    }
+
+    @Override
+    public long getReconnectFailures() {
+        return theStats.getReconnectFailures();
+    }
+
+    @Override
+    public double getReconnectP99Millis() {
+        return theStats.getReconnectLatency().getValueAtPercentile(99) /
+            MICROS_PER_MILLI;
+    }
+}
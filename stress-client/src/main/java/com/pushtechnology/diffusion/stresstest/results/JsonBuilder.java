@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+package com.pushtechnology.diffusion.stresstest.results;
+
+/**
+ * Minimal indented JSON writer for the run manifest.
+ *
+ * @author Push Technology Limited
+ */
+final class JsonBuilder {
+
+    private static final String INDENT = "  ";
+
+    private final StringBuilder theJson = new StringBuilder();
+
+    private int theDepth;
+
+    private boolean isFirst = true;
+
+    private boolean isAfterName;
+
+    JsonBuilder beginObject() {
+        return open('{');
+    }
+
+    JsonBuilder endObject() {
+        return close('}');
+    }
+
+    JsonBuilder beginArray() {
+        return open('[');
+    }
+
+    JsonBuilder endArray() {
+        return close(']');
+    }
+
+    JsonBuilder name(String name) {
+        separate();
+        quote(name);
+        theJson.append(": ");
+        isAfterName = true;
+        return this;
+    }
+
+    JsonBuilder value(String value) {
+        separate();
+        if (value == null) {
+            theJson.append("null");
+        }
+        else {
+            quote(value);
+        }
+        return this;
+    }
+
+    JsonBuilder value(Number value) {
+        separate();
+        theJson.append(value);
+        return this;
+    }
+
+    JsonBuilder field(String name, String value) {
+        return name(name).value(value);
+    }
+
+    JsonBuilder field(String name, long value) {
+        return name(name).value(value);
+    }
+
+    JsonBuilder field(String name, double value) {
+        return name(name).value(value);
+    }
+
+    @Override
+    public String toString() {
+        return theJson.toString();
+    }
+
+    private JsonBuilder open(char bracket) {
+        separate();
+        theJson.append(bracket);
+        theDepth++;
+        isFirst = true;
+        return this;
+    }
+
+    private JsonBuilder close(char bracket) {
+        theDepth--;
+        if (!isFirst) {
+            newLine();
+        }
+        theJson.append(bracket);
+        isFirst = false;
+        return this;
+    }
+
+    private void separate() {
+        if (isAfterName) {
+            isAfterName = false;
+            return;
+        }
+        if (theDepth == 0) {
+            return;
+        }
+        if (!isFirst) {
+            theJson.append(',');
+        }
+        newLine();
+        isFirst = false;
+    }
+
+    private void newLine() {
+        theJson.append('\n');
+        for (int i = 0; i < theDepth; i++) {
+            theJson.append(INDENT);
+        }
+    }
+
+    private void quote(String value) {
+        theJson.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+            case '"':
+                theJson.append("\\\"");
+                break;
+            case '\\':
+                theJson.append("\\\\");
+                break;
+            case '\n':
+                theJson.append("\\n");
+                break;
+            case '\r':
+                theJson.append("\\r");
+                break;
+            case '\t':
+                theJson.append("\\t");
+                break;
+            default:
+                if (c < ' ') {
+                    theJson.append(String.format("\\u%04x", (int) c));
+                }
+                else {
+                    theJson.append(c);
+                }
+            }
+        }
+        theJson.append('"');
+    }
+}
@@ -0,0 +1,532 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+package com.pushtechnology.diffusion.stresstest.results;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.RuntimeMXBean;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.pushtechnology.diffusion.stresstest.stats.HandlerStats;
+import com.pushtechnology.diffusion.stresstest.stats.IntervalStats;
+import com.pushtechnology.diffusion.stresstest.stats.LatencyHistogram;
+import com.pushtechnology.diffusion.stresstest.stats.LatencyRecorder;
+import com.pushtechnology.diffusion.stresstest.stats.SequenceTotals;
+import com.pushtechnology.diffusion.stresstest.stats.ThroughputReporter;
+import com.pushtechnology.diffusion.stresstest.stats.TransportStats;
+import com.pushtechnology.diffusion.stresstest.testconnector.BaseClient;
+
+/**
+ * Writes the results of a run to a directory of files that can be compared
+ * across runs.
+ * <ul>
+ * <li>{@code manifest.json} - the configuration, JVM, host, start and end
+ * time and overall results.
+ * <li>{@code clients.csv} - a row for each client, written when it finishes.
+ * The latency columns are empty unless each client records its own latency.
+ * <li>{@code transports.csv} - a row for each transport.
+ * <li>{@code intervals.csv} - the throughput of each reporting interval.
+ * <li>{@code latency.hlog} - the end-to-end latency histogram of each
+ * reporting interval.
+ * <li>{@code capacity.txt} - the capacity report of a saturation search, if
+ * one was run.
+ * </ul>
+ * <P>
+ * Callers only queue work. The rows are formatted and written through
+ * buffered writers on a dedicated thread, so recording results never blocks
+ * on file I/O or adds latency to message delivery.
+ *
+ * @author Push Technology Limited
+ */
+public final class ResultsWriter implements ThroughputReporter.Listener {
+
+    private static final String MANIFEST_FILE = "manifest.json";
+    private static final String CLIENTS_FILE = "clients.csv";
+    private static final String TRANSPORTS_FILE = "transports.csv";
+    private static final String INTERVALS_FILE = "intervals.csv";
+    private static final String LATENCY_LOG_FILE = "latency.hlog";
+    private static final String CAPACITY_FILE = "capacity.txt";
+
+    private static final String CLIENTS_HEADER =
+        "client,transport,clientId,messages,latencyCount,latencyP50Micros," +
+            "latencyP99Micros,latencyMaxMicros,sequenceGaps," +
+            "sequenceDuplicates,sequenceOutOfOrder";
+
+    private static final String TRANSPORTS_HEADER =
+        "transport,connections,connectionFailures,messages,bytes," +
+            "connectP50Micros,connectP99Micros,connectMaxMicros," +
+            "initialLoadP50Micros,initialLoadP99Micros," +
+            "reconnections,reconnectFailures," +
+            "reconnectP50Micros,reconnectP99Micros," +
+            "subscriptions,unsubscriptions,subscriptionFailures," +
+            "subscribeP50Micros,subscribeP99Micros";
+
+    private static final String INTERVALS_HEADER =
+        "elapsedSeconds,transport,intervalSeconds,messages,bytes," +
+            "messagesPerSecond,bytesPerSecond,activeClients";
+
+    private static final String LATENCY_LOG_HEADER =
+        "# End-to-end latency of each interval in microseconds%n" +
+            "# Columns: elapsedSeconds intervalSeconds count p50 p99 p99.9 " +
+            "max buckets%n" +
+            "# buckets are LatencyHistogram.encode() index:count pairs";
+
+    private static final long CLOSE_TIMEOUT_SECONDS = 30;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File theDirectory;
+
+    private final long theStartMillis = System.currentTimeMillis();
+
+    private final long theStartNanos = System.nanoTime();
+
+    private final BlockingQueue<Runnable> theTasks =
+        new LinkedBlockingQueue<Runnable>();
+
+    /**
+     * The open files. Only used by the writer thread.
+     */
+    private final Map<String, Writer> theWriters =
+        new HashMap<String, Writer>();
+
+    private final Thread theWriterThread;
+
+    private volatile boolean isClosed;
+
+    private volatile boolean isStopping;
+
+    /**
+     * Constructor.
+     *
+     * @param parent the directory to create the run's results directory in
+     * @throws IOException if the results directory cannot be created
+     */
+    public ResultsWriter(File parent) throws IOException {
+        theDirectory = new File(parent, runId(theStartMillis));
+        if (!theDirectory.mkdirs() && !theDirectory.isDirectory()) {
+            throw new IOException("Unable to create " + theDirectory);
+        }
+
+        theWriterThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeQueued();
+            }
+        }, "StressTest-results");
+        theWriterThread.setDaemon(true);
+        theWriterThread.start();
+
+        appendLine(CLIENTS_FILE, CLIENTS_HEADER);
+        appendLine(TRANSPORTS_FILE, TRANSPORTS_HEADER);
+        appendLine(INTERVALS_FILE, INTERVALS_HEADER);
+        appendLine(LATENCY_LOG_FILE, String.format(LATENCY_LOG_HEADER));
+
+        System.out.println("Writing results to " + theDirectory);
+    }
+
+    /**
+     * @return the directory the results are written to
+     */
+    public File getDirectory() {
+        return theDirectory;
+    }
+
+    /**
+     * Write the row for a client that has finished.
+     *
+     * @param client the client
+     */
+    public void clientFinished(final BaseClient client) {
+        submit(new Runnable() {
+            @Override
+            public void run() {
+                writeClient(client);
+            }
+        });
+    }
+
+    @Override
+    public void intervalReported(
+        final List<IntervalStats> transports,
+        final IntervalStats total,
+        final LatencyHistogram latency) {
+
+        final double elapsed = elapsedSeconds();
+        submit(new Runnable() {
+            @Override
+            public void run() {
+                writeInterval(elapsed, total);
+                for (IntervalStats interval : transports) {
+                    writeInterval(elapsed, interval);
+                }
+                if (latency != null) {
+                    writeLatency(elapsed, total.getSeconds(), latency);
+                }
+            }
+        });
+    }
+
+    /**
+     * Write the rows for the clients still running and for each transport,
+     * write the manifest, and close the files.
+     *
+     * @param clients the clients that have not finished
+     * @param transports the statistics for each transport
+     * @param configuration the stress test properties
+     * @param latency the end-to-end latency of all clients, or null if not
+     *        recorded
+     * @param sequences the sequence counts of all clients
+     * @param handler the decoding of the message handlers, or null if not
+     *        measured
+     * @param capacity the capacity report of a saturation search, or null
+     *        if none was run
+     */
+    public void finish(
+        final Collection<BaseClient> clients,
+        final Collection<TransportStats> transports,
+        final Map<String, String> configuration,
+        final LatencyHistogram latency,
+        final SequenceTotals sequences,
+        final HandlerStats handler,
+        final String capacity) {
+
+        final long endMillis = System.currentTimeMillis();
+        submit(new Runnable() {
+            @Override
+            public void run() {
+                for (BaseClient client : clients) {
+                    writeClient(client);
+                }
+                long messages = 0;
+                for (TransportStats stats : transports) {
+                    writeTransport(stats);
+                    messages += stats.getMessages();
+                }
+                writeManifest(
+                    endMillis,
+                    configuration,
+                    messages,
+                    latency,
+                    sequences,
+                    handler);
+                if (capacity != null) {
+                    write(CAPACITY_FILE, capacity);
+                }
+            }
+        });
+        close();
+    }
+
+    /**
+     * Stop accepting work, write everything queued so far and close the
+     * files.
+     */
+    public void close() {
+        if (isClosed) {
+            return;
+        }
+        isClosed = true;
+        theTasks.add(new Runnable() {
+            @Override
+            public void run() {
+                isStopping = true;
+            }
+        });
+        try {
+            theWriterThread.join(
+                TimeUnit.SECONDS.toMillis(CLOSE_TIMEOUT_SECONDS));
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void submit(Runnable task) {
+        if (!isClosed) {
+            theTasks.add(task);
+        }
+    }
+
+    private void appendLine(final String file, final String line) {
+        submit(new Runnable() {
+            @Override
+            public void run() {
+                write(file, line);
+            }
+        });
+    }
+
+    private void writeQueued() {
+        try {
+            while (!isStopping) {
+                theTasks.take().run();
+            }
+        }
+        catch (InterruptedException e) {
+            // Closing
+        }
+        finally {
+            for (Writer writer : theWriters.values()) {
+                try {
+                    writer.close();
+                }
+                catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            theWriters.clear();
+        }
+    }
+
+    private void write(String file, String line) {
+        try {
+            Writer writer = theWriters.get(file);
+            if (writer == null) {
+                writer = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(new File(theDirectory, file)),
+                    UTF8));
+                theWriters.put(file, writer);
+            }
+            writer.write(line);
+            writer.write(System.lineSeparator());
+        }
+        catch (IOException e) {
+            System.err.println(
+                "Unable to write results to " + file + ": " +
+                    e.getLocalizedMessage());
+        }
+    }
+
+    private void writeClient(BaseClient client) {
+        final StringBuilder row = new StringBuilder();
+        row
+            .append(client.getThreadNumber()).append(',')
+            .append(csv(client.getClientType())).append(',')
+            .append(csv(client.getClientID())).append(',')
+            .append(client.getMessageCount()).append(',');
+
+        final LatencyRecorder recorder = client.getLatencyRecorder();
+        if (recorder != null) {
+            final LatencyHistogram latency = recorder.snapshot();
+            row
+                .append(latency.getTotalCount()).append(',')
+                .append(latency.getValueAtPercentile(50)).append(',')
+                .append(latency.getValueAtPercentile(99)).append(',')
+                .append(latency.getMaxValue()).append(',');
+        }
+        else {
+            row.append(",,,,");
+        }
+
+        final SequenceTotals sequences = client.getSequences();
+        row
+            .append(sequences.getGaps()).append(',')
+            .append(sequences.getDuplicates()).append(',')
+            .append(sequences.getOutOfOrder());
+
+        write(CLIENTS_FILE, row.toString());
+    }
+
+    private void writeTransport(TransportStats stats) {
+        final LatencyHistogram connect = stats.getConnectLatency();
+        final LatencyHistogram initialLoad = stats.getInitialLoadLatency();
+        final LatencyHistogram reconnect = stats.getReconnectLatency();
+        final LatencyHistogram subscribe = stats.getSubscribeLatency();
+        write(TRANSPORTS_FILE,
+            csv(stats.getTransport()) + ',' +
+                stats.getConnections() + ',' +
+                stats.getConnectionFailures() + ',' +
+                stats.getMessages() + ',' +
+                stats.getBytes() + ',' +
+                connect.getValueAtPercentile(50) + ',' +
+                connect.getValueAtPercentile(99) + ',' +
+                connect.getMaxValue() + ',' +
+                initialLoad.getValueAtPercentile(50) + ',' +
+                initialLoad.getValueAtPercentile(99) + ',' +
+                stats.getReconnections() + ',' +
+                stats.getReconnectFailures() + ',' +
+                reconnect.getValueAtPercentile(50) + ',' +
+                reconnect.getValueAtPercentile(99) + ',' +
+                stats.getSubscriptions() + ',' +
+                stats.getUnsubscriptions() + ',' +
+                stats.getSubscriptionFailures() + ',' +
+                subscribe.getValueAtPercentile(50) + ',' +
+                subscribe.getValueAtPercentile(99));
+    }
+
+    private void writeInterval(double elapsed, IntervalStats interval) {
+        write(INTERVALS_FILE, String.format(
+            "%.3f,%s,%.3f,%d,%d,%.1f,%.1f,%d",
+            elapsed,
+            csv(interval.getName()),
+            interval.getSeconds(),
+            interval.getMessages(),
+            interval.getBytes(),
+            interval.getMessageRate(),
+            interval.getByteRate(),
+            interval.getActiveClients()));
+    }
+
+    private void writeLatency(
+        double elapsed,
+        double seconds,
+        LatencyHistogram latency) {
+
+        write(LATENCY_LOG_FILE, String.format(
+            "%.3f %.3f %d %d %d %d %d %s",
+            elapsed,
+            seconds,
+            latency.getTotalCount(),
+            latency.getValueAtPercentile(50),
+            latency.getValueAtPercentile(99),
+            latency.getValueAtPercentile(99.9),
+            latency.getMaxValue(),
+            latency.encode()));
+    }
+
+    private void writeManifest(
+        long endMillis,
+        Map<String, String> configuration,
+        long messages,
+        LatencyHistogram latency,
+        SequenceTotals sequences,
+        HandlerStats handler) {
+
+        final RuntimeMXBean runtime = ManagementFactory.getRuntimeMXBean();
+        final JsonBuilder json = new JsonBuilder();
+
+        json.beginObject()
+            .field("runId", theDirectory.getName())
+            .field("start", isoTime(theStartMillis))
+            .field("end", isoTime(endMillis))
+            .field("durationSeconds", (endMillis - theStartMillis) / 1000.0)
+            .field("host", hostName());
+
+        json.name("jvm").beginObject()
+            .field("version", System.getProperty("java.version"))
+            .field("vendor", System.getProperty("java.vendor"))
+            .field("vmName", runtime.getVmName())
+            .field("processors", Runtime.getRuntime().availableProcessors())
+            .field("maxMemory", Runtime.getRuntime().maxMemory())
+            .name("arguments").beginArray();
+        for (String argument : runtime.getInputArguments()) {
+            json.value(argument);
+        }
+        json.endArray().endObject();
+
+        json.name("os").beginObject()
+            .field("name", System.getProperty("os.name"))
+            .field("version", System.getProperty("os.version"))
+            .field("arch", System.getProperty("os.arch"))
+            .endObject();
+
+        json.name("configuration").beginObject();
+        for (Map.Entry<String, String> entry : configuration.entrySet()) {
+            json.field(entry.getKey(), entry.getValue());
+        }
+        json.endObject();
+
+        json.name("summary").beginObject().field("messages", messages);
+        if (latency != null) {
+            json.name("latencyMicros").beginObject()
+                .field("count", latency.getTotalCount())
+                .field("p50", latency.getValueAtPercentile(50))
+                .field("p99", latency.getValueAtPercentile(99))
+                .field("p99.9", latency.getValueAtPercentile(99.9))
+                .field("max", latency.getMaxValue())
+                .endObject();
+        }
+        json.name("sequence").beginObject()
+            .field("received", sequences.getReceived())
+            .field("gaps", sequences.getGaps())
+            .field("duplicates", sequences.getDuplicates())
+            .field("outOfOrder", sequences.getOutOfOrder())
+            .endObject();
+        if (handler != null) {
+            final LatencyHistogram decodeTime = handler.getDecodeTime();
+            json.name("handler").beginObject()
+                .field("class", handler.getHandler())
+                .field("decoded", handler.getDecoded())
+                .field("failed", handler.getFailed())
+                .field("skipped", handler.getSkipped())
+                .name("decodeNanos").beginObject()
+                .field("mean", handler.getMeanDecodeNanos())
+                .field("p50", decodeTime.getValueAtPercentile(50))
+                .field("p99", decodeTime.getValueAtPercentile(99))
+                .field("p99.9", decodeTime.getValueAtPercentile(99.9))
+                .field("max", decodeTime.getMaxValue())
+                .endObject()
+                .endObject();
+        }
+        json.endObject().endObject();
+
+        write(MANIFEST_FILE, json.toString());
+    }
+
+    private double elapsedSeconds() {
+        return (System.nanoTime() - theStartNanos) /
+            (double) TimeUnit.SECONDS.toNanos(1);
+    }
+
+    private static String csv(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    private static String runId(long startMillis) {
+        final SimpleDateFormat format =
+            new SimpleDateFormat("yyyyMMdd-HHmmss");
+        return format.format(new Date(startMillis));
+    }
+
+    private static String isoTime(long millis) {
+        final SimpleDateFormat format =
+            new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date(millis));
+    }
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        }
+        catch (UnknownHostException e) {
+            return "unknown";
+        }
+    }
+}
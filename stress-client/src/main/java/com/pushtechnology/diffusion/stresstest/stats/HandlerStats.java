@@ -0,0 +1,141 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+package com.pushtechnology.diffusion.stresstest.stats;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The cost and outcome of decoding messages, shared by the message handlers
+ * of every client.
+ * <P>
+ * Recording never blocks, so handlers on any number of threads can share
+ * one instance. Decode times are recorded in nanoseconds.
+ *
+ * @author Push Technology Limited
+ */
+public final class HandlerStats {
+
+    private final String theHandler;
+
+    private final LongAdder theDecoded = new LongAdder();
+
+    private final LongAdder theFailed = new LongAdder();
+
+    private final LongAdder theSkipped = new LongAdder();
+
+    private final LongAdder theDecodeNanos = new LongAdder();
+
+    private final LatencyRecorder theDecodeTime = new LatencyRecorder();
+
+    /**
+     * Constructor.
+     *
+     * @param handler the name of the handler
+     */
+    public HandlerStats(String handler) {
+        theHandler = handler;
+    }
+
+    /**
+     * @return the name of the handler
+     */
+    public String getHandler() {
+        return theHandler;
+    }
+
+    /**
+     * Record a message decoded and found valid.
+     *
+     * @param nanos the time taken to decode it
+     */
+    public void decoded(long nanos) {
+        theDecoded.increment();
+        recordTime(nanos);
+    }
+
+    /**
+     * Record a message found not to be valid.
+     *
+     * @param nanos the time taken to find it not valid
+     */
+    public void failed(long nanos) {
+        theFailed.increment();
+        recordTime(nanos);
+    }
+
+    /**
+     * Record a message the handler does not decode, such as an update with
+     * no checksum or a message sent by a client.
+     */
+    public void skipped() {
+        theSkipped.increment();
+    }
+
+    /**
+     * @return the number of messages decoded and found valid
+     */
+    public long getDecoded() {
+        return theDecoded.sum();
+    }
+
+    /**
+     * @return the number of messages found not to be valid
+     */
+    public long getFailed() {
+        return theFailed.sum();
+    }
+
+    /**
+     * @return the number of messages not decoded
+     */
+    public long getSkipped() {
+        return theSkipped.sum();
+    }
+
+    /**
+     * @return the mean time to decode a message in nanoseconds
+     */
+    public double getMeanDecodeNanos() {
+        final long messages = theDecoded.sum() + theFailed.sum();
+        return messages == 0 ? 0 : theDecodeNanos.sum() / (double) messages;
+    }
+
+    /**
+     * @return the time to decode each message in nanoseconds
+     */
+    public LatencyHistogram getDecodeTime() {
+        return theDecodeTime.snapshot();
+    }
+
+    /**
+     * @return a summary of the messages decoded
+     */
+    public String report() {
+        return String.format(
+            "Handler %s: decoded %d, failed %d, skipped %d. " +
+                "Decode us: mean %.2f %s",
+            theHandler,
+            getDecoded(),
+            getFailed(),
+            getSkipped(),
+            getMeanDecodeNanos() / 1000,
+            getDecodeTime().toPercentileString(1000));
+    }
+
+    private void recordTime(long nanos) {
+        theDecodeNanos.add(nanos);
+        theDecodeTime.recordValue(nanos);
+    }
+}
@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+package com.pushtechnology.diffusion.stresstest.stats;
+
+/**
+ * The messages received over one reporting interval, for one transport or
+ * for all of them.
+ *
+ * @author Push Technology Limited
+ */
+public final class IntervalStats {
+
+    private final String theName;
+
+    private final long theMessages;
+
+    private final long theBytes;
+
+    private final long theActiveClients;
+
+    private final double theSeconds;
+
+    /**
+     * Constructor.
+     *
+     * @param name the transport name, or "total"
+     * @param messages the number of messages received in the interval
+     * @param bytes the bytes of content received in the interval
+     * @param activeClients the number of clients connected at the end of the
+     *        interval
+     * @param seconds the length of the interval in seconds
+     */
+    public IntervalStats(
+        String name,
+        long messages,
+        long bytes,
+        long activeClients,
+        double seconds) {
+
+        theName = name;
+        theMessages = messages;
+        theBytes = bytes;
+        theActiveClients = activeClients;
+        theSeconds = seconds;
+    }
+
+    /**
+     * @return the transport name, or "total"
+     */
+    public String getName() {
+        return theName;
+    }
+
+    /**
+     * @return the number of messages received in the interval
+     */
+    public long getMessages() {
+        return theMessages;
+    }
+
+    /**
+     * @return the bytes of content received in the interval
+     */
+    public long getBytes() {
+        return theBytes;
+    }
+
+    /**
+     * @return the number of clients connected at the end of the interval
+     */
+    public long getActiveClients() {
+        return theActiveClients;
+    }
+
+    /**
+     * @return the length of the interval in seconds
+     */
+    public double getSeconds() {
+        return theSeconds;
+    }
+
+    /**
+     * @return messages per second
+     */
+    public double getMessageRate() {
+        return theSeconds > 0 ? theMessages / theSeconds : 0;
+    }
+
+    /**
+     * @return bytes per second
+     */
+    public double getByteRate() {
+        return theSeconds > 0 ? theBytes / theSeconds : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+            "%.0f msgs/s %.2f MB/s %d active",
+            getMessageRate(),
+            getByteRate() / (1024 * 1024),
+            theActiveClients);
+    }
+}
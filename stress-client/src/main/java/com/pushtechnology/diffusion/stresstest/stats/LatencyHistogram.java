@@ -0,0 +1,278 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+package com.pushtechnology.diffusion.stresstest.stats;
+
+import java.util.Arrays;
+
+/**
+ * A log-linear histogram of non-negative values, in the style of
+ * HdrHistogram.
+ * <P>
+ * Values are held in buckets with a relative precision of about 3%. Values
+ * larger than {@link #MAX_VALUE} are recorded as {@link #MAX_VALUE}. The unit
+ * of the values is chosen by the caller; latencies are recorded in
+ * microseconds.
+ * <P>
+ * This class is not thread safe. Concurrent recording is done with a
+ * {@link LatencyRecorder}, which is merged into a histogram for reporting.
+ *
+ * @author Push Technology Limited
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 6;
+
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT >> 1;
+
+    private static final int MAX_VALUE_BITS = 27;
+
+    /**
+     * The largest value that can be distinguished.
+     */
+    public static final long MAX_VALUE = (1L << MAX_VALUE_BITS) - 1;
+
+    /**
+     * The number of buckets used by histograms and recorders.
+     */
+    static final int BUCKET_COUNT =
+        (MAX_VALUE_BITS - SUB_BUCKET_BITS) * SUB_BUCKET_HALF +
+            SUB_BUCKET_COUNT;
+
+    private final long[] theCounts = new long[BUCKET_COUNT];
+
+    private long theTotalCount;
+
+    /**
+     * Record a value.
+     *
+     * @param value the value
+     */
+    public void recordValue(long value) {
+        theCounts[bucketIndex(value)]++;
+        theTotalCount++;
+    }
+
+    /**
+     * Add the values held by a recorder to this histogram.
+     *
+     * @param recorder the recorder
+     */
+    public void add(LatencyRecorder recorder) {
+        theTotalCount += recorder.addTo(theCounts);
+    }
+
+    /**
+     * Add the values held by another histogram to this histogram.
+     *
+     * @param other the other histogram
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            theCounts[i] += other.theCounts[i];
+        }
+        theTotalCount += other.theTotalCount;
+    }
+
+    /**
+     * Remove the values held by an earlier copy of this histogram, leaving
+     * the values recorded since the copy was taken. Buckets never become
+     * negative, in case values were moved between the sources of the two
+     * copies while they were being taken.
+     *
+     * @param earlier the earlier copy
+     */
+    public void subtract(LatencyHistogram earlier) {
+        theTotalCount = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            theCounts[i] = Math.max(0, theCounts[i] - earlier.theCounts[i]);
+            theTotalCount += theCounts[i];
+        }
+    }
+
+    /**
+     * @return a copy of this histogram
+     */
+    public LatencyHistogram copy() {
+        final LatencyHistogram result = new LatencyHistogram();
+        result.add(this);
+        return result;
+    }
+
+    /**
+     * Remove all values.
+     */
+    public void reset() {
+        Arrays.fill(theCounts, 0);
+        theTotalCount = 0;
+    }
+
+    /**
+     * @return the number of values recorded
+     */
+    public long getTotalCount() {
+        return theTotalCount;
+    }
+
+    /**
+     * @param percentile the percentile, from 0 to 100
+     * @return the value at the given percentile, or 0 if the histogram is
+     *         empty
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (theTotalCount == 0) {
+            return 0;
+        }
+        final double limitedPercentile = Math.min(Math.max(percentile, 0), 100);
+        final long countAtPercentile = Math.max(1,
+            (long) Math.ceil(limitedPercentile / 100 * theTotalCount));
+
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            count += theCounts[i];
+            if (count >= countAtPercentile) {
+                return highestEquivalentValue(i);
+            }
+        }
+        return MAX_VALUE;
+    }
+
+    /**
+     * @return the largest value recorded, to the precision of the histogram
+     */
+    public long getMaxValue() {
+        for (int i = BUCKET_COUNT - 1; i >= 0; i--) {
+            if (theCounts[i] != 0) {
+                return highestEquivalentValue(i);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return the mean of the values recorded, to the precision of the
+     *         histogram
+     */
+    public double getMean() {
+        if (theTotalCount == 0) {
+            return 0;
+        }
+        double total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            if (theCounts[i] != 0) {
+                total += theCounts[i] *
+                    (double) (lowestEquivalentValue(i) +
+                        highestEquivalentValue(i)) / 2;
+            }
+        }
+        return total / theTotalCount;
+    }
+
+    /**
+     * Summarise the histogram as "p50/p99/p99.9/max".
+     *
+     * @param divisor value to divide by to convert the values to the display
+     *        unit, for example 1000 to show microseconds as milliseconds
+     * @return the summary
+     */
+    public String toPercentileString(double divisor) {
+        return String.format("p50 %.2f p99 %.2f p99.9 %.2f max %.2f",
+            getValueAtPercentile(50) / divisor,
+            getValueAtPercentile(99) / divisor,
+            getValueAtPercentile(99.9) / divisor,
+            getMaxValue() / divisor);
+    }
+
+    /**
+     * Encode the bucket counts as text, for logs and for sending between
+     * processes. Only buckets with values are included, as comma separated
+     * {@code index:count} pairs.
+     *
+     * @return the encoded histogram
+     */
+    public String encode() {
+        final StringBuilder result = new StringBuilder();
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            if (theCounts[i] != 0) {
+                if (result.length() > 0) {
+                    result.append(',');
+                }
+                result.append(i).append(':').append(theCounts[i]);
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * Decode a histogram encoded by {@link #encode()}.
+     *
+     * @param encoded the encoded histogram
+     * @return the histogram
+     * @throws IllegalArgumentException if the text is not a valid encoding
+     */
+    public static LatencyHistogram decode(String encoded) {
+        final LatencyHistogram result = new LatencyHistogram();
+        if (encoded.trim().length() == 0) {
+            return result;
+        }
+        try {
+            for (String bucket : encoded.trim().split(",")) {
+                final int separator = bucket.indexOf(':');
+                final int index =
+                    Integer.parseInt(bucket.substring(0, separator));
+                final long count =
+                    Long.parseLong(bucket.substring(separator + 1));
+                result.theCounts[index] += count;
+                result.theTotalCount += count;
+            }
+        }
+        catch (RuntimeException ex) {
+            throw new IllegalArgumentException(
+                "Invalid histogram encoding: " + encoded, ex);
+        }
+        return result;
+    }
+
+    /**
+     * @param value a value
+     * @return the index of the bucket holding the value
+     */
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return value < 0 ? 0 : (int) value;
+        }
+        final long limitedValue = Math.min(value, MAX_VALUE);
+        final int exponent =
+            64 - Long.numberOfLeadingZeros(limitedValue) - SUB_BUCKET_BITS;
+        return exponent * SUB_BUCKET_HALF + (int) (limitedValue >>> exponent);
+    }
+
+    private static long lowestEquivalentValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        final int exponent = index / SUB_BUCKET_HALF - 1;
+        return (long) (index - exponent * SUB_BUCKET_HALF) << exponent;
+    }
+
+    private static long highestEquivalentValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        final int exponent = index / SUB_BUCKET_HALF - 1;
+        return lowestEquivalentValue(index) + (1L << exponent) - 1;
+    }
+}
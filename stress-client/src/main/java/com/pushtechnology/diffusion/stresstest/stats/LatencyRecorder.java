@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+package com.pushtechnology.diffusion.stresstest.stats;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Records values into the buckets of a {@link LatencyHistogram} from any
+ * number of threads without locking.
+ * <P>
+ * Recording is a single atomic increment. Bucket counts are held as
+ * {@code int}s to keep recorders small, so a recorder should not be used for
+ * more than about two billion values.
+ *
+ * @author Push Technology Limited
+ */
+public final class LatencyRecorder {
+
+    private final AtomicIntegerArray theCounts =
+        new AtomicIntegerArray(LatencyHistogram.BUCKET_COUNT);
+
+    /**
+     * Record a value.
+     *
+     * @param value the value
+     */
+    public void recordValue(long value) {
+        theCounts.incrementAndGet(LatencyHistogram.bucketIndex(value));
+    }
+
+    /**
+     * @return a histogram holding the values recorded so far
+     */
+    public LatencyHistogram snapshot() {
+        final LatencyHistogram result = new LatencyHistogram();
+        result.add(this);
+        return result;
+    }
+
+    /**
+     * Add the bucket counts to an array of histogram counts.
+     *
+     * @return the total count added
+     */
+    long addTo(long[] counts) {
+        long total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            final int count = theCounts.get(i);
+            counts[i] += count;
+            total += count;
+        }
+        return total;
+    }
+}
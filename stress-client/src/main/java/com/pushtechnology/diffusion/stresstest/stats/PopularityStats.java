@@ -0,0 +1,166 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+package com.pushtechnology.diffusion.stresstest.stats;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistics of the topics of a topic tree, grouped into buckets by topic
+ * popularity.
+ * <P>
+ * Topics are ranked from 0, the most popular, and named
+ * {@code <root>/<rank>}. Bucket 0 holds rank 0, and each bucket after it
+ * holds twice as many ranks as the one before: 1-2, 3-6 and so on. This
+ * separates the head of a skewed distribution from its long tail with a
+ * few buckets.
+ * <P>
+ * All methods may be called from any thread.
+ *
+ * @author Push Technology Limited
+ */
+public final class PopularityStats {
+
+    private static final int MICROS_PER_MILLI = 1000;
+
+    private static final double BYTES_PER_MEGABYTE = 1024 * 1024;
+
+    private final Bucket[] theBuckets;
+
+    private final int theTopicCount;
+
+    private final long theStartTime = System.nanoTime();
+
+    /**
+     * The statistics of one bucket.
+     */
+    private static final class Bucket {
+        private final LongAdder theSubscriptions = new LongAdder();
+        private final LongAdder theMessages = new LongAdder();
+        private final LongAdder theBytes = new LongAdder();
+        private final LatencyRecorder theLatency = new LatencyRecorder();
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param topicCount the number of topics in the tree
+     */
+    public PopularityStats(int topicCount) {
+        theTopicCount = topicCount;
+        theBuckets = new Bucket[bucketOf(topicCount - 1) + 1];
+        for (int i = 0; i < theBuckets.length; i++) {
+            theBuckets[i] = new Bucket();
+        }
+    }
+
+    /**
+     * @param rank a topic rank
+     * @return the bucket of the rank
+     */
+    static int bucketOf(int rank) {
+        return Integer.SIZE - 1 - Integer.numberOfLeadingZeros(rank + 1);
+    }
+
+    /**
+     * @param topic a topic name
+     * @return the rank of the topic if it is a topic of the tree, otherwise
+     *         -1
+     */
+    public int rankOf(String topic) {
+        if (topic == null) {
+            return -1;
+        }
+        final int separator = topic.lastIndexOf('/');
+        if (separator < 0 || separator == topic.length() - 1) {
+            return -1;
+        }
+        int rank = 0;
+        for (int i = separator + 1; i < topic.length(); i++) {
+            final int digit = topic.charAt(i) - '0';
+            if (digit < 0 || digit > 9 || rank >= theTopicCount) {
+                return -1;
+            }
+            rank = rank * 10 + digit;
+        }
+        return rank < theTopicCount ? rank : -1;
+    }
+
+    /**
+     * Record a client subscribing to a topic.
+     *
+     * @param rank the topic rank
+     */
+    public void subscribed(int rank) {
+        theBuckets[bucketOf(rank)].theSubscriptions.increment();
+    }
+
+    /**
+     * Record a message received from a topic.
+     *
+     * @param rank the topic rank
+     * @param bytes the size of the message content
+     */
+    public void messageReceived(int rank, int bytes) {
+        final Bucket bucket = theBuckets[bucketOf(rank)];
+        bucket.theMessages.increment();
+        bucket.theBytes.add(bytes);
+    }
+
+    /**
+     * Record the end-to-end latency of a message received from a topic.
+     *
+     * @param rank the topic rank
+     * @param latencyNanos the latency in nanoseconds
+     */
+    public void latencyRecorded(int rank, long latencyNanos) {
+        theBuckets[bucketOf(rank)].theLatency.recordValue(
+            TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+    }
+
+    /**
+     * @return a report with a line for each bucket
+     */
+    public String report() {
+        final double seconds = (System.nanoTime() - theStartTime) /
+            (double) TimeUnit.SECONDS.toNanos(1);
+        final StringBuilder report = new StringBuilder();
+        report.append("Topic popularity, ")
+            .append(theTopicCount)
+            .append(" topics:");
+        for (int i = 0; i < theBuckets.length; i++) {
+            final Bucket bucket = theBuckets[i];
+            final int first = (1 << i) - 1;
+            final int last = Math.min((1 << (i + 1)) - 2, theTopicCount - 1);
+            final LatencyHistogram latency = bucket.theLatency.snapshot();
+            final long messages = bucket.theMessages.sum();
+            report.append(System.lineSeparator()).append(String.format(
+                "  ranks %d-%d: %d subscriptions, %d msgs, %.0f msgs/s, " +
+                    "%.2f MB/s",
+                first,
+                last,
+                bucket.theSubscriptions.sum(),
+                messages,
+                seconds > 0 ? messages / seconds : 0,
+                seconds > 0 ?
+                    bucket.theBytes.sum() / seconds / BYTES_PER_MEGABYTE : 0));
+            if (latency.getTotalCount() > 0) {
+                report.append(", latency ms ")
+                    .append(latency.toPercentileString(MICROS_PER_MILLI));
+            }
+        }
+        return report.toString();
+    }
+}
@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+package com.pushtechnology.diffusion.stresstest.stats;
+
+/**
+ * Sequence counts summed over any number of {@link SequenceTracker}s.
+ * <P>
+ * This class is not thread safe.
+ *
+ * @author Push Technology Limited
+ */
+public final class SequenceTotals {
+
+    private long theReceived;
+
+    private long theGaps;
+
+    private long theDuplicates;
+
+    private long theOutOfOrder;
+
+    /**
+     * Add the counts of a tracker.
+     *
+     * @param tracker the tracker
+     */
+    public void add(SequenceTracker tracker) {
+        synchronized (tracker) {
+            theReceived += tracker.getReceived();
+            theGaps += tracker.getGaps();
+            theDuplicates += tracker.getDuplicates();
+            theOutOfOrder += tracker.getOutOfOrder();
+        }
+    }
+
+    /**
+     * Add the counts of other totals.
+     *
+     * @param other the other totals
+     */
+    public void add(SequenceTotals other) {
+        theReceived += other.theReceived;
+        theGaps += other.theGaps;
+        theDuplicates += other.theDuplicates;
+        theOutOfOrder += other.theOutOfOrder;
+    }
+
+    /**
+     * Add counts reported elsewhere.
+     *
+     * @param received the number of sequence numbers recorded
+     * @param gaps the number of sequence numbers skipped
+     * @param duplicates the number of sequence numbers received more than once
+     * @param outOfOrder the number of updates received after a later update
+     */
+    public void add(
+        long received,
+        long gaps,
+        long duplicates,
+        long outOfOrder) {
+
+        theReceived += received;
+        theGaps += gaps;
+        theDuplicates += duplicates;
+        theOutOfOrder += outOfOrder;
+    }
+
+    /**
+     * @return a copy of these totals
+     */
+    public SequenceTotals copy() {
+        final SequenceTotals result = new SequenceTotals();
+        result.add(this);
+        return result;
+    }
+
+    /**
+     * @return the number of sequence numbers recorded
+     */
+    public long getReceived() {
+        return theReceived;
+    }
+
+    /**
+     * @return the number of sequence numbers skipped and not since received
+     */
+    public long getGaps() {
+        return theGaps;
+    }
+
+    /**
+     * @return the number of sequence numbers received more than once
+     */
+    public long getDuplicates() {
+        return theDuplicates;
+    }
+
+    /**
+     * @return the number of updates received after a later update
+     */
+    public long getOutOfOrder() {
+        return theOutOfOrder;
+    }
+
+    @Override
+    public String toString() {
+        return theReceived + " received, " + theGaps + " gaps, " +
+            theDuplicates + " duplicates, " + theOutOfOrder + " out of order";
+    }
+}
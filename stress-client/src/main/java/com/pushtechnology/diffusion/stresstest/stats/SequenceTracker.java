@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+package com.pushtechnology.diffusion.stresstest.stats;
+
+import java.util.Arrays;
+
+/**
+ * Checks the sequence numbers of the updates to one topic for gaps,
+ * duplicates and out of order delivery.
+ * <P>
+ * The tracker remembers which of the last {@value #WINDOW} sequence numbers
+ * have been received in a fixed bit set, so recording allocates nothing. The
+ * first sequence number recorded is taken as the start of the sequence.
+ * <ul>
+ * <li>A <em>gap</em> is a sequence number that was skipped and has not been
+ * received since. Updates conflated or dropped by the server show as gaps.
+ * <li>A <em>duplicate</em> is a sequence number received more than once.
+ * <li>An <em>out of order</em> update is one received after a later sequence
+ * number. If it arrives within the window it also fills its gap. If it
+ * arrives after the window has moved past it, it is counted as out of order
+ * but not checked for duplication.
+ * </ul>
+ * <P>
+ * Methods are synchronized so that counts can be read from other threads,
+ * which is uncontended while a single thread records.
+ *
+ * @author Push Technology Limited
+ */
+public final class SequenceTracker {
+
+    private static final int WINDOW = 1024;
+
+    private static final int WORD_BITS = 64;
+
+    private final long[] theWindow = new long[WINDOW / WORD_BITS];
+
+    /**
+     * The first sequence number recorded since the start or restart, below
+     * which nothing was counted as a gap.
+     */
+    private long theFirst = -1;
+
+    private long theHighest = -1;
+
+    private long theReceived;
+
+    private long theGaps;
+
+    private long theDuplicates;
+
+    private long theOutOfOrder;
+
+    /**
+     * Record the sequence number of an update.
+     *
+     * @param sequence the sequence number, not negative
+     */
+    public synchronized void record(long sequence) {
+        theReceived++;
+
+        if (theHighest < 0) {
+            theFirst = sequence;
+            theHighest = sequence;
+            mark(sequence);
+        }
+        else if (sequence > theHighest) {
+            final long skipped = sequence - theHighest - 1;
+            theGaps += skipped;
+            if (skipped >= WINDOW) {
+                Arrays.fill(theWindow, 0);
+            }
+            else {
+                for (long s = theHighest + 1; s < sequence; s++) {
+                    clear(s);
+                }
+            }
+            theHighest = sequence;
+            mark(sequence);
+        }
+        else if (theHighest - sequence >= WINDOW) {
+            theOutOfOrder++;
+        }
+        else if (isMarked(sequence)) {
+            theDuplicates++;
+        }
+        else {
+            mark(sequence);
+            theOutOfOrder++;
+            // Only a sequence number after the first was counted as a gap
+            if (sequence > theFirst && theGaps > 0) {
+                theGaps--;
+            }
+        }
+    }
+
+    /**
+     * Forget the sequence, when the client subscribes to the topic again.
+     * Counts are kept.
+     */
+    public synchronized void restart() {
+        theFirst = -1;
+        theHighest = -1;
+        Arrays.fill(theWindow, 0);
+    }
+
+    /**
+     * @return the number of sequence numbers recorded
+     */
+    public synchronized long getReceived() {
+        return theReceived;
+    }
+
+    /**
+     * @return the number of sequence numbers skipped and not since received
+     */
+    public synchronized long getGaps() {
+        return theGaps;
+    }
+
+    /**
+     * @return the number of sequence numbers received more than once
+     */
+    public synchronized long getDuplicates() {
+        return theDuplicates;
+    }
+
+    /**
+     * @return the number of updates received after a later update
+     */
+    public synchronized long getOutOfOrder() {
+        return theOutOfOrder;
+    }
+
+    private void mark(long sequence) {
+        theWindow[wordIndex(sequence)] |= 1L << sequence;
+    }
+
+    private void clear(long sequence) {
+        theWindow[wordIndex(sequence)] &= ~(1L << sequence);
+    }
+
+    private boolean isMarked(long sequence) {
+        return (theWindow[wordIndex(sequence)] & 1L << sequence) != 0;
+    }
+
+    private static int wordIndex(long sequence) {
+        return (int) (sequence / WORD_BITS % (WINDOW / WORD_BITS));
+    }
+}
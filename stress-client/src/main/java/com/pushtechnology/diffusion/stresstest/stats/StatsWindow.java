@@ -0,0 +1,198 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+package com.pushtechnology.diffusion.stresstest.stats;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The statistics of all transports over a window of time, such as one phase
+ * of a scenario.
+ * <P>
+ * Opening a window takes a snapshot of the cumulative counters and latency.
+ * Closing it reports the difference.
+ *
+ * @author Push Technology Limited
+ */
+public final class StatsWindow {
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private static final double BYTES_PER_MEGABYTE = 1024 * 1024;
+
+    private final String theName;
+
+    private final TransportStatsRegistry theStats;
+
+    private final ThroughputReporter.LatencySource theLatencySource;
+
+    private final long theStartTime = System.nanoTime();
+
+    private final Totals theStart;
+
+    private final LatencyHistogram theStartLatency;
+
+    private String theSummary;
+
+    private double theSeconds;
+
+    private double theMessageRate;
+
+    private long theConnections;
+
+    private long theFailures;
+
+    private long theClientsLost;
+
+    private LatencyHistogram theLatency;
+
+    /**
+     * The counters of all transports.
+     */
+    private static final class Totals {
+        private long theMessages;
+        private long theBytes;
+        private long theConnections;
+        private long theFailures;
+        private long theActiveClients;
+
+        Totals(TransportStatsRegistry registry) {
+            for (TransportStats stats : registry.getAll()) {
+                theMessages += stats.getMessages();
+                theBytes += stats.getBytes();
+                theConnections += stats.getConnections();
+                theFailures += stats.getConnectionFailures();
+                theActiveClients += stats.getActiveClients();
+            }
+        }
+    }
+
+    /**
+     * Open a window.
+     *
+     * @param name the name of the window
+     * @param stats the statistics of each transport
+     * @param latencySource the source of end-to-end latency, or null if
+     *        latency is not recorded
+     */
+    public StatsWindow(
+        String name,
+        TransportStatsRegistry stats,
+        ThroughputReporter.LatencySource latencySource) {
+
+        theName = name;
+        theStats = stats;
+        theLatencySource = latencySource;
+        theStart = new Totals(stats);
+        theStartLatency =
+            latencySource == null ? null : latencySource.getLatency();
+    }
+
+    /**
+     * Close the window. Has no effect if the window is already closed.
+     *
+     * @return the summary of the window
+     */
+    public String close() {
+        if (theSummary != null) {
+            return theSummary;
+        }
+
+        theSeconds = (System.nanoTime() - theStartTime) / NANOS_PER_SECOND;
+        final Totals end = new Totals(theStats);
+        theMessageRate =
+            rate(end.theMessages - theStart.theMessages, theSeconds);
+        theConnections = end.theConnections - theStart.theConnections;
+        theFailures = end.theFailures - theStart.theFailures;
+        theClientsLost = Math.max(
+            theStart.theActiveClients + theConnections - end.theActiveClients,
+            0);
+
+        final StringBuilder summary = new StringBuilder(String.format(
+            "%s: %.1f s, %d active, %.0f msgs/s, %.2f MB/s, " +
+                "%d connected, %d failed",
+            theName,
+            theSeconds,
+            end.theActiveClients,
+            theMessageRate,
+            rate(end.theBytes - theStart.theBytes, theSeconds) /
+                BYTES_PER_MEGABYTE,
+            theConnections,
+            theFailures));
+
+        if (theLatencySource != null) {
+            theLatency = theLatencySource.getLatency();
+            theLatency.subtract(theStartLatency);
+            summary
+                .append(", latency ms ")
+                .append(theLatency.toPercentileString(1000));
+        }
+
+        theSummary = summary.toString();
+        return theSummary;
+    }
+
+    /**
+     * @return the length of the window in seconds, once closed
+     */
+    public double getSeconds() {
+        return theSeconds;
+    }
+
+    /**
+     * @return the messages received per second, once closed
+     */
+    public double getMessageRate() {
+        return theMessageRate;
+    }
+
+    /**
+     * @return the clients connected in the window, once closed
+     */
+    public long getConnections() {
+        return theConnections;
+    }
+
+    /**
+     * @return the failed connection attempts in the window, once closed
+     */
+    public long getFailures() {
+        return theFailures;
+    }
+
+    /**
+     * @return the clients that were active or connected in the window but
+     *         are no longer active, once closed
+     */
+    public long getClientsLost() {
+        return theClientsLost;
+    }
+
+    /**
+     * @return the end-to-end latency of the window in microseconds, once
+     *         closed, or null if latency is not recorded
+     */
+    public LatencyHistogram getLatency() {
+        return theLatency;
+    }
+
+    @Override
+    public String toString() {
+        return theSummary == null ? theName + ": open" : theSummary;
+    }
+
+    private static double rate(long count, double seconds) {
+        return seconds > 0 ? count / seconds : 0;
+    }
+}
@@ -0,0 +1,229 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+package com.pushtechnology.diffusion.stresstest.stats;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.pushtechnology.diffusion.stresstest.DaemonThreadFactory;
+
+/**
+ * Periodically reports the aggregate and per-transport message rate, byte
+ * rate and number of active clients, and the end-to-end latency over the
+ * interval.
+ * <P>
+ * Rates are calculated from the difference between successive readings of
+ * the {@link TransportStats} counters, timed with {@link System#nanoTime()}.
+ * Reading the counters does not block the threads that update them. Each
+ * interval is printed and passed to the registered {@link Listener}s on the
+ * reporting thread.
+ *
+ * @author Push Technology Limited
+ */
+public final class ThroughputReporter {
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private static final String TOTAL = "total";
+
+    private final TransportStatsRegistry theStats;
+
+    private final LatencySource theLatencySource;
+
+    private final int theInterval;
+
+    private final List<Listener> theListeners =
+        new CopyOnWriteArrayList<Listener>();
+
+    private final ScheduledExecutorService theExecutor =
+        Executors.newSingleThreadScheduledExecutor(
+            new DaemonThreadFactory("StressTest-throughput"));
+
+    /**
+     * The counters at the last report. Only used by the reporting thread.
+     */
+    private final Map<String, long[]> thePreviousCounts =
+        new HashMap<String, long[]>();
+
+    private LatencyHistogram thePreviousLatency = new LatencyHistogram();
+
+    private long thePreviousTime;
+
+    /**
+     * Supplies the latency recorded so far by all clients.
+     */
+    public interface LatencySource {
+
+        /**
+         * @return the latency recorded so far, in microseconds
+         */
+        LatencyHistogram getLatency();
+    }
+
+    /**
+     * Receives each interval report.
+     */
+    public interface Listener {
+
+        /**
+         * Called on the reporting thread at the end of each interval.
+         *
+         * @param transports the statistics for each transport
+         * @param total the statistics for all transports
+         * @param latency the end-to-end latency recorded in the interval in
+         *        microseconds, or null if latency is not recorded
+         */
+        void intervalReported(
+            List<IntervalStats> transports,
+            IntervalStats total,
+            LatencyHistogram latency);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param stats the statistics to report
+     * @param latencySource the source of latency, or null to not report
+     *        latency
+     * @param interval the interval between reports in seconds
+     */
+    public ThroughputReporter(
+        TransportStatsRegistry stats,
+        LatencySource latencySource,
+        int interval) {
+
+        theStats = stats;
+        theLatencySource = latencySource;
+        theInterval = interval;
+    }
+
+    /**
+     * Add a listener. Listeners should be added before reporting starts.
+     *
+     * @param listener the listener
+     */
+    public void addListener(Listener listener) {
+        theListeners.add(listener);
+    }
+
+    /**
+     * Start reporting.
+     */
+    public void start() {
+        thePreviousTime = System.nanoTime();
+        theExecutor.scheduleAtFixedRate(
+            new Runnable() {
+                @Override
+                public void run() {
+                    report();
+                }
+            },
+            theInterval,
+            theInterval,
+            TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stop reporting.
+     */
+    public void stop() {
+        theExecutor.shutdownNow();
+    }
+
+    private void report() {
+        final long now = System.nanoTime();
+        final double seconds = (now - thePreviousTime) / NANOS_PER_SECOND;
+        thePreviousTime = now;
+
+        long totalMessages = 0;
+        long totalBytes = 0;
+        long totalActive = 0;
+        final List<IntervalStats> transports = new ArrayList<IntervalStats>();
+
+        for (TransportStats stats : theStats.getAll()) {
+            final long messages = stats.getMessages();
+            final long bytes = stats.getBytes();
+            final long active = stats.getActiveClients();
+
+            long[] previous = thePreviousCounts.get(stats.getTransport());
+            if (previous == null) {
+                previous = new long[2];
+                thePreviousCounts.put(stats.getTransport(), previous);
+            }
+            final IntervalStats interval = new IntervalStats(
+                stats.getTransport(),
+                messages - previous[0],
+                bytes - previous[1],
+                active,
+                seconds);
+            previous[0] = messages;
+            previous[1] = bytes;
+
+            totalMessages += interval.getMessages();
+            totalBytes += interval.getBytes();
+            totalActive += active;
+            transports.add(interval);
+        }
+
+        final IntervalStats total = new IntervalStats(
+            TOTAL,
+            totalMessages,
+            totalBytes,
+            totalActive,
+            seconds);
+
+        final LatencyHistogram latency = intervalLatency();
+
+        final StringBuilder report = new StringBuilder("Throughput: ");
+        report.append(total);
+        if (latency != null) {
+            report
+                .append(" latency ms ")
+                .append(latency.toPercentileString(1000));
+        }
+        for (IntervalStats interval : transports) {
+            report
+                .append(" | ")
+                .append(interval.getName())
+                .append(": ")
+                .append(interval);
+        }
+        System.out.println(report);
+
+        final List<IntervalStats> unmodifiableTransports =
+            Collections.unmodifiableList(transports);
+        for (Listener listener : theListeners) {
+            listener.intervalReported(unmodifiableTransports, total, latency);
+        }
+    }
+
+    private LatencyHistogram intervalLatency() {
+        if (theLatencySource == null) {
+            return null;
+        }
+        final LatencyHistogram cumulative = theLatencySource.getLatency();
+        final LatencyHistogram result = cumulative.copy();
+        result.subtract(thePreviousLatency);
+        thePreviousLatency = cumulative;
+        return result;
+    }
+}
@@ -0,0 +1,393 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+package com.pushtechnology.diffusion.stresstest.stats;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistics shared by all clients using one transport.
+ * <P>
+ * All methods may be called from any thread.
+ *
+ * @author Push Technology Limited
+ */
+public final class TransportStats {
+
+    /**
+     * The number of recorders end-to-end latency is spread over, a power of
+     * two. Clients are spread over them by number, so that the inbound
+     * threads rarely contend for one recorder.
+     */
+    private static final int LATENCY_STRIPES = 16;
+
+    private final String theTransport;
+
+    private final LatencyRecorder[] theLatency =
+        new LatencyRecorder[LATENCY_STRIPES];
+
+    private final LatencyRecorder theConnectLatency = new LatencyRecorder();
+
+    private final LongAdder theConnections = new LongAdder();
+
+    private final LongAdder theConnectionFailures = new LongAdder();
+
+    private final LatencyRecorder theInitialLoadLatency =
+        new LatencyRecorder();
+
+    private final LatencyRecorder theReconnectLatency = new LatencyRecorder();
+
+    private final LongAdder theReconnections = new LongAdder();
+
+    private final LongAdder theReconnectFailures = new LongAdder();
+
+    private final LongAdder theActiveClients = new LongAdder();
+
+    private final LongAdder theMessages = new LongAdder();
+
+    private final LongAdder theBytes = new LongAdder();
+
+    private final LongAdder theMessagesSent = new LongAdder();
+
+    private final LongAdder theSendFailures = new LongAdder();
+
+    private final LatencyRecorder theRebroadcastLatency =
+        new LatencyRecorder();
+
+    private final LatencyRecorder theRoundTripLatency = new LatencyRecorder();
+
+    private final LatencyRecorder theSubscribeLatency = new LatencyRecorder();
+
+    private final LongAdder theSubscriptions = new LongAdder();
+
+    private final LongAdder theUnsubscriptions = new LongAdder();
+
+    private final LongAdder theSubscriptionFailures = new LongAdder();
+
+    /**
+     * Constructor.
+     *
+     * @param transport the transport name
+     */
+    TransportStats(String transport) {
+        theTransport = transport;
+        for (int i = 0; i < LATENCY_STRIPES; i++) {
+            theLatency[i] = new LatencyRecorder();
+        }
+    }
+
+    /**
+     * @return the transport name
+     */
+    public String getTransport() {
+        return theTransport;
+    }
+
+    /**
+     * Record a successful connection.
+     *
+     * @param latencyNanos the time taken to connect, in nanoseconds
+     */
+    public void connected(long latencyNanos) {
+        theConnectLatency.recordValue(
+            TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+        theConnections.increment();
+    }
+
+    /**
+     * Record a failed connection attempt.
+     */
+    public void connectionFailed() {
+        theConnectionFailures.increment();
+    }
+
+    /**
+     * Record the first message, the topic load, received by a client.
+     *
+     * @param latencyNanos the time from the start of the connection attempt
+     *        to receipt of the topic load, in nanoseconds
+     */
+    public void initialLoadReceived(long latencyNanos) {
+        theInitialLoadLatency.recordValue(
+            TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+    }
+
+    /**
+     * Record a client that was closed and connected again.
+     *
+     * @param latencyNanos the time from the start of the close to the end of
+     *        the connection, in nanoseconds
+     */
+    public void reconnected(long latencyNanos) {
+        theReconnectLatency.recordValue(
+            TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+        theReconnections.increment();
+    }
+
+    /**
+     * Record a client that was closed and could not be connected again.
+     */
+    public void reconnectFailed() {
+        theReconnectFailures.increment();
+    }
+
+    /**
+     * Record that a client has become active.
+     */
+    public void clientActive() {
+        theActiveClients.increment();
+    }
+
+    /**
+     * Record that an active client has closed or been disconnected.
+     */
+    public void clientInactive() {
+        theActiveClients.decrement();
+    }
+
+    /**
+     * Record a message received by a client.
+     *
+     * @param bytes the size of the message content
+     */
+    public void messageReceived(int bytes) {
+        theMessages.increment();
+        theBytes.add(bytes);
+    }
+
+    /**
+     * Record the end-to-end latency of a message received by a client.
+     *
+     * @param clientNumber the number of the client
+     * @param latencyNanos the time from the stamp of the message to its
+     *        receipt, in nanoseconds
+     */
+    public void latencyRecorded(long clientNumber, long latencyNanos) {
+        theLatency[(int) (clientNumber & (LATENCY_STRIPES - 1))].recordValue(
+            TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+    }
+
+    /**
+     * Record a message sent by a client.
+     */
+    public void messageSent() {
+        theMessagesSent.increment();
+    }
+
+    /**
+     * Record a failure to send a message.
+     */
+    public void sendFailed() {
+        theSendFailures.increment();
+    }
+
+    /**
+     * Record a message sent by another client and rebroadcast by the
+     * publisher.
+     *
+     * @param latencyNanos the time from the scheduled send to receipt, in
+     *        nanoseconds
+     */
+    public void rebroadcastReceived(long latencyNanos) {
+        theRebroadcastLatency.recordValue(
+            TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+    }
+
+    /**
+     * Record the echo of a ping sent by a client.
+     *
+     * @param latencyNanos the time from the scheduled send of the ping to
+     *        receipt of the echo, in nanoseconds
+     */
+    public void pingEchoed(long latencyNanos) {
+        theRoundTripLatency.recordValue(
+            TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+    }
+
+    /**
+     * Record a subscription requested by a client.
+     */
+    public void subscribed() {
+        theSubscriptions.increment();
+    }
+
+    /**
+     * Record an unsubscription requested by a client.
+     */
+    public void unsubscribed() {
+        theUnsubscriptions.increment();
+    }
+
+    /**
+     * Record a failure to request a subscription or unsubscription.
+     */
+    public void subscriptionFailed() {
+        theSubscriptionFailures.increment();
+    }
+
+    /**
+     * Record the first update of a topic received after subscribing to it.
+     *
+     * @param latencyNanos the time from the scheduled subscription to
+     *        receipt of the update, in nanoseconds
+     */
+    public void subscriptionUpdated(long latencyNanos) {
+        theSubscribeLatency.recordValue(
+            TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+    }
+
+    /**
+     * @return the number of successful connections
+     */
+    public long getConnections() {
+        return theConnections.sum();
+    }
+
+    /**
+     * @return the number of failed connection attempts
+     */
+    public long getConnectionFailures() {
+        return theConnectionFailures.sum();
+    }
+
+    /**
+     * @return the number of clients closed and connected again
+     */
+    public long getReconnections() {
+        return theReconnections.sum();
+    }
+
+    /**
+     * @return the number of clients closed and not connected again
+     */
+    public long getReconnectFailures() {
+        return theReconnectFailures.sum();
+    }
+
+    /**
+     * @return the number of subscriptions requested
+     */
+    public long getSubscriptions() {
+        return theSubscriptions.sum();
+    }
+
+    /**
+     * @return the number of unsubscriptions requested
+     */
+    public long getUnsubscriptions() {
+        return theUnsubscriptions.sum();
+    }
+
+    /**
+     * @return the number of failures to request a subscription or
+     *         unsubscription
+     */
+    public long getSubscriptionFailures() {
+        return theSubscriptionFailures.sum();
+    }
+
+    /**
+     * @return the number of clients connected
+     */
+    public long getActiveClients() {
+        return theActiveClients.sum();
+    }
+
+    /**
+     * @return the number of messages received
+     */
+    public long getMessages() {
+        return theMessages.sum();
+    }
+
+    /**
+     * @return the number of bytes of message content received
+     */
+    public long getBytes() {
+        return theBytes.sum();
+    }
+
+    /**
+     * @return the number of messages sent by clients
+     */
+    public long getMessagesSent() {
+        return theMessagesSent.sum();
+    }
+
+    /**
+     * @return the number of failures to send a message
+     */
+    public long getSendFailures() {
+        return theSendFailures.sum();
+    }
+
+    /**
+     * @return the end-to-end latencies of messages recorded so far, in
+     *         microseconds
+     */
+    public LatencyHistogram getLatency() {
+        final LatencyHistogram result = new LatencyHistogram();
+        for (LatencyRecorder recorder : theLatency) {
+            result.add(recorder);
+        }
+        return result;
+    }
+
+    /**
+     * @return the latencies of rebroadcast client messages recorded so far,
+     *         in microseconds
+     */
+    public LatencyHistogram getRebroadcastLatency() {
+        return theRebroadcastLatency.snapshot();
+    }
+
+    /**
+     * @return the round trip times of pings recorded so far, in microseconds
+     */
+    public LatencyHistogram getRoundTripLatency() {
+        return theRoundTripLatency.snapshot();
+    }
+
+    /**
+     * @return the connection latencies recorded so far, in microseconds
+     */
+    public LatencyHistogram getConnectLatency() {
+        return theConnectLatency.snapshot();
+    }
+
+    /**
+     * @return the times from connecting to receiving the topic load recorded
+     *         so far, in microseconds
+     */
+    public LatencyHistogram getInitialLoadLatency() {
+        return theInitialLoadLatency.snapshot();
+    }
+
+    /**
+     * @return the times from subscribing to receiving the first update
+     *         recorded so far, in microseconds
+     */
+    public LatencyHistogram getSubscribeLatency() {
+        return theSubscribeLatency.snapshot();
+    }
+
+    /**
+     * @return the times to close and connect again recorded so far, in
+     *         microseconds
+     */
+    public LatencyHistogram getReconnectLatency() {
+        return theReconnectLatency.snapshot();
+    }
+}
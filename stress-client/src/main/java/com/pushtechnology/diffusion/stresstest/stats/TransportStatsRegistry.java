@@ -0,0 +1,54 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+package com.pushtechnology.diffusion.stresstest.stats;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The {@link TransportStats} for each transport in use, keyed by client
+ * type.
+ *
+ * @author Push Technology Limited
+ */
+public final class TransportStatsRegistry {
+
+    private final ConcurrentMap<String, TransportStats> theStats =
+        new ConcurrentHashMap<String, TransportStats>();
+
+    /**
+     * @param transport the transport name
+     * @return the statistics for the transport, created if necessary
+     */
+    public TransportStats forTransport(String transport) {
+        final TransportStats stats = theStats.get(transport);
+        if (stats != null) {
+            return stats;
+        }
+        final TransportStats newStats = new TransportStats(transport);
+        final TransportStats existing =
+            theStats.putIfAbsent(transport, newStats);
+        return existing == null ? newStats : existing;
+    }
+
+    /**
+     * @return the statistics for every transport used so far
+     */
+    public Collection<TransportStats> getAll() {
+        return Collections.unmodifiableCollection(theStats.values());
+    }
+}
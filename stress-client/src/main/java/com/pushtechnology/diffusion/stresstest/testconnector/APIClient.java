@@ -15,6 +15,8 @@
 
 package com.pushtechnology.diffusion.stresstest.testconnector;
 
+import java.util.List;
+
 import com.pushtechnology.diffusion.DiffusionException;
 import com.pushtechnology.diffusion.api.Credentials;
 import com.pushtechnology.diffusion.api.ServerConnection;
@@ -25,6 +27,7 @@ import com.pushtechnology.diffusion.api.topic.TopicSet;
 import com.pushtechnology.diffusion.api.topic.TopicStatus;
 import com.pushtechnology.diffusion.stresstest.StressTest.CompletionCallback;
 import com.pushtechnology.diffusion.stresstest.StressTestProperties;
+import com.pushtechnology.diffusion.stresstest.stats.PopularityStats;
 
 /**
  * API client.
@@ -68,7 +71,10 @@ public abstract class APIClient extends BaseClient
             new ExternalClientConnection(
                 this,
                 "dpt://" + getHost() + ":" + getPort());
-        final TopicSet topics = new TopicSet(StressTestProperties.getTopic());
+        final List<String> topicNames = getTopics();
+        final TopicSet topics = topicNames != null ?
+            new TopicSet(topicNames) :
+            new TopicSet(StressTestProperties.getTopic());
         setClientID(theClient.connect(topics));
     }
 
@@ -79,6 +85,7 @@ public abstract class APIClient extends BaseClient
     public void close() throws DiffusionException {
         if (theClient != null) {
             theClient.close();
+            markClosed();
             completionCallback.clientFinished(this);
         }
     }
@@ -125,6 +132,7 @@ public abstract class APIClient extends BaseClient
     @Override
     public final void serverDisconnected(ServerConnection serverConnection) {
         System.out.println(serverConnection + " disconnected");
+        markClosed();
         completionCallback.clientFinished(this);
     }
 
@@ -133,19 +141,87 @@ public abstract class APIClient extends BaseClient
         ServerConnection serverConnection,
         TopicMessage message) {
 
+        final long receiveTime = System.nanoTime();
+        messageReceived(
+            message,
+            message.getTopicName(),
+            MessageStamp.getContent(message),
+            receiveTime);
+    }
+
+    /**
+     * Handle a message received from the server.
+     *
+     * @param message the message, or null if there is only the topic name
+     *        and content, in which case a message handler that is not a
+     *        {@link MeasuredMessageHandler} is passed null
+     * @param topic the topic name
+     * @param content the content of the message
+     * @param receiveTime the {@link System#nanoTime()} of receipt
+     */
+    protected final void messageReceived(
+        TopicMessage message,
+        String topic,
+        byte[] content,
+        long receiveTime) {
+
+        final boolean isTopicLoad = recordTopicLoad(topic, receiveTime);
+        recordSubscriptionUpdate(topic, receiveTime);
+
+        final long pingTime = MessageStamp.getPingTimestamp(content);
+        if (pingTime >= 0) {
+            // An echo of this client's ping, not a topic update
+            recordRoundTrip(MessageStamp.toEpochNanos(receiveTime) - pingTime);
+            return;
+        }
+
+        final int bytes = content == null ? 0 : content.length;
+        recordMessage(bytes);
+
+        final PopularityStats popularity = getPopularityStats();
+        final int rank = popularity != null ? popularity.rankOf(topic) : -1;
+        if (rank >= 0) {
+            popularity.messageReceived(rank, bytes);
+        }
+
+        final long sequence = MessageStamp.getSequence(content);
+        if (sequence >= 0) {
+            getSequenceTracker(topic != null ? topic : "").record(sequence);
+        }
+
+        if (!isTopicLoad && isRecordingLatency()) {
+            final long sendTime = MessageStamp.getTimestamp(content);
+            if (sendTime >= 0) {
+                final long latency =
+                    MessageStamp.toEpochNanos(receiveTime) - sendTime;
+                recordLatency(latency);
+                if (rank >= 0) {
+                    popularity.latencyRecorded(rank, latency);
+                }
+            }
+        }
+
+        final long clientSendTime = MessageStamp.getClientTimestamp(content);
+        if (clientSendTime >= 0) {
+            recordRebroadcastLatency(
+                MessageStamp.toEpochNanos(receiveTime) - clientSendTime);
+        }
+
         if (hasMessageHandler()) {
-            callMessageHandler(message);
+            callMessageHandler(message, content);
         }
 
         theNoOfMessages++;
-        if (theNoOfMessages == 2) {
-            // The 1st message would have been a Topic Load, the 2nd
-            // message is actually the first delta message
-            theFirstDeltaMessageTime = System.currentTimeMillis();
+        if (!isTopicLoad) {
+            // The 1st message of each topic is its Topic Load, later
+            // messages are delta messages
+            if (theFirstDeltaMessageTime == 0) {
+                theFirstDeltaMessageTime = receiveTime;
+            }
+            theLastDeltaMessageTime = receiveTime;
         }
 
         doAdditionalPollTests();
-        theLastDeltaMessageTime = System.currentTimeMillis();
 
         if (theMaxMessages != 0 &&
             theNoOfMessages > theMaxMessages) {
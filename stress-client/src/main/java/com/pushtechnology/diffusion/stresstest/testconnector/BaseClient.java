@@ -15,15 +15,35 @@
 
 package com.pushtechnology.diffusion.stresstest.testconnector;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import com.pushtechnology.diffusion.DiffusionException;
 import com.pushtechnology.diffusion.api.message.TopicMessage;
 import com.pushtechnology.diffusion.api.topic.TopicSet;
+import com.pushtechnology.diffusion.stresstest.HandlerPipeline;
+import com.pushtechnology.diffusion.stresstest.SerialExecutor;
+import com.pushtechnology.diffusion.stresstest.stats.LatencyRecorder;
+import com.pushtechnology.diffusion.stresstest.stats.PopularityStats;
+import com.pushtechnology.diffusion.stresstest.stats.SequenceTotals;
+import com.pushtechnology.diffusion.stresstest.stats.SequenceTracker;
+import com.pushtechnology.diffusion.stresstest.stats.TransportStats;
 
 /**
  * @author Push Technology Limited
  */
 public abstract class BaseClient {
 
+    private static final int STATE_NEW = 0;
+    private static final int STATE_ACTIVE = 1;
+    private static final int STATE_CLOSED = 2;
+
     private final String theHost;
 
     private final int thePort;
@@ -34,14 +54,62 @@ public abstract class BaseClient {
 
     protected long theNoOfMessages = 0;
 
+    /**
+     * The {@link System#nanoTime()} of the last message.
+     */
     protected long theLastDeltaMessageTime = 0;
 
+    /**
+     * The {@link System#nanoTime()} of the first delta message.
+     */
     protected long theFirstDeltaMessageTime = 0;
 
     private MessageHandler theMessageHandler = null;
 
+    private Executor theHandlerExecutor = null;
+
+    private HandlerPipeline.Lane theHandlerLane = null;
+
+    private boolean isRecordingLatency = false;
+
+    private LatencyRecorder theLatencyRecorder = null;
+
+    private TransportStats theTransportStats = null;
+
+    /**
+     * The tracker of the sequence numbers of each topic, by topic name.
+     */
+    private final ConcurrentMap<String, SequenceTracker> theSequenceTrackers =
+        new ConcurrentHashMap<String, SequenceTracker>();
+
+    private PopularityStats thePopularityStats = null;
+
+    private List<String> theTopics = null;
+
+    private final AtomicInteger theState = new AtomicInteger(STATE_NEW);
+
     private String theClientID;
 
+    /**
+     * The {@link System#nanoTime()} the connection attempt started.
+     */
+    private volatile long theConnectStartTime;
+
+    private volatile boolean isChurning;
+
+    /**
+     * The {@link System#nanoTime()} each subscription awaiting its first
+     * update was scheduled, by topic name.
+     */
+    private final ConcurrentMap<String, Long> thePendingSubscriptions =
+        new ConcurrentHashMap<String, Long>();
+
+    /**
+     * The topics whose topic load has been received since subscribing.
+     */
+    private final Set<String> theLoadedTopics =
+        Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
     /**
      * Constructor.
      *
@@ -62,10 +130,50 @@ public abstract class BaseClient {
      * their own bespoke message handlers for stress testing callMessageHandler
      *
      * @param message the message.
+     * @param content the content already read from the message, passed to a
+     *        {@link MeasuredMessageHandler} in place of the message
      */
-    protected final void callMessageHandler(TopicMessage message) {
-        if (theMessageHandler != null) {
-            theMessageHandler.handleMessage(message);
+    protected final void callMessageHandler(
+        final TopicMessage message,
+        final byte[] content) {
+
+        final MessageHandler handler = theMessageHandler;
+        if (handler != null) {
+            if (theHandlerLane != null) {
+                theHandlerLane.handOff(handler, message, content);
+            }
+            else if (theHandlerExecutor == null) {
+                handle(handler, message, content);
+            }
+            else {
+                theHandlerExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        handle(handler, message, content);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Call a handler with the content of a message if it takes it, so that
+     * the content is not copied again, otherwise with the message.
+     *
+     * @param handler the handler
+     * @param message the message
+     * @param content the content already read from the message
+     */
+    public static void handle(
+        MessageHandler handler,
+        TopicMessage message,
+        byte[] content) {
+
+        if (handler instanceof MeasuredMessageHandler) {
+            ((MeasuredMessageHandler) handler).handleContent(content);
+        }
+        else {
+            handler.handleMessage(message);
         }
     }
 
@@ -80,11 +188,16 @@ public abstract class BaseClient {
      * displayAverageStats.
      */
     public final void displayAverageStats() {
-        final long totalTime = theLastDeltaMessageTime - theFirstDeltaMessageTime;
+        final long totalTime = TimeUnit.NANOSECONDS.toMillis(
+            theLastDeltaMessageTime - theFirstDeltaMessageTime);
         final long avgTime = totalTime / theMaxMessages;
+        final SequenceTotals sequences = getSequences();
         System.out.println(getClientType() + " T" + theThreadNumber + " " +
             theClientID + " : "
-            + theMaxMessages + " in " + totalTime + " Avg: " + avgTime);
+            + theMaxMessages + " in " + totalTime + " Avg: " + avgTime +
+            " Sequence: " + sequences.getGaps() + " gaps, " +
+            sequences.getDuplicates() + " duplicates, " +
+            sequences.getOutOfOrder() + " out of order");
     }
 
     /**
@@ -96,6 +209,353 @@ public abstract class BaseClient {
         theMessageHandler = handler;
     }
 
+    /**
+     * Run the message handler on threads from an executor rather than on the
+     * thread that delivered the message. Messages are still handled one at a
+     * time, in the order they were received.
+     *
+     * @param executor the executor, or null to handle messages on the
+     *        delivering thread
+     */
+    public final void setHandlerExecutor(Executor executor) {
+        theHandlerExecutor =
+            executor == null ? null : new SerialExecutor(executor);
+    }
+
+    /**
+     * Hand messages off to a lane of a {@link HandlerPipeline}, whose
+     * consumer thread runs the message handler. This takes precedence over
+     * any handler executor.
+     *
+     * @param lane the lane, or null to not use a pipeline
+     */
+    public final void setHandlerLane(HandlerPipeline.Lane lane) {
+        theHandlerLane = lane;
+    }
+
+    /**
+     * Record the end-to-end latency of stamped messages in the statistics of
+     * the transport.
+     *
+     * @param recording true to record latency
+     */
+    public final void setRecordingLatency(boolean recording) {
+        isRecordingLatency = recording;
+    }
+
+    /**
+     * Record the end-to-end latency of stamped messages for this client
+     * alone, as well as in any statistics of the transport.
+     *
+     * @param recorder where to record latencies in microseconds, or null to
+     *        not record them
+     */
+    public final void setLatencyRecorder(LatencyRecorder recorder) {
+        theLatencyRecorder = recorder;
+    }
+
+    /**
+     * @return the latency recorder of this client, or null if its latency is
+     *         not recorded separately
+     */
+    public final LatencyRecorder getLatencyRecorder() {
+        return theLatencyRecorder;
+    }
+
+    /**
+     * @return true if end-to-end latency is being recorded
+     */
+    protected final boolean isRecordingLatency() {
+        return isRecordingLatency || theLatencyRecorder != null;
+    }
+
+    /**
+     * Record the end-to-end latency of a message.
+     *
+     * @param latencyNanos the latency in nanoseconds
+     */
+    protected final void recordLatency(long latencyNanos) {
+        final TransportStats stats = theTransportStats;
+        if (isRecordingLatency && stats != null) {
+            stats.latencyRecorded(getThreadNumber(), latencyNanos);
+        }
+        final LatencyRecorder recorder = theLatencyRecorder;
+        if (recorder != null) {
+            recorder.recordValue(TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+        }
+    }
+
+    /**
+     * Record the latency of a message sent by another client and rebroadcast
+     * by the publisher.
+     *
+     * @param latencyNanos the latency in nanoseconds
+     */
+    protected final void recordRebroadcastLatency(long latencyNanos) {
+        final TransportStats stats = theTransportStats;
+        if (stats != null) {
+            stats.rebroadcastReceived(latencyNanos);
+        }
+    }
+
+    /**
+     * Record the round trip time of a ping echoed by the publisher.
+     *
+     * @param latencyNanos the round trip time in nanoseconds
+     */
+    protected final void recordRoundTrip(long latencyNanos) {
+        final TransportStats stats = theTransportStats;
+        if (stats != null) {
+            stats.pingEchoed(latencyNanos);
+        }
+    }
+
+    /**
+     * Set the statistics shared by the clients of this client's transport.
+     *
+     * @param stats the statistics, or null to not record them
+     */
+    public final void setTransportStats(TransportStats stats) {
+        theTransportStats = stats;
+    }
+
+    /**
+     * @return the statistics of this client's transport, or null if not
+     *         recorded
+     */
+    public final TransportStats getTransportStats() {
+        return theTransportStats;
+    }
+
+    /**
+     * @return true if the client has connected and not been closed
+     */
+    public final boolean isActive() {
+        return theState.get() == STATE_ACTIVE;
+    }
+
+    /**
+     * Record the start of the connection attempt, from which the time to
+     * receive the topic load is measured.
+     *
+     * @param startTime the {@link System#nanoTime()} the attempt started
+     */
+    public final void markConnecting(long startTime) {
+        theConnectStartTime = startTime;
+    }
+
+    /**
+     * Record that the client is being closed to be replaced by a new
+     * connection, rather than because it has finished.
+     */
+    public final void markChurning() {
+        isChurning = true;
+    }
+
+    /**
+     * @return true if the client is being closed to be replaced by a new
+     *         connection
+     */
+    public final boolean isChurning() {
+        return isChurning;
+    }
+
+    /**
+     * Record that the client has connected. Has no effect if the client has
+     * already been closed.
+     */
+    public final void markActive() {
+        if (theState.compareAndSet(STATE_NEW, STATE_ACTIVE) &&
+            theTransportStats != null) {
+            theTransportStats.clientActive();
+        }
+    }
+
+    /**
+     * Record that the client has been closed or disconnected.
+     */
+    protected final void markClosed() {
+        if (theState.getAndSet(STATE_CLOSED) == STATE_ACTIVE &&
+            theTransportStats != null) {
+            theTransportStats.clientInactive();
+        }
+    }
+
+    /**
+     * Record a message of a topic, noting whether it is the topic load, the
+     * first message of the topic since subscribing. The time to the topic
+     * load is recorded for topics subscribed to on connecting; topics
+     * subscribed to by {@link #subscribe(String, long)} are recorded by
+     * {@link #recordSubscriptionUpdate(String, long)}, which must be called
+     * after this.
+     *
+     * @param topic the topic name
+     * @param receiveTime the {@link System#nanoTime()} of receipt
+     * @return true if the message is the topic load
+     */
+    protected final boolean recordTopicLoad(String topic, long receiveTime) {
+        if (!theLoadedTopics.add(topic != null ? topic : "")) {
+            return false;
+        }
+        final TransportStats stats = theTransportStats;
+        final long startTime = theConnectStartTime;
+        if (stats != null && startTime != 0 &&
+            (topic == null || !thePendingSubscriptions.containsKey(topic))) {
+            stats.initialLoadReceived(receiveTime - startTime);
+        }
+        return true;
+    }
+
+    /**
+     * Subscribe to a topic, recording the time to its first update. The
+     * topic's sequence is restarted, so the updates published while the
+     * client was not subscribed are not counted as gaps.
+     *
+     * @param topic the topic name
+     * @param scheduledTime the {@link System#nanoTime()} the subscription was
+     *        scheduled, from which the latency is measured
+     * @throws DiffusionException on error
+     */
+    public final void subscribe(String topic, long scheduledTime)
+        throws DiffusionException {
+
+        restartSequence(topic);
+        thePendingSubscriptions.put(topic, scheduledTime);
+        try {
+            sendSubscribe(topic);
+        }
+        catch (DiffusionException ex) {
+            thePendingSubscriptions.remove(topic);
+            throw ex;
+        }
+    }
+
+    /**
+     * Unsubscribe from a topic. The topic's sequence is restarted, so an
+     * update already on its way is not taken as following the updates
+     * received before.
+     *
+     * @param topic the topic name
+     * @throws DiffusionException on error
+     */
+    public final void unsubscribe(String topic) throws DiffusionException {
+        thePendingSubscriptions.remove(topic);
+        sendUnsubscribe(topic);
+        theLoadedTopics.remove(topic);
+        restartSequence(topic);
+    }
+
+    /**
+     * Forget the sequence of a topic, keeping its counts.
+     *
+     * @param topic the topic name
+     */
+    private void restartSequence(String topic) {
+        final SequenceTracker tracker = theSequenceTrackers.get(topic);
+        if (tracker != null) {
+            tracker.restart();
+        }
+    }
+
+    /**
+     * Record the first update of a topic subscribed to by
+     * {@link #subscribe(String, long)}. Has no effect for other updates.
+     *
+     * @param topic the topic name
+     * @param receiveTime the {@link System#nanoTime()} of receipt
+     */
+    protected final void recordSubscriptionUpdate(
+        String topic,
+        long receiveTime) {
+
+        if (thePendingSubscriptions.isEmpty() || topic == null) {
+            return;
+        }
+        final Long scheduledTime = thePendingSubscriptions.remove(topic);
+        final TransportStats stats = theTransportStats;
+        if (scheduledTime != null && stats != null) {
+            stats.subscriptionUpdated(receiveTime - scheduledTime);
+        }
+    }
+
+    /**
+     * @param topic the topic name
+     * @return the tracker of the sequence numbers of stamped updates of the
+     *         topic
+     */
+    protected final SequenceTracker getSequenceTracker(String topic) {
+        final SequenceTracker tracker = theSequenceTrackers.get(topic);
+        if (tracker != null) {
+            return tracker;
+        }
+        final SequenceTracker created = new SequenceTracker();
+        final SequenceTracker existing =
+            theSequenceTrackers.putIfAbsent(topic, created);
+        return existing != null ? existing : created;
+    }
+
+    /**
+     * @return the sequence counts of every topic
+     */
+    public final SequenceTotals getSequences() {
+        final SequenceTotals result = new SequenceTotals();
+        for (SequenceTracker tracker : theSequenceTrackers.values()) {
+            result.add(tracker);
+        }
+        return result;
+    }
+
+    /**
+     * Set the topics to subscribe to on connecting.
+     *
+     * @param topics the topic names
+     */
+    public final void setTopics(List<String> topics) {
+        theTopics = topics;
+    }
+
+    /**
+     * @return the topics subscribed to on connecting, or null if not set
+     */
+    public final List<String> getTopics() {
+        return theTopics;
+    }
+
+    /**
+     * Set the statistics of the topic tree.
+     *
+     * @param stats the statistics, or null to not record them
+     */
+    public final void setPopularityStats(PopularityStats stats) {
+        thePopularityStats = stats;
+    }
+
+    /**
+     * @return the statistics of the topic tree, or null if not recorded
+     */
+    protected final PopularityStats getPopularityStats() {
+        return thePopularityStats;
+    }
+
+    /**
+     * Record a message received from the server.
+     *
+     * @param bytes the size of the message content
+     */
+    protected final void recordMessage(int bytes) {
+        final TransportStats stats = theTransportStats;
+        if (stats != null) {
+            stats.messageReceived(bytes);
+        }
+    }
+
+    /**
+     * @return the number of messages received, including the topic loads
+     */
+    public final long getMessageCount() {
+        return theNoOfMessages;
+    }
+
     /**
      * @return the thread number.
      */
@@ -174,6 +634,28 @@ public abstract class BaseClient {
     public abstract void sendUnsubscribe(TopicSet topics)
         throws DiffusionException;
 
+    /**
+     * Send a subscription to a single topic, as a {@link TopicSet} unless
+     * overridden.
+     *
+     * @param topic the topic name
+     * @throws DiffusionException on error
+     */
+    protected void sendSubscribe(String topic) throws DiffusionException {
+        sendSubscribe(new TopicSet(topic));
+    }
+
+    /**
+     * Send an unsubscription from a single topic, as a {@link TopicSet}
+     * unless overridden.
+     *
+     * @param topic the topic name
+     * @throws DiffusionException on error
+     */
+    protected void sendUnsubscribe(String topic) throws DiffusionException {
+        sendUnsubscribe(new TopicSet(topic));
+    }
+
     /**
      * Close.
      *
@@ -0,0 +1,73 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+package com.pushtechnology.diffusion.stresstest.testconnector;
+
+import com.pushtechnology.diffusion.api.message.TopicMessage;
+import com.pushtechnology.diffusion.stresstest.stats.HandlerStats;
+
+/**
+ * Verifies the {@link Crc32c} checksum trailer of each update.
+ * <P>
+ * Set {@code checksum-messages} for the Stress publisher so that updates
+ * carry a trailer. Messages without one, such as the initial topic load and
+ * messages rebroadcast from clients, are skipped. A checksum that does not
+ * match is counted as a failure.
+ *
+ * @author Push Technology Limited
+ */
+public class ChecksumMessageHandler implements MeasuredMessageHandler {
+
+    private HandlerStats theStats;
+
+    @Override
+    public void setHandlerStats(HandlerStats stats) {
+        theStats = stats;
+    }
+
+    @Override
+    public void handleMessage(TopicMessage message) {
+        handleContent(MessageStamp.getContent(message));
+    }
+
+    @Override
+    public void handleContent(byte[] content) {
+        final int offset =
+            MessageStamp.isStamped(content) ? MessageStamp.LENGTH : 0;
+        if (!Crc32c.hasTrailer(content, offset)) {
+            if (theStats != null) {
+                theStats.skipped();
+            }
+            return;
+        }
+
+        final long startTime = System.nanoTime();
+        final int crc = Crc32c.compute(
+            content,
+            offset,
+            content.length - offset - Crc32c.TRAILER_LENGTH);
+        final boolean isValid =
+            Crc32c.getTrailerChecksum(content) == (crc & 0xffffffffL);
+        final long nanos = System.nanoTime() - startTime;
+
+        if (theStats != null) {
+            if (isValid) {
+                theStats.decoded(nanos);
+            }
+            else {
+                theStats.failed(nanos);
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+
+package com.pushtechnology.diffusion.stresstest.testconnector;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.pushtechnology.diffusion.DiffusionException;
+import com.pushtechnology.diffusion.api.topic.TopicSet;
+import com.pushtechnology.diffusion.stresstest.StressTest.CompletionCallback;
+import com.pushtechnology.diffusion.stresstest.StressTestProperties;
+
+/**
+ * A client of a {@link LoopbackServer}, which handles its messages as the
+ * other clients do, without a Diffusion server. The messages are only a
+ * topic name and content, so the message handler must be supported by
+ * {@link LoopbackServer#supports}.
+ * <P>
+ * Subscriptions are made a topic at a time, so topic sets are not
+ * supported.
+ *
+ * @author Push Technology Limited
+ */
+public class LoopbackClient extends APIClient {
+
+    private final LoopbackServer theServer;
+
+    private final CompletionCallback theCompletionCallback;
+
+    /**
+     * Constructor.
+     *
+     * @param completionCallback called when the client closes
+     * @param server the server to connect to
+     * @param threadNumber the client number
+     * @param maxMessages the number of messages after which the client
+     *        closes, 0 to stay connected
+     * @throws DiffusionException on error
+     */
+    public LoopbackClient(
+        CompletionCallback completionCallback,
+        LoopbackServer server,
+        int threadNumber,
+        long maxMessages) throws DiffusionException {
+
+        super(completionCallback, "loopback", 0, threadNumber, maxMessages);
+        theServer = server;
+        theCompletionCallback = completionCallback;
+    }
+
+    @Override
+    public void connect() throws DiffusionException {
+        final List<String> topics = getTopics();
+        setClientID(theServer.connect(
+            this,
+            topics != null ?
+                topics :
+                Collections.singletonList(StressTestProperties.getTopic())));
+    }
+
+    @Override
+    public void close() throws DiffusionException {
+        if (theServer.disconnect(this)) {
+            markClosed();
+            theCompletionCallback.clientFinished(this);
+        }
+    }
+
+    @Override
+    public void send(String data, String topic) throws DiffusionException {
+        if (!theServer.send(this, data, topic)) {
+            throw new DiffusionException("Not connected");
+        }
+    }
+
+    @Override
+    protected void sendSubscribe(String topic) throws DiffusionException {
+        if (!theServer.subscribe(this, topic)) {
+            throw new DiffusionException("Not connected");
+        }
+    }
+
+    @Override
+    protected void sendUnsubscribe(String topic) throws DiffusionException {
+        if (!theServer.unsubscribe(this, topic)) {
+            throw new DiffusionException("Not connected");
+        }
+    }
+
+    @Override
+    public void sendSubscribe(TopicSet topics) throws DiffusionException {
+        throw new DiffusionException(
+            "Topic sets are not supported by the loopback transport");
+    }
+
+    @Override
+    public void sendUnsubscribe(TopicSet topics) throws DiffusionException {
+        throw new DiffusionException(
+            "Topic sets are not supported by the loopback transport");
+    }
+
+    /**
+     * Receive a message from the server.
+     *
+     * @param topic the topic name
+     * @param content the content, which must not be changed
+     */
+    void deliver(String topic, byte[] content) {
+        messageReceived(null, topic, content, System.nanoTime());
+    }
+
+    @Override
+    public String getClientType() {
+        return "Loopback Client";
+    }
+}
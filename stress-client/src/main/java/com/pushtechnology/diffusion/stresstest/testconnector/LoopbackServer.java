@@ -0,0 +1,695 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+
+package com.pushtechnology.diffusion.stresstest.testconnector;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Stands in for a Diffusion server running the Stress publisher, inside the
+ * stress test's own JVM, so that the stress test can run without a server
+ * and measure its own cost for each message.
+ * <P>
+ * Every topic a {@link LoopbackClient} subscribes to is updated once every
+ * interval, as by the publisher's frequency, with the publisher's sample
+ * data cut or repeated to the message size. Updates are stamped as the
+ * publisher stamps them and can carry a checksum trailer. A subscription
+ * first receives a topic load of the unstamped content. An interval of 0
+ * updates the topics as fast as they can be delivered, giving the most
+ * messages the stress test can handle.
+ * <P>
+ * Messages are delivered to the clients on delivery threads, in place of the
+ * client library's inbound thread pool.
+ * Each thread serves a share of the clients, so each client receives its
+ * messages in order from one thread. Messages sent by clients are handled
+ * as the publisher handles them: pings are echoed to the sender, rate and
+ * size control messages change the interval and the size of updates, and
+ * other messages are delivered to every other client subscribed to the
+ * topic.
+ * <P>
+ * A message is only a topic name and its content, with no Diffusion
+ * message, so the message handler must take the content, as a
+ * {@link MeasuredMessageHandler} does, or ignore the message, as the
+ * {@link SimpleMessageHandler} does. The content must not be changed. An
+ * update is created once for each delivery thread and interval, and shared
+ * by the clients the thread serves. The
+ * delivery threads measure their CPU time and, where the JVM can, the bytes
+ * they allocate. With the {@code pool} execution mode and no handler
+ * threads, the message handlers also run on the delivery threads, so they
+ * do everything the stress test does for each message and the report gives
+ * the messages a core can handle and the bytes allocated for each.
+ *
+ * @author Push Technology Limited
+ */
+public final class LoopbackServer {
+
+    private static final String SAMPLE_DATA =
+        "1009|0 Mins|8|102:17978|null[9.6,540,1069[9.8,98,1069" +
+            "[10,684,1069[10.2,58,1069[11,2,1069|11,1245,1070[11.2,45,1070" +
+            "[11.4,70,1070[11.6,54,1070[11.8,168,1070[12,45,1070|null" +
+            "[1.1,3256,1071[1.18,300,1071[1.2,2995,1071[1.25,158,1071" +
+            "[1.3,254,1071|null[1.3,700,1072[1.34,41,1072[1.35,836,1072" +
+            "[1.4,22,1072[1.8,2472,1072|null[5.2,12,1073[5.3,650,1073" +
+            "[5.4,784,1073[5.5,65,1073[5.8,462,1073|null[6.1,100,1074" +
+            "[6.2,600,1074[6.3,14,1074[6.4,680,1074[6.5,500,1074|null" +
+            "[30,10,1075[34,30,1075[36,11,1075[40,5,1075[46,12,1075";
+
+    private static final String RATE_CONTROL_PREFIX = "R|";
+
+    private static final String SIZE_CONTROL_PREFIX = "S|";
+
+    private static final String DEFAULT = "default";
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    /**
+     * How long a delivery thread with no clients waits before looking again.
+     */
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final ThreadMXBean THREADS =
+        ManagementFactory.getThreadMXBean();
+
+    private static final String[] NO_TOPICS = {};
+
+    private final long theConfiguredIntervalNanos;
+
+    private final int theConfiguredSize;
+
+    private final boolean isChecksumming;
+
+    private final Partition[] thePartitions;
+
+    private final ConcurrentMap<LoopbackClient, Session> theSessions =
+        new ConcurrentHashMap<LoopbackClient, Session>();
+
+    private final AtomicInteger theNextPartition = new AtomicInteger();
+
+    private final AtomicLong theNextSessionID = new AtomicLong();
+
+    private volatile long theIntervalNanos;
+
+    private volatile Content theContent;
+
+    private volatile boolean isRunning;
+
+    private long theStartTime;
+
+    private long theStopTime;
+
+    /**
+     * Constructor.
+     *
+     * @param intervalMillis the milliseconds between updates of each topic,
+     *        0 to update as fast as they can be delivered
+     * @param messageSize the size in bytes of the content of updates, 0 for
+     *        the sample data as it is
+     * @param checksumming true to add a checksum trailer to updates
+     * @param threads the number of delivery threads, 0 for one for each
+     *        processor
+     */
+    public LoopbackServer(
+        double intervalMillis,
+        int messageSize,
+        boolean checksumming,
+        int threads) {
+
+        theConfiguredIntervalNanos = toNanos(intervalMillis);
+        theConfiguredSize = messageSize;
+        isChecksumming = checksumming;
+        theIntervalNanos = theConfiguredIntervalNanos;
+        theContent = new Content(messageSize, checksumming);
+
+        final int partitions = threads > 0 ?
+            threads : Runtime.getRuntime().availableProcessors();
+        thePartitions = new Partition[partitions];
+        for (int i = 0; i < partitions; i++) {
+            thePartitions[i] = new Partition(i);
+        }
+    }
+
+    /**
+     * @param handlerClass the message handler class, or null for none
+     * @return true if the handler can handle messages delivered by the
+     *         server, which have no Diffusion message
+     */
+    public static boolean supports(Class<?> handlerClass) {
+        return handlerClass == null ||
+            handlerClass == SimpleMessageHandler.class ||
+            MeasuredMessageHandler.class.isAssignableFrom(handlerClass);
+    }
+
+    /**
+     * Start the delivery threads.
+     */
+    public synchronized void start() {
+        if (isRunning) {
+            return;
+        }
+        isRunning = true;
+        theStartTime = System.nanoTime();
+        for (Partition partition : thePartitions) {
+            partition.start();
+        }
+    }
+
+    /**
+     * Stop the delivery threads, waiting for them to finish. Clients stay
+     * connected but receive nothing more.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized void stop() throws InterruptedException {
+        if (!isRunning) {
+            return;
+        }
+        isRunning = false;
+        for (Partition partition : thePartitions) {
+            partition.stop();
+        }
+        theStopTime = System.nanoTime();
+    }
+
+    /**
+     * Connect a client, subscribing it to its topics.
+     *
+     * @param client the client
+     * @param topics the topic names
+     * @return the client ID
+     */
+    String connect(LoopbackClient client, List<String> topics) {
+        final Partition partition = thePartitions[
+            (theNextPartition.getAndIncrement() & Integer.MAX_VALUE) %
+                thePartitions.length];
+        final Session session = new Session(client, partition);
+        theSessions.put(client, session);
+        partition.add(session);
+        for (String topic : topics) {
+            session.subscribe(topic);
+        }
+        return "Loopback-" + theNextSessionID.incrementAndGet();
+    }
+
+    /**
+     * Disconnect a client. Messages already being delivered to it may still
+     * arrive.
+     *
+     * @param client the client
+     * @return true if the client was connected
+     */
+    boolean disconnect(LoopbackClient client) {
+        final Session session = theSessions.remove(client);
+        if (session == null) {
+            return false;
+        }
+        session.close();
+        return true;
+    }
+
+    /**
+     * @param client the client
+     * @param topic the topic name
+     * @return false if the client is not connected
+     */
+    boolean subscribe(LoopbackClient client, String topic) {
+        final Session session = theSessions.get(client);
+        if (session == null) {
+            return false;
+        }
+        session.subscribe(topic);
+        return true;
+    }
+
+    /**
+     * @param client the client
+     * @param topic the topic name
+     * @return false if the client is not connected
+     */
+    boolean unsubscribe(LoopbackClient client, String topic) {
+        final Session session = theSessions.get(client);
+        if (session == null) {
+            return false;
+        }
+        session.unsubscribe(topic);
+        return true;
+    }
+
+    /**
+     * Handle a message sent by a client, as the publisher would.
+     *
+     * @param client the client
+     * @param data the content of the message
+     * @param topic the topic name
+     * @return false if the client is not connected
+     */
+    boolean send(LoopbackClient client, String data, String topic) {
+        final Session session = theSessions.get(client);
+        if (session == null) {
+            return false;
+        }
+
+        final byte[] content = data.getBytes(CHARSET);
+        if (MessageStamp.isPingStamped(content)) {
+            // Echo pings to the client that sent them only
+            session.deliver(topic, content);
+        }
+        else if (data.startsWith(RATE_CONTROL_PREFIX)) {
+            changeInterval(data.substring(RATE_CONTROL_PREFIX.length()).trim());
+        }
+        else if (data.startsWith(SIZE_CONTROL_PREFIX)) {
+            changeSize(data.substring(SIZE_CONTROL_PREFIX.length()).trim());
+        }
+        else {
+            for (Session other : theSessions.values()) {
+                if (other != session && other.isSubscribed(topic)) {
+                    other.deliver(topic, content);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the messages delivered, the CPU time and the bytes allocated
+     *         by the delivery threads, complete once stopped
+     */
+    public synchronized String report() {
+        long delivered = 0;
+        long errors = 0;
+        long cpuNanos = 0;
+        long allocated = 0;
+        for (Partition partition : thePartitions) {
+            delivered += partition.theDelivered;
+            errors += partition.theErrors;
+            cpuNanos += partition.theCpuNanos;
+            allocated += partition.theAllocatedBytes;
+        }
+        final long stopTime = isRunning ? System.nanoTime() : theStopTime;
+        final double seconds =
+            (stopTime - theStartTime) / (double) TimeUnit.SECONDS.toNanos(1);
+        final double cpuSeconds =
+            cpuNanos / (double) TimeUnit.SECONDS.toNanos(1);
+
+        return String.format(
+            "Loopback threads=%d delivered=%d errors=%d rate=%.0f/s " +
+                "cpu=%.1fs perCore=%s allocation=%s",
+            thePartitions.length,
+            delivered,
+            errors,
+            seconds > 0 ? delivered / seconds : 0,
+            cpuSeconds,
+            cpuNanos > 0 ?
+                String.format("%.0f/s", delivered / cpuSeconds) : "unknown",
+            allocated >= 0 && delivered > 0 ?
+                String.format("%.0f bytes/message",
+                    allocated / (double) delivered) :
+                "unknown");
+    }
+
+    private void changeInterval(String value) {
+        final long interval;
+        if (DEFAULT.equals(value)) {
+            interval = theConfiguredIntervalNanos;
+        }
+        else {
+            final double millis;
+            try {
+                millis = Double.parseDouble(value);
+            }
+            catch (NumberFormatException ex) {
+                System.err.println("Invalid loopback interval: " + value);
+                return;
+            }
+            if (millis < 0 || Double.isNaN(millis) ||
+                Double.isInfinite(millis)) {
+                System.err.println("Invalid loopback interval: " + value);
+                return;
+            }
+            interval = toNanos(millis);
+        }
+        theIntervalNanos = interval;
+        System.out.println(
+            "Loopback updating every " +
+                interval / (double) TimeUnit.MILLISECONDS.toNanos(1) + " ms");
+    }
+
+    private void changeSize(String value) {
+        final int size;
+        if (DEFAULT.equals(value)) {
+            size = theConfiguredSize;
+        }
+        else {
+            try {
+                size = Integer.parseInt(value);
+            }
+            catch (NumberFormatException ex) {
+                System.err.println("Invalid loopback message size: " + value);
+                return;
+            }
+            if (size < 0) {
+                System.err.println("Invalid loopback message size: " + value);
+                return;
+            }
+        }
+        theContent = new Content(size, isChecksumming);
+        System.out.println(
+            "Loopback updates of " + theContent.theLoad.length + " bytes");
+    }
+
+    private static long toNanos(double millis) {
+        return (long) (millis * TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    /**
+     * @param size the size in bytes, 0 for the sample data as it is
+     * @return the sample data, repeated or cut short to the size
+     */
+    private static String sampleData(int size) {
+        if (size == 0) {
+            return SAMPLE_DATA;
+        }
+        final StringBuilder data = new StringBuilder(SAMPLE_DATA);
+        while (data.length() < size) {
+            data.append(SAMPLE_DATA);
+        }
+        return data.substring(0, size);
+    }
+
+    /**
+     * The content of updates at the current message size.
+     */
+    private static final class Content {
+
+        /**
+         * The content with room for the stamp and any trailer.
+         */
+        private final byte[] theTemplate;
+
+        /**
+         * The content alone, for topic loads.
+         */
+        private final byte[] theLoad;
+
+        Content(int size, boolean checksumming) {
+            theLoad = sampleData(size).getBytes(CHARSET);
+            theTemplate = new byte[MessageStamp.LENGTH + theLoad.length +
+                (checksumming ? Crc32c.TRAILER_LENGTH : 0)];
+            System.arraycopy(
+                theLoad,
+                0,
+                theTemplate,
+                MessageStamp.LENGTH,
+                theLoad.length);
+            if (checksumming) {
+                // The stamp is not covered, so the trailer is written once
+                Crc32c.writeTrailer(
+                    theTemplate,
+                    MessageStamp.LENGTH,
+                    theLoad.length);
+            }
+        }
+    }
+
+    /**
+     * A connected client and the topics it subscribes to.
+     */
+    private final class Session {
+
+        private final LoopbackClient theClient;
+
+        private final Partition thePartition;
+
+        /**
+         * The topics, replaced on each change so that they can be read
+         * without locking or allocating.
+         */
+        private volatile String[] theTopics = NO_TOPICS;
+
+        private volatile boolean isClosed;
+
+        Session(LoopbackClient client, Partition partition) {
+            theClient = client;
+            thePartition = partition;
+        }
+
+        /**
+         * Subscribe to a topic, delivering its topic load.
+         */
+        synchronized void subscribe(String topic) {
+            if (isSubscribed(topic)) {
+                return;
+            }
+            final String[] topics =
+                Arrays.copyOf(theTopics, theTopics.length + 1);
+            topics[topics.length - 1] = topic;
+            theTopics = topics;
+            deliver(topic, theContent.theLoad);
+        }
+
+        synchronized void unsubscribe(String topic) {
+            final String[] topics = theTopics;
+            for (int i = 0; i < topics.length; i++) {
+                if (topics[i].equals(topic)) {
+                    final String[] remaining = new String[topics.length - 1];
+                    System.arraycopy(topics, 0, remaining, 0, i);
+                    System.arraycopy(
+                        topics,
+                        i + 1,
+                        remaining,
+                        i,
+                        remaining.length - i);
+                    theTopics = remaining;
+                    return;
+                }
+            }
+        }
+
+        boolean isSubscribed(String topic) {
+            for (String subscribed : theTopics) {
+                if (subscribed.equals(topic)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Deliver a message on the session's delivery thread.
+         */
+        void deliver(String topic, byte[] content) {
+            thePartition.enqueue(this, topic, content);
+        }
+
+        void close() {
+            isClosed = true;
+            thePartition.remove(this);
+        }
+    }
+
+    /**
+     * A message waiting to be delivered to a session.
+     */
+    private static final class Delivery {
+
+        private final Session theSession;
+
+        private final String theTopic;
+
+        private final byte[] theContent;
+
+        Delivery(Session session, String topic, byte[] content) {
+            theSession = session;
+            theTopic = topic;
+            theContent = content;
+        }
+    }
+
+    /**
+     * A share of the sessions and the thread that delivers their messages.
+     * <P>
+     * The counts are only written by the delivery thread, without
+     * synchronization so as not to add to the cost being measured, and are
+     * complete once it has stopped.
+     */
+    private final class Partition implements Runnable {
+
+        private final int theIndex;
+
+        private final Set<Session> theMembers = Collections.newSetFromMap(
+            new ConcurrentHashMap<Session, Boolean>());
+
+        private final Queue<Delivery> theInbox =
+            new ConcurrentLinkedQueue<Delivery>();
+
+        /**
+         * The update of each topic in the current interval.
+         */
+        private final Map<String, byte[]> theUpdates =
+            new HashMap<String, byte[]>();
+
+        private long theSequence;
+
+        private long theDelivered;
+
+        private long theErrors;
+
+        private long theCpuNanos;
+
+        private long theAllocatedBytes;
+
+        private Thread theThread;
+
+        Partition(int index) {
+            theIndex = index;
+        }
+
+        void add(Session session) {
+            theMembers.add(session);
+        }
+
+        void remove(Session session) {
+            theMembers.remove(session);
+        }
+
+        void enqueue(Session session, String topic, byte[] content) {
+            theInbox.add(new Delivery(session, topic, content));
+            LockSupport.unpark(theThread);
+        }
+
+        void start() {
+            theThread = new Thread(this, "StressTest-loopback-" + theIndex);
+            theThread.setDaemon(true);
+            theThread.start();
+        }
+
+        void stop() throws InterruptedException {
+            LockSupport.unpark(theThread);
+            theThread.join();
+        }
+
+        @Override
+        public void run() {
+            final long startCpu = cpuTime();
+            final long startAllocated = allocatedBytes();
+            long nextUpdate = System.nanoTime();
+            while (isRunning) {
+                deliverInbox();
+                final long now = System.nanoTime();
+                if (theMembers.isEmpty()) {
+                    nextUpdate = now;
+                    LockSupport.parkNanos(IDLE_NANOS);
+                }
+                else if (now - nextUpdate >= 0) {
+                    update();
+                    // Start again from now when behind, rather than
+                    // catching up with a burst
+                    nextUpdate += theIntervalNanos;
+                    if (nextUpdate - now < 0) {
+                        nextUpdate = now;
+                    }
+                }
+                else {
+                    LockSupport.parkNanos(nextUpdate - now);
+                }
+            }
+            final long endCpu = cpuTime();
+            final long endAllocated = allocatedBytes();
+            theCpuNanos = startCpu < 0 ? 0 : endCpu - startCpu;
+            theAllocatedBytes =
+                startAllocated < 0 ? -1 : endAllocated - startAllocated;
+        }
+
+        private void deliverInbox() {
+            Delivery delivery = theInbox.poll();
+            while (delivery != null) {
+                deliver(
+                    delivery.theSession,
+                    delivery.theTopic,
+                    delivery.theContent);
+                delivery = theInbox.poll();
+            }
+        }
+
+        /**
+         * Deliver an update of every topic to the sessions subscribed to it.
+         */
+        private void update() {
+            final long sequence = theSequence++;
+            final long timestamp = MessageStamp.currentTimeNanos();
+            final byte[] template = theContent.theTemplate;
+            theUpdates.clear();
+            for (Session session : theMembers) {
+                for (String topic : session.theTopics) {
+                    byte[] content = theUpdates.get(topic);
+                    if (content == null) {
+                        content = template.clone();
+                        MessageStamp.write(content, timestamp, sequence);
+                        theUpdates.put(topic, content);
+                    }
+                    deliver(session, topic, content);
+                }
+            }
+        }
+
+        private void deliver(Session session, String topic, byte[] content) {
+            if (session.isClosed) {
+                return;
+            }
+            try {
+                session.theClient.deliver(topic, content);
+                theDelivered++;
+            }
+            catch (RuntimeException ex) {
+                if (theErrors++ == 0) {
+                    ex.printStackTrace();
+                }
+            }
+        }
+
+        private long cpuTime() {
+            return THREADS.isCurrentThreadCpuTimeSupported() ?
+                THREADS.getCurrentThreadCpuTime() : -1;
+        }
+
+        private long allocatedBytes() {
+            if (THREADS instanceof com.sun.management.ThreadMXBean) {
+                final com.sun.management.ThreadMXBean threads =
+                    (com.sun.management.ThreadMXBean) THREADS;
+                if (threads.isThreadAllocatedMemorySupported() &&
+                    threads.isThreadAllocatedMemoryEnabled()) {
+                    return threads.getThreadAllocatedBytes(
+                        Thread.currentThread().getId());
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+package com.pushtechnology.diffusion.stresstest.testconnector;
+
+import com.pushtechnology.diffusion.stresstest.stats.HandlerStats;
+
+/**
+ * A message handler that records the cost and outcome of decoding each
+ * message, for the results of a stress test.
+ *
+ * @author Push Technology Limited
+ */
+public interface MeasuredMessageHandler extends MessageHandler {
+
+    /**
+     * Set where to record decoding. Called once, before any message is
+     * handled.
+     *
+     * @param stats the statistics shared by the handlers of every client
+     */
+    void setHandlerStats(HandlerStats stats);
+
+    /**
+     * Handle the content of a message, as already read from it by the
+     * client, so that it is not copied again. Called by the client in place
+     * of {@link #handleMessage}.
+     *
+     * @param content the message content, or null if it has none
+     */
+    void handleContent(byte[] content);
+}
@@ -0,0 +1,291 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+
+package com.pushtechnology.diffusion.stresstest.testconnector;
+
+import java.util.concurrent.TimeUnit;
+
+import com.pushtechnology.diffusion.api.message.TopicMessage;
+
+/**
+ * Reads the stamp that the stress publisher puts at the start of each
+ * update.
+ * <P>
+ * The stamp is the marker {@code T}, the send time and the topic's sequence
+ * number, each as 16 hexadecimal digits, and a {@code |} field delimiter. The
+ * send time is in nanoseconds since the epoch. Sequence numbers start at 0
+ * and increase by one for each update published to the topic. The stress
+ * publisher's {@code MessageStamp} writes the same format, so the two must be
+ * changed together.
+ * <P>
+ * Messages sent by clients and rebroadcast by the publisher carry the same
+ * stamp with the marker {@code C}. Their time is when the send was scheduled
+ * and their sequence is only unique to the sending process. Pings, which the
+ * publisher echoes to the sending client only, carry the marker {@code P}.
+ * <P>
+ * The {@link LoopbackServer} writes topic update stamps itself, standing in
+ * for the publisher.
+ *
+ * @author Push Technology Limited
+ */
+public final class MessageStamp {
+
+    /**
+     * The length of the stamp in bytes.
+     */
+    public static final int LENGTH = 34;
+
+    private static final byte MARKER = 'T';
+
+    private static final char CLIENT_MARKER = 'C';
+
+    private static final char PING_MARKER = 'P';
+
+    private static final char DELIMITER = '|';
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final int TIMESTAMP_OFFSET = 1;
+
+    private static final int SEQUENCE_OFFSET = 17;
+
+    private static final int HEX_DIGITS = 16;
+
+    /**
+     * Difference between {@link System#nanoTime()} and the time since the
+     * epoch. Calibrated on a tick of the millisecond clock so that hosts
+     * with synchronised clocks agree to well under a millisecond.
+     */
+    private static final long EPOCH_OFFSET_NANOS = calibrateEpochOffset();
+
+    private MessageStamp() {
+        throw new AssertionError();
+    }
+
+    /**
+     * @return the current time in nanoseconds since the epoch, comparable
+     *         with the publisher's send time
+     */
+    public static long currentTimeNanos() {
+        return toEpochNanos(System.nanoTime());
+    }
+
+    /**
+     * @param nanoTime a value of {@link System#nanoTime()}
+     * @return the same time in nanoseconds since the epoch
+     */
+    public static long toEpochNanos(long nanoTime) {
+        return nanoTime + EPOCH_OFFSET_NANOS;
+    }
+
+    /**
+     * @param message a message
+     * @return the content of the message, or null if it cannot be read
+     */
+    public static byte[] getContent(TopicMessage message) {
+        try {
+            return message.asBytes();
+        }
+        // CHECKSTYLE.OFF: IllegalCatch
+        catch (Exception ex) {
+            return null;
+        }
+        // CHECKSTYLE.ON: IllegalCatch
+    }
+
+    /**
+     * @param content the message content, may be null
+     * @return true if the content starts with a stamp
+     */
+    public static boolean isStamped(byte[] content) {
+        return content != null &&
+            content.length >= LENGTH &&
+            content[0] == MARKER;
+    }
+
+    /**
+     * @param content the message content, may be null
+     * @return the send time in nanoseconds since the epoch, or -1 if the
+     *         content is not stamped
+     */
+    public static long getTimestamp(byte[] content) {
+        if (!isStamped(content)) {
+            return -1;
+        }
+        return readHex(content, TIMESTAMP_OFFSET);
+    }
+
+    /**
+     * @param content the message content, may be null
+     * @return the topic's sequence number for the update, or -1 if the
+     *         content is not stamped
+     */
+    public static long getSequence(byte[] content) {
+        if (!isStamped(content)) {
+            return -1;
+        }
+        return readHex(content, SEQUENCE_OFFSET);
+    }
+
+    /**
+     * @param content the message content, may be null
+     * @return true if the content starts with a client stamp
+     */
+    public static boolean isClientStamped(byte[] content) {
+        return hasMarker(content, CLIENT_MARKER);
+    }
+
+    /**
+     * @param content the message content, may be null
+     * @return the scheduled send time of a client message in nanoseconds
+     *         since the epoch, or -1 if the content is not client stamped
+     */
+    public static long getClientTimestamp(byte[] content) {
+        if (!isClientStamped(content)) {
+            return -1;
+        }
+        return readHex(content, TIMESTAMP_OFFSET);
+    }
+
+    /**
+     * Write a topic update stamp at the start of a buffer, as the publisher
+     * does.
+     *
+     * @param buffer the buffer, at least {@link #LENGTH} long
+     * @param timestamp the send time in nanoseconds since the epoch
+     * @param sequence the topic's sequence number for the update
+     */
+    public static void write(byte[] buffer, long timestamp, long sequence) {
+        buffer[0] = MARKER;
+        writeHex(buffer, TIMESTAMP_OFFSET, timestamp);
+        writeHex(buffer, SEQUENCE_OFFSET, sequence);
+        buffer[LENGTH - 1] = DELIMITER;
+    }
+
+    /**
+     * Write a client stamp at the start of a buffer.
+     *
+     * @param buffer the buffer, at least {@link #LENGTH} long
+     * @param timestamp the scheduled send time in nanoseconds since the epoch
+     * @param sequence the sequence number
+     */
+    public static void writeClientStamp(
+        char[] buffer,
+        long timestamp,
+        long sequence) {
+
+        writeStamp(buffer, CLIENT_MARKER, timestamp, sequence);
+    }
+
+    /**
+     * @param content the message content, may be null
+     * @return true if the content starts with a ping stamp
+     */
+    public static boolean isPingStamped(byte[] content) {
+        return hasMarker(content, PING_MARKER);
+    }
+
+    /**
+     * @param content the message content, may be null
+     * @return the scheduled send time of a ping in nanoseconds since the
+     *         epoch, or -1 if the content is not ping stamped
+     */
+    public static long getPingTimestamp(byte[] content) {
+        if (!isPingStamped(content)) {
+            return -1;
+        }
+        return readHex(content, TIMESTAMP_OFFSET);
+    }
+
+    /**
+     * Write a ping stamp at the start of a buffer.
+     *
+     * @param buffer the buffer, at least {@link #LENGTH} long
+     * @param timestamp the scheduled send time in nanoseconds since the epoch
+     * @param sequence the sequence number
+     */
+    public static void writePingStamp(
+        char[] buffer,
+        long timestamp,
+        long sequence) {
+
+        writeStamp(buffer, PING_MARKER, timestamp, sequence);
+    }
+
+    private static boolean hasMarker(byte[] content, char marker) {
+        return content != null &&
+            content.length >= LENGTH &&
+            content[0] == marker;
+    }
+
+    private static void writeStamp(
+        char[] buffer,
+        char marker,
+        long timestamp,
+        long sequence) {
+
+        buffer[0] = marker;
+        writeHex(buffer, TIMESTAMP_OFFSET, timestamp);
+        writeHex(buffer, SEQUENCE_OFFSET, sequence);
+        buffer[LENGTH - 1] = DELIMITER;
+    }
+
+    private static void writeHex(char[] buffer, int offset, long value) {
+        long remaining = value;
+        for (int i = offset + HEX_DIGITS - 1; i >= offset; i--) {
+            buffer[i] = HEX[(int) (remaining & 0xf)];
+            remaining >>>= 4;
+        }
+    }
+
+    private static void writeHex(byte[] buffer, int offset, long value) {
+        long remaining = value;
+        for (int i = offset + HEX_DIGITS - 1; i >= offset; i--) {
+            buffer[i] = (byte) HEX[(int) (remaining & 0xf)];
+            remaining >>>= 4;
+        }
+    }
+
+    /**
+     * @return the value, or -1 if the digits are not valid
+     */
+    private static long readHex(byte[] content, int offset) {
+        long value = 0;
+        for (int i = offset; i < offset + HEX_DIGITS; i++) {
+            final int b = content[i];
+            final int digit;
+            if (b >= '0' && b <= '9') {
+                digit = b - '0';
+            }
+            else if (b >= 'a' && b <= 'f') {
+                digit = b - 'a' + 10;
+            }
+            else {
+                return -1;
+            }
+            value = value << 4 | digit;
+        }
+        return value;
+    }
+
+    private static long calibrateEpochOffset() {
+        final long start = System.currentTimeMillis();
+        long now;
+        do {
+            now = System.currentTimeMillis();
+        } while (now == start);
+        return TimeUnit.MILLISECONDS.toNanos(now) - System.nanoTime();
+    }
+}
@@ -0,0 +1,369 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+package com.pushtechnology.diffusion.stresstest.testconnector;
+
+import java.util.Arrays;
+
+import com.pushtechnology.diffusion.api.message.TopicMessage;
+import com.pushtechnology.diffusion.stresstest.stats.HandlerStats;
+
+/**
+ * Decodes the pipe and bracket odds records published by the Stress
+ * publisher, modelling the cost of a client reading every update.
+ * <P>
+ * A record is a header of an event identifier, the minutes played, the
+ * number of markets and the matched volume, separated by {@code |}, followed
+ * by markets each starting with {@code |}. A market is either {@code null}
+ * or a first entry, followed by entries each starting with {@code [}. An
+ * entry is a decimal price, a volume and a selection identifier separated by
+ * {@code ,}. Records may be cut short in their markets, as the publisher cuts
+ * them to the message size, so a record that ends part way through an entry
+ * is valid and the incomplete entry is ignored. A record cut short in its
+ * header is a failure. Any stamp and checksum trailer are skipped.
+ * <P>
+ * The entries are decoded straight from the message bytes into primitive
+ * arrays that are reused for every message, growing only when a record has
+ * more entries than any before it, so decoding allocates nothing. A record
+ * that does not follow the format is counted as a failure. Messages
+ * rebroadcast from clients and pings are skipped.
+ *
+ * @author Push Technology Limited
+ */
+public class OddsMessageHandler implements MeasuredMessageHandler {
+
+    private static final int INITIAL_ENTRIES = 64;
+
+    private static final byte[] NULL_MARKET = {'n', 'u', 'l', 'l'};
+
+    private HandlerStats theStats;
+
+    private byte[] theContent;
+
+    private int thePosition;
+
+    private int theEnd;
+
+    private long theEvent;
+
+    private long theMinutes;
+
+    private long theMatched;
+
+    private int theMarkets;
+
+    private int theEntries;
+
+    private double[] thePrices = new double[INITIAL_ENTRIES];
+
+    private int[] theVolumes = new int[INITIAL_ENTRIES];
+
+    private int[] theSelections = new int[INITIAL_ENTRIES];
+
+    /**
+     * The market of each entry, counting from 0.
+     */
+    private int[] theEntryMarkets = new int[INITIAL_ENTRIES];
+
+    @Override
+    public void setHandlerStats(HandlerStats stats) {
+        theStats = stats;
+    }
+
+    @Override
+    public void handleMessage(TopicMessage message) {
+        handleContent(MessageStamp.getContent(message));
+    }
+
+    @Override
+    public void handleContent(byte[] content) {
+        if (content == null ||
+            MessageStamp.isClientStamped(content) ||
+            MessageStamp.isPingStamped(content)) {
+            if (theStats != null) {
+                theStats.skipped();
+            }
+            return;
+        }
+
+        final long startTime = System.nanoTime();
+        final boolean isValid = decode(content);
+        final long nanos = System.nanoTime() - startTime;
+
+        if (theStats != null) {
+            if (isValid) {
+                theStats.decoded(nanos);
+            }
+            else {
+                theStats.failed(nanos);
+            }
+        }
+    }
+
+    /**
+     * Decode a record, replacing the last one decoded.
+     *
+     * @param content the message content
+     * @return true if the content is a record with a complete header,
+     *         possibly cut short in its markets
+     */
+    public final boolean decode(byte[] content) {
+        theContent = content;
+        thePosition = MessageStamp.isStamped(content) ? MessageStamp.LENGTH : 0;
+        theEnd = content.length;
+        if (Crc32c.hasTrailer(content, thePosition)) {
+            theEnd -= Crc32c.TRAILER_LENGTH;
+        }
+        theEvent = -1;
+        theMinutes = -1;
+        theMatched = -1;
+        theMarkets = 0;
+        theEntries = 0;
+
+        final boolean result = decodeRecord();
+        theContent = null;
+        return result;
+    }
+
+    /**
+     * @return the event identifier of the last record, or -1 if it was not
+     *         read
+     */
+    public final long getEvent() {
+        return theEvent;
+    }
+
+    /**
+     * @return the minutes played of the last record, or -1 if they were not
+     *         read
+     */
+    public final long getMinutes() {
+        return theMinutes;
+    }
+
+    /**
+     * @return the matched volume of the last record, or -1 if it was not
+     *         read
+     */
+    public final long getMatched() {
+        return theMatched;
+    }
+
+    /**
+     * @return the number of markets in the last record
+     */
+    public final int getMarketCount() {
+        return theMarkets;
+    }
+
+    /**
+     * @return the number of complete entries in the last record
+     */
+    public final int getEntryCount() {
+        return theEntries;
+    }
+
+    /**
+     * @param entry the entry, from 0
+     * @return the price of the entry
+     */
+    public final double getPrice(int entry) {
+        return thePrices[entry];
+    }
+
+    /**
+     * @param entry the entry, from 0
+     * @return the volume of the entry
+     */
+    public final int getVolume(int entry) {
+        return theVolumes[entry];
+    }
+
+    /**
+     * @param entry the entry, from 0
+     * @return the selection identifier of the entry
+     */
+    public final int getSelection(int entry) {
+        return theSelections[entry];
+    }
+
+    /**
+     * @param entry the entry, from 0
+     * @return the market of the entry, from 0
+     */
+    public final int getMarket(int entry) {
+        return theEntryMarkets[entry];
+    }
+
+    /**
+     * Decode from the current position. The header must be complete.
+     * Wherever a field of the markets does not match, the record is valid
+     * only if it has been cut short there.
+     */
+    private boolean decodeRecord() {
+        theEvent = readNumber();
+        if (theEvent < 0 || !skip('|')) {
+            return false;
+        }
+
+        // The minutes are followed by " Mins"
+        theMinutes = readNumber();
+        if (theMinutes < 0) {
+            return false;
+        }
+        while (thePosition < theEnd && theContent[thePosition] != '|') {
+            thePosition++;
+        }
+        if (!skip('|')) {
+            return false;
+        }
+
+        if (readNumber() < 0 || !skip('|') ||
+            readNumber() < 0 || !skip(':')) {
+            return false;
+        }
+        theMatched = readNumber();
+        if (theMatched < 0) {
+            return false;
+        }
+
+        while (skip('|')) {
+            theMarkets++;
+            if (!skipNull()) {
+                if (isAtEnd()) {
+                    return true;
+                }
+                if (theContent[thePosition] != '[' &&
+                    theContent[thePosition] != '|' &&
+                    !readEntry()) {
+                    return isAtEnd();
+                }
+            }
+            while (skip('[')) {
+                if (!readEntry()) {
+                    return isAtEnd();
+                }
+            }
+        }
+        return isAtEnd();
+    }
+
+    private boolean readEntry() {
+        final double price = readDecimal();
+        if (price < 0 || !skip(',')) {
+            return false;
+        }
+        final long volume = readNumber();
+        if (volume < 0 || !skip(',')) {
+            return false;
+        }
+        final long selection = readNumber();
+        if (selection < 0) {
+            return false;
+        }
+
+        if (theEntries == thePrices.length) {
+            final int capacity = theEntries * 2;
+            thePrices = Arrays.copyOf(thePrices, capacity);
+            theVolumes = Arrays.copyOf(theVolumes, capacity);
+            theSelections = Arrays.copyOf(theSelections, capacity);
+            theEntryMarkets = Arrays.copyOf(theEntryMarkets, capacity);
+        }
+        thePrices[theEntries] = price;
+        theVolumes[theEntries] = (int) volume;
+        theSelections[theEntries] = (int) selection;
+        theEntryMarkets[theEntries] = theMarkets - 1;
+        theEntries++;
+        return true;
+    }
+
+    /**
+     * @return true if the position is at the end of the record
+     */
+    private boolean isAtEnd() {
+        return thePosition >= theEnd;
+    }
+
+    /**
+     * Skip a byte if it is next.
+     *
+     * @return true if it was skipped
+     */
+    private boolean skip(char expected) {
+        if (thePosition < theEnd && theContent[thePosition] == expected) {
+            thePosition++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Skip a null market if it is next, or as much of one as there is before
+     * the end.
+     *
+     * @return true if it was skipped
+     */
+    private boolean skipNull() {
+        int i = 0;
+        while (i < NULL_MARKET.length &&
+            thePosition + i < theEnd &&
+            theContent[thePosition + i] == NULL_MARKET[i]) {
+            i++;
+        }
+        if (i == NULL_MARKET.length || (i > 0 && thePosition + i == theEnd)) {
+            thePosition += i;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of digits next, or -1 if there are none
+     */
+    private long readNumber() {
+        long result = 0;
+        final int start = thePosition;
+        while (thePosition < theEnd) {
+            final int digit = theContent[thePosition] - '0';
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+            result = result * 10 + digit;
+            thePosition++;
+        }
+        return thePosition == start ? -1 : result;
+    }
+
+    /**
+     * @return the decimal number next, or -1 if there is none
+     */
+    private double readDecimal() {
+        final long whole = readNumber();
+        if (whole < 0 || !skip('.')) {
+            return whole;
+        }
+        long fraction = 0;
+        long scale = 1;
+        while (thePosition < theEnd) {
+            final int digit = theContent[thePosition] - '0';
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+            fraction = fraction * 10 + digit;
+            scale *= 10;
+            thePosition++;
+        }
+        return whole + fraction / (double) scale;
+    }
+}
@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+package com.pushtechnology.diffusion.demos.publishers.stress;
+
+/**
+ * Writes the CRC32C checksum trailer that the stress publisher can put at
+ * the end of each update, so that stress clients can verify the content.
+ * <P>
+ * The trailer is the marker {@code #} and the CRC32C (Castagnoli) checksum
+ * of the content between the stamp, if any, and the trailer, as 8
+ * hexadecimal digits. The stress client's {@code Crc32c} reads the same
+ * format, so the two must be changed together.
+ *
+ * @author Push Technology Limited
+ */
+final class Crc32c {
+
+    /**
+     * The length of the trailer in bytes.
+     */
+    static final int TRAILER_LENGTH = 9;
+
+    private static final byte TRAILER_MARKER = '#';
+
+    private static final int POLYNOMIAL = 0x82f63b78;
+
+    private static final int[] TABLE = createTable();
+
+    private static final byte[] HEX_BYTES = {
+        '0', '1', '2', '3', '4', '5', '6', '7',
+        '8', '9', 'a', 'b', 'c', 'd', 'e', 'f',
+    };
+
+    private Crc32c() {
+        throw new AssertionError();
+    }
+
+    /**
+     * @param buffer the bytes
+     * @param offset the offset of the first byte
+     * @param length the number of bytes
+     * @return the CRC32C of the bytes
+     */
+    static int compute(byte[] buffer, int offset, int length) {
+        int crc = ~0;
+        for (int i = offset; i < offset + length; i++) {
+            crc = TABLE[(crc ^ buffer[i]) & 0xff] ^ (crc >>> 8);
+        }
+        return ~crc;
+    }
+
+    /**
+     * Write the trailer for some content immediately after it.
+     *
+     * @param buffer the buffer holding the content, with
+     *        {@link #TRAILER_LENGTH} bytes free after it
+     * @param offset the offset of the content
+     * @param length the length of the content
+     */
+    static void writeTrailer(byte[] buffer, int offset, int length) {
+        final int crc = compute(buffer, offset, length);
+        final int trailer = offset + length;
+        buffer[trailer] = TRAILER_MARKER;
+        for (int i = TRAILER_LENGTH - 1, value = crc; i > 0; i--) {
+            buffer[trailer + i] = HEX_BYTES[value & 0xf];
+            value >>>= 4;
+        }
+    }
+
+    private static int[] createTable() {
+        final int[] table = new int[256];
+        for (int i = 0; i < table.length; i++) {
+            int crc = i;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+            }
+            table[i] = crc;
+        }
+        return table;
+    }
+}
@@ -0,0 +1,154 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+package com.pushtechnology.diffusion.demos.publishers.stress;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the stamp that the stress publisher puts at the start of each
+ * update so that stress clients can measure end-to-end latency.
+ * <P>
+ * The stamp is the marker {@code T}, the send time and the topic's sequence
+ * number, each as 16 hexadecimal digits, and a {@code |} field delimiter. The
+ * send time is in nanoseconds since the epoch. Sequence numbers start at 0
+ * and increase by one for each update published to the topic. The stress
+ * client's {@code MessageStamp} reads the same format, so the two must be
+ * changed together.
+ * <P>
+ * Clients send pings stamped with the marker {@code P}, which are echoed
+ * back to the sender only.
+ *
+ * @author Push Technology Limited
+ */
+final class MessageStamp {
+
+    /**
+     * The first character of a stamped message.
+     */
+    static final char MARKER = 'T';
+
+    /**
+     * The first character of a ping from a client.
+     */
+    static final char PING_MARKER = 'P';
+
+    /**
+     * The length of the stamp in characters.
+     */
+    static final int LENGTH = 34;
+
+    private static final int TIMESTAMP_OFFSET = 1;
+
+    private static final int SEQUENCE_OFFSET = 17;
+
+    private static final int HEX_DIGITS = 16;
+
+    private static final char DELIMITER = '|';
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final byte[] HEX_BYTES = {
+        '0', '1', '2', '3', '4', '5', '6', '7',
+        '8', '9', 'a', 'b', 'c', 'd', 'e', 'f',
+    };
+
+    /**
+     * Difference between {@link System#nanoTime()} and the time since the
+     * epoch. Calibrated on a tick of the millisecond clock so that hosts
+     * with synchronised clocks agree to well under a millisecond.
+     */
+    private static final long EPOCH_OFFSET_NANOS = calibrateEpochOffset();
+
+    private MessageStamp() {
+        throw new AssertionError();
+    }
+
+    /**
+     * @return the current time in nanoseconds since the epoch
+     */
+    static long currentTimeNanos() {
+        return System.nanoTime() + EPOCH_OFFSET_NANOS;
+    }
+
+    /**
+     * @param nanoTime a {@link System#nanoTime()}
+     * @return the time in nanoseconds since the epoch
+     */
+    static long toEpochNanos(long nanoTime) {
+        return nanoTime + EPOCH_OFFSET_NANOS;
+    }
+
+    /**
+     * Write a stamp into the start of a buffer.
+     *
+     * @param buffer the buffer, at least {@link #LENGTH} characters long
+     * @param timestamp the send time in nanoseconds since the epoch
+     * @param sequence the topic's sequence number for the update
+     */
+    static void write(char[] buffer, long timestamp, long sequence) {
+        buffer[0] = MARKER;
+        writeHex(buffer, TIMESTAMP_OFFSET, timestamp);
+        writeHex(buffer, SEQUENCE_OFFSET, sequence);
+        buffer[LENGTH - 1] = DELIMITER;
+    }
+
+    /**
+     * Write a stamp into the start of an encoded buffer. The stamp is ASCII,
+     * so it is the same in any ASCII compatible encoding.
+     *
+     * @param buffer the buffer, at least {@link #LENGTH} bytes long
+     * @param timestamp the send time in nanoseconds since the epoch
+     * @param sequence the topic's sequence number for the update
+     */
+    static void write(byte[] buffer, long timestamp, long sequence) {
+        buffer[0] = (byte) MARKER;
+        writeHex(buffer, TIMESTAMP_OFFSET, timestamp);
+        writeHex(buffer, SEQUENCE_OFFSET, sequence);
+        buffer[LENGTH - 1] = (byte) DELIMITER;
+    }
+
+    /**
+     * @param content the content of a message from a client
+     * @return true if the message is a ping to echo to the sender
+     */
+    static boolean isPing(String content) {
+        return content.length() >= LENGTH && content.charAt(0) == PING_MARKER;
+    }
+
+    private static void writeHex(char[] buffer, int offset, long value) {
+        long remaining = value;
+        for (int i = offset + HEX_DIGITS - 1; i >= offset; i--) {
+            buffer[i] = HEX[(int) remaining & 0xf];
+            remaining >>>= 4;
+        }
+    }
+
+    private static void writeHex(byte[] buffer, int offset, long value) {
+        long remaining = value;
+        for (int i = offset + HEX_DIGITS - 1; i >= offset; i--) {
+            buffer[i] = HEX_BYTES[(int) remaining & 0xf];
+            remaining >>>= 4;
+        }
+    }
+
+    private static long calibrateEpochOffset() {
+        final long start = System.currentTimeMillis();
+        long now;
+        do {
+            now = System.currentTimeMillis();
+        } while (now == start);
+        return TimeUnit.MILLISECONDS.toNanos(now) - System.nanoTime();
+    }
+}
@@ -0,0 +1,80 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+package com.pushtechnology.diffusion.demos.publishers.stress;
+
+/**
+ * How the content of an update is framed: with room for a
+ * {@link MessageStamp} before it, and with a {@link Crc32c} checksum trailer
+ * after it.
+ *
+ * @author Push Technology Limited
+ */
+final class PayloadFormat {
+
+    private final boolean isStamping;
+
+    private final boolean isChecksumming;
+
+    /**
+     * Constructor.
+     *
+     * @param stamping true to leave room for a stamp before the content
+     * @param checksumming true to add a checksum trailer after the content
+     */
+    PayloadFormat(boolean stamping, boolean checksumming) {
+        isStamping = stamping;
+        isChecksumming = checksumming;
+    }
+
+    /**
+     * @return true if updates are stamped
+     */
+    boolean isStamping() {
+        return isStamping;
+    }
+
+    /**
+     * @return true if updates have a checksum trailer
+     */
+    boolean isChecksumming() {
+        return isChecksumming;
+    }
+
+    /**
+     * @return the number of bytes added to the content
+     */
+    int getOverhead() {
+        return (isStamping ? MessageStamp.LENGTH : 0) +
+            (isChecksumming ? Crc32c.TRAILER_LENGTH : 0);
+    }
+
+    /**
+     * Frame encoded content.
+     *
+     * @param content the buffer holding the content
+     * @param length the length of the content, from the start of the buffer
+     * @return a new array holding room for the stamp, if stamping, the
+     *         content and the trailer, if checksumming
+     */
+    byte[] frame(byte[] content, int length) {
+        final int offset = isStamping ? MessageStamp.LENGTH : 0;
+        final byte[] result = new byte[getOverhead() + length];
+        System.arraycopy(content, 0, result, offset, length);
+        if (isChecksumming) {
+            Crc32c.writeTrailer(result, offset, length);
+        }
+        return result;
+    }
+}
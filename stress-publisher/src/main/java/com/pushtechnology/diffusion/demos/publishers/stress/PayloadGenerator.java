@@ -0,0 +1,503 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+package com.pushtechnology.diffusion.demos.publishers.stress;
+
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+
+/**
+ * Generates the content of updates in the pipe and bracket record format of
+ * the sample odds data, changing some of the fields of the record for each
+ * update so that successive updates differ as real deltas do.
+ * <P>
+ * A record is a header of an event identifier, the minutes played, the
+ * number of markets and the matched volume, followed by markets separated by
+ * {@code |}. Each market is {@code null} followed by entries of
+ * {@code [price,volume,selection}. For each update every entry changes with
+ * the change fraction: the volume is replaced and the price moves by a tick.
+ * The compressibility is the probability that a new volume is a round
+ * number or repeats the previous entry of the market, rather than random
+ * digits, so higher values give records that compress better.
+ * <P>
+ * The length of each record is drawn from a {@link SizeDistribution}. The
+ * record is cut to that length, so its last entry may be incomplete, as with
+ * the fixed sample data.
+ * <P>
+ * Records are generated and encoded on a thread of their own, ahead of the
+ * publishing thread, and held in a buffer. If the publisher takes records
+ * faster than they are generated, the last record is published again and
+ * counted as a shortfall, so that the publishing rate does not depend on
+ * the generator.
+ *
+ * @author Push Technology Limited
+ */
+final class PayloadGenerator implements PayloadSource {
+
+    /**
+     * How the lengths of records are distributed.
+     */
+    enum SizeDistribution {
+        /**
+         * Every record is the message size.
+         */
+        FIXED,
+
+        /**
+         * Lengths uniformly distributed between the minimum and maximum.
+         */
+        UNIFORM,
+
+        /**
+         * Lengths log-normally distributed with a median of the message size,
+         * spread so that about 95% fall between the minimum and the maximum
+         * and clipped to them.
+         */
+        LOGNORMAL;
+
+        /**
+         * @param name the size distribution name, in any case
+         * @return the size distribution
+         * @throws IllegalArgumentException if the name is not a size
+         *         distribution
+         */
+        static SizeDistribution parse(String name) {
+            for (SizeDistribution distribution : values()) {
+                if (distribution.name().equalsIgnoreCase(name.trim())) {
+                    return distribution;
+                }
+            }
+            throw new IllegalArgumentException(
+                "A valid size distribution was not submitted: " + name);
+        }
+    }
+
+    private static final int EVENT = 1009;
+
+    private static final int SPORT = 102;
+
+    private static final int FIRST_SELECTION = 1069;
+
+    private static final int ENTRIES_PER_MARKET = 5;
+
+    /**
+     * The length of the shortest entry, such as {@code [1.1,1,1069}.
+     */
+    private static final int MINIMUM_ENTRY_LENGTH = 11;
+
+    private static final int MINIMUM_PRICE = 101;
+
+    private static final int MAXIMUM_PRICE = 5000;
+
+    private static final int MAXIMUM_VOLUME = 99999;
+
+    private static final int[] ROUND_VOLUMES = {10, 50, 100, 250, 500, 1000};
+
+    /**
+     * The number of records generated for each minute in the header.
+     */
+    private static final int RECORDS_PER_MINUTE = 1000;
+
+    /**
+     * The number of records compressed to measure compressibility.
+     */
+    private static final int COMPRESSION_SAMPLES = 100;
+
+    private final SizeDistribution theDistribution;
+
+    private final int theSize;
+
+    private final int theMinimumSize;
+
+    private final int theMaximumSize;
+
+    private final double theSigma;
+
+    private final double theChangeFraction;
+
+    private final double theCompressibility;
+
+    private final int theBufferSize;
+
+    private final PayloadFormat theFormat;
+
+    private final Random theRandom = new Random();
+
+    private final BlockingQueue<byte[]> theReady;
+
+    /**
+     * Prices in hundredths, by market and entry.
+     */
+    private final int[][] thePrices;
+
+    private final int[][] theVolumes;
+
+    private final StringBuilder theRecord;
+
+    /**
+     * The encoded record, before it is framed.
+     */
+    private final byte[] theEncoded;
+
+    private final String theInitialContent;
+
+    private final double theCompressionRatio;
+
+    private final AtomicLong theGenerated = new AtomicLong();
+
+    private final AtomicLong theGeneratedBytes = new AtomicLong();
+
+    private final AtomicLong theShortfalls = new AtomicLong();
+
+    private long theMatched;
+
+    private byte[] theLast;
+
+    private Thread theThread;
+
+    /**
+     * Constructor. Fills the buffer, so that publishing can start at once,
+     * and measures how well the records compress.
+     *
+     * @param distribution how the lengths of records are distributed
+     * @param size the length of a {@link SizeDistribution#FIXED} record and
+     *        the median length of a {@link SizeDistribution#LOGNORMAL} one
+     * @param minimumSize the shortest record
+     * @param maximumSize the longest record
+     * @param changeFraction the probability that an entry changes between
+     *        one record and the next
+     * @param compressibility the probability that a new volume repeats a
+     *        common value, from 0 to 1
+     * @param bufferSize the number of records generated ahead
+     * @param format how each record is framed
+     */
+    PayloadGenerator(
+        SizeDistribution distribution,
+        int size,
+        int minimumSize,
+        int maximumSize,
+        double changeFraction,
+        double compressibility,
+        int bufferSize,
+        PayloadFormat format) {
+
+        theDistribution = distribution;
+        theSize = Math.max(size, 1);
+        theMinimumSize = Math.max(Math.min(minimumSize, theSize), 1);
+        theMaximumSize = Math.max(maximumSize, theSize);
+        theSigma = Math.log(theMaximumSize / (double) theSize) / 2;
+        theChangeFraction = changeFraction;
+        theCompressibility = compressibility;
+        theBufferSize = Math.max(bufferSize, 1);
+        theFormat = format;
+        theReady = new ArrayBlockingQueue<byte[]>(theBufferSize);
+
+        final int markets =
+            theMaximumSize / (MINIMUM_ENTRY_LENGTH * ENTRIES_PER_MARKET) + 1;
+        thePrices = new int[markets][ENTRIES_PER_MARKET];
+        theVolumes = new int[markets][ENTRIES_PER_MARKET];
+        for (int market = 0; market < markets; market++) {
+            int price = MINIMUM_PRICE +
+                theRandom.nextInt(MAXIMUM_PRICE - MINIMUM_PRICE);
+            for (int entry = 0; entry < ENTRIES_PER_MARKET; entry++) {
+                thePrices[market][entry] = price;
+                theVolumes[market][entry] = volume(market, entry);
+                price += tick(price);
+            }
+        }
+        theRecord = new StringBuilder(theMaximumSize + MINIMUM_ENTRY_LENGTH);
+        theEncoded = new byte[theMaximumSize];
+
+        render(theSize);
+        theInitialContent = theRecord.toString();
+
+        theLast = generate();
+        theCompressionRatio = fill();
+    }
+
+    /**
+     * @return a new generator with the same settings, for another
+     *         publishing thread
+     */
+    PayloadGenerator copy() {
+        return new PayloadGenerator(
+            theDistribution,
+            theSize,
+            theMinimumSize,
+            theMaximumSize,
+            theChangeFraction,
+            theCompressibility,
+            theBufferSize,
+            theFormat);
+    }
+
+    /**
+     * @return the content of the first record, without a stamp, for the
+     *         initial load of topics
+     */
+    String getInitialContent() {
+        return theInitialContent;
+    }
+
+    /**
+     * @return the ratio of the compressed to the uncompressed length of the
+     *         first records, each compressed on its own
+     */
+    double getCompressionRatio() {
+        return theCompressionRatio;
+    }
+
+    /**
+     * Start generating records on a thread of their own.
+     */
+    synchronized void start() {
+        if (theThread != null) {
+            return;
+        }
+        theThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (!Thread.currentThread().isInterrupted()) {
+                        theReady.put(generate());
+                    }
+                }
+                catch (InterruptedException ex) {
+                    // Stopped
+                }
+            }
+        }, "PayloadGenerator");
+        theThread.setDaemon(true);
+        theThread.start();
+    }
+
+    /**
+     * Stop generating records, waiting for the thread to finish.
+     */
+    synchronized void stop() {
+        if (theThread == null) {
+            return;
+        }
+        theThread.interrupt();
+        try {
+            theThread.join();
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        theThread = null;
+    }
+
+    @Override
+    public int maximumLength() {
+        return theFormat.getOverhead() + theMaximumSize;
+    }
+
+    /**
+     * Take the next record from the buffer and stamp it, if stamping.
+     */
+    @Override
+    public byte[] stamp(long timestamp, long sequence) {
+        final byte[] record = theReady.poll();
+        if (record == null) {
+            theShortfalls.incrementAndGet();
+        }
+        else {
+            theLast = record;
+        }
+        if (theFormat.isStamping()) {
+            MessageStamp.write(theLast, timestamp, sequence);
+        }
+        return theLast;
+    }
+
+    /**
+     * @return a summary of the records generated
+     */
+    String report() {
+        final long generated = theGenerated.get();
+        return String.format(
+            "Payloads generated=%d meanSize=%.0f shortfalls=%d " +
+                "compression=%.0f%%",
+            generated,
+            generated == 0 ? 0 : theGeneratedBytes.get() / (double) generated,
+            theShortfalls.get(),
+            theCompressionRatio * 100);
+    }
+
+    /**
+     * Fill the buffer, compressing the first records as the Deflate
+     * encoding would.
+     *
+     * @return the ratio of the compressed to the uncompressed length
+     */
+    private double fill() {
+        final Deflater deflater = new Deflater();
+        final byte[] output =
+            new byte[(theMaximumSize + theFormat.getOverhead()) * 2];
+        long uncompressed = 0;
+        long compressed = 0;
+        try {
+            for (int i = 0; theReady.remainingCapacity() > 0; i++) {
+                final byte[] record = generate();
+                theReady.add(record);
+                if (i < COMPRESSION_SAMPLES) {
+                    deflater.reset();
+                    deflater.setInput(record);
+                    deflater.finish();
+                    while (!deflater.finished()) {
+                        compressed += deflater.deflate(output);
+                    }
+                    uncompressed += record.length;
+                }
+            }
+        }
+        finally {
+            deflater.end();
+        }
+        return uncompressed == 0 ? 1 : compressed / (double) uncompressed;
+    }
+
+    /**
+     * Change the entries and encode a record of the next length.
+     * <P>
+     * Not thread safe, so only called by the generating thread, or directly
+     * to measure generation when the generator has not been started.
+     *
+     * @return the new record, framed
+     */
+    byte[] generate() {
+        for (int market = 0; market < thePrices.length; market++) {
+            for (int entry = 0; entry < ENTRIES_PER_MARKET; entry++) {
+                if (theRandom.nextDouble() < theChangeFraction) {
+                    change(market, entry);
+                }
+            }
+        }
+
+        render(nextSize());
+
+        // The record is ASCII, so each character is one byte
+        final int length = theRecord.length();
+        for (int i = 0; i < length; i++) {
+            theEncoded[i] = (byte) theRecord.charAt(i);
+        }
+        final byte[] record = theFormat.frame(theEncoded, length);
+
+        theGenerated.incrementAndGet();
+        theGeneratedBytes.addAndGet(record.length);
+        return record;
+    }
+
+    private void change(int market, int entry) {
+        final int volume = volume(market, entry);
+        theMatched += Math.abs(volume - theVolumes[market][entry]);
+        theVolumes[market][entry] = volume;
+
+        final int price = thePrices[market][entry];
+        final int tick = tick(price);
+        thePrices[market][entry] = theRandom.nextBoolean() ?
+            Math.min(price + tick, MAXIMUM_PRICE) :
+            Math.max(price - tick, MINIMUM_PRICE);
+    }
+
+    /**
+     * @return a new volume for an entry
+     */
+    private int volume(int market, int entry) {
+        if (theRandom.nextDouble() >= theCompressibility) {
+            return 1 + theRandom.nextInt(MAXIMUM_VOLUME);
+        }
+        if (entry > 0 && theRandom.nextBoolean()) {
+            return theVolumes[market][entry - 1];
+        }
+        return ROUND_VOLUMES[theRandom.nextInt(ROUND_VOLUMES.length)];
+    }
+
+    /**
+     * @return the price increment at a price, in hundredths
+     */
+    private static int tick(int price) {
+        return Math.max(price / 50, 1);
+    }
+
+    private int nextSize() {
+        switch (theDistribution) {
+        case UNIFORM:
+            return theMinimumSize +
+                theRandom.nextInt(theMaximumSize - theMinimumSize + 1);
+        case LOGNORMAL:
+            final long size = Math.round(
+                theSize * Math.exp(theSigma * theRandom.nextGaussian()));
+            return (int) Math.max(
+                Math.min(size, theMaximumSize),
+                theMinimumSize);
+        default:
+            return theSize;
+        }
+    }
+
+    /**
+     * Render the record to the builder, cut to a length.
+     */
+    private void render(int size) {
+        final StringBuilder record = theRecord;
+        record.setLength(0);
+        record
+            .append(EVENT).append('|')
+            .append(theGenerated.get() / RECORDS_PER_MINUTE).append(" Mins|")
+            .append(thePrices.length).append('|')
+            .append(SPORT).append(':').append(theMatched % 100000);
+
+        for (int market = 0;
+            market < thePrices.length && record.length() < size;
+            market++) {
+            record.append("|null");
+            for (int entry = 0; entry < ENTRIES_PER_MARKET; entry++) {
+                record.append('[');
+                appendPrice(record, thePrices[market][entry]);
+                record
+                    .append(',')
+                    .append(theVolumes[market][entry])
+                    .append(',')
+                    .append(FIRST_SELECTION + market);
+            }
+        }
+        record.setLength(size);
+    }
+
+    /**
+     * Append a price in hundredths as a decimal without trailing zeros.
+     */
+    private static void appendPrice(StringBuilder record, int price) {
+        record.append(price / 100);
+        final int fraction = price % 100;
+        if (fraction == 0) {
+            return;
+        }
+        record.append('.');
+        if (fraction % 10 == 0) {
+            record.append(fraction / 10);
+        }
+        else {
+            if (fraction < 10) {
+                record.append('0');
+            }
+            record.append(fraction);
+        }
+    }
+}
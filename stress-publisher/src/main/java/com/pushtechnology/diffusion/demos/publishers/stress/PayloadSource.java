@@ -0,0 +1,40 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+package com.pushtechnology.diffusion.demos.publishers.stress;
+
+/**
+ * The content of updates, encoded and ready to put into messages.
+ * <P>
+ * Each publishing worker has sources of its own, so implementations are
+ * used by one thread only.
+ *
+ * @author Push Technology Limited
+ */
+interface PayloadSource {
+
+    /**
+     * @return the greatest encoded length of an update, including any stamp
+     */
+    int maximumLength();
+
+    /**
+     * Get the content of the next update, stamped if stamping.
+     *
+     * @param timestamp the send time in nanoseconds since the epoch
+     * @param sequence the topic's sequence number for the update
+     * @return the encoded update, valid until the next call
+     */
+    byte[] stamp(long timestamp, long sequence);
+}
@@ -0,0 +1,77 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+package com.pushtechnology.diffusion.demos.publishers.stress;
+
+import java.nio.charset.Charset;
+
+/**
+ * The content of an update, encoded once and reused for every update.
+ * <P>
+ * When stamping, the encoded content has room for a {@link MessageStamp} at
+ * the start, which is the only part rewritten for each update. Any checksum
+ * trailer covers the content only, so it is written once. Publishing
+ * the bytes avoids creating a string and encoding its characters for every
+ * update. The bytes are only valid until the next call to
+ * {@link #stamp(long, long)}, so a template must be used by one thread at a
+ * time and the bytes copied into the message before it is stamped again.
+ *
+ * @author Push Technology Limited
+ */
+final class PayloadTemplate implements PayloadSource {
+
+    /**
+     * The character set of message content.
+     */
+    static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private final byte[] theBytes;
+
+    private final boolean isStamping;
+
+    /**
+     * Constructor.
+     *
+     * @param content the content of every update
+     * @param format how the content is framed
+     */
+    PayloadTemplate(String content, PayloadFormat format) {
+        final byte[] encoded = content.getBytes(CHARSET);
+        isStamping = format.isStamping();
+        theBytes = format.frame(encoded, encoded.length);
+    }
+
+    /**
+     * @return true if updates are stamped
+     */
+    boolean isStamping() {
+        return isStamping;
+    }
+
+    @Override
+    public int maximumLength() {
+        return theBytes.length;
+    }
+
+    /**
+     * Stamp the template, if stamping.
+     */
+    @Override
+    public byte[] stamp(long timestamp, long sequence) {
+        if (isStamping) {
+            MessageStamp.write(theBytes, timestamp, sequence);
+        }
+        return theBytes;
+    }
+}
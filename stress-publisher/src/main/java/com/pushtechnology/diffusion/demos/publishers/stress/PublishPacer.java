@@ -0,0 +1,233 @@
+/*******************************************************************************
+ * Copyright (C) 2016, 2017 Push Technology Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+* limitations under the License.
+ *******************************************************************************/
+package com.pushtechnology.diffusion.demos.publishers.stress;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paces the publisher to a target rate of updates per second, independent
+ * of the millisecond resolution of the scheduler that runs it.
+ * <P>
+ * The intended time of every update is fixed in advance by the
+ * {@link Arrival} pattern. On each tick of the scheduler the publisher
+ * publishes, as one batch, every update whose intended time has passed, so
+ * rates above one update per tick are reached without sub-millisecond
+ * scheduling. The lag of each update, the time it was published less its
+ * intended time, is recorded so that the publisher falling behind is seen
+ * rather than silently lowering the rate.
+ * <P>
+ * All methods are synchronized, as the rate may be changed by a client
+ * while the publisher is running.
+ *
+ * @author Push Technology Limited
+ */
+final class PublishPacer {
+
+    /**
+     * How updates are spread over time.
+     */
+    enum Arrival {
+        /**
+         * Updates evenly spaced at the target rate.
+         */
+        CONSTANT,
+
+        /**
+         * Updates at exponentially distributed intervals, as independent
+         * arrivals at the target rate.
+         */
+        POISSON,
+
+        /**
+         * Bursts of updates with the same intended time, the bursts evenly
+         * spaced to give the target rate.
+         */
+        BURST;
+
+        /**
+         * @param name the arrival pattern name, in any case
+         * @return the arrival pattern
+         * @throws IllegalArgumentException if the name is not an arrival
+         *         pattern
+         */
+        static Arrival parse(String name) {
+            for (Arrival arrival : values()) {
+                if (arrival.name().equalsIgnoreCase(name.trim())) {
+                    return arrival;
+                }
+            }
+            throw new IllegalArgumentException(
+                "A valid arrival pattern was not submitted: " + name);
+        }
+    }
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * Lag is recorded in buckets of powers of two microseconds.
+     */
+    private static final int LAG_BUCKETS = Long.SIZE;
+
+    private final Arrival theArrival;
+
+    private final int theBurstSize;
+
+    private final Random theRandom = new Random();
+
+    private double theIntervalNanos;
+
+    private long theNextSendTime;
+
+    private long theSend;
+
+    private final long[] theLagCounts = new long[LAG_BUCKETS];
+
+    private long theLagTotal;
+
+    private long theLagMax;
+
+    private long theSends;
+
+    private long theIntervalStart = System.nanoTime();
+
+    /**
+     * Constructor.
+     *
+     * @param updatesPerSecond the target rate, 0 to publish nothing
+     * @param arrival how updates are spread over time
+     * @param burstSize the number of updates in a {@link Arrival#BURST}
+     */
+    PublishPacer(double updatesPerSecond, Arrival arrival, int burstSize) {
+        theArrival = arrival;
+        theBurstSize = Math.max(burstSize, 1);
+        setUpdatesPerSecond(updatesPerSecond);
+    }
+
+    /**
+     * Change the target rate, scheduling from now.
+     *
+     * @param updatesPerSecond the target rate, 0 to publish nothing
+     */
+    synchronized void setUpdatesPerSecond(double updatesPerSecond) {
+        theIntervalNanos = updatesPerSecond > 0 ?
+            NANOS_PER_SECOND / updatesPerSecond : 0;
+        theSend = 0;
+        theNextSendTime = System.nanoTime();
+    }
+
+    /**
+     * @return the target rate, 0 if publishing nothing
+     */
+    synchronized double getUpdatesPerSecond() {
+        return theIntervalNanos > 0 ? NANOS_PER_SECOND / theIntervalNanos : 0;
+    }
+
+    /**
+     * Take the next update due by a time.
+     *
+     * @param now the {@link System#nanoTime()} the batch started
+     * @return the intended {@link System#nanoTime()} of the next update, or
+     *         -1 if no more updates are due by now
+     */
+    synchronized long next(long now) {
+        if (theIntervalNanos == 0 || theNextSendTime > now) {
+            return -1;
+        }
+        final long intended = theNextSendTime;
+        theSend++;
+        theNextSendTime += (long) nextIntervalNanos();
+        return intended;
+    }
+
+    private double nextIntervalNanos() {
+        switch (theArrival) {
+        case POISSON:
+            return -Math.log(1 - theRandom.nextDouble()) * theIntervalNanos;
+        case BURST:
+            return theSend % theBurstSize == 0 ?
+                theIntervalNanos * theBurstSize : 0;
+        default:
+            return theIntervalNanos;
+        }
+    }
+
+    /**
+     * Record the lag of a published update.
+     *
+     * @param lagNanos the time the update was published less its intended
+     *        time
+     */
+    synchronized void recordLag(long lagNanos) {
+        final long micros =
+            Math.max(TimeUnit.NANOSECONDS.toMicros(lagNanos), 0);
+        theLagCounts[LAG_BUCKETS - Long.numberOfLeadingZeros(micros)]++;
+        theLagTotal += micros;
+        theLagMax = Math.max(theLagMax, micros);
+        theSends++;
+    }
+
+    /**
+     * @return the time the current reporting interval started
+     */
+    synchronized long getIntervalStart() {
+        return theIntervalStart;
+    }
+
+    /**
+     * Report the updates and lag since the last report, and start a new
+     * reporting interval.
+     *
+     * @return the report
+     */
+    synchronized String report() {
+        final long now = System.nanoTime();
+        final double seconds = (now - theIntervalStart) / NANOS_PER_SECOND;
+        final String report = String.format(
+            "Published %d updates, %.1f/s of %.1f/s target, lag ms " +
+                "mean %.3f p50 %.3f p99 %.3f max %.3f",
+            theSends,
+            seconds > 0 ? theSends / seconds : 0,
+            getUpdatesPerSecond(),
+            theSends > 0 ? theLagTotal / 1000.0 / theSends : 0,
+            lagPercentile(50) / 1000.0,
+            lagPercentile(99) / 1000.0,
+            theLagMax / 1000.0);
+
+        Arrays.fill(theLagCounts, 0);
+        theLagTotal = 0;
+        theLagMax = 0;
+        theSends = 0;
+        theIntervalStart = now;
+        return report;
+    }
+
+    /**
+     * @return the upper bound in microseconds of the bucket holding the
+     *         percentile
+     */
+    private long lagPercentile(double percentile) {
+        final long target = (long) Math.ceil(theSends * percentile / 100);
+        long count = 0;
+        for (int i = 0; i < LAG_BUCKETS; i++) {
+            count += theLagCounts[i];
+            if (count >= target && count > 0) {
+                return Math.min(i == 0 ? 0 : (1L << i) - 1, theLagMax);
+            }
+        }
+        return theLagMax;
+    }
+}
@@ -16,6 +16,7 @@ package com.pushtechnology.diffusion.demos.publishers.stress;
 
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,10 +35,13 @@ import com.pushtechnology.diffusion.api.topic.Topic;
 /**
  * Send some real world data and send it frequently. This publisher is to be
  * used with stress-client
+ * <P>
+ * The topics are partitioned between publishing workers, each scheduled on
+ * the background thread pool, so that publishing can be spread over cores.
  *
  * @author Push Technology Limited
  */
-public final class StressPublisher extends Publisher implements RunnableTask {
+public final class StressPublisher extends Publisher {
 
     private static final Logger LOG =
         LoggerFactory.getLogger(StressPublisher.class);
@@ -54,21 +58,135 @@ public final class StressPublisher extends Publisher implements RunnableTask {
 
     private Topic theTopic;
 
-    private ScheduledFuture<?> theFuture = null;
-
     private static final String DELAY_PROPERTY = "frequency";
 
     private static final String ENCODING_PROPERTY = "encoding-mode";
 
     private static final String MESSAGE_SIZE = "message-size";
 
+    private static final String STAMP_PROPERTY = "stamp-messages";
+
+    private static final String CHECKSUM_PROPERTY = "checksum-messages";
+
+    private static final String TOPIC_COUNT_PROPERTY = "topic-count";
+
+    private static final String RATE_PROPERTY = "rate";
+
+    private static final String ARRIVAL_PROPERTY = "arrival";
+
+    private static final String BURST_SIZE_PROPERTY = "burst-size";
+
+    private static final String WORKERS_PROPERTY = "workers";
+
+    private static final String GENERATE_PROPERTY = "generate-payloads";
+
+    private static final String SIZE_DISTRIBUTION_PROPERTY =
+        "size-distribution";
+
+    private static final String MINIMUM_SIZE_PROPERTY = "message-size-min";
+
+    private static final String MAXIMUM_SIZE_PROPERTY = "message-size-max";
+
+    private static final String CHANGE_FRACTION_PROPERTY = "change-fraction";
+
+    private static final String COMPRESSIBILITY_PROPERTY = "compressibility";
+
+    private static final String PAYLOAD_BUFFER_PROPERTY = "payload-buffer";
+
+    /**
+     * The interval in milliseconds between the ticks that publish each
+     * batch of paced updates.
+     */
+    private static final int PACING_TICK = 1;
+
+    /**
+     * The interval between the reports each worker logs.
+     */
+    private static final long REPORT_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private static final String TOPIC_RATE_EXPONENT_PROPERTY =
+        "topic-rate-exponent";
+
+    /**
+     * The start of a message from a client asking for the frequency of
+     * updates to change. It is followed by the interval in milliseconds,
+     * which may be fractional when updates are paced, or
+     * {@link #DEFAULT_FREQUENCY} to restore the configured frequency.
+     */
+    private static final String RATE_CONTROL_PREFIX = "R|";
+
+    /**
+     * The start of a message from a client asking for the size of the
+     * message to change. It is followed by the size in bytes, or
+     * {@link #DEFAULT_FREQUENCY} to restore the configured message. The size
+     * of generated payloads cannot be changed.
+     */
+    private static final String SIZE_CONTROL_PREFIX = "S|";
+
+    private static final String DEFAULT_FREQUENCY = "default";
+
     private byte theMessageEncoding = Encoding.NONE.byteValue();
 
     private int theFrequency = 1000;
 
-    private String theMessage;
+    private int theConfiguredFrequency;
+
+    private volatile String theMessage;
+
+    /**
+     * The message before any change of size requested by a client.
+     */
+    private String theConfiguredMessage;
+
+    /**
+     * The capacity of every update. It only grows, so that it is never
+     * smaller than the payload of an update that read it.
+     */
+    private volatile int theMaximumMessageSize = 0;
+
+    /**
+     * The capacity of an update beyond the length of its payload.
+     */
+    private int theMessageOverhead;
+
+    /**
+     * How the content of every update is framed.
+     */
+    private PayloadFormat theFormat;
+
+    /**
+     * Generates the content of updates for the first worker, and is copied
+     * for the others, or null to publish the message for every update.
+     */
+    private PayloadGenerator theGenerator;
+
+    /**
+     * The encoding of every update, parsed once.
+     */
+    private Encoding theEncoding;
 
-    private int theMaximumMessageSize = 0;
+    /**
+     * The Stress topic followed by the topics of the tree below it, by rank.
+     */
+    private Topic[] theTopics;
+
+    /**
+     * The number of publishing intervals between updates of each topic.
+     */
+    private int[] thePeriods;
+
+    private PublishWorker[] theWorkers = new PublishWorker[0];
+
+    /**
+     * The target updates per second of each topic updated every round,
+     * applied in every worker, or 0 to publish one round every frequency
+     * milliseconds.
+     */
+    private double theConfiguredRate;
+
+    private PublishPacer.Arrival theArrival = PublishPacer.Arrival.CONSTANT;
+
+    private int theBurstSize = 1;
 
     @Override
     protected void initialLoad() throws APIException {
@@ -88,27 +206,13 @@ public final class StressPublisher extends Publisher implements RunnableTask {
         catch (APIException ignore) {
             LOG.info("Invalid frequency using {}", theFrequency);
         }
+        theConfiguredFrequency = theFrequency;
+
+        configurePacing();
 
-        int messageSize = 0;
         // Message size
         try {
-            messageSize = getIntegerProperty(MESSAGE_SIZE);
-            if (messageSize == 0) {
-                theMessage = DEFAULT_SAMPLE_DATA;
-            }
-            else {
-                if (messageSize < DEFAULT_SAMPLE_DATA.length()) {
-                    theMessage = DEFAULT_SAMPLE_DATA.substring(0, messageSize);
-                }
-                else {
-                    String tmpMessage = DEFAULT_SAMPLE_DATA;
-                    while (tmpMessage.length() <= messageSize) {
-                        // Add another message block
-                        tmpMessage += DEFAULT_SAMPLE_DATA;
-                    }
-                    theMessage = tmpMessage.substring(0, messageSize);
-                }
-            }
+            theMessage = sampleMessage(getIntegerProperty(MESSAGE_SIZE));
         }
         catch (APIException ignore) {
             LOG.info(
@@ -116,49 +220,513 @@ public final class StressPublisher extends Publisher implements RunnableTask {
                 DEFAULT_SAMPLE_DATA.length());
             theMessage = DEFAULT_SAMPLE_DATA;
         }
+        theConfiguredMessage = theMessage;
+
+        // Stamp updates with their send time and sequence number
+        boolean stamping = true;
+        try {
+            stamping = getIntegerProperty(STAMP_PROPERTY) != 0;
+        }
+        catch (APIException ignore) {
+            LOG.info("Invalid stamp-messages, stamping updates");
+        }
+
+        // End updates with a checksum of their content
+        boolean checksumming = false;
+        try {
+            checksumming = getIntegerProperty(CHECKSUM_PROPERTY) != 0;
+        }
+        catch (APIException ignore) {
+            LOG.info("Invalid checksum-messages, not adding checksums");
+        }
+        theFormat = new PayloadFormat(stamping, checksumming);
+
+        theGenerator = createGenerator();
+        final PayloadSource payloads;
+        if (theGenerator == null) {
+            payloads = new PayloadTemplate(theMessage, theFormat);
+        }
+        else {
+            payloads = theGenerator;
+            theMessage = theGenerator.getInitialContent();
+        }
+        theEncoding = Encoding.parse(theMessageEncoding);
 
         theTopic = getTopic(TOPIC);
         if (theTopic == null) {
             theTopic = addTopic(TOPIC);
         }
 
+        final String[] topicNames = addTopicTree();
+
         // Set up the topic loader
-        addTopicLoader(new StressTopicLoader(), TOPIC);
+        addTopicLoader(new StressTopicLoader(), topicNames);
 
         // The 100 bytes extra is for encrypted buffers
-        theMaximumMessageSize = theMessage.length() + TOPIC.length() + 100;
+        theMessageOverhead = topicNames[topicNames.length - 1].length() + 100;
+        theMaximumMessageSize = payloads.maximumLength() + theMessageOverhead;
 
         LOG.info("Using message size {}", theMaximumMessageSize);
+
+        theWorkers = createWorkers();
+    }
+
+    /**
+     * Add the topics of the tree, Stress/0 to Stress/n-1, where topic-count
+     * is n. The topic of rank r is updated every (r + 1) ^
+     * topic-rate-exponent publishing intervals, rounded, so with a positive
+     * exponent the update rate falls away along the tree.
+     *
+     * @return the names of the Stress topic and the topics of the tree, in
+     *         the order of {@link #theTopics}
+     * @throws APIException if unable to add a topic
+     */
+    private String[] addTopicTree() throws APIException {
+        int count = 0;
+        try {
+            count = getIntegerProperty(TOPIC_COUNT_PROPERTY);
+        }
+        catch (APIException ignore) {
+            LOG.info("Invalid topic-count, using the Stress topic only");
+        }
+
+        double exponent = 0;
+        try {
+            exponent = getDoubleProperty(TOPIC_RATE_EXPONENT_PROPERTY);
+        }
+        catch (APIException ignore) {
+            LOG.info("Invalid topic-rate-exponent, using 0");
+        }
+
+        final String[] names = new String[count + 1];
+        names[0] = TOPIC;
+        theTopics = new Topic[count + 1];
+        theTopics[0] = theTopic;
+        thePeriods = new int[count + 1];
+        thePeriods[0] = 1;
+        for (int rank = 0; rank < count; rank++) {
+            final String name = Integer.toString(rank);
+            Topic topic = getTopic(TOPIC + '/' + name);
+            if (topic == null) {
+                topic = addTopic(name, theTopic);
+            }
+            theTopics[rank + 1] = topic;
+            thePeriods[rank + 1] =
+                (int) Math.max(Math.round(Math.pow(rank + 1, exponent)), 1);
+            names[rank + 1] = TOPIC + '/' + name;
+        }
+
+        if (count > 0) {
+            LOG.info(
+                "Added {} topics below {}, rate exponent {}",
+                count,
+                TOPIC,
+                exponent);
+        }
+        return names;
+    }
+
+    /**
+     * @return a generator of payloads with the message size as their
+     *         typical length, or null if generate-payloads is not set
+     */
+    private PayloadGenerator createGenerator() {
+        boolean generating = false;
+        try {
+            generating = getIntegerProperty(GENERATE_PROPERTY) != 0;
+        }
+        catch (APIException ignore) {
+            LOG.info("Invalid generate-payloads, publishing fixed data");
+        }
+        if (!generating) {
+            return null;
+        }
+
+        final int size = theMessage.length();
+
+        PayloadGenerator.SizeDistribution distribution =
+            PayloadGenerator.SizeDistribution.FIXED;
+        try {
+            final String name = getProperty(SIZE_DISTRIBUTION_PROPERTY);
+            if (name != null) {
+                distribution = PayloadGenerator.SizeDistribution.parse(name);
+            }
+        }
+        catch (APIException ignore) {
+            LOG.info("Invalid size-distribution, using {}", distribution);
+        }
+        catch (IllegalArgumentException ex) {
+            LOG.info("{}, using {}", ex.getMessage(), distribution);
+        }
+
+        int minimumSize = size / 2;
+        try {
+            minimumSize = getIntegerProperty(MINIMUM_SIZE_PROPERTY);
+        }
+        catch (APIException ignore) {
+            LOG.info("Invalid message-size-min, using {}", minimumSize);
+        }
+
+        int maximumSize = size * 2;
+        try {
+            maximumSize = getIntegerProperty(MAXIMUM_SIZE_PROPERTY);
+        }
+        catch (APIException ignore) {
+            LOG.info("Invalid message-size-max, using {}", maximumSize);
+        }
+
+        double changeFraction = 0.2;
+        try {
+            changeFraction = getDoubleProperty(CHANGE_FRACTION_PROPERTY);
+        }
+        catch (APIException ignore) {
+            LOG.info("Invalid change-fraction, using {}", changeFraction);
+        }
+
+        double compressibility = 0.5;
+        try {
+            compressibility = getDoubleProperty(COMPRESSIBILITY_PROPERTY);
+        }
+        catch (APIException ignore) {
+            LOG.info("Invalid compressibility, using {}", compressibility);
+        }
+
+        int bufferSize = 1024;
+        try {
+            bufferSize = getIntegerProperty(PAYLOAD_BUFFER_PROPERTY);
+        }
+        catch (APIException ignore) {
+            LOG.info("Invalid payload-buffer, using {}", bufferSize);
+        }
+
+        final PayloadGenerator generator =
+            new PayloadGenerator(
+                distribution,
+                size,
+                minimumSize,
+                maximumSize,
+                changeFraction,
+                compressibility,
+                bufferSize,
+                theFormat);
+        LOG.info(
+            "Generating {} payloads of {} to {} bytes, compressing to {}%",
+            distribution,
+            minimumSize,
+            maximumSize,
+            Math.round(generator.getCompressionRatio() * 100));
+        return generator;
+    }
+
+    /**
+     * Read the rate property and, if it is set, how paced updates arrive.
+     */
+    private void configurePacing() {
+        try {
+            theConfiguredRate = getDoubleProperty(RATE_PROPERTY);
+        }
+        catch (APIException ignore) {
+            theConfiguredRate = 0;
+        }
+        if (!isPacing()) {
+            return;
+        }
+
+        try {
+            final String name = getProperty(ARRIVAL_PROPERTY);
+            if (name != null) {
+                theArrival = PublishPacer.Arrival.parse(name);
+            }
+        }
+        catch (APIException ignore) {
+            LOG.info("Invalid arrival, using {}", theArrival);
+        }
+        catch (IllegalArgumentException ex) {
+            LOG.info("{}, using {}", ex.getMessage(), theArrival);
+        }
+
+        try {
+            theBurstSize = getIntegerProperty(BURST_SIZE_PROPERTY);
+        }
+        catch (APIException ignore) {
+            LOG.info("Invalid burst-size, using {}", theBurstSize);
+        }
+    }
+
+    /**
+     * @return true if updates are paced to the rate property rather than
+     *         published every frequency milliseconds
+     */
+    private boolean isPacing() {
+        return theConfiguredRate > 0;
+    }
+
+    /**
+     * Create the publishing workers. The topic at index i of
+     * {@link #theTopics} is published by worker i modulo the number of
+     * workers, so the Stress topic and the most popular topics of the tree
+     * are spread over the workers. Each paced worker publishes its rounds at
+     * the full rate, as each worker publishes every frequency milliseconds,
+     * so adding workers does not lower the rate of any topic.
+     *
+     * @return the workers, no more than the number of topics
+     */
+    private PublishWorker[] createWorkers() {
+        int count = 1;
+        try {
+            count = getIntegerProperty(WORKERS_PROPERTY);
+        }
+        catch (APIException ignore) {
+            LOG.info("Invalid workers, using {}", count);
+        }
+        if (count > theTopics.length) {
+            LOG.info(
+                "Using {} workers, one for each topic, rather than {}",
+                theTopics.length,
+                count);
+        }
+        count = Math.max(Math.min(count, theTopics.length), 1);
+
+        final PublishWorker[] workers = new PublishWorker[count];
+        for (int i = 0; i < count; i++) {
+            final int size = (theTopics.length - i + count - 1) / count;
+            final Topic[] topics = new Topic[size];
+            final int[] periods = new int[size];
+            for (int j = 0; j < size; j++) {
+                topics[j] = theTopics[i + j * count];
+                periods[j] = thePeriods[i + j * count];
+            }
+
+            final PayloadGenerator generator;
+            if (theGenerator == null) {
+                generator = null;
+            }
+            else {
+                generator = i == 0 ? theGenerator : theGenerator.copy();
+            }
+
+            final PublishPacer pacer;
+            if (isPacing()) {
+                pacer = new PublishPacer(
+                    theConfiguredRate,
+                    theArrival,
+                    theBurstSize);
+            }
+            else {
+                pacer = null;
+            }
+
+            workers[i] =
+                new PublishWorker(i, topics, periods, generator, pacer);
+        }
+        return workers;
     }
 
     @Override
     protected void publisherStarted() throws APIException {
-        LOG.info("Stress Test started.  Message Size {} bytes every {} ms",
-            theMessage.length(), theFrequency);
-
-        if (theFrequency != 0) {
-            theFuture =
-                ThreadService.schedule(
-                    this,
-                    theFrequency,
-                    theFrequency,
-                    TimeUnit.MILLISECONDS,
-                    true);
+        for (PublishWorker worker : theWorkers) {
+            worker.start();
+        }
+        if (isPacing()) {
+            LOG.info(
+                "Stress Test started.  Message Size {} bytes at {} " +
+                    "updates/s of each topic, in each of {} workers",
+                theMessage.length(),
+                theConfiguredRate,
+                theWorkers.length);
+            schedule(PACING_TICK);
+        }
+        else {
+            LOG.info(
+                "Stress Test started.  Message Size {} bytes every {} ms " +
+                    "on {} workers",
+                theMessage.length(),
+                theFrequency,
+                theWorkers.length);
+            schedule(theFrequency);
         }
     }
 
     @Override
-    protected void publisherStopped() {
-        if (theFuture != null) {
-            theFuture.cancel(false);
+    protected synchronized void publisherStopped() {
+        for (PublishWorker worker : theWorkers) {
+            worker.stop();
+            LOG.info(worker.report());
         }
     }
 
+    /**
+     * Publish updates at a new frequency, replacing any earlier schedule.
+     *
+     * @param frequency the interval between updates in milliseconds, 0 to
+     *        stop publishing
+     * @throws APIException if unable to schedule
+     */
+    private synchronized void schedule(int frequency) throws APIException {
+        theFrequency = frequency;
+        for (PublishWorker worker : theWorkers) {
+            worker.schedule(frequency);
+        }
+    }
+
+    private void changeFrequency(String value) throws APIException {
+        if (isPacing()) {
+            changeRate(value);
+            return;
+        }
+
+        final int frequency;
+        if (DEFAULT_FREQUENCY.equals(value)) {
+            frequency = theConfiguredFrequency;
+        }
+        else {
+            final double interval = parseInterval(value);
+            if (interval < 0) {
+                return;
+            }
+            // Scheduled intervals are whole milliseconds
+            frequency =
+                interval == 0 ? 0 : (int) Math.max(Math.round(interval), 1);
+        }
+        LOG.info("Publishing every {} ms", frequency);
+        schedule(frequency);
+    }
+
+    /**
+     * Change the rate of paced updates to one every interval requested by a
+     * client, for every worker.
+     */
+    private void changeRate(String value) {
+        final double rate;
+        if (DEFAULT_FREQUENCY.equals(value)) {
+            rate = theConfiguredRate;
+        }
+        else {
+            final double interval = parseInterval(value);
+            if (interval < 0) {
+                return;
+            }
+            rate = interval == 0 ? 0 : TimeUnit.SECONDS.toMillis(1) / interval;
+        }
+        LOG.info("Publishing {} updates/s", rate);
+        for (PublishWorker worker : theWorkers) {
+            worker.setUpdatesPerSecond(rate);
+        }
+    }
+
+    /**
+     * @return the interval in milliseconds requested by a client, or -1 if
+     *         it is not valid
+     */
+    private static double parseInterval(String value) {
+        final double interval;
+        try {
+            interval = Double.parseDouble(value);
+        }
+        catch (NumberFormatException ex) {
+            LOG.warn("Invalid frequency requested by client: {}", value);
+            return -1;
+        }
+        if (interval < 0 || Double.isNaN(interval) ||
+            Double.isInfinite(interval)) {
+            LOG.warn("Invalid frequency requested by client: {}", value);
+            return -1;
+        }
+        return interval;
+    }
+
+    /**
+     * Publish the sample data at a size requested by a client.
+     */
+    private synchronized void changeSize(String value) {
+        if (theGenerator != null) {
+            LOG.warn(
+                "Unable to change the size of generated payloads to {}",
+                value);
+            return;
+        }
+
+        final String message;
+        if (DEFAULT_FREQUENCY.equals(value)) {
+            message = theConfiguredMessage;
+        }
+        else {
+            final int size;
+            try {
+                size = Integer.parseInt(value);
+            }
+            catch (NumberFormatException ex) {
+                LOG.warn("Invalid message size requested by client: {}", value);
+                return;
+            }
+            if (size < 0) {
+                LOG.warn("Invalid message size requested by client: {}", value);
+                return;
+            }
+            message = sampleMessage(size);
+        }
+
+        final PayloadTemplate[] templates =
+            new PayloadTemplate[theWorkers.length];
+        for (int i = 0; i < templates.length; i++) {
+            templates[i] = new PayloadTemplate(message, theFormat);
+        }
+        // Grow the capacity before any worker can publish a larger payload
+        theMaximumMessageSize = Math.max(
+            theMaximumMessageSize,
+            templates[0].maximumLength() + theMessageOverhead);
+        for (int i = 0; i < templates.length; i++) {
+            theWorkers[i].setPayloads(templates[i]);
+        }
+        theMessage = message;
+        LOG.info("Publishing messages of {} bytes", message.length());
+    }
+
+    /**
+     * @param size the size in bytes, 0 for the sample data as it is
+     * @return the sample data, repeated or cut short to the size
+     */
+    private static String sampleMessage(int size) {
+        if (size == 0) {
+            return DEFAULT_SAMPLE_DATA;
+        }
+        if (size < DEFAULT_SAMPLE_DATA.length()) {
+            return DEFAULT_SAMPLE_DATA.substring(0, size);
+        }
+        final StringBuilder message = new StringBuilder(DEFAULT_SAMPLE_DATA);
+        while (message.length() <= size) {
+            // Add another message block
+            message.append(DEFAULT_SAMPLE_DATA);
+        }
+        return message.substring(0, size);
+    }
+
     @Override
     protected void messageFromClient(TopicMessage message, Client client) {
-        // Broadcast the message to all clients, except the client that sent
-        // the message
         try {
+            final String content = message.asString();
+            if (MessageStamp.isPing(content)) {
+                // Echo pings to the client that sent them only, so it can
+                // measure the round trip
+                final TopicMessage echo =
+                    theTopic.createDeltaMessage(theMaximumMessageSize);
+                echo.put(content);
+                client.send(echo);
+                return;
+            }
+            if (content.startsWith(RATE_CONTROL_PREFIX)) {
+                changeFrequency(
+                    content.substring(RATE_CONTROL_PREFIX.length()).trim());
+                return;
+            }
+            if (content.startsWith(SIZE_CONTROL_PREFIX)) {
+                changeSize(
+                    content.substring(SIZE_CONTROL_PREFIX.length()).trim());
+                return;
+            }
+
+            // Broadcast the message to all clients, except the client that
+            // sent the message
             publishExclusiveMessage(message, client);
         }
         catch (APIException ex) {
@@ -167,37 +735,247 @@ public final class StressPublisher extends Publisher implements RunnableTask {
     }
 
     @Override
-    public void run() {
-        try {
-            // If some one is out there..
-            if (theTopic.hasSubscribers()) {
-                // Generate a new message every time, this simulates deltas
-                final TopicMessage message =
-                    theTopic.createLoadMessage(theMaximumMessageSize);
-                message.put(theMessage);
-                message.setEncoding(Encoding.parse(theMessageEncoding));
-                publishMessage(message);
+    protected boolean isStoppable() {
+        return true;
+    }
+
+    /**
+     * Publishes updates to a partition of the topics on a schedule of its
+     * own.
+     * <P>
+     * Rounds are run one at a time, holding the round lock, so the first run
+     * of a new schedule waits for a round of the old one still running.
+     * Otherwise the two would race on the sequence numbers and the payload
+     * buffer, and clients would see duplicate or reordered updates whenever
+     * the frequency changes.
+     */
+    private final class PublishWorker implements RunnableTask {
+
+        /**
+         * Held while publishing, guarding the sequences and the tick. Apart
+         * from the lock of the worker, which guards the schedule, so that
+         * rescheduling does not wait for a round.
+         */
+        private final Object theRoundLock = new Object();
+
+        private final int theIndex;
+
+        private final Topic[] thePartition;
+
+        /**
+         * The number of publishing intervals between updates of each topic
+         * of the partition.
+         */
+        private final int[] thePartitionPeriods;
+
+        /**
+         * The sequence number of the next update to each topic of the
+         * partition.
+         */
+        private final long[] theSequences;
+
+        /**
+         * The source of every payload, replaced when a client changes the
+         * message size.
+         */
+        private volatile PayloadSource thePayloads;
+
+        /**
+         * Generates the payloads, or null to publish the message for every
+         * update.
+         */
+        private final PayloadGenerator thePayloadGenerator;
+
+        /**
+         * Paces the rounds of updates to the rate, or null to publish every
+         * frequency milliseconds.
+         */
+        private final PublishPacer thePacer;
+
+        private final AtomicLong theMessages = new AtomicLong();
+
+        private volatile long theReportStart = System.nanoTime();
+
+        private ScheduledFuture<?> theFuture = null;
+
+        /**
+         * The number of publishing intervals so far.
+         */
+        private long theTick = 0;
+
+        PublishWorker(
+            int index,
+            Topic[] partition,
+            int[] periods,
+            PayloadGenerator generator,
+            PublishPacer pacer) {
+
+            theIndex = index;
+            thePartition = partition;
+            thePartitionPeriods = periods;
+            theSequences = new long[partition.length];
+            thePayloadGenerator = generator;
+            if (generator == null) {
+                thePayloads = new PayloadTemplate(theMessage, theFormat);
             }
+            else {
+                thePayloads = generator;
+            }
+            thePacer = pacer;
         }
-        catch (APIException ex) {
-            LOG.error("Run failure", ex);
+
+        void start() {
+            if (thePayloadGenerator != null) {
+                thePayloadGenerator.start();
+            }
+        }
+
+        void stop() {
+            cancel();
+            if (thePayloadGenerator != null) {
+                thePayloadGenerator.stop();
+            }
+        }
+
+        /**
+         * Run at a new interval, replacing any earlier schedule.
+         *
+         * @param interval the interval in milliseconds, 0 to stop
+         * @throws APIException if unable to schedule
+         */
+        synchronized void schedule(int interval) throws APIException {
+            cancel();
+            if (interval != 0) {
+                theFuture =
+                    ThreadService.schedule(
+                        this,
+                        interval,
+                        interval,
+                        TimeUnit.MILLISECONDS,
+                        true);
+            }
+        }
+
+        synchronized void cancel() {
+            if (theFuture != null) {
+                theFuture.cancel(false);
+                theFuture = null;
+            }
+        }
+
+        void setPayloads(PayloadSource payloads) {
+            thePayloads = payloads;
+        }
+
+        void setUpdatesPerSecond(double updatesPerSecond) {
+            thePacer.setUpdatesPerSecond(updatesPerSecond);
+        }
+
+        @Override
+        public void run() {
             try {
-                theFuture.cancel(true);
-                stopPublisher();
+                final long now;
+                synchronized (theRoundLock) {
+                    now = System.nanoTime();
+                    if (thePacer == null) {
+                        publishRound(MessageStamp.currentTimeNanos());
+                    }
+                    else {
+                        // Publish every update due by the start of the tick,
+                        // stamped with its intended time so that clients see
+                        // any lag
+                        long intended = thePacer.next(now);
+                        while (intended >= 0) {
+                            publishRound(MessageStamp.toEpochNanos(intended));
+                            thePacer.recordLag(System.nanoTime() - intended);
+                            intended = thePacer.next(now);
+                        }
+                    }
+                }
+
+                if (now - theReportStart >= REPORT_NANOS) {
+                    LOG.info(report());
+                }
             }
-            catch (APIException ignore) {
-                LOG.error("Unable to stop");
+            catch (APIException ex) {
+                LOG.error("Run failure", ex);
+                try {
+                    cancel();
+                    stopPublisher();
+                }
+                catch (APIException ignore) {
+                    LOG.error("Unable to stop");
+                }
             }
         }
-    }
 
-    @Override
-    protected boolean isStoppable() {
-        return true;
+        /**
+         * Publish an update to each topic of the partition that is due an
+         * update this round, if it has subscribers.
+         *
+         * @param timestamp the time to stamp the updates with, in
+         *        nanoseconds since the epoch
+         * @throws APIException if unable to publish
+         */
+        private void publishRound(long timestamp) throws APIException {
+            for (int i = 0; i < thePartition.length; i++) {
+                final Topic topic = thePartition[i];
+                // If some one is out there..
+                if (theTick % thePartitionPeriods[i] == 0 &&
+                    topic.hasSubscribers()) {
+                    publish(topic, theSequences[i]++, timestamp);
+                }
+            }
+            theTick++;
+        }
+
+        private void publish(Topic topic, long sequence, long timestamp)
+            throws APIException {
+            // Generate a new message every time, this simulates deltas. The
+            // content is copied from the payloads, encoded ahead of time.
+            // The payloads are read first, so the capacity read after them
+            // is large enough
+            final PayloadSource payloads = thePayloads;
+            final TopicMessage message =
+                topic.createLoadMessage(theMaximumMessageSize);
+            message.put(payloads.stamp(timestamp, sequence));
+            message.setEncoding(theEncoding);
+            publishMessage(message);
+            theMessages.incrementAndGet();
+        }
+
+        /**
+         * Report the messages published since the last report, and start a
+         * new reporting interval.
+         *
+         * @return the report
+         */
+        String report() {
+            final long now = System.nanoTime();
+            final double seconds =
+                (now - theReportStart) / (double) TimeUnit.SECONDS.toNanos(1);
+            final long messages = theMessages.getAndSet(0);
+            theReportStart = now;
+
+            final StringBuilder report = new StringBuilder(String.format(
+                "Worker %d: %d topics, published %d messages, %.1f/s",
+                theIndex,
+                thePartition.length,
+                messages,
+                seconds > 0 ? messages / seconds : 0));
+            if (thePacer != null) {
+                report.append(". ").append(thePacer.report());
+            }
+            if (thePayloadGenerator != null) {
+                report.append(". ").append(thePayloadGenerator.report());
+            }
+            return report.toString();
+        }
     }
 
     /**
-     * Have a cached topic loader as the message doesn't change.
+     * Have a cached topic loader, loading topics with the message or the
+     * first generated payload.
      */
     private class StressTopicLoader extends CachedTopicLoader {
 